@@ -20,6 +20,8 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -30,18 +32,41 @@ import java.util.concurrent.ExecutionException;
  * load on the LBS system (and loads of network traffic) if you will be retrieving the same tiles over and over again.
  * The cache is stored in the heap, so you may wish to set the VM '-Xmx700m' parameter (700m is an example; 700 megs of
  * RAM).
+ *
+ * Optionally, the cache can have two tiers: a heap cache bounded by the size of the tiles in bytes, in front of a
+ * {@link TileDiskStore} with encoded tiles. Tiles which are not in the heap cache are loaded from the disk store
+ * first, and only fetched with the tile loader if they are not on disk either. As the disk store survives a restart,
+ * this avoids fetching all tiles again after a restart.
  */
 public final class CachedTileMap<T> extends TileMap<T> {
 
     // Default maximum number of cache elements.
     private static final int CACHE_MAX_ELEMENTS_DEFAULT = 2500;
+
+    // Default maximum size of cache elements, in bytes.
+    private static final long CACHE_MAX_BYTES_DEFAULT = 64L * 1024L * 1024L;
+
+    private static final CacheStats EMPTY_STATS = new CacheStats(0, 0, 0, 0, 0, 0);
     private static final int CACHE_BUFFER_COLUMNS = 2;
     private static final int CACHE_BUFFER_ROWS = 2;
 
+    // Number of slots in the front cache for tiles requested by tile id.
+    private static final int FRONT_CACHE_SIZE = 256;
+
     // Local tile cache.
     @Nonnull
     private final LoadingCache<TileKey, T> mapTiles;
 
+    // Small front cache for tiles requested by tile id, which avoids creating a tile key for frequently used tiles.
+    // It only holds tiles which are also in the tile cache: tiles removed from the tile cache are removed from it too,
+    // so it does not keep tiles alive beyond the maximum size or weight of the tile cache.
+    @Nonnull
+    private final TileIdCache<T> frontTiles = new TileIdCache<>(FRONT_CACHE_SIZE);
+
+    // Disk tier of the tile cache, or null if the cache is heap-only.
+    @Nullable
+    private final TileDiskStore diskStore;
+
     /**
      * Constructor.
      *
@@ -57,7 +82,51 @@ public final class CachedTileMap<T> extends TileMap<T> {
         mapTiles = CacheBuilder.newBuilder().
                 recordStats().
                 maximumSize((maxCachedTiles >= 0) ? maxCachedTiles : CACHE_MAX_ELEMENTS_DEFAULT).
+                removalListener(createRemovalListener()).
                 build(imgLoad);
+        diskStore = null;
+    }
+
+    /**
+     * Constructor for a two-tier cache. The disk store is not closed by this class, so the caller should close it
+     * when the map is no longer used, to make sure all tiles are available after a restart.
+     *
+     * @param maxCachedBytes Maximum size of tiles cached on the heap, in bytes, or default if -1.
+     * @param codec          Codec to encode tiles for the disk store and to determine their size.
+     * @param diskStore      Disk store for encoded tiles.
+     * @param imgLoad        Function for loading image tiles which are not in the disk store.
+     */
+    public CachedTileMap(
+            final long maxCachedBytes,
+            @Nonnull final TileCodec<T> codec,
+            @Nonnull final TileDiskStore diskStore,
+            @Nonnull final CacheLoader<TileKey, T> imgLoad) {
+        super(CACHE_BUFFER_COLUMNS, CACHE_BUFFER_ROWS);
+        assert maxCachedBytes >= -1;
+        assert codec != null;
+        assert diskStore != null;
+        assert imgLoad != null;
+        this.diskStore = diskStore;
+        mapTiles = CacheBuilder.newBuilder().
+                recordStats().
+                maximumWeight((maxCachedBytes >= 0) ? maxCachedBytes : CACHE_MAX_BYTES_DEFAULT).
+                weigher((Weigher<TileKey, T>) (key, tile) -> codec.getSizeInBytes(tile)).
+                removalListener(createRemovalListener()).
+                build(new CacheLoader<TileKey, T>() {
+
+                    @Override
+                    public T load(@Nonnull final TileKey key) throws Exception {
+                        final byte[] bytes = diskStore.get(key);
+                        if (bytes != null) {
+                            return codec.decode(bytes);
+                        }
+                        final T tile = imgLoad.load(key);
+                        if (tile != null) {
+                            diskStore.put(key, codec.encode(tile));
+                        }
+                        return tile;
+                    }
+                });
     }
 
     /**
@@ -76,6 +145,30 @@ public final class CachedTileMap<T> extends TileMap<T> {
         }
     }
 
+    /**
+     * Get a map tile, given a tile id. Recently used tiles are returned from a small front cache keyed by tile id,
+     * without creating a tile key.
+     *
+     * @param tileId Tile id.
+     * @return Map tile.
+     */
+    @Override
+    @Nullable
+    public T getTile(final long tileId) {
+        final T frontTile = frontTiles.get(tileId);
+        if (frontTile != null) {
+            return frontTile;
+        }
+
+        // Don't put the tile in the front cache if it was invalidated or evicted while it was loaded.
+        final int version = frontTiles.getVersion(tileId);
+        final T tile = getTile(TileId.toTileKey(tileId));
+        if (tile != null) {
+            frontTiles.put(tileId, tile, version);
+        }
+        return tile;
+    }
+
     /**
      * Returns if the map supports caching.
      *
@@ -104,21 +197,45 @@ public final class CachedTileMap<T> extends TileMap<T> {
     public void invalidate(@Nonnull final TileKey key) {
         assert key != null;
         mapTiles.invalidate(key);
+        frontTiles.remove(TileId.fromTileKey(key));
+        if (diskStore != null) {
+            diskStore.remove(key);
+        }
     }
 
     // Invalidate tiles in the the tile cache.
     public void invalidateAll(@Nonnull final Iterable<TileKey> keys) {
         assert keys != null;
         mapTiles.invalidateAll(keys);
+        for (final TileKey key : keys) {
+            frontTiles.remove(TileId.fromTileKey(key));
+            if (diskStore != null) {
+                diskStore.remove(key);
+            }
+        }
     }
 
     // Invalidate tiles in the the tile cache.
     public void invalidateAll() {
         mapTiles.invalidateAll();
+        frontTiles.clear();
+        if (diskStore != null) {
+            diskStore.clear();
+        }
+    }
+
+    @Nonnull
+    private RemovalListener<TileKey, T> createRemovalListener() {
+        return notification -> {
+            final TileKey key = notification.getKey();
+            if (key != null) {
+                frontTiles.remove(TileId.fromTileKey(key));
+            }
+        };
     }
 
     /**
-     * Return cache statistics for map tiles.
+     * Return cache statistics for map tiles (in the heap tier of the cache).
      *
      * @return Cache statistics.
      */
@@ -126,4 +243,14 @@ public final class CachedTileMap<T> extends TileMap<T> {
     public CacheStats stats() {
         return mapTiles.stats();
     }
+
+    /**
+     * Return cache statistics for the disk tier of the cache. Only the hit, miss and eviction counts are used.
+     *
+     * @return Cache statistics, all 0 if the cache has no disk tier.
+     */
+    @Nonnull
+    public CacheStats diskStats() {
+        return (diskStore != null) ? diskStore.stats() : EMPTY_STATS;
+    }
 }
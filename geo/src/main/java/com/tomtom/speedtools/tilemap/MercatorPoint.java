@@ -93,17 +93,36 @@ public final class MercatorPoint {
      */
     @Nonnull
     public static MercatorPoint latLonToMercs(@Nonnull final GeoPoint point) {
-        final double lat = MathUtils.limitTo(point.getLat(), MapConst.LATITUDE_MIN, MapConst.LATITUDE_MAX);
-        final double lon = point.getLon();
-        final double geoX = Math.toRadians(MapConst.WORLD_RADIUS * lon);
-        final double geoY = MapConst.WORLD_RADIUS * Math.log(Math.tan(Math.toRadians(lat + 90.0) / 2.0));
-        final double mercX = Math.min(1.0, Math.max(0.0, (geoX / MapConst.WORLD_SIZE) + 0.5));
-        final double mercY = Math.min(1.0, Math.max(0.0, 1.0 - ((geoY / MapConst.WORLD_SIZE) + 0.5)));
+        final double mercX = lonToMercX(point.getLon());
+        final double mercY = latToMercY(point.getLat());
         assert MathUtils.isBetween(mercX, 0.0, 1.0) : mercX + ", " + point;
         assert MathUtils.isBetween(mercY, 0.0, 1.0) : mercY + ", " + point;
         return new MercatorPoint(mercX, mercY);
     }
 
+    /**
+     * Return the normalized Mercator X (0..1) for a longitude, without creating a Mercator point.
+     *
+     * @param lon Longitude.
+     * @return X, 0..1 (lon -180..180).
+     */
+    public static double lonToMercX(final double lon) {
+        final double geoX = Math.toRadians(MapConst.WORLD_RADIUS * lon);
+        return Math.min(1.0, Math.max(0.0, (geoX / MapConst.WORLD_SIZE) + 0.5));
+    }
+
+    /**
+     * Return the normalized Mercator Y (0..1) for a latitude, without creating a Mercator point.
+     *
+     * @param lat Latitude, limited to the range MapConst.LATITUDE_MIN..MapConst.LATITUDE_MAX.
+     * @return Y, 0..1 (lat 90..-90).
+     */
+    public static double latToMercY(final double lat) {
+        final double limitedLat = MathUtils.limitTo(lat, MapConst.LATITUDE_MIN, MapConst.LATITUDE_MAX);
+        final double geoY = MapConst.WORLD_RADIUS * Math.log(Math.tan(Math.toRadians(limitedLat + 90.0) / 2.0));
+        return Math.min(1.0, Math.max(0.0, 1.0 - ((geoY / MapConst.WORLD_SIZE) + 0.5)));
+    }
+
     @Nonnull
     public static MercatorPoint latLonToMercs(final double lat, final double lon) {
         return latLonToMercs(new GeoPoint(lat, lon));
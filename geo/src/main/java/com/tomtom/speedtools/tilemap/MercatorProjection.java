@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.tomtom.speedtools.geometry.GeoPoint;
+import com.tomtom.speedtools.utils.MathUtils;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Fast Mercator projection of latitudes and longitudes to normalized Mercator coordinates (see {@link MercatorPoint})
+ * and to pixels, for example to plot many markers on a map. Conversions do not create objects and batch conversions
+ * over arrays of coordinates are supported.
+ *
+ * Two projections are available: {@link #EXACT}, which uses the same math as {@link MercatorPoint}, and {@link
+ * #INTERPOLATED}, which avoids calculating Math.log(Math.tan(...)) for every latitude by interpolating a precomputed
+ * table. The interpolated projection uses cubic Hermite interpolation with exact derivatives, so its error is far below
+ * 0.01 pixel, even at the maximum zoom level.
+ */
+@Immutable
+public final class MercatorProjection {
+
+    /**
+     * Projection which calculates every latitude exactly.
+     */
+    public static final MercatorProjection EXACT = new MercatorProjection(0);
+
+    /**
+     * Projection which interpolates latitudes from a precomputed table.
+     */
+    public static final MercatorProjection INTERPOLATED;
+
+    /**
+     * Value for pixel positions which are outside of a viewport.
+     */
+    public static final int OUTSIDE_VIEWPORT = Integer.MIN_VALUE;
+
+    // Default number of intervals of the latitude table.
+    private static final int LATITUDE_TABLE_SIZE_DEFAULT = 4096;
+
+    // Size of the world in pixels, per zoom level.
+    private static final long[] WORLD_SIZE_PIXELS = new long[MapConst.ZOOM_LEVELS];
+
+    static {
+        for (int zoomLevel = MapConst.MINIMUM_ZOOM; zoomLevel <= MapConst.MAXIMUM_ZOOM; ++zoomLevel) {
+            WORLD_SIZE_PIXELS[zoomLevel] = (1L << zoomLevel) * MapConst.PIXELS_PER_TILE;
+        }
+        INTERPOLATED = new MercatorProjection(LATITUDE_TABLE_SIZE_DEFAULT);
+    }
+
+    // Mercator Y values and their derivatives (per degree latitude) at equidistant latitudes, or null if exact.
+    @Nullable
+    private final double[] mercYs;
+    @Nullable
+    private final double[] mercYDerivatives;
+    private final double latitudeStep;
+
+    /**
+     * Create a projection.
+     *
+     * @param latitudeTableSize Number of intervals of the latitude table, or 0 to calculate latitudes exactly.
+     */
+    private MercatorProjection(final int latitudeTableSize) {
+        super();
+        assert latitudeTableSize >= 0;
+        if (latitudeTableSize == 0) {
+            this.mercYs = null;
+            this.mercYDerivatives = null;
+            this.latitudeStep = 0.0;
+        } else {
+            this.mercYs = new double[latitudeTableSize + 1];
+            this.mercYDerivatives = new double[latitudeTableSize + 1];
+            this.latitudeStep = (MapConst.LATITUDE_MAX - MapConst.LATITUDE_MIN) / latitudeTableSize;
+            final double derivativeFactor = -Math.toRadians(MapConst.WORLD_RADIUS) / MapConst.WORLD_SIZE;
+            for (int i = 0; i <= latitudeTableSize; ++i) {
+                final double lat = Math.min(MapConst.LATITUDE_MAX, MapConst.LATITUDE_MIN + (i * latitudeStep));
+                mercYs[i] = MercatorPoint.latToMercY(lat);
+                mercYDerivatives[i] = derivativeFactor / Math.cos(Math.toRadians(lat));
+            }
+        }
+    }
+
+    /**
+     * Create a projection which interpolates latitudes from a precomputed table of a specific size. Use {@link
+     * #INTERPOLATED} unless a different trade-off between memory and precision is required.
+     *
+     * @param latitudeTableSize Number of intervals of the latitude table, at least 1.
+     * @return Projection.
+     */
+    @Nonnull
+    public static MercatorProjection createInterpolated(final int latitudeTableSize) {
+        assert latitudeTableSize >= 1 : latitudeTableSize;
+        return new MercatorProjection(latitudeTableSize);
+    }
+
+    /**
+     * Return the size of the world (in X and Y direction) in pixels at a zoom level.
+     *
+     * @param zoomLevel Zoom level.
+     * @return Size in pixels.
+     */
+    public static long getWorldSizePixels(final int zoomLevel) {
+        assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) : zoomLevel;
+        return WORLD_SIZE_PIXELS[zoomLevel];
+    }
+
+    /**
+     * Return the normalized Mercator X for a longitude. See {@link MercatorPoint#lonToMercX(double)}.
+     *
+     * @param lon Longitude, [-180, 180).
+     * @return X, 0..1 (lon -180..180).
+     */
+    public double lonToMercX(final double lon) {
+        return MercatorPoint.lonToMercX(lon);
+    }
+
+    /**
+     * Return the normalized Mercator Y for a latitude. See {@link MercatorPoint#latToMercY(double)}.
+     *
+     * @param lat Latitude, limited to the range MapConst.LATITUDE_MIN..MapConst.LATITUDE_MAX.
+     * @return Y, 0..1 (lat 90..-90).
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    public double latToMercY(final double lat) {
+        if (mercYs == null) {
+            return MercatorPoint.latToMercY(lat);
+        }
+        assert mercYDerivatives != null;
+        final double limitedLat = MathUtils.limitTo(lat, MapConst.LATITUDE_MIN, MapConst.LATITUDE_MAX);
+        final double position = (limitedLat - MapConst.LATITUDE_MIN) / latitudeStep;
+        final int i = Math.min((int) position, mercYs.length - 2);
+        final double t = position - i;
+        final double t2 = t * t;
+        final double t3 = t2 * t;
+
+        // Cubic Hermite interpolation between table entries i and i + 1.
+        return (((2.0 * t3) - (3.0 * t2) + 1.0) * mercYs[i]) +
+                ((t3 - (2.0 * t2) + t) * latitudeStep * mercYDerivatives[i]) +
+                (((-2.0 * t3) + (3.0 * t2)) * mercYs[i + 1]) +
+                ((t3 - t2) * latitudeStep * mercYDerivatives[i + 1]);
+    }
+
+    /**
+     * Return the pixel X position in the world at a zoom level, for a longitude.
+     *
+     * @param lon       Longitude, [-180, 180).
+     * @param zoomLevel Zoom level.
+     * @return Pixel X, 0..getWorldSizePixels(zoomLevel) - 1.
+     */
+    public long lonToPixelX(final double lon, final int zoomLevel) {
+        return mercToPixel(lonToMercX(lon), getWorldSizePixels(zoomLevel));
+    }
+
+    /**
+     * Return the pixel Y position in the world at a zoom level, for a latitude.
+     *
+     * @param lat       Latitude.
+     * @param zoomLevel Zoom level.
+     * @return Pixel Y, 0..getWorldSizePixels(zoomLevel) - 1.
+     */
+    public long latToPixelY(final double lat, final int zoomLevel) {
+        return mercToPixel(latToMercY(lat), getWorldSizePixels(zoomLevel));
+    }
+
+    /**
+     * Return the tile id of the tile which contains a lat/lon at a zoom level. The position within the tile is
+     * (pixelX % MapConst.PIXELS_PER_TILE, pixelY % MapConst.PIXELS_PER_TILE).
+     *
+     * @param lat       Latitude.
+     * @param lon       Longitude, [-180, 180).
+     * @param zoomLevel Zoom level.
+     * @return Tile id, see {@link TileId}.
+     */
+    public long latLonToTileId(final double lat, final double lon, final int zoomLevel) {
+        return TileId.pack(
+                lonToPixelX(lon, zoomLevel) / MapConst.PIXELS_PER_TILE,
+                latToPixelY(lat, zoomLevel) / MapConst.PIXELS_PER_TILE,
+                zoomLevel);
+    }
+
+    /**
+     * Convert arrays of latitudes and longitudes to normalized Mercator coordinates.
+     *
+     * @param lats   Latitudes.
+     * @param lons   Longitudes, [-180, 180).
+     * @param count  Number of coordinates to convert.
+     * @param mercXs Output: Mercator X values.
+     * @param mercYs Output: Mercator Y values.
+     */
+    public void latLonToMercs(
+            @Nonnull final double[] lats, @Nonnull final double[] lons, final int count,
+            @Nonnull final double[] mercXs, @Nonnull final double[] mercYs) {
+        assert (count <= lats.length) && (count <= lons.length) : count;
+        assert (count <= mercXs.length) && (count <= mercYs.length) : count;
+        for (int i = 0; i < count; ++i) {
+            mercXs[i] = lonToMercX(lons[i]);
+            mercYs[i] = latToMercY(lats[i]);
+        }
+    }
+
+    /**
+     * Convert arrays of latitudes and longitudes to (x, y) positions in a viewport. This is the batch equivalent of
+     * {@link TileMap#convertLatLonToViewportXY}.
+     *
+     * @param lats      Latitudes.
+     * @param lons      Longitudes, [-180, 180).
+     * @param count     Number of coordinates to convert.
+     * @param width     Width of viewport.
+     * @param height    Height of viewport.
+     * @param zoomLevel Zoomlevel of viewport.
+     * @param mapCenter Latitude and longitude of center of map.
+     * @param xs        Output: X positions in viewport, or {@link #OUTSIDE_VIEWPORT}.
+     * @param ys        Output: Y positions in viewport, or {@link #OUTSIDE_VIEWPORT}.
+     * @return Number of positions within the viewport. For positions outside the viewport, both X and Y are set to
+     * {@link #OUTSIDE_VIEWPORT}.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    public int latLonToViewportXY(
+            @Nonnull final double[] lats, @Nonnull final double[] lons, final int count,
+            final int width, final int height, final int zoomLevel,
+            @Nonnull final GeoPoint mapCenter,
+            @Nonnull final int[] xs, @Nonnull final int[] ys) {
+        assert (count <= lats.length) && (count <= lons.length) : count;
+        assert (count <= xs.length) && (count <= ys.length) : count;
+        assert width > 0;
+        assert height > 0;
+        assert mapCenter != null;
+        final double totalSize = getWorldSizePixels(zoomLevel);
+        final double mercCenterX = lonToMercX(mapCenter.getLon());
+        final double mercCenterY = latToMercY(mapCenter.getLat());
+        final double centerX = width / 2.0;
+        final double centerY = height / 2.0;
+        int inside = 0;
+        for (int i = 0; i < count; ++i) {
+            final double newX = centerX - ((mercCenterX - lonToMercX(lons[i])) * totalSize);
+            final double newY = centerY - ((mercCenterY - latToMercY(lats[i])) * totalSize);
+            if (MathUtils.isBetween(newX, 0.0, width) && MathUtils.isBetween(newY, 0.0, height)) {
+                xs[i] = (int) Math.floor(newX);
+                ys[i] = (int) Math.floor(newY);
+                ++inside;
+            } else {
+                xs[i] = OUTSIDE_VIEWPORT;
+                ys[i] = OUTSIDE_VIEWPORT;
+            }
+        }
+        return inside;
+    }
+
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    private static long mercToPixel(final double merc, final long worldSizePixels) {
+        return Math.min(worldSizePixels - 1, (long) (merc * worldSizePixels));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Encoder and decoder for map tiles, used to store tiles outside the heap, for example in a {@link TileDiskStore}. The
+ * type parameter T is the image tile type.
+ */
+public interface TileCodec<T> {
+
+    /**
+     * Encode a tile to bytes.
+     *
+     * @param tile Tile.
+     * @return Encoded tile.
+     */
+    @Nonnull
+    byte[] encode(@Nonnull T tile);
+
+    /**
+     * Decode a tile from bytes, previously encoded with {@link #encode(Object)}.
+     *
+     * @param bytes Encoded tile.
+     * @return Tile.
+     */
+    @Nonnull
+    T decode(@Nonnull byte[] bytes);
+
+    /**
+     * Return the (approximate) number of bytes a tile uses on the heap. This is used to bound the size of the heap
+     * cache in bytes, rather than in number of tiles.
+     *
+     * @param tile Tile.
+     * @return Size in bytes, 0 or more.
+     */
+    int getSizeInBytes(@Nonnull T tile);
+}
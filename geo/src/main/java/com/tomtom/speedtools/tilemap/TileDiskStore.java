@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.google.common.cache.CacheStats;
+import com.tomtom.speedtools.utils.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class represents a disk store for encoded map tiles. The tiles are stored in a single memory-mapped data file
+ * of a fixed size, which is used as a ring buffer: when the file is full, writing continues at the start of the file
+ * and the oldest tiles are evicted. An index of tile keys to data file positions is kept on the heap and written to a
+ * separate index file on {@link #flush()} and {@link #close()}, so the tiles survive a restart of the application.
+ *
+ * Tiles written after the last flush are lost if the application is not shut down properly. As this is a cache, that
+ * only means these tiles need to be fetched again. Such tiles may also have overwritten tiles which are still in the
+ * index file; every record holds a checksum of its data, and tiles which do not match it are removed on access.
+ *
+ * This class is thread-safe.
+ */
+public final class TileDiskStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TileDiskStore.class);
+
+    private static final String DATA_FILE_NAME = "tiles.dat";
+    private static final String INDEX_FILE_NAME = "tiles.idx";
+    private static final String INDEX_FILE_TEMP_SUFFIX = ".tmp";
+
+    private static final int INDEX_MAGIC = 0x54494458;     // "TIDX".
+    private static final int INDEX_VERSION = 2;
+
+    // Every tile record in the data file starts with its zoom level, X, Y, length and the CRC-32 of the tile data.
+    private static final int RECORD_HEADER_SIZE = 5 * 4;
+
+    @Nonnull
+    private final File indexFile;
+    @Nonnull
+    private final RandomAccessFile dataFile;
+    @Nonnull
+    private final MappedByteBuffer data;
+    private final int capacity;
+
+    // Index of tiles, by key and by position in the data file.
+    @Nonnull
+    private final Map<TileKey, Integer> offsetsByKey = new HashMap<>();
+    @Nonnull
+    private final NavigableMap<Integer, TileKey> keysByOffset = new TreeMap<>();
+
+    private int writePosition;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Open or create a tile disk store in a directory. If the directory contains a tile store of the same capacity,
+     * the tiles in it are available immediately.
+     *
+     * @param directory     Directory to store the data and index file in. Created if it does not exist.
+     * @param capacityBytes Size of the data file, in bytes.
+     * @throws IOException If the files cannot be created or mapped.
+     */
+    public TileDiskStore(@Nonnull final File directory, final int capacityBytes) throws IOException {
+        assert directory != null;
+        assert capacityBytes > RECORD_HEADER_SIZE : capacityBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory: " + directory);
+        }
+        final File file = new File(directory, DATA_FILE_NAME);
+        final boolean sameCapacity = file.length() == capacityBytes;
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+        this.capacity = capacityBytes;
+        this.dataFile = new RandomAccessFile(file, "rw");
+        if (!sameCapacity) {
+
+            // Truncate or extend the file, so the tiles survive the next restart.
+            dataFile.setLength(capacityBytes);
+        }
+        this.data = dataFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        if (sameCapacity) {
+            readIndex();
+        } else {
+            LOG.debug("TileDiskStore: capacity changed, discarding existing tiles, file={}", file);
+        }
+    }
+
+    /**
+     * Get an encoded tile from the store. A tile which does not match its checksum, because it was overwritten before
+     * the application was shut down improperly, is removed from the store.
+     *
+     * @param key Tile key.
+     * @return Encoded tile, or null if the tile is not in the store.
+     */
+    @Nullable
+    public synchronized byte[] get(@Nonnull final TileKey key) {
+        assert key != null;
+        final Integer offset = offsetsByKey.get(key);
+        if (offset == null) {
+            ++missCount;
+            return null;
+        }
+        final ByteBuffer buffer = data.duplicate();
+        buffer.position(offset + (3 * 4));
+        final int length = buffer.getInt();
+        final int checksum = buffer.getInt();
+        if ((0 <= length) && (length <= (capacity - RECORD_HEADER_SIZE - offset))) {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            if (checksum(bytes) == checksum) {
+                ++hitCount;
+                return bytes;
+            }
+        }
+        LOG.debug("get: checksum mismatch, removing tile, key={}", key);
+        remove(key);
+        ++missCount;
+        return null;
+    }
+
+    /**
+     * Store an encoded tile. This may evict the oldest tiles from the store. Tiles which are larger than the store
+     * itself are not stored.
+     *
+     * @param key   Tile key.
+     * @param bytes Encoded tile.
+     * @return True if the tile was stored.
+     */
+    public synchronized boolean put(@Nonnull final TileKey key, @Nonnull final byte[] bytes) {
+        assert key != null;
+        assert bytes != null;
+        final int size = RECORD_HEADER_SIZE + bytes.length;
+        if (size > capacity) {
+            return false;
+        }
+        remove(key);
+
+        // Continue at the start of the file if the tile does not fit at the end.
+        if ((capacity - writePosition) < size) {
+            writePosition = 0;
+        }
+
+        // Evict the tiles which are (partially) overwritten by this one.
+        final Iterator<TileKey> evicted = keysByOffset.subMap(writePosition, size + writePosition).values().iterator();
+        while (evicted.hasNext()) {
+            offsetsByKey.remove(evicted.next());
+            evicted.remove();
+            ++evictionCount;
+        }
+
+        final ByteBuffer buffer = data.duplicate();
+        buffer.position(writePosition);
+        buffer.putInt(key.getZoomLevel());
+        buffer.putInt((int) key.getTileX());
+        buffer.putInt((int) key.getTileY());
+        buffer.putInt(bytes.length);
+        buffer.putInt(checksum(bytes));
+        buffer.put(bytes);
+        offsetsByKey.put(key, writePosition);
+        keysByOffset.put(writePosition, key);
+        writePosition = writePosition + size;
+        return true;
+    }
+
+    /**
+     * Remove a tile from the store.
+     *
+     * @param key Tile key.
+     */
+    public synchronized void remove(@Nonnull final TileKey key) {
+        assert key != null;
+        final Integer offset = offsetsByKey.remove(key);
+        if (offset != null) {
+            keysByOffset.remove(offset);
+        }
+    }
+
+    /**
+     * Remove all tiles from the store.
+     */
+    public synchronized void clear() {
+        offsetsByKey.clear();
+        keysByOffset.clear();
+        writePosition = 0;
+    }
+
+    /**
+     * Return the number of tiles in the store.
+     *
+     * @return Number of tiles.
+     */
+    public synchronized int size() {
+        return offsetsByKey.size();
+    }
+
+    /**
+     * Return statistics for the store. Only the hit, miss and eviction counts are used.
+     *
+     * @return Store statistics.
+     */
+    @Nonnull
+    public synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, 0, 0, 0, evictionCount);
+    }
+
+    /**
+     * Write the data file and the index to disk.
+     *
+     * @throws IOException If the index cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        data.force();
+        final File tempFile = new File(indexFile.getPath() + INDEX_FILE_TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(writePosition);
+            out.writeInt(keysByOffset.size());
+            for (final Map.Entry<Integer, TileKey> entry : keysByOffset.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().getZoomLevel());
+                out.writeInt((int) entry.getValue().getTileX());
+                out.writeInt((int) entry.getValue().getTileY());
+            }
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Flush and close the store. The store cannot be used after this call.
+     *
+     * @throws IOException If the index cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            dataFile.close();
+        }
+    }
+
+    /**
+     * Read the index file, if it exists. Index entries which do not match the data file are skipped.
+     */
+    private void readIndex() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if ((in.readInt() != INDEX_MAGIC) || (in.readInt() != INDEX_VERSION)) {
+                LOG.warn("readIndex: unknown index format, discarding existing tiles, file={}", indexFile);
+                return;
+            }
+            final int position = in.readInt();
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final int offset = in.readInt();
+                final int zoomLevel = in.readInt();
+                final int tileX = in.readInt();
+                final int tileY = in.readInt();
+                if (isValidRecord(offset, zoomLevel, tileX, tileY)) {
+                    final TileKey key = new TileKey(tileX, tileY, zoomLevel);
+                    offsetsByKey.put(key, offset);
+                    keysByOffset.put(offset, key);
+                }
+            }
+            writePosition = ((0 <= position) && (position <= capacity)) ? position : 0;
+            LOG.debug("readIndex: {} tiles available, file={}", offsetsByKey.size(), indexFile);
+        } catch (final IOException e) {
+            LOG.warn("readIndex: cannot read index, discarding existing tiles, file={}", indexFile, e);
+            clear();
+        }
+    }
+
+    /**
+     * Return the checksum of a tile.
+     */
+    private static int checksum(@Nonnull final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Check if a record in the data file matches an index entry. The checksum is only checked when the tile is read.
+     */
+    private boolean isValidRecord(final int offset, final int zoomLevel, final int tileX, final int tileY) {
+        if ((offset < 0) || ((capacity - RECORD_HEADER_SIZE) < offset) ||
+                !MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) ||
+                (tileX < 0) || (tileX >= (1L << zoomLevel)) || (tileY < 0) || (tileY >= (1L << zoomLevel))) {
+            return false;
+        }
+        final ByteBuffer buffer = data.duplicate();
+        buffer.position(offset);
+        final boolean sameKey = (buffer.getInt() == zoomLevel) && (buffer.getInt() == tileX) &&
+                (buffer.getInt() == tileY);
+        final int length = buffer.getInt();
+        return sameKey && (0 <= length) && (length <= (capacity - RECORD_HEADER_SIZE - offset));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.tomtom.speedtools.utils.MathUtils;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Utility class for tile ids. A tile id is a tile key (X, Y and zoom level) packed into a single long, which can be
+ * used instead of a {@link TileKey} object to avoid allocations, for example when iterating over many tiles.
+ *
+ * The zoom level is stored in the top bits of the id. The X and Y indexes are interleaved in the lower bits, in
+ * Morton (Z-order) order, which is the same order as quadkeys. So, ordering tile ids orders tiles by zoom level first
+ * and then by quadkey, which keeps tiles that are close on the map close in the order as well.
+ */
+public final class TileId {
+
+    // Bit position of the zoom level in a tile id. All lower bits are used for the Morton code.
+    private static final int ZOOM_LEVEL_SHIFT = 58;
+    private static final long MORTON_CODE_MASK = (1L << ZOOM_LEVEL_SHIFT) - 1;
+
+    private TileId() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Create a tile id.
+     *
+     * @param tileX     Tile index X.
+     * @param tileY     Tile index Y.
+     * @param zoomLevel Zoom level.
+     * @return Tile id.
+     */
+    public static long pack(final long tileX, final long tileY, final int zoomLevel) {
+        assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) : zoomLevel;
+        assert (0 <= tileX) && (tileX < (1L << zoomLevel)) : tileX + ", " + zoomLevel;
+        assert (0 <= tileY) && (tileY < (1L << zoomLevel)) : tileY + ", " + zoomLevel;
+        return (((long) zoomLevel) << ZOOM_LEVEL_SHIFT) | interleave(tileX, tileY);
+    }
+
+    /**
+     * Create a tile id from a zoom level and a Morton code (quadkey) at that zoom level.
+     *
+     * @param mortonCode Morton code.
+     * @param zoomLevel  Zoom level.
+     * @return Tile id.
+     */
+    public static long fromMortonCode(final long mortonCode, final int zoomLevel) {
+        assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) : zoomLevel;
+        assert (0 <= mortonCode) && (mortonCode < (1L << (2 * zoomLevel))) : mortonCode + ", " + zoomLevel;
+        return (((long) zoomLevel) << ZOOM_LEVEL_SHIFT) | mortonCode;
+    }
+
+    /**
+     * Create a tile id from a tile key.
+     *
+     * @param key Tile key.
+     * @return Tile id.
+     */
+    public static long fromTileKey(@Nonnull final TileKey key) {
+        assert key != null;
+        return pack(key.getTileX(), key.getTileY(), key.getZoomLevel());
+    }
+
+    /**
+     * Create a tile key from a tile id.
+     *
+     * @param tileId Tile id.
+     * @return Tile key.
+     */
+    @Nonnull
+    public static TileKey toTileKey(final long tileId) {
+        return new TileKey(getTileX(tileId), getTileY(tileId), getZoomLevel(tileId));
+    }
+
+    public static long getTileX(final long tileId) {
+        return compact(tileId & MORTON_CODE_MASK);
+    }
+
+    public static long getTileY(final long tileId) {
+        return compact((tileId & MORTON_CODE_MASK) >>> 1);
+    }
+
+    public static int getZoomLevel(final long tileId) {
+        return (int) (tileId >>> ZOOM_LEVEL_SHIFT);
+    }
+
+    /**
+     * Return the Morton code of a tile id, without the zoom level. This is the quadkey of the tile, as a number.
+     *
+     * @param tileId Tile id.
+     * @return Morton code.
+     */
+    public static long getMortonCode(final long tileId) {
+        return tileId & MORTON_CODE_MASK;
+    }
+
+    /**
+     * Interleave the bits of X and Y: X in the even bits, Y in the odd bits.
+     */
+    static long interleave(final long tileX, final long tileY) {
+        return spread(tileX) | (spread(tileY) << 1);
+    }
+
+    /**
+     * Spread the lower 32 bits of a value over the even bits of a long.
+     */
+    private static long spread(final long value) {
+        long x = value & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Compact the even bits of a long into the lower 32 bits; the inverse of {@link #spread(long)}.
+     */
+    static long compact(final long value) {
+        long x = value & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return x;
+    }
+}
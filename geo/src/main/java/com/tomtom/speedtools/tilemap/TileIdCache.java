@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Small, fixed-size cache for map tiles, keyed by tile id (see {@link TileId}). The cache is direct-mapped: every tile
+ * id maps to exactly one slot and a tile replaces any other tile in its slot. Getting and putting tiles does not
+ * allocate objects, which makes this cache suitable as a front cache for tiles which are accessed very often, such as
+ * the tiles of the current viewport.
+ *
+ * Every slot has a version, which changes whenever a tile is removed from the slot. Callers which load a tile outside
+ * the cache can use {@link #getVersion(long)} and {@link #put(long, Object, int)} to avoid putting a tile which was
+ * removed while it was loaded.
+ *
+ * This class is thread-safe.
+ */
+public final class TileIdCache<T> {
+    @Nonnull
+    private final long[] tileIds;
+    @Nonnull
+    private final Object[] tiles;
+    @Nonnull
+    private final int[] versions;
+    private final int mask;
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity Number of slots in the cache. Rounded up to a power of 2.
+     */
+    public TileIdCache(final int capacity) {
+        assert (0 < capacity) && (capacity <= (1 << 30)) : capacity;
+        final int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.tileIds = new long[size];
+        this.tiles = new Object[size];
+        this.versions = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get a tile from the cache.
+     *
+     * @param tileId Tile id.
+     * @return Tile, or null if the tile is not in the cache.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public synchronized T get(final long tileId) {
+        final int slot = slot(tileId);
+        return (tileIds[slot] == tileId) ? (T) tiles[slot] : null;
+    }
+
+    /**
+     * Put a tile in the cache, replacing any tile in the same slot.
+     *
+     * @param tileId Tile id.
+     * @param tile   Tile.
+     */
+    public synchronized void put(final long tileId, @Nonnull final T tile) {
+        assert tile != null;
+        final int slot = slot(tileId);
+        tileIds[slot] = tileId;
+        tiles[slot] = tile;
+    }
+
+    /**
+     * Put a tile in the cache, only if no tile was removed from its slot since the version of the slot was read.
+     *
+     * @param tileId  Tile id.
+     * @param tile    Tile.
+     * @param version Version of the slot, from {@link #getVersion(long)}.
+     * @return True if the tile was put in the cache.
+     */
+    public synchronized boolean put(final long tileId, @Nonnull final T tile, final int version) {
+        assert tile != null;
+        final int slot = slot(tileId);
+        if (versions[slot] != version) {
+            return false;
+        }
+        tileIds[slot] = tileId;
+        tiles[slot] = tile;
+        return true;
+    }
+
+    /**
+     * Get the version of the slot of a tile id. The version changes whenever a tile is removed from the slot.
+     *
+     * @param tileId Tile id.
+     * @return Version of the slot.
+     */
+    public synchronized int getVersion(final long tileId) {
+        return versions[slot(tileId)];
+    }
+
+    /**
+     * Remove a tile from the cache.
+     *
+     * @param tileId Tile id.
+     */
+    public synchronized void remove(final long tileId) {
+        final int slot = slot(tileId);
+        ++versions[slot];
+        if (tileIds[slot] == tileId) {
+            tiles[slot] = null;
+        }
+    }
+
+    /**
+     * Remove all tiles from the cache.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < tiles.length; ++i) {
+            tiles[i] = null;
+            ++versions[i];
+        }
+    }
+
+    /**
+     * Return the number of slots in the cache.
+     *
+     * @return Capacity.
+     */
+    public int getCapacity() {
+        return tiles.length;
+    }
+
+    private int slot(final long tileId) {
+        return ((int) ((tileId * 0x9E3779B97F4A7C15L) >>> 32)) & mask;
+    }
+}
@@ -21,16 +21,28 @@ import com.tomtom.speedtools.geometry.GeoRectangle;
 import com.tomtom.speedtools.objects.Tuple;
 import com.tomtom.speedtools.utils.MathUtils;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class represents an (abstract) cacheable map. The type parameter T is the image tile type. It is parametrized to
  * allow retrieving tiles in different internal formats, such as AWT Image objects, or Processing PImage objects.
  */
 public abstract class TileMap<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(TileMap.class);
+
     private final int bufferColumns;    // Additional tile columns to left and right of viewport, for buffering.
     private final int bufferRows;       // Additional tile rows on top and bottom of viewport, for buffering.
 
@@ -40,6 +52,12 @@ public abstract class TileMap<T> {
      */
     private boolean preCaching;
 
+    // Tiles currently being loaded or buffered asynchronously, to avoid loading the same tile twice.
+    @Nonnull
+    private final ConcurrentMap<TileKey, CompletableFuture<T>> inFlightTiles = new ConcurrentHashMap<>();
+    @Nonnull
+    private final Set<TileKey> inFlightCacheTiles = ConcurrentHashMap.newKeySet();
+
     protected TileMap() {
         this(0, 0);
     }
@@ -104,6 +122,39 @@ public abstract class TileMap<T> {
         // Empty.
     }
 
+    /**
+     * Get a map tile, given a tile id (see {@link TileId}). By default, this creates a tile key and calls {@link
+     * #getTile(TileKey)}. Override this method to look up tiles without creating a tile key.
+     *
+     * @param tileId Tile id.
+     * @return Tile, or null if missing.
+     */
+    @Nullable
+    public T getTile(final long tileId) {
+        return getTile(TileId.toTileKey(tileId));
+    }
+
+    /**
+     * Buffer a map tile which is not shown in the viewport, given a tile id (see {@link TileId}). By default, this
+     * creates a tile key and calls {@link #cacheTile(TileKey)}.
+     *
+     * @param tileId Tile id.
+     */
+    public void cacheTile(final long tileId) {
+        cacheTile(TileId.toTileKey(tileId));
+    }
+
+    /**
+     * Buffer all map tiles which overlap a rectangle at a zoom level, for example to prefetch an area. The tiles are
+     * buffered in Morton order (see {@link TilePyramid}), so tiles which are close on the map are buffered together.
+     *
+     * @param rectangle Rectangle.
+     * @param zoomLevel Zoom level.
+     */
+    public void cacheTiles(@Nonnull final GeoRectangle rectangle, final int zoomLevel) {
+        TilePyramid.forEachTileId(rectangle, zoomLevel, this::cacheTile);
+    }
+
     /**
      * Callback function for viewport tile processing.
      *
@@ -133,6 +184,26 @@ public abstract class TileMap<T> {
                 final int tileOffsetX, final int tileOffsetY, final int width, final int height);
     }
 
+    /**
+     * Callback function for viewport tile processing, with tile ids rather than tile keys (see {@link TileId}).
+     *
+     * The template parameter T is the image class, e.g. Image or PImage.
+     */
+    public interface ViewportTileIdProcessor<T> {
+
+        /**
+         * Process one viewport tile. See {@link ViewportTileProcessor#process}.
+         *
+         * @param tileId Tile id.
+         */
+        void process(
+                final int seqX, final int seqY,
+                final long tileId,
+                @Nullable final T img,
+                final int viewportX, final int viewportY,
+                final int tileOffsetX, final int tileOffsetY, final int width, final int height);
+    }
+
     /**
      * Process all tiles for a specific viewport. For every tile a callback function 'process()' is called. This
      * function can either immediately draw the image, or for example store it in a collection.
@@ -143,18 +214,240 @@ public abstract class TileMap<T> {
      * @param zoomLevel    Zoomlevel (from 0..LbsConst.MapConst.MAXIMUM_ZOOM).
      * @param processor    Viewport processor.
      */
-    @SuppressWarnings("ConstantConditions")
     public void processViewportTiles(
             final int widthPixels, final int heightPixels,
             @Nonnull final GeoPoint mapCenter, final int zoomLevel,
             @Nonnull final ViewportTileProcessor<T> processor) {
+        assert processor != null;
+        layoutViewportTiles(widthPixels, heightPixels, mapCenter, zoomLevel, preCaching,
+                new ViewportLayoutProcessor() {
+
+                    @Override
+                    public void process(
+                            final int seqX, final int seqY, final long tileId,
+                            final int viewportX, final int viewportY,
+                            final int tileOffsetX, final int tileOffsetY, final int width, final int height) {
+
+                        // Get tile from cache (or load it now).
+                        final TileKey tileKey = TileId.toTileKey(tileId);
+                        final T img = getTile(tileKey);
+                        processor.process(seqX, seqY, tileKey, img, viewportX, viewportY,
+                                tileOffsetX, tileOffsetY, width, height);
+                    }
+
+                    @Override
+                    public void buffer(final long tileId) {
+                        cacheTile(TileId.toTileKey(tileId));
+                    }
+                });
+    }
+
+    /**
+     * Process all tiles for a specific viewport, identified by tile id rather than tile key (see {@link TileId}). For
+     * every tile a callback function 'process()' is called. Apart from the objects created by {@link
+     * #getTile(long)} and {@link #cacheTile(long)}, this method does not create objects per tile, which makes it
+     * suitable for rendering many viewports per second.
+     *
+     * @param widthPixels  Width of viewport in pixels.
+     * @param heightPixels Height of viewport in pixels.
+     * @param mapCenter    Center of map, as lat/lon.
+     * @param zoomLevel    Zoomlevel (from 0..LbsConst.MapConst.MAXIMUM_ZOOM).
+     * @param processor    Viewport processor.
+     */
+    public void processViewportTileIds(
+            final int widthPixels, final int heightPixels,
+            @Nonnull final GeoPoint mapCenter, final int zoomLevel,
+            @Nonnull final ViewportTileIdProcessor<T> processor) {
+        assert processor != null;
+        layoutViewportTiles(widthPixels, heightPixels, mapCenter, zoomLevel, preCaching,
+                new ViewportLayoutProcessor() {
+
+                    @Override
+                    public void process(
+                            final int seqX, final int seqY, final long tileId,
+                            final int viewportX, final int viewportY,
+                            final int tileOffsetX, final int tileOffsetY, final int width, final int height) {
+                        processor.process(seqX, seqY, tileId, getTile(tileId), viewportX, viewportY,
+                                tileOffsetX, tileOffsetY, width, height);
+                    }
+
+                    @Override
+                    public void buffer(final long tileId) {
+                        cacheTile(tileId);
+                    }
+                });
+    }
+
+    /**
+     * Get all tiles for a specific viewport asynchronously. All tiles in the viewport are fetched in parallel on the
+     * given executor, rather than one after the other, so the latency is determined by the slowest tile instead of the
+     * sum of all tiles. If pre-caching is enabled, the buffer tiles around the viewport are cached in the background
+     * as well; the returned future does not wait for those.
+     *
+     * Loads of tiles which are already in progress (for example, from a previous call for an overlapping viewport)
+     * are shared, rather than started again. Note that {@link #getTile(TileKey)} and {@link #cacheTile(TileKey)} must
+     * be thread-safe to use this method.
+     *
+     * @param widthPixels  Width of viewport in pixels.
+     * @param heightPixels Height of viewport in pixels.
+     * @param mapCenter    Center of map, as lat/lon.
+     * @param zoomLevel    Zoomlevel (from 0..LbsConst.MapConst.MAXIMUM_ZOOM).
+     * @param executor     Executor to load tiles on.
+     * @return Future of the collection of viewport images, in the same order as {@link #collectViewportTiles}. A tile
+     * that failed to load has a null image.
+     */
+    @Nonnull
+    public CompletableFuture<Collection<ViewportTile<T>>> collectViewportTilesAsync(
+            final int widthPixels, final int heightPixels,
+            @Nonnull final GeoPoint mapCenter, final int zoomLevel,
+            @Nonnull final Executor executor) {
+        assert executor != null;
+        final List<CompletableFuture<ViewportTile<T>>> futures = new ArrayList<>();
+        final List<TileKey> bufferKeys = new ArrayList<>();
+        layoutViewportTiles(widthPixels, heightPixels, mapCenter, zoomLevel, preCaching,
+                new ViewportLayoutProcessor() {
+
+                    @Override
+                    public void process(
+                            final int seqX, final int seqY, final long tileId,
+                            final int viewportX, final int viewportY,
+                            final int tileOffsetX, final int tileOffsetY, final int width, final int height) {
+                        final TileKey tileKey = TileId.toTileKey(tileId);
+                        futures.add(loadTileAsync(tileKey, executor).
+                                exceptionally(e -> {
+                                    LOG.debug("collectViewportTilesAsync: cannot load tile {}", tileKey, e);
+                                    return null;
+                                }).
+                                thenApply(img -> new ViewportTile<>(seqX, seqY, tileKey, img,
+                                        viewportX, viewportY, tileOffsetX, tileOffsetY, width, height)));
+                    }
+
+                    @Override
+                    public void buffer(final long tileId) {
+                        bufferKeys.add(TileId.toTileKey(tileId));
+                    }
+                });
+
+        // Buffer tiles are only started after all viewport tiles, to give the viewport priority.
+        for (final TileKey bufferKey : bufferKeys) {
+            cacheTileAsync(bufferKey, executor);
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).
+                thenApply(ignored -> {
+                    final Collection<ViewportTile<T>> tiles = new ArrayList<>(futures.size());
+                    for (final CompletableFuture<ViewportTile<T>> future : futures) {
+                        tiles.add(future.join());
+                    }
+                    return tiles;
+                });
+    }
+
+    /**
+     * Load a map tile asynchronously. If the tile is already being loaded, the future of that load is returned
+     * instead of starting a new load.
+     *
+     * @param key      Tile key.
+     * @param executor Executor to load the tile on.
+     * @return Future of the tile, completed with null if missing.
+     */
+    @Nonnull
+    public CompletableFuture<T> loadTileAsync(@Nonnull final TileKey key, @Nonnull final Executor executor) {
+        assert key != null;
+        assert executor != null;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final CompletableFuture<T> inFlight = inFlightTiles.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(getTile(key));
+                } catch (final RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlightTiles.remove(key, future);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            inFlightTiles.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Buffer a map tile asynchronously, using {@link #cacheTile(TileKey)}. The request is dropped if the tile is
+     * already being loaded or buffered, or if the executor does not accept more work.
+     *
+     * @param key      Tile key.
+     * @param executor Executor to buffer the tile on.
+     */
+    public void cacheTileAsync(@Nonnull final TileKey key, @Nonnull final Executor executor) {
+        assert key != null;
+        assert executor != null;
+        if (inFlightTiles.containsKey(key) || !inFlightCacheTiles.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    cacheTile(key);
+                } catch (final RuntimeException e) {
+                    LOG.debug("cacheTileAsync: cannot cache tile {}", key, e);
+                } finally {
+                    inFlightCacheTiles.remove(key);
+                }
+            });
+        } catch (final RejectedExecutionException ignored) {
+            inFlightCacheTiles.remove(key);
+        }
+    }
+
+    /**
+     * Callback function for the layout of viewport tiles, which does not load the tiles itself.
+     */
+    private interface ViewportLayoutProcessor {
+
+        /**
+         * Process the layout of one viewport tile. See {@link ViewportTileProcessor#process}.
+         */
+        void process(
+                final int seqX, final int seqY,
+                final long tileId,
+                final int viewportX, final int viewportY,
+                final int tileOffsetX, final int tileOffsetY, final int width, final int height);
+
+        /**
+         * Process a buffer tile, which is not shown in the viewport.
+         *
+         * @param tileId Tile id.
+         */
+        void buffer(final long tileId);
+    }
+
+    /**
+     * Determine the layout of all tiles for a specific viewport, without loading them.
+     *
+     * @param widthPixels  Width of viewport in pixels.
+     * @param heightPixels Height of viewport in pixels.
+     * @param mapCenter    Center of map, as lat/lon.
+     * @param zoomLevel    Zoomlevel (from 0..LbsConst.MapConst.MAXIMUM_ZOOM).
+     * @param bufferTiles  True if buffer tiles around the viewport should be processed as well.
+     * @param layout       Layout processor.
+     */
+    @SuppressWarnings("ConstantConditions")
+    private void layoutViewportTiles(
+            final int widthPixels, final int heightPixels,
+            @Nonnull final GeoPoint mapCenter, final int zoomLevel, final boolean bufferTiles,
+            @Nonnull final ViewportLayoutProcessor layout) {
         assert widthPixels >= 0;
         assert heightPixels >= 0;
         assert mapCenter != null;
-        assert processor != null;
+        assert layout != null;
         assert MathUtils.isBetween(zoomLevel, 0, MapConst.MAXIMUM_ZOOM) : zoomLevel;
         assert MapConst.PIXELS_PER_TILE > 0;
-        assert processor != null;
 
         // Calculate total number of tiles on this zoomlevel.
         final long nrTiles = (1L << zoomLevel);
@@ -172,28 +465,33 @@ public abstract class TileMap<T> {
         assert MathUtils.isBetween(offsetCenterPixelY, 0, MapConst.PIXELS_PER_TILE) : offsetCenterPixelY;
 
         // Determine top-left tile.
-        final TileOffset centerTile = convertLatLonToTileOffset(mapCenter, zoomLevel);
-        long tileIndexX = (((centerTile.getKey().getTileX() - shiftTileIndexX) + nrTiles) % nrTiles);
-        long tileIndexY = (((centerTile.getKey().getTileY() - shiftTileIndexY) + nrTiles) % nrTiles);
+        final double mercX = MercatorPoint.lonToMercX(mapCenter.getLon());
+        final double mercY = MercatorPoint.latToMercY(mapCenter.getLat());
+        final long centerTileX = mercToTileIndex(mercX, nrTiles);
+        final long centerTileY = mercToTileIndex(mercY, nrTiles);
+        final int centerTileOffsetX = mercToTileOffset(mercX, centerTileX, nrTiles);
+        final int centerTileOffsetY = mercToTileOffset(mercY, centerTileY, nrTiles);
+        long tileIndexX = (((centerTileX - shiftTileIndexX) + nrTiles) % nrTiles);
+        long tileIndexY = (((centerTileY - shiftTileIndexY) + nrTiles) % nrTiles);
         assert (0 <= tileIndexX) && (tileIndexX < nrTiles) : tileIndexX;
         assert (0 <= tileIndexY) && (tileIndexY < nrTiles) : tileIndexY;
 
         // Offset within tile may require an additional tile shift.
         final int offsetTilePixelX;
         final int offsetTilePixelY;
-        if (centerTile.getOffsetX() <= offsetCenterPixelX) {
-            offsetTilePixelX = (MapConst.PIXELS_PER_TILE - 1) - (offsetCenterPixelX - centerTile.getOffsetX());
+        if (centerTileOffsetX <= offsetCenterPixelX) {
+            offsetTilePixelX = (MapConst.PIXELS_PER_TILE - 1) - (offsetCenterPixelX - centerTileOffsetX);
             tileIndexX = ((tileIndexX + nrTiles) - 1) % nrTiles;
         } else {
-            offsetTilePixelX = centerTile.getOffsetX() - offsetCenterPixelX;
+            offsetTilePixelX = centerTileOffsetX - offsetCenterPixelX;
         }
         assert MathUtils.isBetween(offsetTilePixelX, 0, MapConst.PIXELS_PER_TILE) : offsetTilePixelX;
 
-        if (centerTile.getOffsetY() <= offsetCenterPixelY) {
-            offsetTilePixelY = (MapConst.PIXELS_PER_TILE - 1) - (offsetCenterPixelY - centerTile.getOffsetY());
+        if (centerTileOffsetY <= offsetCenterPixelY) {
+            offsetTilePixelY = (MapConst.PIXELS_PER_TILE - 1) - (offsetCenterPixelY - centerTileOffsetY);
             tileIndexY = ((tileIndexY + nrTiles) - 1) % nrTiles;
         } else {
-            offsetTilePixelY = centerTile.getOffsetY() - offsetCenterPixelY;
+            offsetTilePixelY = centerTileOffsetY - offsetCenterPixelY;
         }
         assert MathUtils.isBetween(offsetTilePixelY, 0, MapConst.PIXELS_PER_TILE) : offsetTilePixelY;
 
@@ -201,33 +499,24 @@ public abstract class TileMap<T> {
         final long startTileIndexX = tileIndexX;
         final long startTileIndexY = tileIndexY;
 
-        // Create top-left tile object.
-        final TileKey topLeftKey = new TileKey(tileIndexX, tileIndexY, zoomLevel);
-        final TileOffset topLeft = new TileOffset(topLeftKey, offsetTilePixelX, offsetTilePixelY);
-
         // Set colors for grid and draw map.
         tileIndexY = startTileIndexY % nrTiles;
         int seqIndexY = 0;
         int viewportPixelX = 0;
         int viewportPixelY = 0;
-        int tileOffsetPixelY = topLeft.getOffsetY();
+        int tileOffsetPixelY = offsetTilePixelY;
         while (viewportPixelY < heightPixels) {
             tileIndexX = startTileIndexX % nrTiles;
             int seqIndexX = 0;
-            int tileOffsetPixelX = topLeft.getOffsetX();
+            int tileOffsetPixelX = offsetTilePixelX;
             final int tilePixelHeight = Math.min(MapConst.PIXELS_PER_TILE, heightPixels - viewportPixelY) - tileOffsetPixelY;
 
             while (viewportPixelX < widthPixels) {
                 final int tilePixelWidth = Math.min(MapConst.PIXELS_PER_TILE, widthPixels - viewportPixelX) - tileOffsetPixelX;
 
-                // Create tile key.
-                final TileKey tileKey = new TileKey(tileIndexX, tileIndexY, zoomLevel);
-
-                // Get tile from cache (or load it now).
-                final T img = getTile(tileKey);
-
                 // Call "process()" method for tile.
-                processor.process(seqIndexX, seqIndexY, tileKey, img, viewportPixelX, viewportPixelY,
+                final long tileId = TileId.pack(tileIndexX, tileIndexY, zoomLevel);
+                layout.process(seqIndexX, seqIndexY, tileId, viewportPixelX, viewportPixelY,
                         tileOffsetPixelX, tileOffsetPixelY, tilePixelWidth, tilePixelHeight);
 
                 tileOffsetPixelX = 0;
@@ -242,7 +531,7 @@ public abstract class TileMap<T> {
             tileIndexY = (tileIndexY + 1) % nrTiles;
         }
 
-        if (preCaching) {
+        if (bufferTiles) {
             final long bufferFromIndexX = Math.max(0, startTileIndexX - bufferColumns);
             final long bufferToIndexX = Math.min(nrTiles, (tileIndexX + bufferColumns) - 1);
             final long bufferFromIndexY = Math.max(0, startTileIndexY - bufferRows);
@@ -251,28 +540,24 @@ public abstract class TileMap<T> {
             // Top.
             for (long y = bufferFromIndexY; y < startTileIndexY; ++y) {
                 for (long x = bufferFromIndexX; x <= bufferToIndexX; ++x) {
-                    final TileKey key = new TileKey(x % nrTiles, y % nrTiles, zoomLevel);
-                    cacheTile(key);
+                    layout.buffer(TileId.pack(x % nrTiles, y % nrTiles, zoomLevel));
                 }
             }
 
             // Left/right.
             for (long y = startTileIndexY; y < tileIndexY; ++y) {
                 for (long x = bufferFromIndexX; x < startTileIndexX; ++x) {
-                    final TileKey key = new TileKey(x % nrTiles, y % nrTiles, zoomLevel);
-                    cacheTile(key);
+                    layout.buffer(TileId.pack(x % nrTiles, y % nrTiles, zoomLevel));
                 }
                 for (long x = tileIndexX; x <= bufferToIndexX; ++x) {
-                    final TileKey key = new TileKey(x % nrTiles, y % nrTiles, zoomLevel);
-                    cacheTile(key);
+                    layout.buffer(TileId.pack(x % nrTiles, y % nrTiles, zoomLevel));
                 }
             }
 
             // Bottom.
             for (long y = tileIndexY; y <= bufferToIndexY; ++y) {
                 for (long x = bufferFromIndexX; x <= bufferToIndexX; ++x) {
-                    final TileKey key = new TileKey(x % nrTiles, y % nrTiles, zoomLevel);
-                    cacheTile(key);
+                    layout.buffer(TileId.pack(x % nrTiles, y % nrTiles, zoomLevel));
                 }
             }
         }
@@ -339,24 +624,48 @@ public abstract class TileMap<T> {
         assert MathUtils.isBetween(mercs.getMercY(), 0.0, 1.0) : mercs.getMercY();
 
         // Maximum number of tiles on this zoom level (same for X and Y).
-        final double nrTiles = (1L << zoomLevel);
+        final long nrTiles = (1L << zoomLevel);
 
         // Determine tile X and Y.
-        final long tileX = Math.min((long) (nrTiles - 1), (long) Math.floor(mercs.getMercX() * nrTiles));
-        final long tileY = Math.min((long) (nrTiles - 1), (long) Math.floor(mercs.getMercY() * nrTiles));
+        final long tileX = mercToTileIndex(mercs.getMercX(), nrTiles);
+        final long tileY = mercToTileIndex(mercs.getMercY(), nrTiles);
         final TileKey key = new TileKey(tileX, tileY, zoomLevel);
 
-        final double deltaMercX = mercs.getMercX() - ((double) tileX / nrTiles);
-        final double deltaMercY = mercs.getMercY() - ((double) tileY / nrTiles);
-        final long nrPixels = Math.round(nrTiles * MapConst.PIXELS_PER_TILE);
-        final int offsetX = (int) Math.min(Math.round(deltaMercX * nrPixels), MapConst.PIXELS_PER_TILE);
-        final int offsetY = (int) Math.min(Math.round(deltaMercY * nrPixels), MapConst.PIXELS_PER_TILE);
+        final int offsetX = mercToTileOffset(mercs.getMercX(), tileX, nrTiles);
+        final int offsetY = mercToTileOffset(mercs.getMercY(), tileY, nrTiles);
         assert MathUtils.isBetween(offsetX, 0, MapConst.PIXELS_PER_TILE) : offsetX;
         assert MathUtils.isBetween(offsetY, 0, MapConst.PIXELS_PER_TILE) : offsetY;
 
         return new TileOffset(key, offsetX, offsetY);
     }
 
+    /**
+     * Return the tile index (X or Y) of a normalized Mercator coordinate.
+     *
+     * @param merc    Mercator X or Y, 0..1.
+     * @param nrTiles Number of tiles on the zoom level (in one direction).
+     * @return Tile index.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    static long mercToTileIndex(final double merc, final long nrTiles) {
+        return Math.min(nrTiles - 1, (long) Math.floor(merc * nrTiles));
+    }
+
+    /**
+     * Return the pixel offset (X or Y) within a tile of a normalized Mercator coordinate.
+     *
+     * @param merc      Mercator X or Y, 0..1.
+     * @param tileIndex Tile index of the coordinate.
+     * @param nrTiles   Number of tiles on the zoom level (in one direction).
+     * @return Offset within the tile, 0..MapConst.PIXELS_PER_TILE.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    private static int mercToTileOffset(final double merc, final long tileIndex, final long nrTiles) {
+        final double deltaMerc = merc - ((double) tileIndex / nrTiles);
+        final long nrPixels = nrTiles * MapConst.PIXELS_PER_TILE;
+        return (int) Math.min(Math.round(deltaMerc * nrPixels), MapConst.PIXELS_PER_TILE);
+    }
+
     /**
      * Convert a map tile with zoomlevel and offset to a lat/lon coordinate.
      *
@@ -402,11 +711,10 @@ public abstract class TileMap<T> {
         assert mapCenter != null;
         final double deltaX = posX - ((double) width / 2.0);
         final double deltaY = posY - ((double) height / 2.0);
-        final double totalSize = (1L << zoomLevel) * MapConst.PIXELS_PER_TILE;
+        final double totalSize = MercatorProjection.getWorldSizePixels(zoomLevel);
 
-        final MercatorPoint mercs = MercatorPoint.latLonToMercs(mapCenter);
-        final double mercX = MathUtils.limitTo(mercs.getMercX() + (deltaX / totalSize), 0.0, 1.0);
-        final double mercY = MathUtils.limitTo(mercs.getMercY() + (deltaY / totalSize), 0.0, 1.0);
+        final double mercX = MathUtils.limitTo(MercatorPoint.lonToMercX(mapCenter.getLon()) + (deltaX / totalSize), 0.0, 1.0);
+        final double mercY = MathUtils.limitTo(MercatorPoint.latToMercY(mapCenter.getLat()) + (deltaY / totalSize), 0.0, 1.0);
         final GeoPoint point = MercatorPoint.mercsToLatLon(mercX, mercY);
         return point;
     }
@@ -434,13 +742,10 @@ public abstract class TileMap<T> {
         assert width > 0;
         assert height > 0;
         assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) : zoomLevel;
-        final double totalSize = (1L << zoomLevel) * MapConst.PIXELS_PER_TILE;
-
-        final MercatorPoint mercsCenter = MercatorPoint.latLonToMercs(mapCenter);
-        final MercatorPoint mercsPoint = MercatorPoint.latLonToMercs(point);
+        final double totalSize = MercatorProjection.getWorldSizePixels(zoomLevel);
 
-        final double deltaX = mercsCenter.getMercX() - mercsPoint.getMercX();
-        final double deltaY = mercsCenter.getMercY() - mercsPoint.getMercY();
+        final double deltaX = MercatorPoint.lonToMercX(mapCenter.getLon()) - MercatorPoint.lonToMercX(point.getLon());
+        final double deltaY = MercatorPoint.latToMercY(mapCenter.getLat()) - MercatorPoint.latToMercY(point.getLat());
 
         final double centerX = width / 2.0;
         final double centerY = height / 2.0;
@@ -532,11 +837,10 @@ public abstract class TileMap<T> {
             @Nonnull final GeoPoint mapCenter) {
         assert mapCenter != null;
         assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) : zoomLevel;
-        final double totalSize = (1L << zoomLevel) * MapConst.PIXELS_PER_TILE;
+        final double totalSize = MercatorProjection.getWorldSizePixels(zoomLevel);
 
-        final MercatorPoint mercs = MercatorPoint.latLonToMercs(mapCenter);
-        final double mercX = MathUtils.limitTo(mercs.getMercX() + (deltaX / totalSize), 0.0, 1.0);
-        final double mercY = MathUtils.limitTo(mercs.getMercY() + (deltaY / totalSize), 0.0, 1.0);
+        final double mercX = MathUtils.limitTo(MercatorPoint.lonToMercX(mapCenter.getLon()) + (deltaX / totalSize), 0.0, 1.0);
+        final double mercY = MathUtils.limitTo(MercatorPoint.latToMercY(mapCenter.getLat()) + (deltaY / totalSize), 0.0, 1.0);
         final GeoPoint point = MercatorPoint.mercsToLatLon(mercX, mercY);
         return point;
     }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.tomtom.speedtools.geometry.Geo;
+import com.tomtom.speedtools.geometry.GeoArea;
+import com.tomtom.speedtools.geometry.GeoPoint;
+import com.tomtom.speedtools.geometry.GeoRectangle;
+import com.tomtom.speedtools.utils.MathUtils;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+/**
+ * Utility class for ranges of tiles and for the tile pyramid: the tiles of all zoom levels, where every tile has 4
+ * children at the next zoom level. Tiles are identified by tile ids (see {@link TileId}).
+ *
+ * Ranges of tiles are always produced in Morton (quadkey) order. Tiles which are close on the map are close in this
+ * order as well, so processing tiles in this order, for example to prefetch or invalidate them in batches, is
+ * locality-friendly for caches and tile servers.
+ */
+public final class TilePyramid {
+
+    private TilePyramid() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Callback function for tile ids.
+     */
+    @FunctionalInterface
+    public interface TileIdVisitor {
+
+        /**
+         * Visit a tile.
+         *
+         * @param tileId Tile id.
+         */
+        void visit(final long tileId);
+    }
+
+    /**
+     * Return the parent of a tile: the tile at the previous zoom level which contains the tile.
+     *
+     * @param tileId Tile id, with a zoom level of at least 1.
+     * @return Tile id of the parent.
+     */
+    public static long getParent(final long tileId) {
+        return getAncestor(tileId, TileId.getZoomLevel(tileId) - 1);
+    }
+
+    /**
+     * Return the ancestor of a tile at a specific zoom level: the tile at that zoom level which contains the tile.
+     *
+     * @param tileId    Tile id.
+     * @param zoomLevel Zoom level of the ancestor, at most the zoom level of the tile.
+     * @return Tile id of the ancestor.
+     */
+    public static long getAncestor(final long tileId, final int zoomLevel) {
+        final int tileZoomLevel = TileId.getZoomLevel(tileId);
+        assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, tileZoomLevel) : zoomLevel + ", " + tileZoomLevel;
+        return TileId.fromMortonCode(TileId.getMortonCode(tileId) >>> (2 * (tileZoomLevel - zoomLevel)), zoomLevel);
+    }
+
+    /**
+     * Return whether a tile contains another tile (or is the same tile).
+     *
+     * @param ancestorId Tile id of the possible ancestor.
+     * @param tileId     Tile id.
+     * @return True if the tile is the ancestor itself, or a descendant of it.
+     */
+    public static boolean isAncestorOrSelf(final long ancestorId, final long tileId) {
+        final int ancestorZoomLevel = TileId.getZoomLevel(ancestorId);
+        return (ancestorZoomLevel <= TileId.getZoomLevel(tileId)) &&
+                (getAncestor(tileId, ancestorZoomLevel) == ancestorId);
+    }
+
+    /**
+     * Return a child of a tile. The 4 children of a tile have consecutive tile ids, so the children are
+     * getChild(tileId, 0) up to and including getChild(tileId, 0) + 3.
+     *
+     * @param tileId   Tile id, with a zoom level below the maximum zoom level.
+     * @param quadrant Quadrant of the child: 0 = top-left, 1 = top-right, 2 = bottom-left, 3 = bottom-right.
+     * @return Tile id of the child.
+     */
+    public static long getChild(final long tileId, final int quadrant) {
+        assert MathUtils.isBetween(quadrant, 0, 3) : quadrant;
+        final int zoomLevel = TileId.getZoomLevel(tileId);
+        assert zoomLevel < MapConst.MAXIMUM_ZOOM : zoomLevel;
+        return TileId.fromMortonCode((TileId.getMortonCode(tileId) << 2) | quadrant, zoomLevel + 1);
+    }
+
+    /**
+     * Return the area of a tile.
+     *
+     * @param tileId Tile id.
+     * @return Rectangle of the tile.
+     */
+    @Nonnull
+    public static GeoRectangle getTileRectangle(final long tileId) {
+        final long tileX = TileId.getTileX(tileId);
+        final long tileY = TileId.getTileY(tileId);
+        final double nrTiles = (1L << TileId.getZoomLevel(tileId));
+        final GeoPoint southWest = MercatorPoint.mercsToLatLon(tileX / nrTiles, (tileY + 1) / nrTiles);
+        final GeoPoint northEast = MercatorPoint.mercsToLatLon((tileX + 1) / nrTiles, tileY / nrTiles);
+
+        // The east side of the last column is lon 180, which would otherwise wrap to -180.
+        return new GeoRectangle(southWest, ((tileX + 1) == nrTiles) ? northEast.withLon(Geo.LON180) : northEast);
+    }
+
+    /**
+     * Visit all tiles which overlap a rectangle at a zoom level, in Morton order. Rectangles which wrap around the
+     * 180th meridian are supported. This method does not create objects per tile.
+     *
+     * @param rectangle Rectangle.
+     * @param zoomLevel Zoom level.
+     * @param visitor   Visitor, called once for every tile.
+     */
+    public static void forEachTileId(
+            @Nonnull final GeoRectangle rectangle, final int zoomLevel,
+            @Nonnull final TileIdVisitor visitor) {
+        assert rectangle != null;
+        assert visitor != null;
+        assert MathUtils.isBetween(zoomLevel, MapConst.MINIMUM_ZOOM, MapConst.MAXIMUM_ZOOM) : zoomLevel;
+        final long nrTiles = (1L << zoomLevel);
+        final long fromX = TileMap.mercToTileIndex(MercatorPoint.lonToMercX(rectangle.getSouthWest().getLon()), nrTiles);
+        final long toX = TileMap.mercToTileIndex(MercatorPoint.lonToMercX(rectangle.getNorthEast().getLon()), nrTiles);
+        final long fromY = TileMap.mercToTileIndex(MercatorPoint.latToMercY(rectangle.getNorthEast().getLat()), nrTiles);
+        final long toY = TileMap.mercToTileIndex(MercatorPoint.latToMercY(rectangle.getSouthWest().getLat()), nrTiles);
+        visitRange(0, 0, 0, zoomLevel, fromX, toX, fromY, toY, visitor);
+    }
+
+    /**
+     * Return all tiles which overlap a rectangle at a zoom level, in Morton order.
+     *
+     * @param rectangle Rectangle.
+     * @param zoomLevel Zoom level.
+     * @return Tile ids.
+     */
+    @Nonnull
+    public static long[] getTileIds(@Nonnull final GeoRectangle rectangle, final int zoomLevel) {
+        final LongStream.Builder tileIds = LongStream.builder();
+        forEachTileId(rectangle, zoomLevel, tileIds::add);
+        return tileIds.build().toArray();
+    }
+
+    /**
+     * Return all tiles which overlap a rectangle at a zoom level, in Morton order, as tile keys. This can be used to
+     * invalidate an area of a cache in one call, with {@link CachedTileMap#invalidateAll(Iterable)}.
+     *
+     * @param rectangle Rectangle.
+     * @param zoomLevel Zoom level.
+     * @return Tile keys.
+     */
+    @Nonnull
+    public static List<TileKey> getTileKeys(@Nonnull final GeoRectangle rectangle, final int zoomLevel) {
+        final List<TileKey> tileKeys = new ArrayList<>();
+        forEachTileId(rectangle, zoomLevel, tileId -> tileKeys.add(TileId.toTileKey(tileId)));
+        return tileKeys;
+    }
+
+    /**
+     * Cover an area with a minimal set of tiles, using larger tiles (from lower zoom levels) where the area contains
+     * them completely. Tiles at the maximum zoom level may cover the area only partially. Tiles which only touch the
+     * edge of the area may be included.
+     *
+     * @param area         Area to cover.
+     * @param minZoomLevel Minimum zoom level of the tiles.
+     * @param maxZoomLevel Maximum zoom level of the tiles.
+     * @return Tile ids, ordered by Morton order of their top-left descendants (so the order is locality-friendly
+     * across zoom levels).
+     */
+    @Nonnull
+    public static long[] coverArea(@Nonnull final GeoArea area, final int minZoomLevel, final int maxZoomLevel) {
+        assert area != null;
+        assert MathUtils.isBetween(minZoomLevel, MapConst.MINIMUM_ZOOM, maxZoomLevel) : minZoomLevel;
+        assert MathUtils.isBetween(maxZoomLevel, minZoomLevel, MapConst.MAXIMUM_ZOOM) : maxZoomLevel;
+        final LongStream.Builder tileIds = LongStream.builder();
+        coverTile(TileId.pack(0, 0, 0), area, minZoomLevel, maxZoomLevel, tileIds);
+        return tileIds.build().toArray();
+    }
+
+    private static void visitRange(
+            final long tileX, final long tileY, final int level, final int zoomLevel,
+            final long fromX, final long toX, final long fromY, final long toY,
+            @Nonnull final TileIdVisitor visitor) {
+
+        // Determine the range of tiles at the target zoom level which is covered by this tile.
+        final int shift = zoomLevel - level;
+        final long minX = tileX << shift;
+        final long maxX = ((tileX + 1) << shift) - 1;
+        final long minY = tileY << shift;
+        final long maxY = ((tileY + 1) << shift) - 1;
+        final boolean overlapsX = (fromX <= toX) ?
+                ((maxX >= fromX) && (minX <= toX)) :
+                ((maxX >= fromX) || (minX <= toX));     // Wrapped around the 180th meridian.
+        if (!overlapsX || (maxY < fromY) || (minY > toY)) {
+            return;
+        }
+        if (level == zoomLevel) {
+            visitor.visit(TileId.pack(tileX, tileY, zoomLevel));
+            return;
+        }
+
+        // Visit children in Morton order.
+        for (int quadrant = 0; quadrant < 4; ++quadrant) {
+            visitRange((tileX << 1) | (quadrant & 1), (tileY << 1) | (quadrant >> 1), level + 1, zoomLevel,
+                    fromX, toX, fromY, toY, visitor);
+        }
+    }
+
+    private static void coverTile(
+            final long tileId, @Nonnull final GeoArea area, final int minZoomLevel, final int maxZoomLevel,
+            @Nonnull final LongStream.Builder tileIds) {
+        final GeoRectangle tileRectangle = getTileRectangle(tileId);
+        if (!area.overlaps(tileRectangle)) {
+            return;
+        }
+        final int zoomLevel = TileId.getZoomLevel(tileId);
+        if ((zoomLevel == maxZoomLevel) || ((zoomLevel >= minZoomLevel) && area.contains(tileRectangle))) {
+            tileIds.add(tileId);
+            return;
+        }
+        final long firstChild = getChild(tileId, 0);
+        for (int quadrant = 0; quadrant < 4; ++quadrant) {
+            coverTile(firstChild + quadrant, area, minZoomLevel, maxZoomLevel, tileIds);
+        }
+    }
+}
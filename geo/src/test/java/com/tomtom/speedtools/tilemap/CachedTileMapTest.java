@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.google.common.cache.CacheLoader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachedTileMapTest {
+    private static final Logger LOG = LoggerFactory.getLogger(CachedTileMapTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTwoTierWarmRestart() throws IOException {
+        LOG.info("testTwoTierWarmRestart");
+        final AtomicInteger loads = new AtomicInteger();
+        final CacheLoader<TileKey, byte[]> loader = new CacheLoader<TileKey, byte[]>() {
+
+            @Override
+            public byte[] load(@Nonnull final TileKey key) {
+                loads.incrementAndGet();
+                return new byte[]{(byte) key.getTileX(), (byte) key.getTileY()};
+            }
+        };
+        final TileKey key = new TileKey(3, 4, 5);
+
+        try (TileDiskStore store = new TileDiskStore(folder.getRoot(), 4096)) {
+            final CachedTileMap<byte[]> map = new CachedTileMap<>(-1, new BytesCodec(), store, loader);
+            Assert.assertArrayEquals(new byte[]{3, 4}, map.getTile(key));
+            Assert.assertArrayEquals(new byte[]{3, 4}, map.getTile(key));
+            Assert.assertEquals(1, map.stats().hitCount());
+            Assert.assertEquals(1, map.diskStats().missCount());
+        }
+        Assert.assertEquals(1, loads.get());
+
+        // After a restart, the tile is loaded from disk.
+        try (TileDiskStore store = new TileDiskStore(folder.getRoot(), 4096)) {
+            final CachedTileMap<byte[]> map = new CachedTileMap<>(-1, new BytesCodec(), store, loader);
+            Assert.assertArrayEquals(new byte[]{3, 4}, map.getTile(key));
+            Assert.assertEquals(1, map.diskStats().hitCount());
+
+            // Invalidating the tile removes it from disk as well.
+            map.invalidate(key);
+            Assert.assertArrayEquals(new byte[]{3, 4}, map.getTile(key));
+        }
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testHeapTierIsBoundedByBytes() throws IOException {
+        LOG.info("testHeapTierIsBoundedByBytes");
+        try (TileDiskStore store = new TileDiskStore(folder.getRoot(), 4096)) {
+            final CachedTileMap<byte[]> map = new CachedTileMap<>(100, new BytesCodec(), store,
+                    new CacheLoader<TileKey, byte[]>() {
+
+                        @Override
+                        public byte[] load(@Nonnull final TileKey key) {
+                            return new byte[40];
+                        }
+                    });
+            map.getTile(new TileKey(0, 0, 2));
+            map.getTile(new TileKey(1, 0, 2));
+            map.getTile(new TileKey(2, 0, 2));
+            Assert.assertTrue(map.stats().evictionCount() > 0);
+            Assert.assertEquals(3, store.size());
+        }
+    }
+
+    @Test
+    public void testFrontCacheIsBoundedByHeapTier() throws IOException {
+        LOG.info("testFrontCacheIsBoundedByHeapTier");
+        final AtomicInteger loads = new AtomicInteger();
+        try (TileDiskStore store = new TileDiskStore(folder.getRoot(), 4096)) {
+            // Use a small maximum weight, so the heap tier has a single segment and evicts least recently used tiles.
+            final CachedTileMap<byte[]> map = new CachedTileMap<>(19, new BytesCodec(), store,
+                    new CacheLoader<TileKey, byte[]>() {
+
+                        @Override
+                        public byte[] load(@Nonnull final TileKey key) {
+                            loads.incrementAndGet();
+                            return new byte[8];
+                        }
+                    });
+            final long tileId = TileId.pack(0, 0, 2);
+            map.getTile(tileId);
+            map.getTile(tileId);
+            Assert.assertEquals(1, loads.get());
+
+            // Evicting the tile from the heap tier removes it from the front cache too.
+            map.getTile(new TileKey(1, 0, 2));
+            map.getTile(new TileKey(2, 0, 2));
+            map.getTile(tileId);
+            Assert.assertEquals(1, map.diskStats().hitCount());
+        }
+    }
+
+    // Codec for tiles which are already encoded.
+    private static class BytesCodec implements TileCodec<byte[]> {
+
+        @Nonnull
+        @Override
+        public byte[] encode(@Nonnull final byte[] tile) {
+            return tile;
+        }
+
+        @Nonnull
+        @Override
+        public byte[] decode(@Nonnull final byte[] bytes) {
+            return bytes;
+        }
+
+        @Override
+        public int getSizeInBytes(@Nonnull final byte[] tile) {
+            return tile.length;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.tomtom.speedtools.geometry.GeoPoint;
+import com.tomtom.speedtools.objects.Tuple;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+public class MercatorProjectionTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MercatorProjectionTest.class);
+
+    @Test
+    public void testWorldSizePixels() {
+        LOG.info("testWorldSizePixels");
+        Assert.assertEquals(MapConst.PIXELS_PER_TILE, MercatorProjection.getWorldSizePixels(MapConst.MINIMUM_ZOOM));
+        Assert.assertEquals(1024L * MapConst.PIXELS_PER_TILE, MercatorProjection.getWorldSizePixels(10));
+        Assert.assertEquals((1L << MapConst.MAXIMUM_ZOOM) * MapConst.PIXELS_PER_TILE,
+                MercatorProjection.getWorldSizePixels(MapConst.MAXIMUM_ZOOM));
+    }
+
+    @Test
+    public void testExact() {
+        LOG.info("testExact");
+        for (double lat = -90.0; lat <= 90.0; lat += 0.25) {
+            Assert.assertEquals(MercatorPoint.latToMercY(lat), MercatorProjection.EXACT.latToMercY(lat), 0.0);
+        }
+        for (double lon = -180.0; lon < 180.0; lon += 0.25) {
+            Assert.assertEquals(MercatorPoint.lonToMercX(lon), MercatorProjection.EXACT.lonToMercX(lon), 0.0);
+        }
+    }
+
+    @Test
+    public void testInterpolated() {
+        LOG.info("testInterpolated");
+        final double worldSize = MercatorProjection.getWorldSizePixels(MapConst.MAXIMUM_ZOOM);
+        double maxError = 0.0;
+        for (double lat = -90.0; lat <= 90.0; lat += 0.001) {
+            final double error = Math.abs(MercatorPoint.latToMercY(lat) -
+                    MercatorProjection.INTERPOLATED.latToMercY(lat)) * worldSize;
+            maxError = Math.max(maxError, error);
+        }
+        LOG.info("testInterpolated: max error at zoom level {} is {} pixels", MapConst.MAXIMUM_ZOOM, maxError);
+        Assert.assertTrue(maxError < 0.01);
+
+        // A small table is less precise.
+        final MercatorProjection coarse = MercatorProjection.createInterpolated(16);
+        Assert.assertEquals(MercatorPoint.latToMercY(52.0), coarse.latToMercY(52.0), 1.0e-4);
+        Assert.assertEquals(MercatorPoint.latToMercY(MapConst.LATITUDE_MAX), coarse.latToMercY(90.0), 1.0e-12);
+        Assert.assertEquals(MercatorPoint.latToMercY(MapConst.LATITUDE_MIN), coarse.latToMercY(-90.0), 1.0e-12);
+    }
+
+    @Test
+    public void testPixelsAndTileIds() {
+        LOG.info("testPixelsAndTileIds");
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000; ++i) {
+            final double lat = (random.nextDouble() * 170.0) - 85.0;
+            final double lon = (random.nextDouble() * 360.0) - 180.0;
+            final int zoomLevel = random.nextInt(MapConst.ZOOM_LEVELS);
+            final TileOffset tileOffset = TileMap.convertLatLonToTileOffset(new GeoPoint(lat, lon), zoomLevel);
+            final long pixelX = (tileOffset.getKey().getTileX() * MapConst.PIXELS_PER_TILE) + tileOffset.getOffsetX();
+            final long pixelY = (tileOffset.getKey().getTileY() * MapConst.PIXELS_PER_TILE) + tileOffset.getOffsetY();
+            Assert.assertEquals(pixelX, MercatorProjection.EXACT.lonToPixelX(lon, zoomLevel), 1.0);
+            Assert.assertEquals(pixelY, MercatorProjection.EXACT.latToPixelY(lat, zoomLevel), 1.0);
+            Assert.assertEquals(MercatorProjection.EXACT.latToPixelY(lat, zoomLevel),
+                    MercatorProjection.INTERPOLATED.latToPixelY(lat, zoomLevel), 1.0);
+            for (final MercatorProjection projection : new MercatorProjection[]{
+                    MercatorProjection.EXACT, MercatorProjection.INTERPOLATED}) {
+                final long tileId = projection.latLonToTileId(lat, lon, zoomLevel);
+                Assert.assertEquals(zoomLevel, TileId.getZoomLevel(tileId));
+                Assert.assertEquals(projection.lonToPixelX(lon, zoomLevel) / MapConst.PIXELS_PER_TILE,
+                        TileId.getTileX(tileId));
+                Assert.assertEquals(projection.latToPixelY(lat, zoomLevel) / MapConst.PIXELS_PER_TILE,
+                        TileId.getTileY(tileId));
+            }
+        }
+        final long max = MercatorProjection.getWorldSizePixels(3) - 1;
+        Assert.assertEquals(max, MercatorProjection.EXACT.lonToPixelX(180.0, 3));
+        Assert.assertEquals(MercatorProjection.EXACT.latToPixelY(MapConst.LATITUDE_MIN, 3),
+                MercatorProjection.EXACT.latToPixelY(-90.0, 3));
+        Assert.assertEquals(MercatorProjection.EXACT.latToPixelY(MapConst.LATITUDE_MAX, 3),
+                MercatorProjection.EXACT.latToPixelY(90.0, 3));
+    }
+
+    @Test
+    public void testLatLonToViewportXY() {
+        LOG.info("testLatLonToViewportXY");
+        final Random random = new Random(2);
+        final int count = 500;
+        final double[] lats = new double[count];
+        final double[] lons = new double[count];
+        for (int i = 0; i < count; ++i) {
+            lats[i] = 51.0 + (random.nextDouble() * 2.0);
+            lons[i] = 4.0 + (random.nextDouble() * 2.0);
+        }
+        final int width = 640;
+        final int height = 480;
+        final int zoomLevel = 9;
+        final GeoPoint mapCenter = new GeoPoint(52.0, 5.0);
+        final int[] xs = new int[count];
+        final int[] ys = new int[count];
+        final int inside = MercatorProjection.EXACT.latLonToViewportXY(
+                lats, lons, count, width, height, zoomLevel, mapCenter, xs, ys);
+        Assert.assertTrue((inside > 0) && (inside < count));
+
+        int expectedInside = 0;
+        for (int i = 0; i < count; ++i) {
+            final Tuple<Integer, Integer> xy = TileMap.convertLatLonToViewportXY(
+                    new GeoPoint(lats[i], lons[i]), width, height, zoomLevel, mapCenter);
+            if (xy == null) {
+                Assert.assertEquals(MercatorProjection.OUTSIDE_VIEWPORT, xs[i]);
+                Assert.assertEquals(MercatorProjection.OUTSIDE_VIEWPORT, ys[i]);
+            } else {
+                Assert.assertEquals(xy.getValue1().intValue(), xs[i]);
+                Assert.assertEquals(xy.getValue2().intValue(), ys[i]);
+                ++expectedInside;
+            }
+        }
+        Assert.assertEquals(expectedInside, inside);
+
+        // The interpolated projection differs by at most a pixel.
+        final int[] interpolatedXs = new int[count];
+        final int[] interpolatedYs = new int[count];
+        MercatorProjection.INTERPOLATED.latLonToViewportXY(
+                lats, lons, count, width, height, zoomLevel, mapCenter, interpolatedXs, interpolatedYs);
+        for (int i = 0; i < count; ++i) {
+            if ((xs[i] != MercatorProjection.OUTSIDE_VIEWPORT) &&
+                    (interpolatedXs[i] != MercatorProjection.OUTSIDE_VIEWPORT)) {
+                Assert.assertEquals(xs[i], interpolatedXs[i], 1.0);
+                Assert.assertEquals(ys[i], interpolatedYs[i], 1.0);
+            }
+        }
+    }
+
+    @Test
+    public void testLatLonToMercs() {
+        LOG.info("testLatLonToMercs");
+        final double[] lats = {-90.0, -45.0, 0.0, 52.0};
+        final double[] lons = {-180.0, -45.0, 0.0, 179.0};
+        final double[] mercXs = new double[lats.length];
+        final double[] mercYs = new double[lats.length];
+        MercatorProjection.EXACT.latLonToMercs(lats, lons, lats.length, mercXs, mercYs);
+        for (int i = 0; i < lats.length; ++i) {
+            final MercatorPoint mercs = MercatorPoint.latLonToMercs(new GeoPoint(lats[i], lons[i]));
+            Assert.assertEquals(mercs.getMercX(), mercXs[i], 0.0);
+            Assert.assertEquals(mercs.getMercY(), mercYs[i], 0.0);
+        }
+    }
+}
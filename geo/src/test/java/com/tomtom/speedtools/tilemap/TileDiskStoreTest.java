@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TileDiskStoreTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TileDiskStoreTest.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutGetRemove() throws IOException {
+        LOG.info("testPutGetRemove");
+        try (TileDiskStore store = new TileDiskStore(folder.getRoot(), 1024)) {
+            final TileKey key = new TileKey(1, 2, 3);
+            Assert.assertNull(store.get(key));
+            Assert.assertTrue(store.put(key, new byte[]{1, 2, 3}));
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, store.get(key));
+            Assert.assertTrue(store.put(key, new byte[]{4}));
+            Assert.assertArrayEquals(new byte[]{4}, store.get(key));
+            Assert.assertEquals(1, store.size());
+            store.remove(key);
+            Assert.assertNull(store.get(key));
+            Assert.assertFalse(store.put(key, new byte[1024]));
+            Assert.assertEquals(2, store.stats().hitCount());
+            Assert.assertEquals(2, store.stats().missCount());
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        LOG.info("testEviction");
+        try (TileDiskStore store = new TileDiskStore(folder.getRoot(), 100)) {
+
+            // Every record is 20 bytes of header and 24 bytes of data, so only 2 fit.
+            final TileKey key1 = new TileKey(0, 0, 1);
+            final TileKey key2 = new TileKey(0, 1, 1);
+            final TileKey key3 = new TileKey(1, 0, 1);
+            store.put(key1, new byte[24]);
+            store.put(key2, new byte[24]);
+            store.put(key3, new byte[24]);
+            Assert.assertNull(store.get(key1));
+            Assert.assertNotNull(store.get(key2));
+            Assert.assertNotNull(store.get(key3));
+            Assert.assertEquals(1, store.stats().evictionCount());
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        LOG.info("testReopen");
+        final File directory = new File(folder.getRoot(), "tiles");
+        final TileKey key = new TileKey(5, 6, 7);
+        try (TileDiskStore store = new TileDiskStore(directory, 1024)) {
+            store.put(key, new byte[]{1, 2, 3});
+        }
+        try (TileDiskStore store = new TileDiskStore(directory, 1024)) {
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, store.get(key));
+        }
+
+        // A different capacity discards the existing tiles.
+        try (TileDiskStore store = new TileDiskStore(directory, 2048)) {
+            Assert.assertNull(store.get(key));
+        }
+
+        // But the store survives a restart with the new capacity, also if it shrinks.
+        try (TileDiskStore store = new TileDiskStore(directory, 512)) {
+            store.put(key, new byte[]{4, 5});
+        }
+        try (TileDiskStore store = new TileDiskStore(directory, 512)) {
+            Assert.assertArrayEquals(new byte[]{4, 5}, store.get(key));
+        }
+    }
+
+    @Test
+    public void testOverwrittenRecord() throws IOException {
+        LOG.info("testOverwrittenRecord");
+        final File directory = new File(folder.getRoot(), "tiles");
+        final TileKey key = new TileKey(5, 6, 7);
+        try (TileDiskStore store = new TileDiskStore(directory, 1024)) {
+            store.put(key, new byte[]{1, 2, 3});
+        }
+
+        // Overwrite the tile data, but not its header, as a tile written after the last flush would.
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "tiles.dat"), "rw")) {
+            file.seek(20);
+            file.write(new byte[]{9, 9, 9});
+        }
+        try (TileDiskStore store = new TileDiskStore(directory, 1024)) {
+            Assert.assertEquals(1, store.size());
+            Assert.assertNull(store.get(key));
+            Assert.assertEquals(0, store.size());
+            Assert.assertEquals(1, store.stats().missCount());
+        }
+    }
+}
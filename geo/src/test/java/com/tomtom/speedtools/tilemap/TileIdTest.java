@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TileIdTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TileIdTest.class);
+
+    @Test
+    public void testPackUnpack() {
+        LOG.info("testPackUnpack");
+        for (int zoomLevel = MapConst.MINIMUM_ZOOM; zoomLevel <= MapConst.MAXIMUM_ZOOM; ++zoomLevel) {
+            final long max = (1L << zoomLevel) - 1;
+            for (final long tileX : new long[]{0, max / 3, max}) {
+                for (final long tileY : new long[]{0, max / 2, max}) {
+                    final TileKey key = new TileKey(tileX, tileY, zoomLevel);
+                    final long tileId = TileId.fromTileKey(key);
+                    Assert.assertEquals(tileX, TileId.getTileX(tileId));
+                    Assert.assertEquals(tileY, TileId.getTileY(tileId));
+                    Assert.assertEquals(zoomLevel, TileId.getZoomLevel(tileId));
+                    Assert.assertEquals(key, TileId.toTileKey(tileId));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMortonOrder() {
+        LOG.info("testMortonOrder");
+
+        // Quadkey "0123" at zoom level 2 order: top-left, top-right, bottom-left, bottom-right.
+        Assert.assertEquals(0, TileId.getMortonCode(TileId.pack(0, 0, 1)));
+        Assert.assertEquals(1, TileId.getMortonCode(TileId.pack(1, 0, 1)));
+        Assert.assertEquals(2, TileId.getMortonCode(TileId.pack(0, 1, 1)));
+        Assert.assertEquals(3, TileId.getMortonCode(TileId.pack(1, 1, 1)));
+
+        // Quadkey "213" at zoom level 3 is X = 3, Y = 5.
+        Assert.assertEquals((2 * 16) + 4 + 3, TileId.getMortonCode(TileId.pack(3, 5, 3)));
+        Assert.assertEquals(TileId.pack(3, 5, 3), TileId.fromMortonCode((2 * 16) + 4 + 3, 3));
+
+        // Lower zoom levels come first.
+        Assert.assertTrue(TileId.pack(1, 1, 1) < TileId.pack(0, 0, 2));
+    }
+
+    @Test
+    public void testTileIdCache() {
+        LOG.info("testTileIdCache");
+        final TileIdCache<String> cache = new TileIdCache<>(10);
+        Assert.assertEquals(16, cache.getCapacity());
+        final long tileId = TileId.pack(1, 2, 3);
+        Assert.assertNull(cache.get(tileId));
+        cache.put(tileId, "x");
+        Assert.assertEquals("x", cache.get(tileId));
+        Assert.assertNull(cache.get(TileId.pack(2, 1, 3)));
+        cache.remove(tileId);
+        Assert.assertNull(cache.get(tileId));
+        cache.put(tileId, "y");
+        cache.clear();
+        Assert.assertNull(cache.get(tileId));
+
+        // A tile removed after the version was read is not put.
+        final int version = cache.getVersion(tileId);
+        cache.remove(tileId);
+        Assert.assertFalse(cache.put(tileId, "z", version));
+        Assert.assertNull(cache.get(tileId));
+        Assert.assertTrue(cache.put(tileId, "z", cache.getVersion(tileId)));
+        Assert.assertEquals("z", cache.get(tileId));
+    }
+}
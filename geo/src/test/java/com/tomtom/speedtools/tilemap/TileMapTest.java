@@ -24,6 +24,20 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class TileMapTest {
     private static final Logger LOG = LoggerFactory.getLogger(TileMapTest.class);
 
@@ -62,4 +76,82 @@ public class TileMapTest {
         Assert.assertEquals(new TileOffset(new TileKey(0, 2, 2), 0, 0),
                 TileMap.convertLatLonToTileOffset(new GeoPoint(0.0, -Geo.LON180), 2));
     }
+
+    @Test
+    public void testCollectViewportTilesAsync() throws InterruptedException, ExecutionException, TimeoutException {
+        LOG.info("testCollectViewportTilesAsync");
+        final CountingTileMap map = new CountingTileMap();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Collection<ViewportTile<TileKey>> expected =
+                    map.collectViewportTiles(1920, 1080, MapConst.POS_AMSTERDAM, 10);
+            final Collection<ViewportTile<TileKey>> actual =
+                    map.collectViewportTilesAsync(1920, 1080, MapConst.POS_AMSTERDAM, 10, executor).
+                            get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+            Assert.assertEquals(2 * expected.size(), map.loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadTileAsyncSharesInFlightLoad() throws InterruptedException, ExecutionException {
+        LOG.info("testLoadTileAsyncSharesInFlightLoad");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountingTileMap map = new CountingTileMap() {
+
+            @Nullable
+            @Override
+            public TileKey getTile(@Nonnull final TileKey key) {
+                try {
+                    latch.await();
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getTile(key);
+            }
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final TileKey key = new TileKey(1, 2, 3);
+            final List<CompletableFuture<TileKey>> futures = new ArrayList<>();
+            futures.add(map.loadTileAsync(key, executor));
+            futures.add(map.loadTileAsync(key, executor));
+            Assert.assertSame(futures.get(0), futures.get(1));
+            latch.countDown();
+            Assert.assertEquals(key, futures.get(0).get());
+            Assert.assertEquals(1, map.loads.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testProcessViewportTileIds() {
+        LOG.info("testProcessViewportTileIds");
+        final CountingTileMap map = new CountingTileMap();
+        final List<ViewportTile<TileKey>> expected =
+                new ArrayList<>(map.collectViewportTiles(1000, 700, MapConst.POS_PARIS, 12));
+        final List<ViewportTile<TileKey>> actual = new ArrayList<>();
+        map.processViewportTileIds(1000, 700, MapConst.POS_PARIS, 12,
+                (final int seqX, final int seqY, final long tileId, @Nullable final TileKey img,
+                 final int viewportX, final int viewportY,
+                 final int tileOffsetX, final int tileOffsetY, final int width, final int height) ->
+                        actual.add(new ViewportTile<>(seqX, seqY, TileId.toTileKey(tileId), img,
+                                viewportX, viewportY, tileOffsetX, tileOffsetY, width, height)));
+        Assert.assertEquals(expected, actual);
+    }
+
+    // Tile map which returns the tile key as image and counts the number of loads.
+    private static class CountingTileMap extends TileMap<TileKey> {
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Nullable
+        @Override
+        public TileKey getTile(@Nonnull final TileKey key) {
+            loads.incrementAndGet();
+            return key;
+        }
+    }
 }
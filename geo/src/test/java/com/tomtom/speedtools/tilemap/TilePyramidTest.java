@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tilemap;
+
+import com.tomtom.speedtools.geometry.GeoPoint;
+import com.tomtom.speedtools.geometry.GeoRectangle;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TilePyramidTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TilePyramidTest.class);
+
+    @Test
+    public void testParentChild() {
+        LOG.info("testParentChild");
+        final long tileId = TileId.pack(5, 6, 4);
+        Assert.assertEquals(TileId.pack(2, 3, 3), TilePyramid.getParent(tileId));
+        Assert.assertEquals(TileId.pack(0, 0, 0), TilePyramid.getAncestor(tileId, 0));
+        Assert.assertEquals(TileId.pack(10, 12, 5), TilePyramid.getChild(tileId, 0));
+        Assert.assertEquals(TileId.pack(11, 12, 5), TilePyramid.getChild(tileId, 1));
+        Assert.assertEquals(TileId.pack(10, 13, 5), TilePyramid.getChild(tileId, 2));
+        Assert.assertEquals(TileId.pack(11, 13, 5), TilePyramid.getChild(tileId, 3));
+        for (int quadrant = 0; quadrant < 4; ++quadrant) {
+            final long child = TilePyramid.getChild(tileId, quadrant);
+            Assert.assertEquals(TilePyramid.getChild(tileId, 0) + quadrant, child);
+            Assert.assertEquals(tileId, TilePyramid.getParent(child));
+            Assert.assertTrue(TilePyramid.isAncestorOrSelf(tileId, child));
+            Assert.assertFalse(TilePyramid.isAncestorOrSelf(child, tileId));
+        }
+        Assert.assertTrue(TilePyramid.isAncestorOrSelf(tileId, tileId));
+    }
+
+    @Test
+    public void testTileRectangle() {
+        LOG.info("testTileRectangle");
+        final GeoRectangle rectangle = TilePyramid.getTileRectangle(TileId.pack(1, 0, 1));
+        Assert.assertEquals(0.0, rectangle.getSouthWest().getLat(), 1.0e-9);
+        Assert.assertEquals(0.0, rectangle.getSouthWest().getLon(), 1.0e-9);
+        Assert.assertEquals(85.05, rectangle.getNorthEast().getLat(), 0.01);
+        Assert.assertFalse(rectangle.isWrapped());
+
+        // The tile offset of the center of a tile is in the tile.
+        final long tileId = TileId.pack(300, 200, 9);
+        final TileOffset center = TileMap.convertLatLonToTileOffset(
+                TilePyramid.getTileRectangle(tileId).getCenter(), 9);
+        Assert.assertEquals(TileId.toTileKey(tileId), center.getKey());
+    }
+
+    @Test
+    public void testTileIdsInMortonOrder() {
+        LOG.info("testTileIdsInMortonOrder");
+        final GeoRectangle rectangle = new GeoRectangle(new GeoPoint(50.0, 2.0), new GeoPoint(53.0, 8.0));
+        final int zoomLevel = 8;
+        final long[] tileIds = TilePyramid.getTileIds(rectangle, zoomLevel);
+        final long[] sorted = tileIds.clone();
+        Arrays.sort(sorted);
+        Assert.assertArrayEquals(sorted, tileIds);
+
+        // Check the tiles against the tiles of the corners.
+        final TileKey northWest = TileMap.convertLatLonToTileOffset(new GeoPoint(53.0, 2.0), zoomLevel).getKey();
+        final TileKey southEast = TileMap.convertLatLonToTileOffset(new GeoPoint(50.0, 8.0), zoomLevel).getKey();
+        final long width = (southEast.getTileX() - northWest.getTileX()) + 1;
+        final long height = (southEast.getTileY() - northWest.getTileY()) + 1;
+        Assert.assertEquals(width * height, tileIds.length);
+
+        final List<TileKey> tileKeys = TilePyramid.getTileKeys(rectangle, zoomLevel);
+        Assert.assertEquals(tileIds.length, tileKeys.size());
+        Assert.assertTrue(tileKeys.contains(northWest));
+        Assert.assertTrue(tileKeys.contains(southEast));
+    }
+
+    @Test
+    public void testTileIdsWrapped() {
+        LOG.info("testTileIdsWrapped");
+        final GeoRectangle rectangle = new GeoRectangle(new GeoPoint(-10.0, 170.0), new GeoPoint(10.0, -170.0));
+        Assert.assertTrue(rectangle.isWrapped());
+        final Set<Long> tileXs = new HashSet<>();
+        TilePyramid.forEachTileId(rectangle, 4, tileId -> tileXs.add(TileId.getTileX(tileId)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(0L, 15L)), tileXs);
+    }
+
+    @Test
+    public void testCoverArea() {
+        LOG.info("testCoverArea");
+
+        // An area inside tile (1, 1, 2) and its neighbours, but not touching their edges.
+        final GeoRectangle tile = TilePyramid.getTileRectangle(TileId.pack(1, 1, 2));
+        final GeoRectangle area = new GeoRectangle(
+                new GeoPoint(tile.getSouthWest().getLat() + 1.0, tile.getSouthWest().getLon() - 10.0),
+                new GeoPoint(tile.getNorthEast().getLat() - 1.0, tile.getNorthEast().getLon() - 10.0));
+        final long[] tileIds = TilePyramid.coverArea(area, 0, 6);
+        Assert.assertTrue(tileIds.length > 0);
+        for (final long tileId : tileIds) {
+            Assert.assertTrue(TileId.getZoomLevel(tileId) <= 6);
+            Assert.assertTrue(area.overlaps(TilePyramid.getTileRectangle(tileId)));
+        }
+
+        // Larger tiles are used where possible, so there are fewer tiles than at the maximum zoom level only.
+        Assert.assertTrue(tileIds.length < TilePyramid.coverArea(area, 6, 6).length);
+
+        // No tile is contained by another tile.
+        for (final long tileId : tileIds) {
+            for (final long otherId : tileIds) {
+                Assert.assertTrue((tileId == otherId) || !TilePyramid.isAncestorOrSelf(tileId, otherId));
+            }
+        }
+    }
+}
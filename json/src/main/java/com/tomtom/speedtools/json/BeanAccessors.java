@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.json;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Fast accessors for bean getters, setters and constructors, used by {@link SimpleJsonSerializer}. The accessors are
+ * created once per bean property and avoid the access checks and argument arrays of reflective calls:
+ * <ul>
+ * <li>Getters and setters of public members of public classes that are visible from this class loader are implemented
+ * by classes generated with {@link LambdaMetafactory}, so they are direct calls.</li>
+ * <li>Other accessible members and constructors use method handles.</li>
+ * <li>If no method handle can be obtained, plain reflection is used.</li>
+ * </ul>
+ * All accessors behave like the reflective calls they replace: beans and arguments of the wrong type cause an {@link
+ * IllegalArgumentException} and anything thrown by the member itself is wrapped in an {@link
+ * InvocationTargetException}. Accessors never make inaccessible members accessible.
+ * <p>
+ * This class is package private.
+ */
+final class BeanAccessors {
+    private static final Logger LOG = LoggerFactory.getLogger(BeanAccessors.class);
+
+    @Nonnull
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    @Nonnull
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    @Nonnull
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    @Nonnull
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private BeanAccessors() {
+        // Prevent instantiation.
+    }
+
+    interface Getter {
+        @Nullable
+        Object get(@Nonnull Object bean) throws ReflectiveOperationException;
+    }
+
+    interface Setter {
+        void set(@Nonnull Object bean, @Nullable Object value) throws ReflectiveOperationException;
+    }
+
+    interface Factory {
+        @Nonnull
+        Object newInstance(@Nonnull Object[] args) throws ReflectiveOperationException;
+    }
+
+    /**
+     * Create an accessor for a getter method.
+     *
+     * @param method Getter, without parameters.
+     * @return Accessor.
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    static Getter createGetter(@Nonnull final Method method) {
+        assert method != null;
+        assert method.getParameterTypes().length == 0;
+        final Class<?> declaringClass = method.getDeclaringClass();
+        if (canGenerate(method)) {
+            try {
+                final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                        MethodType.methodType(Function.class), GETTER_TYPE.erase(), LOOKUP.unreflect(method),
+                        MethodType.methodType(Object.class, declaringClass));
+                final Function<Object, Object> function = (Function<Object, Object>) site.getTarget().invokeExact();
+                return bean -> {
+                    checkBean(declaringClass, bean);
+                    try {
+                        return function.apply(bean);
+                    } catch (final Throwable e) {
+                        throw new InvocationTargetException(e);
+                    }
+                };
+            } catch (final Throwable e) {
+                LOG.debug("createGetter: Cannot generate getter for {}, exception={}", method, e.toString());
+            }
+        }
+        final MethodHandle handle = unreflect(method);
+        if (handle != null) {
+            final MethodHandle getter = handle.asType(GETTER_TYPE);
+            return bean -> {
+                checkBean(declaringClass, bean);
+                try {
+                    return getter.invokeExact(bean);
+                } catch (final Throwable e) {
+                    throw new InvocationTargetException(e);
+                }
+            };
+        }
+        return method::invoke;
+    }
+
+    /**
+     * Create an accessor for a setter method.
+     *
+     * @param method Setter, with a single parameter.
+     * @return Accessor.
+     */
+    @SuppressWarnings("unchecked")
+    @Nonnull
+    static Setter createSetter(@Nonnull final Method method) {
+        assert method != null;
+        assert method.getParameterTypes().length == 1;
+        final Class<?> parameterType = method.getParameterTypes()[0];
+        final Class<?> boxedType = box(parameterType);
+        final Class<?> declaringClass = method.getDeclaringClass();
+        if (canGenerate(method)) {
+            try {
+                final CallSite site = LambdaMetafactory.metafactory(LOOKUP, "accept",
+                        MethodType.methodType(BiConsumer.class), SETTER_TYPE, LOOKUP.unreflect(method),
+                        MethodType.methodType(void.class, declaringClass, boxedType));
+                final BiConsumer<Object, Object> consumer = (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+                return (bean, value) -> {
+                    checkBean(declaringClass, bean);
+                    checkArgument(parameterType, boxedType, value);
+                    try {
+                        consumer.accept(bean, value);
+                    } catch (final Throwable e) {
+                        throw new InvocationTargetException(e);
+                    }
+                };
+            } catch (final Throwable e) {
+                LOG.debug("createSetter: Cannot generate setter for {}, exception={}", method, e.toString());
+            }
+        }
+        final MethodHandle handle = unreflect(method);
+        if (handle != null) {
+            final MethodHandle setter = handle.asType(SETTER_TYPE);
+            return (bean, value) -> {
+                checkBean(declaringClass, bean);
+                checkArgument(parameterType, boxedType, value);
+                try {
+                    setter.invokeExact(bean, value);
+                } catch (final Throwable e) {
+                    throw new InvocationTargetException(e);
+                }
+            };
+        }
+        return method::invoke;
+    }
+
+    /**
+     * Create an accessor for a constructor. The constructor is used as is, so it must have been made accessible
+     * already if needed.
+     *
+     * @param constructor Constructor.
+     * @return Accessor.
+     */
+    @Nonnull
+    static Factory createFactory(@Nonnull final Constructor<?> constructor) {
+        assert constructor != null;
+        final Class<?>[] parameterTypes = constructor.getParameterTypes();
+        final Class<?>[] boxedTypes = new Class<?>[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; ++i) {
+            boxedTypes[i] = box(parameterTypes[i]);
+        }
+        if (!Modifier.isAbstract(constructor.getDeclaringClass().getModifiers())) {
+            try {
+                final MethodHandle factory = LOOKUP.unreflectConstructor(constructor).
+                        asSpreader(Object[].class, parameterTypes.length).asType(CONSTRUCTOR_TYPE);
+                return args -> {
+                    if (args.length != parameterTypes.length) {
+                        throw new IllegalArgumentException("Wrong number of arguments: " + args.length +
+                                ", expected: " + parameterTypes.length);
+                    }
+                    for (int i = 0; i < parameterTypes.length; ++i) {
+                        checkArgument(parameterTypes[i], boxedTypes[i], args[i]);
+                    }
+                    try {
+                        return factory.invokeExact(args);
+                    } catch (final Throwable e) {
+                        throw new InvocationTargetException(e);
+                    }
+                };
+            } catch (final IllegalAccessException | RuntimeException e) {
+                LOG.debug("createFactory: Cannot create method handle for {}, exception={}", constructor,
+                        e.toString());
+            }
+        }
+        return constructor::newInstance;
+    }
+
+    /**
+     * Return whether a direct accessor can be generated for a method: the method and its class must be public, and
+     * the class must be visible from the class loader of this class, which defines the generated classes.
+     */
+    private static boolean canGenerate(@Nonnull final Method method) {
+        if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())) {
+            return false;
+        }
+        final Class<?> declaringClass = method.getDeclaringClass();
+        for (Class<?> cls = declaringClass; cls != null; cls = cls.getEnclosingClass()) {
+            if (!Modifier.isPublic(cls.getModifiers())) {
+                return false;
+            }
+        }
+        try {
+            return Class.forName(declaringClass.getName(), false, BeanAccessors.class.getClassLoader()) ==
+                    declaringClass;
+        } catch (final ClassNotFoundException | LinkageError ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a method handle for an accessible instance method, or null if there is none.
+     */
+    @Nullable
+    private static MethodHandle unreflect(@Nonnull final Method method) {
+        if (Modifier.isStatic(method.getModifiers())) {
+            return null;
+        }
+        try {
+            return LOOKUP.unreflect(method);
+        } catch (final IllegalAccessException | RuntimeException e) {
+            LOG.debug("unreflect: Cannot create method handle for {}, exception={}", method, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Return the wrapper class of a primitive type, or the type itself.
+     */
+    @Nonnull
+    private static Class<?> box(@Nonnull final Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    /**
+     * Check the bean like reflection does: it must be an instance of the class that declares the member. Otherwise the
+     * accessor would fail on a cast, and the {@link ClassCastException} would be wrapped like an exception thrown by
+     * the member itself.
+     */
+    private static void checkBean(@Nonnull final Class<?> declaringClass, @Nonnull final Object bean) {
+        if (!declaringClass.isInstance(bean)) {
+            throw new IllegalArgumentException("Object is not an instance of declaring class, expected: " +
+                    declaringClass.getName() + ", got: " + bean.getClass().getName());
+        }
+    }
+
+    /**
+     * Check an argument like reflection does: null for a primitive or a value of the wrong type are illegal.
+     */
+    private static void checkArgument(
+            @Nonnull final Class<?> type,
+            @Nonnull final Class<?> boxedType,
+            @Nullable final Object value) {
+        final boolean legal = (value == null) ? !type.isPrimitive() : boxedType.isInstance(value);
+        if (!legal) {
+            throw new IllegalArgumentException("Argument type mismatch, expected: " + type.getName() + ", got: " +
+                    ((value == null) ? "null" : value.getClass().getName()));
+        }
+    }
+}
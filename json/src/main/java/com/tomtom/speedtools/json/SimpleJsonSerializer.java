@@ -67,9 +67,17 @@ public class SimpleJsonSerializer {
     private static final String SETTER_PREFIX = "set";
 
     /**
-     * Look-up cache for mappers.
+     * Look-up caches for mappers. Mappers of raw classes are attached to the class itself, which is the fastest way to
+     * look them up. Mappers of other types (such as parameterized types) are looked up by type.
      */
-    private final Map<String, Mapper> mappers = new ConcurrentHashMap<>();
+    private final ClassValue<Mapper> classMappers = new ClassValue<Mapper>() {
+        @Override
+        @Nonnull
+        protected Mapper computeValue(@Nonnull final Class<?> type) {
+            return determineMapper(type);
+        }
+    };
+    private final Map<Type, Mapper> typeMappers = new ConcurrentHashMap<>();
 
     /**
      * Singleton instance of this class.
@@ -166,6 +174,91 @@ public class SimpleJsonSerializer {
         return toStringPretty(pojo, false);
     }
 
+    /**
+     * Get a pre-resolved mapper for a specific type, for callers that serialize or deserialize values of the same type
+     * repeatedly. Using the handle saves looking up the mapper for every value.
+     *
+     * @param type Type of values.
+     * @return Mapper handle for the type.
+     */
+    @Nonnull
+    public MapperHandle getMapperHandle(@Nonnull final Type type) {
+        assert type != null;
+        return new MapperHandle(type, getOrCreateMapper(type));
+    }
+
+    /**
+     * Pre-resolved mapper for a specific type, see {@link #getMapperHandle(Type)}. Values of other (derived) classes
+     * can be serialized as well, but their mapper is looked up.
+     */
+    public final class MapperHandle {
+        @Nonnull
+        private final Type type;
+        @Nonnull
+        private final Class<?> rawType;
+        @Nonnull
+        private final Mapper mapper;
+
+        private MapperHandle(@Nonnull final Type type, @Nonnull final Mapper mapper) {
+            assert type != null;
+            assert mapper != null;
+            this.type = type;
+            this.rawType = getRawType(type);
+            this.mapper = mapper;
+        }
+
+        @Nonnull
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Serialize a POJO into a JSON value object, like {@link SimpleJsonSerializer#serialize(Object)}.
+         *
+         * @param pojo POJO to serialize.
+         * @return JSON mapped object, or null if serialization failed.
+         */
+        @Nullable
+        public Object serialize(@Nullable final Object pojo) {
+            if (pojo == null) {
+                return null;
+            }
+
+            //noinspection ObjectEquality
+            if (pojo.getClass() != rawType) {
+                return SimpleJsonSerializer.this.serialize(pojo);
+            }
+            Object serialized;
+            try {
+                serialized = mapper.toJson(pojo, type, new IdentityHashMap<>());
+            } catch (final RuntimeException e) {
+                LOG.warn("serialize: failure, value='{}'. Runtime exception:", Json.toStringJson(pojo), e);
+                serialized = null;
+            }
+            return serialized;
+        }
+
+        /**
+         * Given a JSON value object, deserialize it into a POJO of the type of this handle, like {@link
+         * SimpleJsonSerializer#deserialize(Object)}.
+         *
+         * @param jsonValue JSON mapped object to deserialize.
+         * @return POJO object. If deserialization failed, the return value is null. If the serialized object was null,
+         * however, the deserialized object is also null.
+         */
+        @Nullable
+        public Object deserialize(@Nullable final Object jsonValue) {
+            Object deserialized;
+            try {
+                deserialized = mapper.fromJson(jsonValue);
+            } catch (final RuntimeException e) {
+                LOG.warn("deserialize: failure, value='{}'. Runtime exception:", Json.toStringJson(jsonValue), e);
+                deserialized = null;
+            }
+            return deserialized;
+        }
+    }
+
     /**
      * Create a new JSON mapped object. Note that this object can be overridden by derived implementations to, for
      * example, create a MongoDB JSON object.
@@ -192,12 +285,15 @@ public class SimpleJsonSerializer {
         assert type != null;
 
         // Lookup mapper in cache.
-        Mapper mapper = mappers.get(type.toString());
+        if (type instanceof Class) {
+            return classMappers.get((Class<?>) type);
+        }
+        Mapper mapper = typeMappers.get(type);
         if (mapper == null) {
 
             // Might be calculated multiple times, but result will always be the same.
             mapper = determineMapper(type);
-            mappers.put(type.toString(), mapper);
+            typeMappers.put(type, mapper);
         }
         return mapper;
     }
@@ -638,12 +734,15 @@ public class SimpleJsonSerializer {
             @Nonnull
             private final Constructor<?> constructor;
             @Nonnull
+            private final BeanAccessors.Factory factory;
+            @Nonnull
             private final PropertyInfo[] constructorProperties;
 
             private Ctor(
                     @Nonnull final Constructor<?> constructor,
                     @Nonnull final PropertyInfo[] constructorProperties) {
                 this.constructor = constructor;
+                this.factory = BeanAccessors.createFactory(constructor);
                 this.constructorProperties = constructorProperties;
             }
 
@@ -671,6 +770,10 @@ public class SimpleJsonSerializer {
         private final Method getter;
         @Nullable
         private final Method setter;
+        @Nonnull
+        private final BeanAccessors.Getter getterAccessor;
+        @Nullable
+        private final BeanAccessors.Setter setterAccessor;
         private final boolean nullable;
 
         private PropertyInfo(
@@ -682,6 +785,8 @@ public class SimpleJsonSerializer {
             this.name = name;
             this.getter = getter;
             this.setter = setter;
+            this.getterAccessor = BeanAccessors.createGetter(getter);
+            this.setterAccessor = (setter == null) ? null : BeanAccessors.createSetter(setter);
             this.nullable = true;
         }
 
@@ -692,6 +797,8 @@ public class SimpleJsonSerializer {
             this.name = propertyInfo.name;
             this.getter = propertyInfo.getter;
             this.setter = propertyInfo.setter;
+            this.getterAccessor = propertyInfo.getterAccessor;
+            this.setterAccessor = propertyInfo.setterAccessor;
             this.nullable = nullable;
         }
 
@@ -929,7 +1036,7 @@ public class SimpleJsonSerializer {
                         // Try to instantiate the POJO.
                         if (tryThisConstructor) {
                             try {
-                                bean = ctor.constructor.newInstance(parameters);
+                                bean = ctor.factory.newInstance(parameters);
                                 return bean;
                             } catch (final InvocationTargetException ignored) {
 
@@ -975,6 +1082,13 @@ public class SimpleJsonSerializer {
                                                 " of class " + beanInfo.beanClass.getName() +
                                                 " with parameters: " + Json.toStringJson(parameters), e);
                                 // Ignore, try next constructor.
+                            } catch (final ReflectiveOperationException e) {
+                                LOG.error(
+                                        "fromJson: Cannot invoke constructor " + ctor.constructor +
+                                                '(' + ctor.constructorProperties.length + " args) " +
+                                                " of class " + beanInfo.beanClass.getName() +
+                                                " with parameters: " + Json.toStringJson(parameters), e);
+                                // Ignore, try next constructor.
                             }
                         }
                     }
@@ -1018,16 +1132,19 @@ public class SimpleJsonSerializer {
 
                 // Set all properties using setters.
                 for (final PropertyInfo property : beanInfo.properties) {
-                    if (property.setter != null) {
+                    if ((property.setter != null) && (property.setterAccessor != null)) {
                         try {
                             final Object parameter = property.getMapper().fromJson(jsonObject.get(property.name));
-                            property.setter.invoke(bean, parameter);
+                            property.setterAccessor.set(bean, parameter);
                         } catch (final InvocationTargetException e) {
                             LOG.error("fromJson: Cannot invoke setter: " + property.setter.getName() + " for class " +
                                     beanInfo.beanClass.getName(), e);
                         } catch (final IllegalAccessException e) {
                             LOG.error("fromJson: Cannot access setter: " + property.setter.getName() + " for class " +
                                     beanInfo.beanClass.getName(), e);
+                        } catch (final ReflectiveOperationException e) {
+                            LOG.error("fromJson: Cannot use setter: " + property.setter.getName() + " for class " +
+                                    beanInfo.beanClass.getName(), e);
                         }
                     }
                 }
@@ -1164,7 +1281,7 @@ public class SimpleJsonSerializer {
             final Map<String, Object> result = createJsonMappedObject();
             for (final PropertyInfo property : beanInfo.properties) {
                 try {
-                    final Object value = property.getter.invoke(object);
+                    final Object value = property.getterAccessor.get(object);
                     final Mapper valueMapper = property.getMapper();
                     final Class<?> returnType = property.getter.getReturnType();
                     final Object jsonValue = valueMapper.toJson(value, returnType, seen);
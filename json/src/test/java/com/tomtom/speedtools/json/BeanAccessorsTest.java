@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.json;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+public class BeanAccessorsTest {
+    private static final Logger LOG = LoggerFactory.getLogger(BeanAccessorsTest.class);
+
+    public static class PublicBean {
+        @Nullable
+        private String name;
+        private int count;
+
+        public PublicBean() {
+            super();
+        }
+
+        public PublicBean(@Nullable final String name, final int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Nullable
+        public String getName() {
+            return name;
+        }
+
+        public void setName(@Nullable final String name) {
+            if ("fail".equals(name)) {
+                throw new IllegalStateException("fail");
+            }
+            this.name = name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount(final int count) {
+            this.count = count;
+        }
+    }
+
+    private static class PrivateBean {
+        private final int count;
+
+        private PrivateBean(final int count) {
+            this.count = count;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        private int getHidden() {
+            return count;
+        }
+    }
+
+    @Test
+    public void testGetterSetter() throws Exception {
+        LOG.info("testGetterSetter");
+        final PublicBean bean = new PublicBean();
+        final BeanAccessors.Setter setName = BeanAccessors.createSetter(
+                PublicBean.class.getMethod("setName", String.class));
+        final BeanAccessors.Setter setCount = BeanAccessors.createSetter(
+                PublicBean.class.getMethod("setCount", int.class));
+        final BeanAccessors.Getter getName = BeanAccessors.createGetter(PublicBean.class.getMethod("getName"));
+        final BeanAccessors.Getter getCount = BeanAccessors.createGetter(PublicBean.class.getMethod("getCount"));
+        setName.set(bean, "x");
+        setCount.set(bean, 42);
+        Assert.assertEquals("x", getName.get(bean));
+        Assert.assertEquals(42, getCount.get(bean));
+        setName.set(bean, null);
+        Assert.assertNull(getName.get(bean));
+    }
+
+    @Test
+    public void testExceptions() throws Exception {
+        LOG.info("testExceptions");
+        final PublicBean bean = new PublicBean();
+        final BeanAccessors.Setter setName = BeanAccessors.createSetter(
+                PublicBean.class.getMethod("setName", String.class));
+        final BeanAccessors.Setter setCount = BeanAccessors.createSetter(
+                PublicBean.class.getMethod("setCount", int.class));
+        assertIllegalArgument(() -> setCount.set(bean, null));
+        assertIllegalArgument(() -> setCount.set(bean, "1"));
+        assertIllegalArgument(() -> setName.set(bean, 1));
+        assertIllegalArgument(() -> setName.set("bean", "x"));
+        assertIllegalArgument(() -> BeanAccessors.createGetter(PublicBean.class.getMethod("getName")).get("bean"));
+        try {
+            setName.set(bean, "fail");
+            Assert.fail();
+        } catch (final InvocationTargetException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        LOG.info("testFactory");
+        final BeanAccessors.Factory factory = BeanAccessors.createFactory(
+                PublicBean.class.getConstructor(String.class, int.class));
+        final PublicBean bean = (PublicBean) factory.newInstance(new Object[]{"x", 1});
+        Assert.assertEquals("x", bean.getName());
+        Assert.assertEquals(1, bean.getCount());
+        assertIllegalArgument(() -> factory.newInstance(new Object[]{"x", null}));
+        assertIllegalArgument(() -> factory.newInstance(new Object[]{"x"}));
+    }
+
+    @Test
+    public void testNonPublic() throws Exception {
+        LOG.info("testNonPublic");
+        final Constructor<PrivateBean> constructor = PrivateBean.class.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        final PrivateBean bean = (PrivateBean) BeanAccessors.createFactory(constructor).newInstance(new Object[]{3});
+        final BeanAccessors.Getter getCount = BeanAccessors.createGetter(PrivateBean.class.getMethod("getCount"));
+        Assert.assertEquals(3, getCount.get(bean));
+        assertIllegalArgument(() -> getCount.get("bean"));
+
+        // Inaccessible members are not made accessible.
+        final BeanAccessors.Getter hidden = BeanAccessors.createGetter(
+                PrivateBean.class.getDeclaredMethod("getHidden"));
+        try {
+            hidden.get(bean);
+            Assert.fail();
+        } catch (final IllegalAccessException ignored) {
+            // Expected.
+        }
+    }
+
+    private interface Call {
+        void call() throws Exception;
+    }
+
+    private static void assertIllegalArgument(@Nonnull final Call call) throws Exception {
+        try {
+            call.call();
+            Assert.fail();
+        } catch (final IllegalArgumentException ignored) {
+            // Expected.
+        }
+    }
+}
@@ -1374,4 +1374,28 @@ public class SimpleJsonSerializerTest {
         Assert.assertEquals(someString, maryAfter.getThings()[0]);
         Assert.assertSame(Person.class, maryAfter.getThings()[1].getClass());
     }
+
+    // ------------------------------------------------------------------------
+    // Test mapper handles and performance.
+    // ------------------------------------------------------------------------
+
+    @Test
+    public void testMapperHandle() {
+        LOG.info("testMapperHandle");
+
+        final SimpleJsonSerializer.MapperHandle handle = serializer.getMapperHandle(Person.class);
+        final DateTime now = UTCTime.now();
+        final Person before = new Person("joe", now, null, Gender.MALE, Collections.<Person>emptyList(), new Object[0]);
+        final Object serialized = handle.serialize(before);
+        Assert.assertEquals(Json.toStringJson(serializer.serialize(before)), Json.toStringJson(serialized));
+        final Object deserialized = handle.deserialize(serialized);
+        Assert.assertTrue(deserialized instanceof Person);
+        Assert.assertEquals(Json.toStringJson(before), Json.toStringJson(deserialized));
+
+        // Derived classes are serialized as well.
+        final Woman woman = new Woman("jane", now, null, Gender.FEMALE, Collections.<Person>emptyList(),
+                new Object[0], true, Collections.<Set<Person>>emptyList());
+        Assert.assertTrue(handle.deserialize(handle.serialize(woman)) instanceof Woman);
+        Assert.assertNull(handle.serialize(null));
+    }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples JVM metrics into collectors of a {@link MetricsRegistry}, for all periods of {@link
+ * MultiMetricsData.Period}, so application latencies can be correlated with the JVM. The following collectors are
+ * registered:
+ *
+ * <pre>
+ *     jvm_gc_duration_seconds{gc="..."}     Duration of every garbage collection, per garbage collector.
+ *     jvm_memory_heap_used_bytes            Heap memory used.
+ *     jvm_memory_non_heap_used_bytes        Non-heap memory used.
+ *     jvm_threads                           Number of live threads.
+ *     jvm_threads_daemon                    Number of live daemon threads.
+ *     jvm_allocated_bytes_per_second        Bytes allocated per second by all threads, since the previous sample.
+ *     jvm_process_cpu_load                  CPU load of the JVM process, 0..1.
+ *     jvm_system_cpu_load                   CPU load of the system, 0..1.
+ * </pre>
+ *
+ * Except for the garbage collections, which are reported by the JVM itself when they finish, every sample adds a
+ * single value to every collector, so the count of a collector is the number of samples, and its average, minimum and
+ * maximum are those of the samples. The count of jvm_gc_duration_seconds is the number of garbage collections. Note
+ * that the duration of a garbage collection is not necessarily a pause: collectors which run concurrently with the
+ * application, like the concurrent cycles of G1, report their full duration.
+ *
+ * Samples are taken by {@link #sample()}, which is called periodically in a background thread after {@link
+ * #start(Duration)}. Request threads do not do any work for this. Metrics which are not supported by the JVM are not
+ * sampled. The allocated bytes are read per thread, so sampling takes time proportional to the number of threads.
+ *
+ * This class is thread-safe.
+ */
+public final class JvmMetricsSampler implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(JvmMetricsSampler.class);
+
+    private static final float MILLIS_PER_SECOND = 1000.0f;
+    private static final double NANOS_PER_SECOND = 1.0e9;
+
+    @Nonnull
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    @Nonnull
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    @Nonnull
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+    @Nonnull
+    private final MultiMetricsCollector heapUsed;
+    @Nonnull
+    private final MultiMetricsCollector nonHeapUsed;
+    @Nonnull
+    private final MultiMetricsCollector threads;
+    @Nonnull
+    private final MultiMetricsCollector daemonThreads;
+    @Nullable
+    private final MultiMetricsCollector allocationRate;
+    @Nullable
+    private final MultiMetricsCollector processCpuLoad;
+    @Nullable
+    private final MultiMetricsCollector systemCpuLoad;
+
+    // Garbage collectors and their listeners, which are removed by close().
+    @Nonnull
+    private final Map<NotificationEmitter, NotificationListener> gcListeners = new HashMap<>();
+
+    // Allocated bytes per thread ID, at the previous sample. Guarded by this.
+    @Nonnull
+    private Map<Long, Long> allocatedBytes = new HashMap<>();
+    private long lastSampleNanos;
+
+    @Nullable
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * Create a sampler and register its collectors. Garbage collections are recorded from now on; other metrics are
+     * sampled by {@link #sample()}.
+     *
+     * @param registry Registry to register the collectors in.
+     */
+    public JvmMetricsSampler(@Nonnull final MetricsRegistry registry) {
+        assert registry != null;
+        heapUsed = registry.collector("jvm_memory_heap_used_bytes", "Heap memory used.");
+        nonHeapUsed = registry.collector("jvm_memory_non_heap_used_bytes", "Non-heap memory used.");
+        threads = registry.collector("jvm_threads", "Number of live threads.");
+        daemonThreads = registry.collector("jvm_threads_daemon", "Number of live daemon threads.");
+
+        final com.sun.management.ThreadMXBean sunThreadBean = getSunThreadBean();
+        allocationRate = (sunThreadBean == null) ? null :
+                registry.collector("jvm_allocated_bytes_per_second", "Bytes allocated per second by all threads.");
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            processCpuLoad = registry.collector("jvm_process_cpu_load", "CPU load of the JVM process, 0..1.");
+            systemCpuLoad = registry.collector("jvm_system_cpu_load", "CPU load of the system, 0..1.");
+        } else {
+            processCpuLoad = null;
+            systemCpuLoad = null;
+        }
+
+        for (final GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gcBean instanceof NotificationEmitter) {
+                final MultiMetricsCollector durations = registry.collector("jvm_gc_duration_seconds",
+                        "Duration of garbage collections.", "gc", gcBean.getName());
+                final NotificationListener listener = (notification, handback) -> recordGc(notification, durations);
+                ((NotificationEmitter) gcBean).addNotificationListener(listener, null, null);
+                gcListeners.put((NotificationEmitter) gcBean, listener);
+            }
+        }
+        synchronized (this) {
+            lastSampleNanos = System.nanoTime();
+            if (sunThreadBean != null) {
+                sampleAllocatedBytes(sunThreadBean);
+            }
+        }
+    }
+
+    /**
+     * Sample the metrics and add them to the collectors.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    public synchronized void sample() {
+        final long nowMillis = System.currentTimeMillis();
+        heapUsed.addValue((float) memoryBean.getHeapMemoryUsage().getUsed(), nowMillis);
+        nonHeapUsed.addValue((float) memoryBean.getNonHeapMemoryUsage().getUsed(), nowMillis);
+        threads.addValue(threadBean.getThreadCount(), nowMillis);
+        daemonThreads.addValue(threadBean.getDaemonThreadCount(), nowMillis);
+
+        final long nowNanos = System.nanoTime();
+        final com.sun.management.ThreadMXBean sunThreadBean = getSunThreadBean();
+        if ((allocationRate != null) && (sunThreadBean != null) && (nowNanos > lastSampleNanos)) {
+            final long allocated = sampleAllocatedBytes(sunThreadBean);
+            allocationRate.addValue((float) ((allocated * NANOS_PER_SECOND) / (nowNanos - lastSampleNanos)),
+                    nowMillis);
+        }
+        lastSampleNanos = nowNanos;
+
+        if ((processCpuLoad != null) && (systemCpuLoad != null)) {
+            final com.sun.management.OperatingSystemMXBean sunOsBean = (com.sun.management.OperatingSystemMXBean) osBean;
+
+            // Negative values mean the load is not available (yet).
+            final double processLoad = sunOsBean.getProcessCpuLoad();
+            if (processLoad >= 0.0) {
+                processCpuLoad.addValue((float) processLoad, nowMillis);
+            }
+            @SuppressWarnings("deprecation") final double systemLoad = sunOsBean.getSystemCpuLoad();
+            if (systemLoad >= 0.0) {
+                systemCpuLoad.addValue((float) systemLoad, nowMillis);
+            }
+        }
+    }
+
+    /**
+     * Start sampling periodically, in a background thread.
+     *
+     * @param interval Time between samples.
+     */
+    public synchronized void start(@Nonnull final Duration interval) {
+        assert interval != null;
+        assert scheduler == null : "Already started";
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "JvmMetricsSampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sampleQuietly, interval.getMillis(), interval.getMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling and stop recording garbage collections. The collectors remain registered.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        for (final Map.Entry<NotificationEmitter, NotificationListener> entry : gcListeners.entrySet()) {
+            try {
+                entry.getKey().removeNotificationListener(entry.getValue());
+            } catch (final ListenerNotFoundException ignored) {
+                // Already removed.
+            }
+        }
+        gcListeners.clear();
+    }
+
+    private void sampleQuietly() {
+        try {
+            sample();
+        } catch (final RuntimeException e) {
+            LOG.warn("sampleQuietly: cannot sample JVM metrics", e);
+        }
+    }
+
+    /**
+     * Return the number of bytes allocated by all live threads since the previous call. Bytes allocated by threads
+     * which died since the previous call are not included.
+     *
+     * @param sunThreadBean Thread bean.
+     * @return Allocated bytes.
+     */
+    private long sampleAllocatedBytes(@Nonnull final com.sun.management.ThreadMXBean sunThreadBean) {
+        final long[] threadIds = sunThreadBean.getAllThreadIds();
+        final long[] bytes = sunThreadBean.getThreadAllocatedBytes(threadIds);
+        final Map<Long, Long> previous = allocatedBytes;
+        final Map<Long, Long> current = new HashMap<>(threadIds.length * 2);
+        long allocated = 0;
+        for (int i = 0; i < threadIds.length; ++i) {
+
+            // Negative if the thread died, or if measuring is not supported.
+            if (bytes[i] >= 0) {
+                current.put(threadIds[i], bytes[i]);
+                final Long previousBytes = previous.get(threadIds[i]);
+                allocated += bytes[i] - ((previousBytes == null) ? 0L : previousBytes);
+            }
+        }
+        allocatedBytes = current;
+        return allocated;
+    }
+
+    private static void recordGc(
+            @Nonnull final Notification notification,
+            @Nonnull final MultiMetricsCollector durations) {
+        if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            final GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            durations.addValue(info.getGcInfo().getDuration() / MILLIS_PER_SECOND);
+        }
+    }
+
+    @Nullable
+    private com.sun.management.ThreadMXBean getSunThreadBean() {
+        if ((threadBean instanceof com.sun.management.ThreadMXBean) &&
+                ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported() &&
+                ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemoryEnabled()) {
+            return (com.sun.management.ThreadMXBean) threadBean;
+        }
+        return null;
+    }
+}
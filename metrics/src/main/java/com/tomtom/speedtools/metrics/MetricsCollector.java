@@ -17,17 +17,23 @@
 package com.tomtom.speedtools.metrics;
 
 import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
-import com.tomtom.speedtools.time.UTCTime;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.util.ArrayDeque;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongConsumer;
 
 /**
  * Utility class to collect metrics data. It keeps track of a sum, count and average for the given time period. Not all
@@ -35,42 +41,110 @@ import java.util.List;
  * trade-off for this reduced memory usage is that statistics are not reported for EXACTLY given time period, but
  * possibly for a slightly longer period.
  *
+ * The time slots are aligned to multiples of the time slot duration and kept in a ring. Values are recorded without
+ * locking: a value is added to the striped accumulators of the time slot for its time. When a value is the first one
+ * for a new time slot, the ring entry of the oldest time slot is replaced by a new slot (with a compare-and-set, so
+ * only one thread succeeds). Readers simply ignore the slots that are older than the time period. This means that
+ * recording a value does not allocate objects (except once per time slot) and that threads only contend if they
+ * update the same cache line of an accumulator, which the accumulators avoid by striping.
+ *
+ * Every time slot also keeps a histogram of its values, for percentiles. The totals and the merged histogram of the
+ * completed time slots in the time period are calculated once per time slot, by the first reader. Readers only add the
+ * current and previous time slot to those, so reading the count, minimum, maximum etc. takes constant time. Use {@link
+ * #getSnapshot()} to read all values at once.
+ *
  * This class is thread-safe.
  */
-@SuppressWarnings("SynchronizedMethod")
 public class MetricsCollector implements MetricsData {
 
     private static final Logger LOG = LoggerFactory.getLogger(MetricsCollector.class);
 
+    // Histogram used in place of missing time slots. Never modified.
+    @Nonnull
+    static final MetricsHistogram EMPTY_HISTOGRAM = MetricsHistogram.createCompact();
+
     @Nonnull
     private final Duration totalMetricDuration;
+    private final long timeSlotMillis;
+    private final int nrPeriodSlots;
     @Nonnull
-    private final Duration timeSlotDuration;
+    private final AtomicReferenceArray<MetricsTimeSlotAccumulator> values;
+    @Nullable
+    private final LongConsumer newSlotListener;
+
+    // Totals of the completed time slots in the time period, or null if not calculated yet.
+    @Nullable
+    private volatile CompletedSlots completedSlots = null;
+
+    // Index of the current time slot at the last delta snapshot, and the totals reported for the time slots which
+    // were not complete at that time. Guarded by this.
+    private long deltaSlotIndex = Long.MIN_VALUE;
     @Nonnull
-    private final ArrayDeque<MetricsTimeSlot> values;
-    private float sum;
-    private int count;
-    private float sumSquares;
+    private Map<Long, MetricsTotals> deltaReportedSlots = Collections.emptyMap();
 
     @Nonnull
     public static MetricsCollector create(@Nonnull final Period interval) {
+        assert interval != null;
+        return new MetricsCollector(getTotalMetricDuration(interval), getMaxEntries(interval));
+    }
+
+    /**
+     * Return the duration of the metrics for a period.
+     *
+     * @param interval Period.
+     * @return Total metric duration.
+     */
+    @Nonnull
+    static Duration getTotalMetricDuration(@Nonnull final Period interval) {
         assert interval != null;
         switch (interval) {
 
             case LAST_MONTH:
-                return new MetricsCollector(Duration.standardDays(30), 30);
+                return Duration.standardDays(30);
 
             case LAST_WEEK:
-                return new MetricsCollector(Duration.standardDays(7), 24 * 7);
+                return Duration.standardDays(7);
 
             case LAST_DAY:
-                return new MetricsCollector(Duration.standardDays(1), 48);
+                return Duration.standardDays(1);
 
             case LAST_HOUR:
-                return new MetricsCollector(Duration.standardHours(1), 60);
+                return Duration.standardHours(1);
 
             case LAST_MINUTE:
-                return new MetricsCollector(Duration.standardMinutes(1), 30);
+                return Duration.standardMinutes(1);
+
+            default:
+                assert false;
+                break;
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Return the number of time slots in which the duration of the metrics for a period is divided.
+     *
+     * @param interval Period.
+     * @return Number of time slots.
+     */
+    static int getMaxEntries(@Nonnull final Period interval) {
+        assert interval != null;
+        switch (interval) {
+
+            case LAST_MONTH:
+                return 30;
+
+            case LAST_WEEK:
+                return 24 * 7;
+
+            case LAST_DAY:
+                return 48;
+
+            case LAST_HOUR:
+                return 60;
+
+            case LAST_MINUTE:
+                return 30;
 
             default:
                 assert false;
@@ -80,42 +154,80 @@ public class MetricsCollector implements MetricsData {
     }
 
     public MetricsCollector(@Nonnull final Duration totalMetricDuration, final int maxEntries) {
+        this(totalMetricDuration, maxEntries, null);
+    }
+
+    /**
+     * Create a collector which reports when values are recorded in a new time slot. The listener is called before the
+     * ring entry of the new time slot is replaced, so the time slots older than the previous time slot can be processed
+     * before they are overwritten. The listener may be called more than once for a time slot.
+     *
+     * @param totalMetricDuration Duration of the metrics.
+     * @param maxEntries          Number of time slots in which the duration is divided.
+     * @param newSlotListener     Listener, which is passed the index of the new time slot, or null.
+     */
+    MetricsCollector(
+            @Nonnull final Duration totalMetricDuration,
+            final int maxEntries,
+            @Nullable final LongConsumer newSlotListener) {
         assert totalMetricDuration != null;
         assert totalMetricDuration.isLongerThan(Duration.millis(1));
         assert maxEntries > 0;
         this.totalMetricDuration = totalMetricDuration;
-        this.timeSlotDuration = Duration.millis(totalMetricDuration.getMillis() / maxEntries);
-        this.values = new ArrayDeque<>();
+        this.timeSlotMillis = Math.max(1L, totalMetricDuration.getMillis() / maxEntries);
+        this.newSlotListener = newSlotListener;
+
+        //noinspection NumericCastThatLosesPrecision
+        this.nrPeriodSlots = (int) (((totalMetricDuration.getMillis() + timeSlotMillis) - 1) / timeSlotMillis);
+
+        // The ring must be able to hold all time slots in the time period, plus the next one.
+        this.values = new AtomicReferenceArray<>(nrPeriodSlots + 2);
     }
 
     /**
-     * Retrieve the slots by which the metric is represented internally. Mainly used for serialization.
+     * Retrieve the slots by which the metric is represented internally. Mainly used for serialization. Histograms are
+     * not included.
      *
-     * @return Metric slots.
+     * @return Metric slots, ordered by start time.
      */
     @Nonnull
-    public synchronized List<MetricsTimeSlot> getSlots() {
-        return new ArrayList<>(this.values);
+    public List<MetricsTimeSlot> getSlots() {
+        final long slotIndex = getSlotIndex(System.currentTimeMillis());
+        final List<MetricsTimeSlotAccumulator> slots = new ArrayList<>(values.length());
+        for (int i = 0; i < values.length(); ++i) {
+            final MetricsTimeSlotAccumulator slot = values.get(i);
+            if ((slot != null) && isInPeriod(slot.getSlotIndex(), slotIndex)) {
+                slots.add(slot);
+            }
+        }
+        slots.sort(Comparator.comparingLong(MetricsTimeSlotAccumulator::getSlotIndex));
+        final List<MetricsTimeSlot> result = new ArrayList<>(slots.size());
+        for (final MetricsTimeSlotAccumulator slot : slots) {
+            result.add(slot.toTimeSlot());
+        }
+        return result;
     }
 
     /**
      * Set the slots by which the metric is represented internally. Existing data will be overwritten. Mainly used for
-     * serialization.
+     * serialization. Slots are aligned to the time slots of this collector, so slots from a collector with a different
+     * time slot duration are merged into the time slots they start in. As slots do not contain histograms, percentiles
+     * only reflect the values which were added after this call.
      *
      * @param slots Metric slots.
      */
     public synchronized void setSlots(@Nonnull final Collection<MetricsTimeSlot> slots) {
         assert slots != null;
-        this.values.clear();
-        this.sum = 0.0f;
-        this.count = 0;
-        this.sumSquares = 0.0f;
+        for (int i = 0; i < values.length(); ++i) {
+            values.set(i, null);
+        }
         for (final MetricsTimeSlot slot : slots) {
-            this.values.add(slot);
-            this.sum += slot.getSum();
-            this.count += slot.getCount();
-            this.sumSquares += slot.getSumSquares();
+            final MetricsTimeSlotAccumulator accumulator = getAccumulator(slot.getStartTime().getMillis());
+            if (accumulator != null) {
+                accumulator.addSlot(slot);
+            }
         }
+        completedSlots = null;
     }
 
     @Nonnull
@@ -128,8 +240,8 @@ public class MetricsCollector implements MetricsData {
      *
      * @param value Value to add.
      */
-    public synchronized void addValueNow(final float value) {
-        addValue(value, UTCTime.now());
+    public void addValueNow(final float value) {
+        addValue(value, System.currentTimeMillis());
     }
 
     /**
@@ -140,41 +252,27 @@ public class MetricsCollector implements MetricsData {
      * @param value Value to add.
      * @param now   Current time, as determined by the caller.
      */
-    public synchronized void addValue(final float value, @Nonnull final DateTime now) {
-
+    public void addValue(final float value, @Nonnull final DateTime now) {
         assert now != null;
+        addValue(value, now.getMillis());
+    }
 
-        // Prune old slots.
-        prune(now);
-
-        // Add the initial slot?
-        if (values.isEmpty()) {
-            values.add(new MetricsTimeSlot(now, value, value * value, value, value, 1));
-        } else {
-            // Add to new or existing slot.
-            DateTime slotTime = values.getLast().getStartTime();
-            DateTime slotEndTime = slotTime.plus(timeSlotDuration);
-
-            // Skip values that are too old for last slot.
-            if (now.isBefore(slotTime)) {
-                //noinspection AccessToStaticFieldLockedOnInstance
-                LOG.debug("Dropped metric data: {} at {}", value, now);
-                return;
-            }
-
-            // Append new time slots until now is reached.
-            while (slotEndTime.isBefore(now)) {
-                values.add(new MetricsTimeSlot(slotEndTime, 0, 0, 0, 0, 0));
-                slotTime = slotEndTime;
-                slotEndTime = slotTime.plus(timeSlotDuration);
-            }
+    /**
+     * Adds a value to the collector. Same as {@link #addValue(float, DateTime)}, but does not require a {@link
+     * DateTime} object.
+     *
+     * @param value     Value to add.
+     * @param nowMillis Current time in millis since the epoch, as determined by the caller.
+     */
+    public void addValue(final float value, final long nowMillis) {
+        final MetricsTimeSlotAccumulator slot = getAccumulator(nowMillis);
 
-            final MetricsTimeSlot slot = values.removeLast();
-            values.addLast(slot.addValue(value));
+        // Skip values that are too old for the slot.
+        if (slot == null) {
+            LOG.debug("Dropped metric data: {} at {}", value, nowMillis);
+            return;
         }
-        this.sum += value;
-        this.sumSquares += value * value;
-        this.count += 1;
+        slot.addValue(value);
     }
 
     /**
@@ -182,10 +280,10 @@ public class MetricsCollector implements MetricsData {
      *
      * @return Total number of data items.
      */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
-    public synchronized int getCount() {
-        prune(UTCTime.now());
-        return count;
+    public int getCount() {
+        return (int) getTotals().getCount();
     }
 
     /**
@@ -193,10 +291,10 @@ public class MetricsCollector implements MetricsData {
      *
      * @return Sum of metric data.
      */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
-    public synchronized float getSum() {
-        prune(UTCTime.now());
-        return sum;
+    public float getSum() {
+        return (float) getTotals().getSum();
     }
 
     /**
@@ -204,13 +302,10 @@ public class MetricsCollector implements MetricsData {
      *
      * @return Average of metric data, or {@link Float#NaN} if no data has been added.
      */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
-    public synchronized float getAvg() {
-        prune(UTCTime.now());
-        if (count == 0) {
-            return Float.NaN;
-        }
-        return sum / (float) count;
+    public float getAvg() {
+        return (float) getTotals().getAvg();
     }
 
     /**
@@ -219,25 +314,10 @@ public class MetricsCollector implements MetricsData {
      * @return The the sample standard deviation of all metric data added up until now since the duration (approx) of
      * this metric, or {@link Float#NaN} if no data has been added.
      */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
-    public synchronized float getStdDev() {
-        prune(UTCTime.now());
-        if (count == 0) {
-            return Float.NaN;
-        }
-        if (count == 1) {
-            return 0;
-        }
-        assert count >= 2;
-        final double dividend = (count * sumSquares) - (sum * sum);
-        final int divider = count * (count - 1);
-        assert divider != 0;
-        final double quotient = dividend / divider;
-        if (quotient < 0) {
-            return 0;
-        }
-        //noinspection NumericCastThatLosesPrecision
-        return (float) Math.sqrt(quotient);
+    public float getStdDev() {
+        return (float) getTotals().getStdDev();
     }
 
     /**
@@ -246,18 +326,10 @@ public class MetricsCollector implements MetricsData {
      * @return The maximum value of all metric data added up until now since the duration (approx) of this metric, or
      * {@link Float#NaN} if no data has been added.
      */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
-    public synchronized float getMax() {
-        prune(UTCTime.now());
-        float max = Float.NaN;
-        for (final MetricsTimeSlot value : values) {
-            if (Float.isNaN(max)) {
-                max = value.getMax();
-            } else {
-                max = Math.max(max, value.getMax());
-            }
-        }
-        return max;
+    public float getMax() {
+        return (float) getTotals().getMax();
     }
 
     /**
@@ -266,28 +338,290 @@ public class MetricsCollector implements MetricsData {
      * @return The minimum value of all metric data added up until now since the duration (approx) of this metric, or
      * {@link Float#NaN} if no data has been added.
      */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     @Override
-    public synchronized float getMin() {
-        prune(UTCTime.now());
-        float min = Float.NaN;
-        for (final MetricsTimeSlot value : values) {
-            if (Float.isNaN(min)) {
-                min = value.getMin();
+    public float getMin() {
+        return (float) getTotals().getMin();
+    }
+
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    @Override
+    public float getPercentile(final double percentile) {
+        assert (0.0 <= percentile) && (percentile <= 100.0) : percentile;
+        final long slotIndex = getSlotIndex(System.currentTimeMillis());
+        final CompletedSlots completed = getCompletedSlots(slotIndex);
+        final MetricsTotals totals = new MetricsTotals(false);
+        totals.add(completed.totals);
+        final MetricsHistogram completedHistogram = completed.totals.getHistogram();
+        assert completedHistogram != null;
+        final MetricsTimeSlotAccumulator previous = getSlotInPeriod(slotIndex - 1, slotIndex);
+        final MetricsTimeSlotAccumulator current = getSlotInPeriod(slotIndex, slotIndex);
+        if (previous != null) {
+            totals.add(previous);
+        }
+        if (current != null) {
+            totals.add(current);
+        }
+        final double value = totals.getValueAtPercentile(percentile, completedHistogram,
+                (previous == null) ? EMPTY_HISTOGRAM : previous.getHistogram(),
+                (current == null) ? EMPTY_HISTOGRAM : current.getHistogram());
+        return (float) value;
+    }
+
+    int getNrSlots() {
+        return values.length();
+    }
+
+    /**
+     * Return the time slot at a position in the ring.
+     *
+     * @param index Position in the ring, 0..getNrSlots() - 1.
+     * @return Time slot, or null if the position is not used yet.
+     */
+    @Nullable
+    MetricsTimeSlotAccumulator getSlotAt(final int index) {
+        return values.get(index);
+    }
+
+    @Override
+    @Nonnull
+    public MetricsSnapshot getSnapshot() {
+        final long slotIndex = getSlotIndex(System.currentTimeMillis());
+        final MetricsTotals totals = new MetricsTotals(true);
+        totals.add(getCompletedSlots(slotIndex).totals);
+        for (long i = slotIndex - 1; i <= slotIndex; ++i) {
+            final MetricsTimeSlotAccumulator slot = getSlotInPeriod(i, slotIndex);
+            if (slot != null) {
+                totals.add(slot);
+            }
+        }
+        return totals.toSnapshot();
+    }
+
+    /**
+     * Get a snapshot of the values which were added since the previous call of this method, for example for exporters
+     * which report increments. The first call returns all values in the time period. Only values within the time period
+     * are included, so this method must be called at least once per time period.
+     *
+     * The count, sum and percentiles only include values added since the previous call. The minimum and maximum are
+     * those of the time slots with new values, which may include values that were reported by the previous call.
+     *
+     * @return Snapshot of the values added since the previous call.
+     */
+    @Nonnull
+    public synchronized MetricsSnapshot getDeltaSnapshot() {
+        final long slotIndex = getSlotIndex(System.currentTimeMillis());
+        final MetricsTotals delta = new MetricsTotals(true);
+        final Map<Long, MetricsTotals> reportedSlots = new HashMap<>();
+        for (int i = 0; i < values.length(); ++i) {
+            final MetricsTimeSlotAccumulator slot = values.get(i);
+
+            // Time slots older than the previous time slot of the last delta were complete and have been reported.
+            if ((slot != null) && ((slot.getSlotIndex() + 2) > deltaSlotIndex) &&
+                    isInPeriod(slot.getSlotIndex(), slotIndex)) {
+                final MetricsTotals slotTotals = new MetricsTotals(true);
+                slotTotals.add(slot);
+                delta.add(slotTotals);
+                final MetricsTotals reported = deltaReportedSlots.get(slot.getSlotIndex());
+                if (reported != null) {
+                    delta.subtract(reported);
+                }
+                if (slot.getSlotIndex() >= (slotIndex - 1)) {
+                    reportedSlots.put(slot.getSlotIndex(), slotTotals);
+                }
+            }
+        }
+        deltaSlotIndex = slotIndex;
+        deltaReportedSlots = reportedSlots;
+        return delta.toSnapshot();
+    }
+
+    /**
+     * Write the time slots in the time period, with histograms, in the format of {@link MetricsSlotCodec}.
+     *
+     * @param out       Buffer to write to.
+     * @param nowMillis Current time.
+     */
+    void writeState(@Nonnull final ByteBuffer out, final long nowMillis) {
+        assert out != null;
+        final long slotIndex = getSlotIndex(nowMillis);
+        final List<MetricsTimeSlotAccumulator> slots = new ArrayList<>(nrPeriodSlots);
+        for (long i = (slotIndex - nrPeriodSlots) + 1; i <= slotIndex; ++i) {
+            final MetricsTimeSlotAccumulator slot = getSlot(i);
+            if (slot != null) {
+                slots.add(slot);
+            }
+        }
+        MetricsSlotCodec.writeSlots(out, timeSlotMillis, slots);
+    }
+
+    /**
+     * Read time slots written by {@link #writeState(ByteBuffer, long)} and add them to the time slots of this
+     * collector. Time slots outside the time period are skipped.
+     *
+     * @param in        Buffer to read from.
+     * @param nowMillis Current time.
+     * @return False if the time slots were written by a collector with a different time slot duration and were
+     * skipped.
+     */
+    boolean readState(@Nonnull final ByteBuffer in, final long nowMillis) {
+        assert in != null;
+        final List<MetricsTimeSlotAccumulator> slots = MetricsSlotCodec.readSlots(in, timeSlotMillis);
+        if (slots == null) {
+            return false;
+        }
+        final long slotIndex = getSlotIndex(nowMillis);
+        for (final MetricsTimeSlotAccumulator slot : slots) {
+            addSlot(slot, slotIndex);
+        }
+        return true;
+    }
+
+    /**
+     * Add the values of a time slot to the time slot with the same index, if it is in the time period.
+     *
+     * @param slot      Time slot, with the same time slot duration as this collector.
+     * @param slotIndex Index of the current time slot.
+     */
+    void addSlot(@Nonnull final MetricsTimeSlotAccumulator slot, final long slotIndex) {
+        assert slot != null;
+        if ((slot.getCount() > 0) && isInPeriod(slot.getSlotIndex(), slotIndex)) {
+            final MetricsTimeSlotAccumulator accumulator = getAccumulator(slot.getStartMillis());
+            if (accumulator != null) {
+                accumulator.add(slot.getCount(), slot.getSum(), slot.getSumSquares(), slot.getMax(), slot.getMin(),
+                        slot.getHistogram());
+                completedSlots = null;
+            }
+        }
+    }
+
+    long getTimeSlotMillis() {
+        return timeSlotMillis;
+    }
+
+    long getSlotIndex(final long timeMillis) {
+        return Math.floorDiv(timeMillis, timeSlotMillis);
+    }
+
+    /**
+     * Return the time slot with a specific index, if it is still available.
+     *
+     * @param slotIndex Time slot index.
+     * @return Time slot, or null if there is no time slot with this index (anymore).
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    @Nullable
+    MetricsTimeSlotAccumulator getSlot(final long slotIndex) {
+        final MetricsTimeSlotAccumulator slot = values.get((int) Math.floorMod(slotIndex, (long) values.length()));
+        if ((slot != null) && (slot.getSlotIndex() == slotIndex)) {
+            return slot;
+        }
+        return null;
+    }
+
+    /**
+     * Return the totals of the time slots in the time period, up until now.
+     *
+     * @return Totals, without histogram.
+     */
+    @Nonnull
+    private MetricsTotals getTotals() {
+        final long slotIndex = getSlotIndex(System.currentTimeMillis());
+        final MetricsTotals totals = new MetricsTotals(false);
+        totals.add(getCompletedSlots(slotIndex).totals);
+        for (long i = slotIndex - 1; i <= slotIndex; ++i) {
+            final MetricsTimeSlotAccumulator slot = getSlotInPeriod(i, slotIndex);
+            if (slot != null) {
+                totals.add(slot);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Return the totals of the completed time slots in the time period: all slots, except the current and the previous
+     * one, which may still be receiving values.
+     *
+     * @param slotIndex Index of the current time slot.
+     * @return Totals, with histogram.
+     */
+    @Nonnull
+    private CompletedSlots getCompletedSlots(final long slotIndex) {
+        final CompletedSlots completed = completedSlots;
+        if ((completed != null) && (completed.slotIndex == slotIndex)) {
+            return completed;
+        }
+        synchronized (this) {
+            final CompletedSlots current = completedSlots;
+            if ((current != null) && (current.slotIndex == slotIndex)) {
+                return current;
+            }
+            final MetricsTotals totals = new MetricsTotals(true);
+            for (int i = 0; i < values.length(); ++i) {
+                final MetricsTimeSlotAccumulator slot = values.get(i);
+                if ((slot != null) && isInPeriod(slot.getSlotIndex(), slotIndex) &&
+                        (slot.getSlotIndex() < (slotIndex - 1))) {
+                    totals.add(slot);
+                }
+            }
+            final CompletedSlots result = new CompletedSlots(slotIndex, totals);
+            completedSlots = result;
+            return result;
+        }
+    }
+
+    @Nullable
+    private MetricsTimeSlotAccumulator getSlotInPeriod(final long slotIndex, final long currentSlotIndex) {
+        return isInPeriod(slotIndex, currentSlotIndex) ? getSlot(slotIndex) : null;
+    }
+
+    private boolean isInPeriod(final long slotIndex, final long currentSlotIndex) {
+        return (slotIndex <= currentSlotIndex) && (slotIndex > (currentSlotIndex - nrPeriodSlots));
+    }
+
+    /**
+     * Return the accumulator of the time slot which contains a specific time. If the ring entry for the time slot still
+     * contains an older time slot, it is replaced by a new, empty time slot.
+     *
+     * @param timeMillis Time in millis since the epoch.
+     * @return Accumulator, or null if the ring entry already contains a newer time slot (time is too old).
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    @Nullable
+    private MetricsTimeSlotAccumulator getAccumulator(final long timeMillis) {
+        final long slotIndex = getSlotIndex(timeMillis);
+        final int index = (int) Math.floorMod(slotIndex, (long) values.length());
+        MetricsTimeSlotAccumulator slot = values.get(index);
+        while ((slot == null) || (slot.getSlotIndex() < slotIndex)) {
+            if (newSlotListener != null) {
+                newSlotListener.accept(slotIndex);
+            }
+            final MetricsTimeSlotAccumulator newSlot =
+                    new MetricsTimeSlotAccumulator(slotIndex, slotIndex * timeSlotMillis);
+            if (values.compareAndSet(index, slot, newSlot)) {
+                slot = newSlot;
             } else {
-                min = Math.min(min, value.getMin());
+                slot = values.get(index);
             }
         }
-        return min;
+        if (slot.getSlotIndex() > slotIndex) {
+            return null;
+        }
+        return slot;
     }
 
-    private void prune(@Nonnull final DateTime now) {
-        assert now != null;
-        final DateTime earliest = now.minus(totalMetricDuration);
-        while (!values.isEmpty() && values.getFirst().getStartTime().isBefore(earliest)) {
-            final MetricsTimeSlot slot = values.removeFirst();
-            this.sum -= slot.getSum();
-            this.count -= slot.getCount();
-            this.sumSquares -= slot.getSumSquares();
+    /**
+     * Totals of the completed time slots in the time period, for a specific current time slot.
+     */
+    private static final class CompletedSlots {
+        private final long slotIndex;
+        @Nonnull
+        private final MetricsTotals totals;
+
+        private CompletedSlots(final long slotIndex, @Nonnull final MetricsTotals totals) {
+            assert totals != null;
+            this.slotIndex = slotIndex;
+            this.totals = totals;
         }
     }
 }
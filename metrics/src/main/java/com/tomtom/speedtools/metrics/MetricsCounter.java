@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter which only goes up, for example the number of requests handled. Counters are created by {@link
+ * MetricsRegistry#counter(String, String, String...)}. Incrementing a counter does not lock and threads do not contend
+ * on the same cache line, because the count is striped.
+ *
+ * This class is thread-safe.
+ */
+public final class MetricsCounter {
+    private final LongAdder count = new LongAdder();
+
+    MetricsCounter() {
+        // Created by the registry.
+    }
+
+    /**
+     * Increment the counter by one.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Increment the counter.
+     *
+     * @param delta Increment, must be &gt;= 0.
+     */
+    public void increment(final long delta) {
+        assert delta >= 0 : delta;
+        count.add(delta);
+    }
+
+    /**
+     * Get the number of times the counter was incremented since it was created.
+     *
+     * @return Count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+}
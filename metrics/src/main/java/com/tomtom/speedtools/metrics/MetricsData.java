@@ -16,6 +16,8 @@
 
 package com.tomtom.speedtools.metrics;
 
+import javax.annotation.Nonnull;
+
 /**
  * Interface to retrieve metrics data.
  */
@@ -65,4 +67,41 @@ public interface MetricsData {
      * {@link Float#NaN} if no data has been added.
      */
     float getMin();
+
+    /**
+     * Get a percentile, for example 50 for the median or 99.9 for the value which is larger than 99.9% of all values.
+     * Percentiles are approximated by a histogram with a relative error of at most about 1.6%, but never exceed the
+     * minimum and maximum.
+     *
+     * The default implementation returns {@link Float#NaN}, for implementations which do not keep a histogram.
+     *
+     * @param percentile Percentile, 0..100.
+     * @return The value at the given percentile of all metric data added up until now since the duration (approx) of
+     * this metric, or {@link Float#NaN} if no data has been added.
+     */
+    default float getPercentile(final double percentile) {
+        return Float.NaN;
+    }
+
+    /**
+     * Get all metrics data at once. This is cheaper than calling the individual getters and the values are consistent
+     * with each other.
+     *
+     * The default implementation creates the snapshot from the individual getters, so its values are not necessarily
+     * consistent and it has no percentiles.
+     *
+     * @return Snapshot of all metric data added up until now since the duration (approx) of this metric.
+     */
+    @Nonnull
+    default MetricsSnapshot getSnapshot() {
+        final long count = getCount();
+        final double sum = getSum();
+        final double stdDev = getStdDev();
+
+        // Reconstruct the sum of squares from the sample standard deviation.
+        final double sumSquares = (count <= 1) ? (sum * sum) :
+                (((stdDev * stdDev * count * (count - 1.0)) + (sum * sum)) / count);
+        return new MetricsSnapshot(count, sum, (count == 0) ? 0.0 : sumSquares, getMax(), getMin(),
+                MetricsHistogram.createCompact());
+    }
 }
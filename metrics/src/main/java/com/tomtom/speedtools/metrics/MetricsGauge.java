@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Gauge with a value which can go up and down, for example the number of open connections. Gauges are created by
+ * {@link MetricsRegistry#gauge(String, String, String...)}. If the value is already available elsewhere, use {@link
+ * MetricsRegistry#gauge(String, String, DoubleSupplier, String...)} instead, so the value is only read when metrics are
+ * exported.
+ *
+ * This class is thread-safe.
+ */
+public final class MetricsGauge implements DoubleSupplier {
+    private volatile double value;
+
+    MetricsGauge() {
+        // Created by the registry.
+    }
+
+    /**
+     * Set the value of the gauge.
+     *
+     * @param value New value.
+     */
+    public void set(final double value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the value of the gauge.
+     *
+     * @return Value, 0 if it was never set.
+     */
+    public double get() {
+        return value;
+    }
+
+    @Override
+    public double getAsDouble() {
+        return value;
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of values, used to calculate percentiles (in the style of HdrHistogram). Every power of 2 is
+ * divided in {@link #SUB_BUCKETS} buckets of equal width, so the relative error of a percentile is at most 1/64
+ * (about 1.6%), independent of the magnitude of the values.
+ *
+ * Values with a magnitude between 2^{@link #MIN_EXPONENT} and 2^({@link #MAX_EXPONENT} + 1) are distinguished. Smaller
+ * magnitudes are counted as 0 and larger magnitudes are counted in the largest bucket. The buckets of a power of 2 are
+ * only allocated when the first value of that magnitude is added, so the memory used depends on the range of values,
+ * not on the number of values. Adding a value never allocates memory after that.
+ *
+ * Histograms can be merged with {@link #add(MetricsHistogram)}, and the percentiles of several histograms can be
+ * calculated without merging them with {@link #getValueAtPercentile(double, MetricsHistogram...)}.
+ *
+ * Histograms which are only used to merge other histograms, like the histograms of the time slots which have been
+ * rolled up, are created with {@link #createCompact()}. These only store the non-empty buckets, in sorted arrays, so
+ * they take a few bytes per non-empty bucket instead of about a kilobyte per power of 2.
+ *
+ * This class is thread-safe. Values can be added concurrently; the counters are striped. Compact histograms are not
+ * thread-safe; they must be guarded by their owner, or not be modified anymore once they are shared.
+ */
+public final class MetricsHistogram {
+
+    /**
+     * Number of buckets per power of 2.
+     */
+    public static final int SUB_BUCKETS = 32;
+
+    /**
+     * Smallest power of 2 which is distinguished from 0.
+     */
+    public static final int MIN_EXPONENT = -20;
+
+    /**
+     * Largest power of 2 which is distinguished.
+     */
+    public static final int MAX_EXPONENT = 43;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    private static final int NR_EXPONENTS = (MAX_EXPONENT - MIN_EXPONENT) + 1;
+    private static final int FLOAT_MANTISSA_BITS = 23;
+    private static final int FLOAT_EXPONENT_BIAS = 127;
+
+    // Number of buckets, including the bucket for 0.
+    static final int NR_BUCKETS = 1 + (2 * NR_EXPONENTS * SUB_BUCKETS);
+
+    private static final int[] NO_BUCKETS = {};
+    private static final long[] NO_COUNTS = {};
+
+    // Buckets per power of 2. Negative values are stored at 0..NR_EXPONENTS - 1, positive values after that. Null for
+    // compact histograms.
+    @Nullable
+    private final AtomicReferenceArray<LongAdder[]> chunks;
+    @Nullable
+    private final LongAdder zeroCount;
+
+    // Compact histograms only: bucket numbers in ascending order and their counts, valid up until size.
+    @Nonnull
+    private int[] buckets = NO_BUCKETS;
+    @Nonnull
+    private long[] counts = NO_COUNTS;
+    private int size = 0;
+
+    /**
+     * Create a thread-safe histogram.
+     */
+    public MetricsHistogram() {
+        this(new AtomicReferenceArray<>(2 * NR_EXPONENTS), new LongAdder());
+    }
+
+    private MetricsHistogram(
+            @Nullable final AtomicReferenceArray<LongAdder[]> chunks,
+            @Nullable final LongAdder zeroCount) {
+        this.chunks = chunks;
+        this.zeroCount = zeroCount;
+    }
+
+    /**
+     * Create a compact histogram, which is not thread-safe.
+     *
+     * @return Empty histogram.
+     */
+    @Nonnull
+    static MetricsHistogram createCompact() {
+        return new MetricsHistogram(null, null);
+    }
+
+    /**
+     * Add a value to the histogram. NaN values are ignored.
+     *
+     * @param value Value.
+     */
+    public void addValue(final float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        final int bits = Float.floatToRawIntBits(Math.abs(value));
+        int exponent = (bits >>> FLOAT_MANTISSA_BITS) - FLOAT_EXPONENT_BIAS;
+        if (exponent < MIN_EXPONENT) {
+            addToBucket(0, 1);
+            return;
+        }
+        int subBucket = (bits >>> (FLOAT_MANTISSA_BITS - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        if (exponent > MAX_EXPONENT) {
+            exponent = MAX_EXPONENT;
+            subBucket = SUB_BUCKETS - 1;
+        }
+        addToBucket(getBucket(getChunkIndex(value < 0.0f, exponent), subBucket), 1);
+    }
+
+    /**
+     * Add all values of another histogram to this histogram.
+     *
+     * @param histogram Histogram to add.
+     */
+    public void add(@Nonnull final MetricsHistogram histogram) {
+        assert histogram != null;
+        add(histogram, 1);
+    }
+
+    /**
+     * Remove all values of another histogram from this histogram. The values must have been added to this histogram.
+     *
+     * @param histogram Histogram to subtract.
+     */
+    void subtract(@Nonnull final MetricsHistogram histogram) {
+        assert histogram != null;
+        add(histogram, -1);
+    }
+
+    /**
+     * Return the number of values in the histogram.
+     *
+     * @return Number of values.
+     */
+    public long getCount() {
+        if (chunks == null) {
+            long count = 0;
+            for (int i = 0; i < size; ++i) {
+                count += counts[i];
+            }
+            return count;
+        }
+        assert zeroCount != null;
+        long count = zeroCount.sum();
+        for (int i = 0; i < chunks.length(); ++i) {
+            final LongAdder[] chunk = chunks.get(i);
+            if (chunk != null) {
+                for (final LongAdder subBucket : chunk) {
+                    count += subBucket.sum();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the (approximate) value at a percentile.
+     *
+     * @param percentile Percentile, 0..100.
+     * @return Value, or {@link Double#NaN} if the histogram is empty.
+     */
+    public double getValueAtPercentile(final double percentile) {
+        return getValueAtPercentile(percentile, this);
+    }
+
+    /**
+     * Return the (approximate) value at a percentile of the values of a number of histograms, as if they were merged.
+     *
+     * @param percentile Percentile, 0..100.
+     * @param histograms Histograms.
+     * @return Value, or {@link Double#NaN} if the histograms are empty.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    public static double getValueAtPercentile(final double percentile, @Nonnull final MetricsHistogram... histograms) {
+        assert histograms != null;
+        assert (0.0 <= percentile) && (percentile <= 100.0) : percentile;
+        long total = 0;
+        for (final MetricsHistogram histogram : histograms) {
+            total += histogram.getCount();
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil((percentile / 100.0) * total));
+        long seen = 0;
+
+        // Negative values, from large to small magnitude.
+        for (int chunkIndex = NR_EXPONENTS - 1; chunkIndex >= 0; --chunkIndex) {
+            if (hasChunk(histograms, chunkIndex)) {
+                for (int subBucket = SUB_BUCKETS - 1; subBucket >= 0; --subBucket) {
+                    final int bucket = getBucket(chunkIndex, subBucket);
+                    seen += getBucketCount(histograms, bucket);
+                    if (seen >= rank) {
+                        return getBucketValue(bucket);
+                    }
+                }
+            }
+        }
+
+        // Zero.
+        seen += getBucketCount(histograms, 0);
+        if (seen >= rank) {
+            return 0.0;
+        }
+
+        // Positive values, from small to large magnitude.
+        for (int chunkIndex = NR_EXPONENTS; chunkIndex < (2 * NR_EXPONENTS); ++chunkIndex) {
+            if (hasChunk(histograms, chunkIndex)) {
+                for (int subBucket = 0; subBucket < SUB_BUCKETS; ++subBucket) {
+                    final int bucket = getBucket(chunkIndex, subBucket);
+                    seen += getBucketCount(histograms, bucket);
+                    if (seen >= rank) {
+                        return getBucketValue(bucket);
+                    }
+                }
+            }
+        }
+
+        // Values were added concurrently; return the largest value.
+        return getBucketValue(NR_BUCKETS - 1);
+    }
+
+    /**
+     * Call a consumer for every non-empty bucket, in order of bucket number. Bucket 0 holds the values counted as 0;
+     * the other buckets are numbered 1..{@link #NR_BUCKETS} - 1. Used for serialization.
+     *
+     * @param consumer Consumer of bucket numbers and counts.
+     */
+    void forEachBucket(@Nonnull final BucketConsumer consumer) {
+        assert consumer != null;
+        if (chunks == null) {
+            for (int i = 0; i < size; ++i) {
+                if (counts[i] != 0) {
+                    consumer.accept(buckets[i], counts[i]);
+                }
+            }
+            return;
+        }
+        assert zeroCount != null;
+        final long zeros = zeroCount.sum();
+        if (zeros != 0) {
+            consumer.accept(0, zeros);
+        }
+        for (int chunkIndex = 0; chunkIndex < chunks.length(); ++chunkIndex) {
+            final LongAdder[] chunk = chunks.get(chunkIndex);
+            if (chunk != null) {
+                for (int subBucket = 0; subBucket < SUB_BUCKETS; ++subBucket) {
+                    final long count = chunk[subBucket].sum();
+                    if (count != 0) {
+                        consumer.accept(getBucket(chunkIndex, subBucket), count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a count to a bucket, as reported by {@link #forEachBucket(BucketConsumer)}.
+     *
+     * @param bucket Bucket number, 0..{@link #NR_BUCKETS} - 1.
+     * @param count  Count to add.
+     */
+    void addToBucket(final int bucket, final long count) {
+        assert (0 <= bucket) && (bucket < NR_BUCKETS) : bucket;
+        if (chunks == null) {
+            final int i = Arrays.binarySearch(buckets, 0, size, bucket);
+            if (i >= 0) {
+                counts[i] += count;
+            } else {
+                insert(-(i + 1), bucket, count);
+            }
+        } else if (bucket == 0) {
+            assert zeroCount != null;
+            zeroCount.add(count);
+        } else {
+            getChunk((bucket - 1) / SUB_BUCKETS)[(bucket - 1) % SUB_BUCKETS].add(count);
+        }
+    }
+
+    /**
+     * Consumer of the bucket counts of a histogram.
+     */
+    @FunctionalInterface
+    interface BucketConsumer {
+        void accept(int bucket, long count);
+    }
+
+    private void add(@Nonnull final MetricsHistogram histogram, final int sign) {
+        if (chunks == null) {
+
+            // Merge the sorted buckets of both histograms, rather than inserting them one by one.
+            final MetricsHistogram from;
+            if (histogram.chunks == null) {
+                from = histogram;
+            } else {
+                from = createCompact();
+                histogram.forEachBucket(from::append);
+            }
+            merge(from, sign);
+            return;
+        }
+        assert zeroCount != null;
+        if (histogram.chunks == null) {
+            histogram.forEachBucket((bucket, count) -> addToBucket(bucket, sign * count));
+            return;
+        }
+        assert histogram.zeroCount != null;
+        zeroCount.add(sign * histogram.zeroCount.sum());
+        for (int i = 0; i < histogram.chunks.length(); ++i) {
+            final LongAdder[] from = histogram.chunks.get(i);
+            if (from != null) {
+                final LongAdder[] to = getChunk(i);
+                for (int subBucket = 0; subBucket < SUB_BUCKETS; ++subBucket) {
+                    final long count = from[subBucket].sum();
+                    if (count != 0) {
+                        to[subBucket].add(sign * count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the buckets of another compact histogram into the buckets of this compact histogram.
+     */
+    private void merge(@Nonnull final MetricsHistogram from, final int sign) {
+        assert (chunks == null) && (from.chunks == null);
+        if (from.size == 0) {
+            return;
+        }
+        final int[] mergedBuckets = new int[size + from.size];
+        final long[] mergedCounts = new long[size + from.size];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while ((i < size) || (j < from.size)) {
+            if ((j == from.size) || ((i < size) && (buckets[i] < from.buckets[j]))) {
+                mergedBuckets[n] = buckets[i];
+                mergedCounts[n] = counts[i];
+                ++i;
+            } else if ((i == size) || (from.buckets[j] < buckets[i])) {
+                mergedBuckets[n] = from.buckets[j];
+                mergedCounts[n] = sign * from.counts[j];
+                ++j;
+            } else {
+                mergedBuckets[n] = buckets[i];
+                mergedCounts[n] = counts[i] + (sign * from.counts[j]);
+                ++i;
+                ++j;
+            }
+            ++n;
+        }
+        buckets = mergedBuckets;
+        counts = mergedCounts;
+        size = n;
+    }
+
+    /**
+     * Append a bucket to a compact histogram; the bucket number must be larger than that of the last bucket.
+     */
+    private void append(final int bucket, final long count) {
+        assert (size == 0) || (buckets[size - 1] < bucket);
+        insert(size, bucket, count);
+    }
+
+    private void insert(final int index, final int bucket, final long count) {
+        assert chunks == null;
+        if (size == buckets.length) {
+            final int capacity = Math.max(4, size * 2);
+            buckets = Arrays.copyOf(buckets, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(buckets, index, buckets, index + 1, size - index);
+        System.arraycopy(counts, index, counts, index + 1, size - index);
+        buckets[index] = bucket;
+        counts[index] = count;
+        ++size;
+    }
+
+    private static int getChunkIndex(final boolean negative, final int exponent) {
+        return (negative ? 0 : NR_EXPONENTS) + (exponent - MIN_EXPONENT);
+    }
+
+    private static int getBucket(final int chunkIndex, final int subBucket) {
+        return 1 + (chunkIndex * SUB_BUCKETS) + subBucket;
+    }
+
+    /**
+     * Return whether any of the histograms may have values in the buckets of a power of 2.
+     */
+    private static boolean hasChunk(@Nonnull final MetricsHistogram[] histograms, final int chunkIndex) {
+        for (final MetricsHistogram histogram : histograms) {
+            if (histogram.chunks == null) {
+                final int i = Arrays.binarySearch(histogram.buckets, 0, histogram.size, getBucket(chunkIndex, 0));
+                final int next = (i >= 0) ? i : -(i + 1);
+                if ((next < histogram.size) && (histogram.buckets[next] < getBucket(chunkIndex + 1, 0))) {
+                    return true;
+                }
+            } else if (histogram.chunks.get(chunkIndex) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getBucketCount(@Nonnull final MetricsHistogram[] histograms, final int bucket) {
+        long count = 0;
+        for (final MetricsHistogram histogram : histograms) {
+            if (histogram.chunks == null) {
+                final int i = Arrays.binarySearch(histogram.buckets, 0, histogram.size, bucket);
+                if (i >= 0) {
+                    count += histogram.counts[i];
+                }
+            } else if (bucket == 0) {
+                assert histogram.zeroCount != null;
+                count += histogram.zeroCount.sum();
+            } else {
+                final LongAdder[] chunk = histogram.chunks.get((bucket - 1) / SUB_BUCKETS);
+                if (chunk != null) {
+                    count += chunk[(bucket - 1) % SUB_BUCKETS].sum();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return the value which represents a bucket: the middle of the bucket.
+     *
+     * @param bucket Bucket number, 1..{@link #NR_BUCKETS} - 1.
+     * @return Value.
+     */
+    private static double getBucketValue(final int bucket) {
+        final int chunkIndex = (bucket - 1) / SUB_BUCKETS;
+        final int subBucket = (bucket - 1) % SUB_BUCKETS;
+        final boolean negative = chunkIndex < NR_EXPONENTS;
+        final int exponent = (chunkIndex % NR_EXPONENTS) + MIN_EXPONENT;
+        final double value = Math.scalb(1.0 + ((subBucket + 0.5) / SUB_BUCKETS), exponent);
+        return negative ? -value : value;
+    }
+
+    @Nonnull
+    private LongAdder[] getChunk(final int chunkIndex) {
+        assert chunks != null;
+        final LongAdder[] chunk = chunks.get(chunkIndex);
+        if (chunk != null) {
+            return chunk;
+        }
+        final LongAdder[] newChunk = new LongAdder[SUB_BUCKETS];
+        for (int subBucket = 0; subBucket < SUB_BUCKETS; ++subBucket) {
+            newChunk[subBucket] = new LongAdder();
+        }
+        if (chunks.compareAndSet(chunkIndex, null, newChunk)) {
+            return newChunk;
+        }
+        return chunks.get(chunkIndex);
+    }
+}
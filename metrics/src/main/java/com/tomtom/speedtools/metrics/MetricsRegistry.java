@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of named metrics, so they can be exported, for example by {@link OpenMetricsExporter}. A metric is
+ * identified by its name and its labels. Labels are passed as alternating names and values, for example:
+ *
+ * <pre>
+ *     final MetricsCounter requests = registry.counter("http_requests", "HTTP requests.", "method", "GET");
+ * </pre>
+ *
+ * Registering a metric which already exists returns the existing metric, so metrics can be registered wherever they
+ * are used. All metrics with the same name have the same type and must be registered with the same label names.
+ *
+ * The names and label values are rendered once, when a metric is registered, so exporting the metrics does not need to
+ * render or escape them again.
+ *
+ * This class is thread-safe.
+ */
+public final class MetricsRegistry {
+    private static final Pattern METRIC_NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final Pattern LABEL_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    /**
+     * Name of the label which is added to the metrics of every period of a {@link MultiMetricsCollector}.
+     */
+    @Nonnull
+    public static final String WINDOW_LABEL = "window";
+
+    /**
+     * Metric types. Counters and gauges are named as in OpenMetrics; collectors are exported as gauges.
+     */
+    enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge"),
+        COLLECTOR("collector");
+
+        @Nonnull
+        final String text;
+
+        Type(@Nonnull final String text) {
+            assert text != null;
+            this.text = text;
+        }
+    }
+
+    // Families sorted by name, so the export is stable.
+    @Nonnull
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Get or create a counter.
+     *
+     * @param name   Name of the counter, without the suffix "_total".
+     * @param help   Description of the counter.
+     * @param labels Alternating label names and values.
+     * @return Counter.
+     */
+    @Nonnull
+    public MetricsCounter counter(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final String... labels) {
+        assert !name.endsWith("_total") : name;
+        return getOrCreate(name, help, Type.COUNTER, MetricsCounter.class, MetricsCounter::new, labels);
+    }
+
+    /**
+     * Get or create a gauge which is set by the application.
+     *
+     * @param name   Name of the gauge.
+     * @param help   Description of the gauge.
+     * @param labels Alternating label names and values.
+     * @return Gauge.
+     */
+    @Nonnull
+    public MetricsGauge gauge(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final String... labels) {
+        return getOrCreate(name, help, Type.GAUGE, MetricsGauge.class, MetricsGauge::new, labels);
+    }
+
+    /**
+     * Register a gauge of which the value is read when metrics are exported. The supplier replaces the gauge with the
+     * same name and labels, if it exists. The supplier is called by the exporter, so it should be fast and
+     * thread-safe.
+     *
+     * @param name     Name of the gauge.
+     * @param help     Description of the gauge.
+     * @param supplier Supplier of the value.
+     * @param labels   Alternating label names and values.
+     */
+    public void gauge(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final DoubleSupplier supplier,
+            @Nonnull final String... labels) {
+        assert supplier != null;
+        put(name, help, Type.GAUGE, supplier, labels);
+    }
+
+    /**
+     * Get or create a collector which collects metrics for all periods of {@link Period}. To record durations, use
+     * a name ending with "_seconds" and record the durations with a {@link MetricsTimer}.
+     *
+     * @param name   Name of the collector, which should end with the unit of the values, like "_bytes".
+     * @param help   Description of the collector.
+     * @param labels Alternating label names and values.
+     * @return Collector.
+     */
+    @Nonnull
+    public MultiMetricsCollector collector(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final String... labels) {
+        return getOrCreate(name, help, Type.COLLECTOR, MultiMetricsCollector.class, MultiMetricsCollector::all, labels);
+    }
+
+    /**
+     * Register an existing collector. It is exported as gauges, with the count, sum and percentiles of the time period
+     * of the collector (see {@link OpenMetricsExporter}). The collector replaces the metric with the same name and
+     * labels, if it exists.
+     *
+     * @param name      Name of the metric.
+     * @param help      Description of the metric.
+     * @param collector Collector.
+     * @param labels    Alternating label names and values.
+     */
+    public void register(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final MetricsData collector,
+            @Nonnull final String... labels) {
+        assert collector != null;
+        put(name, help, Type.COLLECTOR, collector, labels);
+    }
+
+    /**
+     * Register an existing collector for multiple periods. It is exported as gauges for every period which is
+     * collected, with an additional label {@link #WINDOW_LABEL}, for example window="last_minute". The collector
+     * replaces the metric with the same name and labels, if it exists.
+     *
+     * @param name      Name of the metric.
+     * @param help      Description of the metric.
+     * @param collector Collector.
+     * @param labels    Alternating label names and values.
+     */
+    public void register(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final MultiMetricsCollector collector,
+            @Nonnull final String... labels) {
+        assert collector != null;
+        put(name, help, Type.COLLECTOR, collector, labels);
+    }
+
+    /**
+     * Remove a metric.
+     *
+     * @param name   Name of the metric.
+     * @param labels Alternating label names and values.
+     * @return True if the metric was removed, false if it did not exist.
+     */
+    public boolean remove(
+            @Nonnull final String name,
+            @Nonnull final String... labels) {
+        assert name != null;
+        final Family family = families.get(name);
+        return (family != null) && (family.series.remove(renderLabels(labels)) != null);
+    }
+
+    /**
+     * Return the families of metrics, sorted by name. Families may be empty.
+     *
+     * @return Families.
+     */
+    @Nonnull
+    Collection<Family> getFamilies() {
+        return families.values();
+    }
+
+    @Nonnull
+    private <T> T getOrCreate(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final Type type,
+            @Nonnull final Class<T> clazz,
+            @Nonnull final Supplier<T> factory,
+            @Nonnull final String... labels) {
+        assert factory != null;
+        assert clazz != null;
+        final Family family = getFamily(name, help, type);
+        final String renderedLabels = renderLabels(labels);
+        final Series series = family.series.computeIfAbsent(renderedLabels,
+                key -> new Series(key, factory.get()));
+        if (!clazz.isInstance(series.metric)) {
+            throw new IllegalArgumentException("Metric " + name + renderedLabels + " is not a " +
+                    clazz.getSimpleName());
+        }
+        return clazz.cast(series.metric);
+    }
+
+    private void put(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final Type type,
+            @Nonnull final Object metric,
+            @Nonnull final String... labels) {
+        final String renderedLabels = renderLabels(labels);
+        getFamily(name, help, type).series.put(renderedLabels, new Series(renderedLabels, metric));
+    }
+
+    @Nonnull
+    private Family getFamily(
+            @Nonnull final String name,
+            @Nonnull final String help,
+            @Nonnull final Type type) {
+        assert name != null;
+        assert help != null;
+        assert type != null;
+        assert METRIC_NAME.matcher(name).matches() : name;
+        final Family family = families.computeIfAbsent(name, key -> new Family(key, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type.text + ", not a " +
+                    type.text);
+        }
+        return family;
+    }
+
+    /**
+     * Render labels as "{name1=\"value1\",name2=\"value2\"", without the closing brace, so other labels can be
+     * appended. The labels are sorted by name.
+     *
+     * @param labels Alternating label names and values.
+     * @return Rendered labels, or an empty string if there are no labels.
+     */
+    @Nonnull
+    static String renderLabels(@Nonnull final String... labels) {
+        assert labels != null;
+        assert (labels.length % 2) == 0 : "Labels must be name/value pairs";
+        if (labels.length == 0) {
+            return "";
+        }
+        final List<String> pairs = new ArrayList<>(labels.length / 2);
+        for (int i = 0; i < labels.length; i = i + 2) {
+            assert LABEL_NAME.matcher(labels[i]).matches() : labels[i];
+            assert !WINDOW_LABEL.equals(labels[i]) && !"quantile".equals(labels[i]) : labels[i];
+            final StringBuilder pair = new StringBuilder(labels[i]).append("=\"");
+            appendEscaped(pair, labels[i + 1]);
+            pairs.add(pair.append('"').toString());
+        }
+        pairs.sort(null);
+        return '{' + String.join(",", pairs);
+    }
+
+    /**
+     * Escape backslashes, double quotes and line feeds, as OpenMetrics requires for label values and help texts.
+     *
+     * @param sb   Buffer to append to.
+     * @param text Text to escape.
+     */
+    static void appendEscaped(@Nonnull final StringBuilder sb, @Nonnull final String text) {
+        assert sb != null;
+        assert text != null;
+        for (int i = 0; i < text.length(); ++i) {
+            final char ch = text.charAt(i);
+            switch (ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+
+                case '"':
+                    sb.append("\\\"");
+                    break;
+
+                case '\n':
+                    sb.append("\\n");
+                    break;
+
+                default:
+                    sb.append(ch);
+            }
+        }
+    }
+
+    /**
+     * Metrics with the same name.
+     */
+    static final class Family {
+        @Nonnull
+        final String name;
+        @Nonnull
+        final String help;
+        @Nonnull
+        final Type type;
+
+        // Series sorted by rendered labels, so the export is stable.
+        @Nonnull
+        final ConcurrentSkipListMap<String, Series> series = new ConcurrentSkipListMap<>();
+
+        Family(@Nonnull final String name, @Nonnull final String help, @Nonnull final Type type) {
+            assert name != null;
+            assert help != null;
+            assert type != null;
+            this.name = name;
+            final StringBuilder sb = new StringBuilder();
+            appendEscaped(sb, help);
+            this.help = sb.toString();
+            this.type = type;
+        }
+    }
+
+    /**
+     * Metric with a specific set of labels. For collectors, the collectors of the time periods are resolved up front,
+     * with their rendered labels.
+     */
+    static final class Series {
+        @Nonnull
+        final String labels;
+        @Nonnull
+        final Object metric;
+        @Nullable
+        final MetricsData[] windows;
+        @Nullable
+        final String[] windowLabels;
+
+        Series(@Nonnull final String labels, @Nonnull final Object metric) {
+            assert labels != null;
+            assert metric != null;
+            this.labels = labels;
+            this.metric = metric;
+            if (metric instanceof MultiMetricsCollector) {
+                final MultiMetricsCollector collector = (MultiMetricsCollector) metric;
+                final List<MetricsData> data = new ArrayList<>();
+                final List<String> dataLabels = new ArrayList<>();
+                for (final Period period : Period.values()) {
+                    if (collector.isCollected(period)) {
+                        data.add(collector.get(period));
+                        dataLabels.add((labels.isEmpty() ? "{" : (labels + ',')) +
+                                WINDOW_LABEL + "=\"" + period.name().toLowerCase(Locale.US) + '"');
+                    }
+                }
+                this.windows = data.toArray(new MetricsData[data.size()]);
+                this.windowLabels = dataLabels.toArray(new String[dataLabels.size()]);
+            } else if (metric instanceof MetricsData) {
+                this.windows = new MetricsData[]{(MetricsData) metric};
+                this.windowLabels = new String[]{labels};
+            } else {
+                this.windows = null;
+                this.windowLabels = null;
+            }
+        }
+    }
+}
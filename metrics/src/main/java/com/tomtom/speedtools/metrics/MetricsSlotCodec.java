@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the time slots of a collector, used by {@link MetricsSnapshotStore}. A list of time slots
+ * is encoded as:
+ *
+ * <pre>
+ *     varint  time slot duration in millis
+ *     varint  number of time slots
+ *     per time slot, in order of slot index:
+ *         varint  slot index, as a (zigzag encoded) delta to the previous slot index (or 0)
+ *         varint  count
+ *         if count = 1:
+ *             float   value
+ *         else:
+ *             double  sum
+ *             double  sum of squares
+ *             float   maximum
+ *             float   minimum
+ *             varint  number of non-empty histogram buckets
+ *             per bucket: varint delta to previous bucket number (or -1), varint count
+ * </pre>
+ *
+ * Empty time slots are not encoded. A time slot with a single value is encoded in 5 or 6 bytes, because the other
+ * fields and the histogram follow from the value. The maximum and minimum are stored as floats, because values are
+ * added as floats. Buffers are expected to be large enough; a {@link java.nio.BufferOverflowException} is thrown
+ * otherwise.
+ *
+ * This class is thread-safe.
+ */
+final class MetricsSlotCodec {
+
+    private MetricsSlotCodec() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Write the header of a list of time slots.
+     *
+     * @param out        Buffer to write to.
+     * @param slotMillis Time slot duration in millis.
+     * @param nrSlots    Number of non-empty time slots which will be written.
+     */
+    static void writeHeader(@Nonnull final ByteBuffer out, final long slotMillis, final int nrSlots) {
+        assert out != null;
+        assert slotMillis > 0 : slotMillis;
+        assert nrSlots >= 0 : nrSlots;
+        putVarLong(out, slotMillis);
+        putVarLong(out, nrSlots);
+    }
+
+    /**
+     * Write a non-empty time slot.
+     *
+     * @param out           Buffer to write to.
+     * @param prevSlotIndex Index of the previous time slot written, or 0 for the first one.
+     * @param slotIndex     Index of the time slot.
+     * @param count         Number of values, &gt; 0.
+     * @param sum           Sum of values.
+     * @param sumSquares    Sum of squares of values.
+     * @param max           Maximum value.
+     * @param min           Minimum value.
+     * @param histogram     Histogram of values.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    static void writeSlot(
+            @Nonnull final ByteBuffer out,
+            final long prevSlotIndex,
+            final long slotIndex,
+            final long count,
+            final double sum,
+            final double sumSquares,
+            final double max,
+            final double min,
+            @Nonnull final MetricsHistogram histogram) {
+        assert out != null;
+        assert histogram != null;
+        assert count > 0 : count;
+        putVarLong(out, zigzag(slotIndex - prevSlotIndex));
+        putVarLong(out, count);
+        if (count == 1) {
+            out.putFloat((float) sum);
+            return;
+        }
+        out.putDouble(sum);
+        out.putDouble(sumSquares);
+        out.putFloat((float) max);
+        out.putFloat((float) min);
+
+        // Reserve 2 bytes for the number of buckets, which is less than 2^14.
+        final int nrBucketsPosition = out.position();
+        out.putShort((short) 0);
+        final int[] state = {-1, 0};       // Previous bucket, number of buckets.
+        histogram.forEachBucket((bucket, bucketCount) -> {
+            putVarLong(out, bucket - state[0]);
+            putVarLong(out, bucketCount);
+            state[0] = bucket;
+            ++state[1];
+        });
+        out.put(nrBucketsPosition, (byte) (0x80 | (state[1] & 0x7f)));
+        out.put(nrBucketsPosition + 1, (byte) (state[1] >>> 7));
+    }
+
+    /**
+     * Write non-empty time slots.
+     *
+     * @param out        Buffer to write to.
+     * @param slotMillis Time slot duration in millis.
+     * @param slots      Time slots, in order of slot index. Empty time slots are skipped.
+     */
+    static void writeSlots(
+            @Nonnull final ByteBuffer out,
+            final long slotMillis,
+            @Nonnull final List<MetricsTimeSlotAccumulator> slots) {
+        assert slots != null;
+        final long[] counts = new long[slots.size()];
+        int nrSlots = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = slots.get(i).getCount();
+            if (counts[i] > 0) {
+                ++nrSlots;
+            }
+        }
+        writeHeader(out, slotMillis, nrSlots);
+        long prevSlotIndex = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] > 0) {
+                final MetricsTimeSlotAccumulator slot = slots.get(i);
+                writeSlot(out, prevSlotIndex, slot.getSlotIndex(), counts[i], slot.getSum(), slot.getSumSquares(),
+                        slot.getMax(), slot.getMin(), slot.getHistogram());
+                prevSlotIndex = slot.getSlotIndex();
+            }
+        }
+    }
+
+    /**
+     * Read time slots written by {@link #writeSlots(ByteBuffer, long, List)} or {@link #writeHeader(ByteBuffer, long,
+     * int)} and {@link #writeSlot(ByteBuffer, long, long, long, double, double, double, double, MetricsHistogram)}.
+     *
+     * @param in         Buffer to read from.
+     * @param slotMillis Expected time slot duration in millis.
+     * @return Time slots, or null if the time slot duration differs (the time slots are skipped in that case).
+     */
+    @Nullable
+    static List<MetricsTimeSlotAccumulator> readSlots(@Nonnull final ByteBuffer in, final long slotMillis) {
+        assert in != null;
+        final long readSlotMillis = getVarLong(in);
+        final int nrSlots = (int) getVarLong(in);
+        final List<MetricsTimeSlotAccumulator> slots = new ArrayList<>(nrSlots);
+        long slotIndex = 0;
+        for (int i = 0; i < nrSlots; ++i) {
+            slotIndex = slotIndex + unzigzag(getVarLong(in));
+            final MetricsTimeSlotAccumulator slot =
+                    new MetricsTimeSlotAccumulator(slotIndex, slotIndex * readSlotMillis);
+            final long count = getVarLong(in);
+            if (count == 1) {
+                slot.addValue(in.getFloat());
+            } else {
+                final double sum = in.getDouble();
+                final double sumSquares = in.getDouble();
+                final double max = in.getFloat();
+                final double min = in.getFloat();
+                final MetricsHistogram histogram = MetricsHistogram.createCompact();
+                final long nrBuckets = getVarLong(in);
+                int bucket = -1;
+                for (long j = 0; j < nrBuckets; ++j) {
+                    bucket = bucket + (int) getVarLong(in);
+                    histogram.addToBucket(bucket, getVarLong(in));
+                }
+                slot.add(count, sum, sumSquares, max, min, histogram);
+            }
+            slots.add(slot);
+        }
+        return (readSlotMillis == slotMillis) ? slots : null;
+    }
+
+    /**
+     * Write an unsigned variable length integer: 7 bits per byte, least significant first, with the high bit set
+     * if more bytes follow.
+     *
+     * @param out   Buffer to write to.
+     * @param value Value, interpreted as unsigned.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    static void putVarLong(@Nonnull final ByteBuffer out, final long value) {
+        long v = value;
+        while ((v & ~0x7fL) != 0) {
+            out.put((byte) ((v & 0x7f) | 0x80));
+            v = v >>> 7;
+        }
+        out.put((byte) v);
+    }
+
+    /**
+     * Read an unsigned variable length integer written by {@link #putVarLong(ByteBuffer, long)}.
+     *
+     * @param in Buffer to read from.
+     * @return Value.
+     */
+    static long getVarLong(@Nonnull final ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value = value | ((long) (b & 0x7f) << shift);
+            shift = shift + 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
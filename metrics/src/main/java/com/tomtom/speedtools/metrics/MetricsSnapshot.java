@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.json.Json;
+import com.tomtom.speedtools.json.JsonRenderable;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Immutable snapshot of metrics data. All values of a snapshot are calculated at the same time, so they are consistent
+ * with each other, and reading them is cheap. Snapshots are created by {@link MetricsData#getSnapshot()}, or by {@link
+ * MetricsCollector#getDeltaSnapshot()} for the values added since the previous delta snapshot.
+ */
+@Immutable
+public final class MetricsSnapshot implements JsonRenderable {
+    private final long count;
+    private final double sum;
+    private final double sumSquares;
+    private final double avg;
+    private final double stdDev;
+    private final double max;
+    private final double min;
+
+    // Not rendered in JSON. Never modified.
+    @Nonnull
+    private final transient MetricsHistogram histogram;
+
+    /**
+     * Create a snapshot.
+     *
+     * @param count      Number of values.
+     * @param sum        Sum of values.
+     * @param sumSquares Sum of squares of values.
+     * @param max        Maximum value, or {@link Double#NaN} if count is 0.
+     * @param min        Minimum value, or {@link Double#NaN} if count is 0.
+     * @param histogram  Histogram of values. It is owned by the snapshot and must not be modified anymore.
+     */
+    MetricsSnapshot(
+            final long count,
+            final double sum,
+            final double sumSquares,
+            final double max,
+            final double min,
+            @Nonnull final MetricsHistogram histogram) {
+        assert histogram != null;
+        this.count = count;
+        this.sum = sum;
+        this.sumSquares = sumSquares;
+        this.avg = MetricsTotals.calculateAvg(count, sum);
+        this.stdDev = MetricsTotals.calculateStdDev(count, sum, sumSquares);
+        this.max = max;
+        this.min = min;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Return the number of values.
+     *
+     * @return Number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Return the sum of the values.
+     *
+     * @return Sum of values.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Return the sum of the squares of the values.
+     *
+     * @return Sum of squares of values.
+     */
+    public double getSumSquares() {
+        return sumSquares;
+    }
+
+    /**
+     * Get average.
+     *
+     * @return Average of the values, or {@link Double#NaN} if there are no values.
+     */
+    public double getAvg() {
+        return avg;
+    }
+
+    /**
+     * Get standard deviation.
+     *
+     * @return The sample standard deviation of the values, or {@link Double#NaN} if there are no values.
+     */
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    /**
+     * Get maximum.
+     *
+     * @return Maximum value, or {@link Double#NaN} if there are no values.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Get minimum.
+     *
+     * @return Minimum value, or {@link Double#NaN} if there are no values.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Get a percentile. See {@link MetricsData#getPercentile(double)}.
+     *
+     * @param percentile Percentile, 0..100.
+     * @return The value at the given percentile, or {@link Double#NaN} if there are no values.
+     */
+    public double getPercentile(final double percentile) {
+        return MetricsTotals.calculateValueAtPercentile(percentile, count, max, min, histogram);
+    }
+
+    @Override
+    @Nonnull
+    public String toJson() {
+        return Json.toJson(this);
+    }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return Json.toStringJson(this);
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MetricsRegistry.Family;
+import com.tomtom.speedtools.metrics.MetricsRegistry.Series;
+import com.tomtom.speedtools.metrics.MetricsRegistry.Type;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class persists the time slots of the collectors in a {@link MetricsRegistry} in a memory-mapped file, so the
+ * metrics of long periods, like {@link MultiMetricsData.Period#LAST_WEEK} and {@link
+ * MultiMetricsData.Period#LAST_MONTH}, survive a restart of the application. Counters and gauges are not persisted.
+ *
+ * Typical use is to create the store at startup, after the collectors have been registered, and call {@link
+ * #restore()} and {@link #start(Duration)}. {@link #close()} saves the collectors a final time. Collectors are
+ * identified by their name and labels; collectors which are registered after the restore start empty.
+ *
+ * The time slots are encoded in the compact binary format of {@link MetricsSlotCodec}, with histograms, so
+ * percentiles are restored as well. A snapshot is encoded into a reused buffer, then copied to the file. The file has
+ * two headers, which are used alternately, with the position, length and checksum of a snapshot. A new snapshot never
+ * overwrites the last complete one, and its header is only written once the snapshot itself is on disk. If the
+ * application stops while a snapshot is written, the previous snapshot is restored instead.
+ *
+ * The size of a snapshot grows with the number of time slots that have values, not with the number of values. The
+ * file holds up to two snapshots, so it can grow to about twice that size. The collectors are locked one at a time,
+ * only while they are encoded, so recording values in a {@link MultiMetricsCollector} only waits if it needs to roll
+ * up a time slot at the same time.
+ *
+ * This class is thread-safe.
+ */
+public final class MetricsSnapshotStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsSnapshotStore.class);
+
+    private static final int MAGIC = 0x4d534e50;       // "MSNP".
+    private static final int VERSION = 1;
+
+    // Magic, version, payload length, payload checksum, payload position, time and sequence number of the snapshot.
+    private static final int HEADER_SIZE = (5 * 4) + (2 * 8);
+    private static final int NR_HEADERS = 2;
+    private static final int PAYLOAD_START = NR_HEADERS * HEADER_SIZE;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte KIND_COLLECTOR = 1;
+    private static final byte KIND_MULTI_COLLECTOR = 2;
+
+    @Nonnull
+    private final MetricsRegistry registry;
+    @Nonnull
+    private final File path;
+    @Nonnull
+    private final RandomAccessFile file;
+    @Nonnull
+    private MappedByteBuffer data;
+
+    // Reused for every snapshot.
+    @Nonnull
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    @Nonnull
+    private final CRC32 checksum = new CRC32();
+
+    @Nullable
+    private ScheduledExecutorService scheduler = null;
+
+    // Header, position, length and sequence number of the last complete snapshot. The header is -1 if there is none.
+    private int lastHeader = -1;
+    private int lastPosition = 0;
+    private int lastLength = 0;
+    private long lastSequence = 0;
+
+    /**
+     * Open or create a snapshot store.
+     *
+     * @param registry Registry with the collectors to persist.
+     * @param path     Snapshot file. Created if it does not exist.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public MetricsSnapshotStore(@Nonnull final MetricsRegistry registry, @Nonnull final File path)
+            throws IOException {
+        assert registry != null;
+        assert path != null;
+        this.registry = registry;
+        this.path = path;
+        this.file = new RandomAccessFile(path, "rw");
+        this.data = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(file.length(), PAYLOAD_START + INITIAL_BUFFER_SIZE));
+        findLastSnapshot();
+    }
+
+    /**
+     * Add the time slots of the last snapshot to the registered collectors. Time slots which are outside the time
+     * period of a collector by now are skipped.
+     *
+     * @return Number of collectors restored.
+     */
+    public synchronized int restore() {
+        if (lastHeader < 0) {
+            LOG.debug("restore: no snapshot available, file={}", path);
+            return 0;
+        }
+        final int length = lastLength;
+        final ByteBuffer in = data.duplicate();
+        in.position(lastPosition);
+        in.limit(lastPosition + length);
+
+        final Map<String, Object> collectors = new HashMap<>();
+        for (final Family family : registry.getFamilies()) {
+            if (family.type == Type.COLLECTOR) {
+                for (final Series series : family.series.values()) {
+                    collectors.put(family.name + series.labels, series.metric);
+                }
+            }
+        }
+        final long nowMillis = System.currentTimeMillis();
+        int nrRestored = 0;
+        while (in.hasRemaining()) {
+            final byte[] key = new byte[(int) MetricsSlotCodec.getVarLong(in)];
+            in.get(key);
+            final byte kind = in.get();
+            final int recordLength = in.getInt();
+            final ByteBuffer record = in.slice();
+            record.limit(recordLength);
+            in.position(in.position() + recordLength);
+
+            final Object collector = collectors.get(new String(key, StandardCharsets.UTF_8));
+            try {
+                if ((kind == KIND_COLLECTOR) && (collector instanceof MetricsCollector)) {
+                    if (((MetricsCollector) collector).readState(record, nowMillis)) {
+                        ++nrRestored;
+                    }
+                } else if ((kind == KIND_MULTI_COLLECTOR) && (collector instanceof MultiMetricsCollector)) {
+                    ((MultiMetricsCollector) collector).readState(record, nowMillis);
+                    ++nrRestored;
+                } else {
+                    // Not registered (anymore), or registered as a different kind of collector.
+                    assert true;
+                }
+            } catch (final RuntimeException e) {
+                LOG.warn("restore: cannot restore collector, key={}, file={}",
+                        new String(key, StandardCharsets.UTF_8), path, e);
+            }
+        }
+        LOG.info("restore: restored {} collectors, snapshot size={} bytes, file={}", nrRestored, length, path);
+        return nrRestored;
+    }
+
+    /**
+     * Write a snapshot of the registered collectors to the file.
+     *
+     * @return Size of the snapshot, in bytes.
+     * @throws IOException If the file cannot be extended.
+     */
+    public synchronized int save() throws IOException {
+        final long nowMillis = System.currentTimeMillis();
+        while (true) {
+            try {
+                encode(nowMillis);
+                break;
+            } catch (final BufferOverflowException ignored) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        buffer.flip();
+        final int length = buffer.remaining();
+        checksum.reset();
+        checksum.update(buffer.array(), 0, length);
+
+        // Don't overwrite the last complete snapshot: write before it if the snapshot fits there, or else after it.
+        final int header = (lastHeader < 0) ? 0 : (1 - lastHeader);
+        final int position = ((lastHeader < 0) || ((PAYLOAD_START + length) <= lastPosition)) ?
+                PAYLOAD_START : (lastPosition + lastLength);
+        if (data.capacity() < ((long) position + length)) {
+            data = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(2L * data.capacity(), (long) position + length));
+        }
+        final ByteBuffer out = data.duplicate();
+        out.position(position);
+        out.put(buffer);
+        data.force();
+
+        // Write the header only when the snapshot is on disk, so a partially written snapshot is never used.
+        final long sequence = lastSequence + 1;
+        final int offset = header * HEADER_SIZE;
+        data.putInt(offset, MAGIC);
+        data.putInt(offset + 4, VERSION);
+        data.putInt(offset + 8, length);
+        data.putInt(offset + 12, (int) checksum.getValue());
+        data.putInt(offset + 16, position);
+        data.putLong(offset + 20, nowMillis);
+        data.putLong(offset + 28, sequence);
+        data.force();
+        lastHeader = header;
+        lastPosition = position;
+        lastLength = length;
+        lastSequence = sequence;
+        return length;
+    }
+
+    /**
+     * Start saving snapshots periodically, in a background thread.
+     *
+     * @param interval Time between snapshots.
+     */
+    public synchronized void start(@Nonnull final Duration interval) {
+        assert interval != null;
+        assert scheduler == null : "Already started";
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "MetricsSnapshotStore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::saveQuietly, interval.getMillis(), interval.getMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop saving snapshots periodically, save a final snapshot and close the file. The store cannot be used after
+     * this call.
+     *
+     * @throws IOException If the snapshot cannot be saved.
+     */
+    @Override
+    public void close() throws IOException {
+        final ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = scheduler;
+            scheduler = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                save();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Find the last complete snapshot: the one with the highest sequence number of which the checksum matches.
+     */
+    private void findLastSnapshot() {
+        for (int header = 0; header < NR_HEADERS; ++header) {
+            final int offset = header * HEADER_SIZE;
+            if ((data.getInt(offset) != MAGIC) || (data.getInt(offset + 4) != VERSION)) {
+                continue;
+            }
+            final int length = data.getInt(offset + 8);
+            final int position = data.getInt(offset + 16);
+            final long sequence = data.getLong(offset + 28);
+            if ((length < 0) || (position < PAYLOAD_START) || (position > (data.capacity() - length))) {
+                LOG.warn("findLastSnapshot: invalid snapshot position, header={}, file={}", header, path);
+                continue;
+            }
+            final ByteBuffer in = data.duplicate();
+            in.position(position);
+            in.limit(position + length);
+            checksum.reset();
+            checksum.update(in);
+            if (data.getInt(offset + 12) != (int) checksum.getValue()) {
+                LOG.warn("findLastSnapshot: snapshot checksum mismatch, header={}, file={}", header, path);
+                continue;
+            }
+            if ((lastHeader < 0) || (sequence > lastSequence)) {
+                lastHeader = header;
+                lastPosition = position;
+                lastLength = length;
+                lastSequence = sequence;
+            }
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            final int length = save();
+            LOG.debug("saveQuietly: saved snapshot, size={} bytes, file={}", length, path);
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("saveQuietly: cannot save snapshot, file={}", path, e);
+        }
+    }
+
+    /**
+     * Encode the collectors into the buffer. Every collector is encoded as its key (name and labels), kind and the
+     * length of its time slots, followed by its time slots.
+     *
+     * @param nowMillis Current time.
+     */
+    private void encode(final long nowMillis) {
+        buffer.clear();
+        for (final Family family : registry.getFamilies()) {
+            if (family.type != Type.COLLECTOR) {
+                continue;
+            }
+            for (final Series series : family.series.values()) {
+                final byte kind;
+                if (series.metric instanceof MetricsCollector) {
+                    kind = KIND_COLLECTOR;
+                } else if (series.metric instanceof MultiMetricsCollector) {
+                    kind = KIND_MULTI_COLLECTOR;
+                } else {
+                    continue;
+                }
+                final byte[] key = (family.name + series.labels).getBytes(StandardCharsets.UTF_8);
+                MetricsSlotCodec.putVarLong(buffer, key.length);
+                buffer.put(key);
+                buffer.put(kind);
+                final int lengthPosition = buffer.position();
+                buffer.putInt(0);
+                if (kind == KIND_COLLECTOR) {
+                    ((MetricsCollector) series.metric).writeState(buffer, nowMillis);
+                } else {
+                    ((MultiMetricsCollector) series.metric).writeState(buffer, nowMillis);
+                }
+                buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+            }
+        }
+    }
+}
@@ -33,13 +33,17 @@ import javax.annotation.Nullable;
 public final class MetricsTimeSlot implements JsonRenderable {
     @Nonnull
     private final DateTime startTime;
-    private final float sum;
-    private final float sumSquares;
-    private final float max;
-    private final float min;
-    private final int count;
+    private final double sum;
+    private final double sumSquares;
+    private final double max;
+    private final double min;
+    private final long count;
 
     public MetricsTimeSlot(@Nonnull final DateTime startTime, final float sum, final float sumSquares, final float max, final float min, final int count) {
+        this(startTime, (double) sum, (double) sumSquares, (double) max, (double) min, (long) count);
+    }
+
+    public MetricsTimeSlot(@Nonnull final DateTime startTime, final double sum, final double sumSquares, final double max, final double min, final long count) {
         assert startTime != null;
         this.startTime = startTime;
         this.sum = sum;
@@ -55,28 +59,58 @@ public final class MetricsTimeSlot implements JsonRenderable {
     }
 
     public float getSum() {
-        return sum;
+        return (float) sum;
     }
 
     public float getSumSquares() {
-        return sumSquares;
+        return (float) sumSquares;
     }
 
     public float getMax() {
-        return max;
+        return (float) max;
     }
 
     public float getMin() {
-        return min;
+        return (float) min;
     }
 
     public int getCount() {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the sum in full precision. The slot accumulates in double precision, {@link #getSum()} rounds it to a float.
+     *
+     * @return Sum of values.
+     */
+    public double getSumAsDouble() {
+        return sum;
+    }
+
+    public double getSumSquaresAsDouble() {
+        return sumSquares;
+    }
+
+    public double getMaxAsDouble() {
+        return max;
+    }
+
+    public double getMinAsDouble() {
+        return min;
+    }
+
+    /**
+     * Get the count as a long. {@link #getCount()} returns {@link Integer#MAX_VALUE} for larger counts.
+     *
+     * @return Number of values.
+     */
+    public long getCountAsLong() {
         return count;
     }
 
     @Nonnull
     public MetricsTimeSlot addValue(final float value) {
-        return new MetricsTimeSlot(startTime, this.sum + value, this.sumSquares + (value * value),
+        return new MetricsTimeSlot(startTime, this.sum + value, this.sumSquares + ((double) value * value),
                 Math.max(max, value), Math.min(min, value), count + 1);
     }
 
@@ -95,7 +129,7 @@ public final class MetricsTimeSlot implements JsonRenderable {
             eq = that.canEqual(this);
             // Top-level entity, don't check for super.equals(that).
             eq = eq && startTime.equals(that.startTime);
-            eq = eq && (Float.compare(sum, that.sum) == 0);
+            eq = eq && (Double.compare(sum, that.sum) == 0);
             eq = eq && (count == that.count);
         } else {
             eq = false;
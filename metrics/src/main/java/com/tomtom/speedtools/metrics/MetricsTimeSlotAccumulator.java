@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mutable counterpart of {@link MetricsTimeSlot}, used by {@link MetricsCollector} to record values. Values are added
+ * to striped adders, so threads which record values concurrently do not contend for a lock or for a single memory
+ * location.
+ *
+ * This class is thread-safe. Values read while other threads are recording are not necessarily consistent with each
+ * other (for example, the count may already include a value which is not yet part of the sum).
+ */
+final class MetricsTimeSlotAccumulator {
+    private final long slotIndex;
+    private final long startMillis;
+    @Nonnull
+    private final LongAdder count = new LongAdder();
+    @Nonnull
+    private final DoubleAdder sum = new DoubleAdder();
+    @Nonnull
+    private final DoubleAdder sumSquares = new DoubleAdder();
+    @Nonnull
+    private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    @Nonnull
+    private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    @Nonnull
+    private final MetricsHistogram histogram = new MetricsHistogram();
+
+    /**
+     * Create an empty accumulator for a time slot.
+     *
+     * @param slotIndex   Index of the time slot, which is the start time divided by the time slot duration.
+     * @param startMillis Start time of the time slot, in millis since the epoch.
+     */
+    MetricsTimeSlotAccumulator(final long slotIndex, final long startMillis) {
+        this.slotIndex = slotIndex;
+        this.startMillis = startMillis;
+    }
+
+    long getSlotIndex() {
+        return slotIndex;
+    }
+
+    long getStartMillis() {
+        return startMillis;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getSum() {
+        return sum.sum();
+    }
+
+    double getSumSquares() {
+        return sumSquares.sum();
+    }
+
+    /**
+     * Get maximum.
+     *
+     * @return Maximum value, or {@link Double#NEGATIVE_INFINITY} if no values were added.
+     */
+    double getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get minimum.
+     *
+     * @return Minimum value, or {@link Double#POSITIVE_INFINITY} if no values were added.
+     */
+    double getMin() {
+        return min.get();
+    }
+
+    @Nonnull
+    MetricsHistogram getHistogram() {
+        return histogram;
+    }
+
+    void addValue(final float value) {
+
+        // Update the count last, so readers which see the value counted are likely to see it everywhere else as well.
+        histogram.addValue(value);
+        max.accumulate(value);
+        min.accumulate(value);
+        sum.add(value);
+        sumSquares.add((double) value * value);
+        count.increment();
+    }
+
+    void addSlot(@Nonnull final MetricsTimeSlot slot) {
+        assert slot != null;
+        if (slot.getCountAsLong() > 0) {
+            max.accumulate(slot.getMaxAsDouble());
+            min.accumulate(slot.getMinAsDouble());
+            sum.add(slot.getSumAsDouble());
+            sumSquares.add(slot.getSumSquaresAsDouble());
+            count.add(slot.getCountAsLong());
+        }
+    }
+
+    /**
+     * Add the aggregated values of a number of values to this time slot.
+     *
+     * @param count      Number of values, &gt; 0.
+     * @param sum        Sum of values.
+     * @param sumSquares Sum of squares of values.
+     * @param max        Maximum value.
+     * @param min        Minimum value.
+     * @param histogram  Histogram of values.
+     */
+    void add(
+            final long count,
+            final double sum,
+            final double sumSquares,
+            final double max,
+            final double min,
+            @Nonnull final MetricsHistogram histogram) {
+        assert count > 0 : count;
+        assert histogram != null;
+        this.histogram.add(histogram);
+        this.max.accumulate(max);
+        this.min.accumulate(min);
+        this.sum.add(sum);
+        this.sumSquares.add(sumSquares);
+        this.count.add(count);
+    }
+
+    /**
+     * Return the immutable representation of the values recorded up until now. The histogram is not included.
+     *
+     * @return Time slot.
+     */
+    @Nonnull
+    MetricsTimeSlot toTimeSlot() {
+        final long currentCount = getCount();
+        final boolean empty = (currentCount == 0);
+        return new MetricsTimeSlot(new DateTime(startMillis, DateTimeZone.UTC), getSum(), getSumSquares(),
+                empty ? 0.0 : getMax(), empty ? 0.0 : getMin(), currentCount);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Records durations in a collector, in seconds. Durations are measured with {@link System#nanoTime()}, so they are
+ * accurate for sub-millisecond operations as well, and are not affected by changes of the system clock. The collector
+ * keeps a histogram of the durations, so percentiles of the durations are available.
+ *
+ * Use {@link #start()} and {@link #stop(long)} for code which must not allocate any objects:
+ *
+ * <pre>
+ *     final long start = timer.start();
+ *     ...
+ *     timer.stop(start);
+ * </pre>
+ *
+ * Or use a scope, which is usually allocated on the stack by the JIT compiler:
+ *
+ * <pre>
+ *     try (MetricsTimer.Scope ignored = timer.time()) {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * Runnables, callables and completion stages (like {@link java.util.concurrent.CompletableFuture}) can be timed as
+ * well. Akka futures are timed by {@code ResourceProcessor} in the rest module.
+ *
+ * This class is thread-safe.
+ */
+public final class MetricsTimer {
+    private static final float NANOS_PER_SECOND = 1.0e9f;
+
+    @Nonnull
+    private final Recorder recorder;
+
+    /**
+     * Create a timer which records durations in a collector for multiple periods, for example one created by {@link
+     * MetricsRegistry#collector(String, String, String...)}.
+     *
+     * @param collector Collector.
+     */
+    public MetricsTimer(@Nonnull final MultiMetricsCollector collector) {
+        assert collector != null;
+        this.recorder = collector::addValue;
+    }
+
+    /**
+     * Create a timer which records durations in a collector.
+     *
+     * @param collector Collector.
+     */
+    public MetricsTimer(@Nonnull final MetricsCollector collector) {
+        assert collector != null;
+        this.recorder = collector::addValue;
+    }
+
+    /**
+     * Start timing.
+     *
+     * @return Start time, to be passed to {@link #stop(long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing and record the duration.
+     *
+     * @param startNanos Start time, as returned by {@link #start()}.
+     */
+    public void stop(final long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param durationNanos Duration in nanoseconds.
+     */
+    public void record(final long durationNanos) {
+        recorder.addValue(durationNanos / NANOS_PER_SECOND, System.currentTimeMillis());
+    }
+
+    /**
+     * Start timing a scope. The duration is recorded when the scope is closed.
+     *
+     * @return Scope.
+     */
+    @Nonnull
+    public Scope time() {
+        return new Scope(System.nanoTime());
+    }
+
+    /**
+     * Run a runnable and record its duration, also if it throws an exception.
+     *
+     * @param runnable Runnable.
+     */
+    public void time(@Nonnull final Runnable runnable) {
+        assert runnable != null;
+        final long startNanos = System.nanoTime();
+        try {
+            runnable.run();
+        } finally {
+            stop(startNanos);
+        }
+    }
+
+    /**
+     * Call a callable and record its duration, also if it throws an exception.
+     *
+     * @param <T>      Result type.
+     * @param callable Callable.
+     * @return Result of the callable.
+     * @throws Exception If the callable throws an exception.
+     */
+    public <T> T time(@Nonnull final Callable<T> callable) throws Exception {
+        assert callable != null;
+        final long startNanos = System.nanoTime();
+        try {
+            return callable.call();
+        } finally {
+            stop(startNanos);
+        }
+    }
+
+    /**
+     * Record the time from now until a completion stage completes, normally or exceptionally.
+     *
+     * @param <T>   Result type.
+     * @param stage Completion stage.
+     * @return The same completion stage.
+     */
+    @Nonnull
+    public <T> CompletionStage<T> time(@Nonnull final CompletionStage<T> stage) {
+        assert stage != null;
+        final long startNanos = System.nanoTime();
+        stage.whenComplete((result, failure) -> stop(startNanos));
+        return stage;
+    }
+
+    /**
+     * Scope which records its duration when it is closed. Closing a scope more than once only records the duration
+     * once.
+     */
+    public final class Scope implements AutoCloseable {
+        private final long startNanos;
+        private boolean closed = false;
+
+        private Scope(final long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                stop(startNanos);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Recorder {
+        void addValue(float value, long nowMillis);
+    }
+}
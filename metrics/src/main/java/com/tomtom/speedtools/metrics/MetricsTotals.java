@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Totals of the values of a number of time slots, used by the collectors to combine time slots: count, sum, sum of
+ * squares, minimum and maximum, and optionally a histogram.
+ *
+ * This class is not thread-safe. Instances are only modified while they are being calculated.
+ */
+final class MetricsTotals {
+    private long count;
+    private double sum;
+    private double sumSquares;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double min = Double.POSITIVE_INFINITY;
+    @Nullable
+    private final MetricsHistogram histogram;
+
+    /**
+     * Create empty totals.
+     *
+     * @param withHistogram True if the histograms of the time slots must be merged as well.
+     */
+    MetricsTotals(final boolean withHistogram) {
+        this.histogram = withHistogram ? MetricsHistogram.createCompact() : null;
+    }
+
+    void add(@Nonnull final MetricsTimeSlotAccumulator slot) {
+        assert slot != null;
+        add(slot.getCount(), slot.getSum(), slot.getSumSquares(), slot.getMax(), slot.getMin());
+        if (histogram != null) {
+            histogram.add(slot.getHistogram());
+        }
+    }
+
+    void add(@Nonnull final MetricsTotals totals) {
+        assert totals != null;
+        add(totals.count, totals.sum, totals.sumSquares, totals.max, totals.min);
+        if ((histogram != null) && (totals.histogram != null)) {
+            histogram.add(totals.histogram);
+        }
+    }
+
+    void add(final long count, final double sum, final double sumSquares, final double max, final double min) {
+        this.count += count;
+        this.sum += sum;
+        this.sumSquares += sumSquares;
+        this.max = Math.max(this.max, max);
+        this.min = Math.min(this.min, min);
+    }
+
+    void add(final long count, final double sum, final double sumSquares, final double max, final double min,
+             @Nonnull final MetricsHistogram histogram) {
+        assert histogram != null;
+        add(count, sum, sumSquares, max, min);
+        if (this.histogram != null) {
+            this.histogram.add(histogram);
+        }
+    }
+
+    /**
+     * Subtract the count, sum, sum of squares and histogram of other totals, which must be part of these totals. The
+     * minimum and maximum are not changed.
+     *
+     * @param totals Totals to subtract.
+     */
+    void subtract(@Nonnull final MetricsTotals totals) {
+        assert totals != null;
+        this.count -= totals.count;
+        this.sum -= totals.sum;
+        this.sumSquares -= totals.sumSquares;
+        if ((histogram != null) && (totals.histogram != null)) {
+            histogram.subtract(totals.histogram);
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    double getSumSquares() {
+        return sumSquares;
+    }
+
+    /**
+     * Get average.
+     *
+     * @return Average, or {@link Double#NaN} if count is 0.
+     */
+    double getAvg() {
+        return calculateAvg(count, sum);
+    }
+
+    /**
+     * Get the sample standard deviation.
+     *
+     * @return Standard deviation, or {@link Double#NaN} if count is 0.
+     */
+    double getStdDev() {
+        return calculateStdDev(count, sum, sumSquares);
+    }
+
+    /**
+     * Get maximum.
+     *
+     * @return Maximum, or {@link Double#NaN} if count is 0.
+     */
+    double getMax() {
+        return (count == 0) ? Double.NaN : max;
+    }
+
+    /**
+     * Get minimum.
+     *
+     * @return Minimum, or {@link Double#NaN} if count is 0.
+     */
+    double getMin() {
+        return (count == 0) ? Double.NaN : min;
+    }
+
+    /**
+     * Get the histogram.
+     *
+     * @return Histogram, or null if the totals were created without histogram.
+     */
+    @Nullable
+    MetricsHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Return a snapshot of these totals.
+     *
+     * @return Snapshot, which takes ownership of the histogram.
+     */
+    @Nonnull
+    MetricsSnapshot toSnapshot() {
+        assert histogram != null;
+        return new MetricsSnapshot(count, sum, sumSquares, getMax(), getMin(), histogram);
+    }
+
+    /**
+     * Return the value at a percentile, limited to the minimum and maximum. Percentiles 0 and 100 are the exact minimum
+     * and maximum.
+     *
+     * @param percentile Percentile, 0..100.
+     * @param histograms Histograms of the values; the total count of the histograms should equal the count of these
+     *                   totals.
+     * @return Value, or {@link Double#NaN} if count is 0.
+     */
+    double getValueAtPercentile(final double percentile, @Nonnull final MetricsHistogram... histograms) {
+        return calculateValueAtPercentile(percentile, count, max, min, histograms);
+    }
+
+    static double calculateAvg(final long count, final double sum) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return sum / count;
+    }
+
+    static double calculateStdDev(final long count, final double sum, final double sumSquares) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count == 1) {
+            return 0;
+        }
+        assert count >= 2;
+        final double dividend = (count * sumSquares) - (sum * sum);
+        final double divider = count * (count - 1.0);
+        assert divider != 0;
+        final double quotient = dividend / divider;
+        if (quotient < 0) {
+            return 0;
+        }
+        return Math.sqrt(quotient);
+    }
+
+    static double calculateValueAtPercentile(
+            final double percentile, final long count, final double max, final double min,
+            @Nonnull final MetricsHistogram... histograms) {
+        assert histograms != null;
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (percentile <= 0.0) {
+            return min;
+        }
+        if (percentile >= 100.0) {
+            return max;
+        }
+        final double value = MetricsHistogram.getValueAtPercentile(percentile, histograms);
+        if (Double.isNaN(value)) {
+            return Double.NaN;
+        }
+        return Math.min(max, Math.max(min, value));
+    }
+}
@@ -16,16 +16,47 @@
 
 package com.tomtom.speedtools.metrics;
 
-import com.tomtom.speedtools.time.UTCTime;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * Convenience class that wraps multiple calculators with different intervals.
+ * Convenience class that collects metrics for multiple intervals.
+ *
+ * The intervals are implemented as a hierarchical time wheel. Values are only recorded in a {@link MetricsCollector}
+ * for the finest interval (for example, 2 second slots for {@link Period#LAST_MINUTE}), without locking. Once a time
+ * slot of the finest interval is complete, it is rolled up into the (coarser) time slots of the other intervals. So,
+ * recording a value takes a single update instead of one per interval, and the coarser intervals are stored as plain
+ * arrays instead of striped accumulators.
+ *
+ * A time slot is considered complete when it is at least one time slot old, to allow threads which are still
+ * recording a value in it to finish. Metrics of the coarser intervals include the time slots that have not been rolled
+ * up yet.
+ *
+ * This class is thread-safe.
  */
 public class MultiMetricsCollector implements MultiMetricsData {
-    private final MetricsCollector[] calculators = new MetricsCollector[Period.values().length];
+    private static final Logger LOG = LoggerFactory.getLogger(MultiMetricsCollector.class);
+
+    // Interval of which the time slots are recorded directly.
+    @Nonnull
+    private final Period recordInterval;
+    @Nonnull
+    private final MetricsCollector recorder;
+
+    // Index of the last recorded time slot which was rolled up into the coarser intervals.
+    private volatile long rolledUpSlotIndex = Long.MIN_VALUE;
+
+    // Coarser intervals, indexed by Period ordinal; null for the recorded interval and for intervals not collected.
+    @Nonnull
+    private final RollUpLevel[] levels = new RollUpLevel[Period.values().length];
+    @Nonnull
+    private final MetricsData[] metricsData = new MetricsData[Period.values().length];
 
     @Nonnull
     public static MultiMetricsCollector all() {
@@ -40,15 +71,47 @@ public class MultiMetricsCollector implements MultiMetricsData {
 
     private MultiMetricsCollector(@Nonnull final Period... intervals) {
         assert intervals != null;
+        assert intervals.length > 0;
+
+        // Record the interval with the shortest time slots.
+        Period finest = intervals[0];
+        for (final Period interval : intervals) {
+            if (getTimeSlotMillis(interval) < getTimeSlotMillis(finest)) {
+                finest = interval;
+            }
+        }
+        this.recordInterval = finest;
+        this.recorder = new MetricsCollector(MetricsCollector.getTotalMetricDuration(finest),
+                MetricsCollector.getMaxEntries(finest), this::rollUp);
+
         for (final Period interval : intervals) {
-            calculators[interval.ordinal()] = MetricsCollector.create(interval);
+            if (interval == recordInterval) {
+                metricsData[interval.ordinal()] = recorder;
+            } else {
+                final long slotMillis = getTimeSlotMillis(interval);
+                assert (slotMillis % recorder.getTimeSlotMillis()) == 0 : interval;
+                levels[interval.ordinal()] =
+                        new RollUpLevel(MetricsCollector.getTotalMetricDuration(interval).getMillis(), slotMillis);
+                metricsData[interval.ordinal()] = new IntervalMetricsData(interval);
+            }
         }
     }
 
     @Nonnull
-    public MetricsCollector get(@Nonnull final Period interval) {
+    public MetricsData get(@Nonnull final Period interval) {
         assert interval != null;
-        return calculators[interval.ordinal()];
+        return metricsData[interval.ordinal()];
+    }
+
+    /**
+     * Return whether metrics are collected for an interval.
+     *
+     * @param interval Interval.
+     * @return True if the interval was passed when the collector was created.
+     */
+    public boolean isCollected(@Nonnull final Period interval) {
+        assert interval != null;
+        return metricsData[interval.ordinal()] != null;
     }
 
     /**
@@ -57,7 +120,7 @@ public class MultiMetricsCollector implements MultiMetricsData {
      * @param value Value to add.
      */
     public void addValue(final float value) {
-        addValueNow(value, UTCTime.now());
+        addValue(value, System.currentTimeMillis());
     }
 
     /**
@@ -69,12 +132,25 @@ public class MultiMetricsCollector implements MultiMetricsData {
      * @param now   Current time, as determined by the caller.
      */
     public void addValueNow(final float value, @Nonnull final DateTime now) {
-        for (final Period interval : Period.values()) {
-            final MetricsCollector calculator = calculators[interval.ordinal()];
-            if (calculator != null) {
-                calculator.addValue(value, now);
-            }
+        assert now != null;
+        addValue(value, now.getMillis());
+    }
+
+    /**
+     * Adds a value to the managed metric collectors. Same as {@link #addValueNow(float, DateTime)}, but does not require
+     * a {@link DateTime} object.
+     *
+     * @param value     Value to add.
+     * @param nowMillis Current time in millis since the epoch, as determined by the caller.
+     */
+    public void addValue(final float value, final long nowMillis) {
+
+        // Skip values that are too old for the slots that were not rolled up yet.
+        if (recorder.getSlotIndex(nowMillis) <= rolledUpSlotIndex) {
+            LOG.debug("Dropped metric data: {} at {}", value, nowMillis);
+            return;
         }
+        recorder.addValue(value, nowMillis);
     }
 
     /**
@@ -86,9 +162,9 @@ public class MultiMetricsCollector implements MultiMetricsData {
      */
     public int getCount(@Nonnull final Period interval) {
         assert interval != null;
-        final MetricsCollector calculator = calculators[interval.ordinal()];
-        if (calculator != null) {
-            return calculator.getCount();
+        final MetricsData data = metricsData[interval.ordinal()];
+        if (data != null) {
+            return data.getCount();
         }
         return 0;
     }
@@ -102,9 +178,9 @@ public class MultiMetricsCollector implements MultiMetricsData {
      */
     public float getSum(@Nonnull final Period interval) {
         assert interval != null;
-        final MetricsCollector calculator = calculators[interval.ordinal()];
-        if (calculator != null) {
-            return calculator.getSum();
+        final MetricsData data = metricsData[interval.ordinal()];
+        if (data != null) {
+            return data.getSum();
         }
         return 0;
     }
@@ -118,46 +194,382 @@ public class MultiMetricsCollector implements MultiMetricsData {
      */
     public float getAvg(@Nonnull final Period interval) {
         assert interval != null;
-        final MetricsCollector calculator = calculators[interval.ordinal()];
-        if (calculator != null) {
-            return calculator.getAvg();
+        final MetricsData data = metricsData[interval.ordinal()];
+        if (data != null) {
+            return data.getAvg();
         }
         return 0;
     }
 
+    /**
+     * Get a snapshot of the values which were added since the previous call of this method, for all intervals. See
+     * {@link MetricsCollector#getDeltaSnapshot()}. This method must be called at least once per the shortest interval.
+     *
+     * @return Snapshot of the values added since the previous call.
+     */
+    @Nonnull
+    public MetricsSnapshot getDeltaSnapshot() {
+        return recorder.getDeltaSnapshot();
+    }
+
     @Override
     @Nonnull
     public MetricsData getMetricsData(final Period period) {
-        return calculators[period.ordinal()];
+        return metricsData[period.ordinal()];
     }
 
     @Nonnull
     @Override
     public MetricsData getLastMonth() {
-        return calculators[Period.LAST_MONTH.ordinal()];
+        return metricsData[Period.LAST_MONTH.ordinal()];
     }
 
     @Nonnull
     @Override
     public MetricsData getLastWeek() {
-        return calculators[Period.LAST_WEEK.ordinal()];
+        return metricsData[Period.LAST_WEEK.ordinal()];
     }
 
     @Nonnull
     @Override
     public MetricsData getLastDay() {
-        return calculators[Period.LAST_DAY.ordinal()];
+        return metricsData[Period.LAST_DAY.ordinal()];
     }
 
     @Nonnull
     @Override
     public MetricsData getLastHour() {
-        return calculators[Period.LAST_HOUR.ordinal()];
+        return metricsData[Period.LAST_HOUR.ordinal()];
     }
 
     @Nonnull
     @Override
     public MetricsData getLastMinute() {
-        return calculators[Period.LAST_MINUTE.ordinal()];
+        return metricsData[Period.LAST_MINUTE.ordinal()];
+    }
+
+    private static long getTimeSlotMillis(@Nonnull final Period interval) {
+        assert interval != null;
+        return MetricsCollector.getTotalMetricDuration(interval).getMillis() / MetricsCollector.getMaxEntries(interval);
+    }
+
+    /**
+     * Roll up the recorded time slots which are complete into the coarser intervals. This is called by the recorder
+     * before it starts a new time slot (and by readers), so it happens about once per recorded time slot and it does not
+     * matter that it requires a lock.
+     *
+     * @param slotIndex Index of the current time slot.
+     */
+    private synchronized void rollUp(final long slotIndex) {
+        final long lastCompleteSlotIndex = slotIndex - 2;
+        if (lastCompleteSlotIndex <= rolledUpSlotIndex) {
+            return;
+        }
+        for (int i = 0; i < recorder.getNrSlots(); ++i) {
+            final MetricsTimeSlotAccumulator slot = recorder.getSlotAt(i);
+            if ((slot != null) && (slot.getSlotIndex() > rolledUpSlotIndex) &&
+                    (slot.getSlotIndex() <= lastCompleteSlotIndex)) {
+                addToLevels(slot);
+            }
+        }
+        rolledUpSlotIndex = lastCompleteSlotIndex;
+    }
+
+    /**
+     * Write the time slots of all intervals, with histograms, in the format of {@link MetricsSlotCodec}. Completed
+     * time slots are rolled up first, so the recorded time slots which are written either have been rolled up
+     * already, or are still in progress.
+     *
+     * @param out       Buffer to write to.
+     * @param nowMillis Current time.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    synchronized void writeState(@Nonnull final ByteBuffer out, final long nowMillis) {
+        assert out != null;
+        rollUp(recorder.getSlotIndex(nowMillis));
+        MetricsSlotCodec.putVarLong(out, MetricsSlotCodec.zigzag(rolledUpSlotIndex));
+        recorder.writeState(out, nowMillis);
+        int nrLevels = 0;
+        for (final RollUpLevel level : levels) {
+            if (level != null) {
+                ++nrLevels;
+            }
+        }
+        out.put((byte) nrLevels);
+        for (int i = 0; i < levels.length; ++i) {
+            final RollUpLevel level = levels[i];
+            if (level != null) {
+                out.put((byte) i);
+                level.writeState(out, Math.floorDiv(nowMillis, level.slotMillis));
+            }
+        }
+    }
+
+    /**
+     * Read time slots written by {@link #writeState(ByteBuffer, long)} and add them to the time slots of this
+     * collector. Intervals which are not collected by this collector, or which have a different time slot duration, are
+     * skipped.
+     *
+     * Recorded time slots which were not rolled up by the writer are rolled up here, unless they are still in
+     * progress; those are rolled up later, like other recorded time slots.
+     *
+     * @param in        Buffer to read from.
+     * @param nowMillis Current time.
+     */
+    synchronized void readState(@Nonnull final ByteBuffer in, final long nowMillis) {
+        assert in != null;
+        final long slotIndex = recorder.getSlotIndex(nowMillis);
+        rollUp(slotIndex);
+        final long writerRolledUpSlotIndex = MetricsSlotCodec.unzigzag(MetricsSlotCodec.getVarLong(in));
+        final List<MetricsTimeSlotAccumulator> recordedSlots =
+                MetricsSlotCodec.readSlots(in, recorder.getTimeSlotMillis());
+        if (recordedSlots != null) {
+            for (final MetricsTimeSlotAccumulator slot : recordedSlots) {
+                final boolean rolledUpByWriter = slot.getSlotIndex() <= writerRolledUpSlotIndex;
+                final boolean rolledUp = slot.getSlotIndex() <= rolledUpSlotIndex;
+                if (!rolledUpByWriter && rolledUp) {
+                    addToLevels(slot);
+                }
+
+                // Time slots which are not rolled up yet, are rolled up later. Time slots which were rolled up by the
+                // writer, but are not rolled up here, are skipped (the clock went back), to prevent counting them
+                // twice.
+                if (!rolledUpByWriter || rolledUp) {
+                    recorder.addSlot(slot, slotIndex);
+                }
+            }
+        }
+        final int nrLevels = in.get();
+        for (int i = 0; i < nrLevels; ++i) {
+            final int ordinal = in.get();
+            final RollUpLevel level = ((ordinal >= 0) && (ordinal < levels.length)) ? levels[ordinal] : null;
+            final List<MetricsTimeSlotAccumulator> slots =
+                    MetricsSlotCodec.readSlots(in, (level == null) ? 0L : level.slotMillis);
+            if ((level != null) && (slots != null)) {
+                for (final MetricsTimeSlotAccumulator slot : slots) {
+                    level.add(slot);
+                }
+            }
+        }
+    }
+
+    private void addToLevels(@Nonnull final MetricsTimeSlotAccumulator slot) {
+        for (final RollUpLevel level : levels) {
+            if (level != null) {
+                level.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Return the totals of a coarser interval, up until now.
+     *
+     * @param interval       Interval.
+     * @param withHistograms True if the histograms must be merged as well.
+     * @return Totals.
+     */
+    @Nonnull
+    private synchronized MetricsTotals getTotals(@Nonnull final Period interval, final boolean withHistograms) {
+        assert interval != null;
+        final RollUpLevel level = levels[interval.ordinal()];
+        assert level != null;
+        final long nowMillis = System.currentTimeMillis();
+        final long slotIndex = recorder.getSlotIndex(nowMillis);
+        rollUp(slotIndex);
+
+        final MetricsTotals totals = new MetricsTotals(withHistograms);
+        totals.add(level.getCompletedTotals(slotIndex, Math.floorDiv(nowMillis, level.slotMillis)));
+
+        // Add the time slots which have not been rolled up yet.
+        for (long i = rolledUpSlotIndex + 1; i <= slotIndex; ++i) {
+            final MetricsTimeSlotAccumulator slot = recorder.getSlot(i);
+            if (slot != null) {
+                totals.add(slot);
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Time slots of a coarser interval. Access is guarded by the lock of the MultiMetricsCollector.
+     */
+    private static final class RollUpLevel {
+        private final long slotMillis;
+        private final int nrPeriodSlots;
+        @Nonnull
+        private final long[] slotIndexes;
+        @Nonnull
+        private final long[] counts;
+        @Nonnull
+        private final double[] sums;
+        @Nonnull
+        private final double[] sumSquares;
+        @Nonnull
+        private final double[] maxs;
+        @Nonnull
+        private final double[] mins;
+        @Nonnull
+        private final MetricsHistogram[] histograms;
+
+        // Totals of the rolled up time slots in the interval, valid for recorded time slot completedSlotIndex.
+        private long completedSlotIndex = Long.MIN_VALUE;
+        @Nonnull
+        private MetricsTotals completedTotals = new MetricsTotals(true);
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        private RollUpLevel(final long totalMillis, final long slotMillis) {
+            this.slotMillis = slotMillis;
+            this.nrPeriodSlots = (int) (totalMillis / slotMillis);
+            final int nrSlots = nrPeriodSlots + 1;
+            this.slotIndexes = new long[nrSlots];
+            this.counts = new long[nrSlots];
+            this.sums = new double[nrSlots];
+            this.sumSquares = new double[nrSlots];
+            this.maxs = new double[nrSlots];
+            this.mins = new double[nrSlots];
+            this.histograms = new MetricsHistogram[nrSlots];
+            Arrays.fill(slotIndexes, Long.MIN_VALUE);
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        private void add(@Nonnull final MetricsTimeSlotAccumulator slot) {
+            assert slot != null;
+            final long count = slot.getCount();
+            if (count == 0) {
+                return;
+            }
+            final long slotIndex = Math.floorDiv(slot.getStartMillis(), slotMillis);
+            final int i = (int) Math.floorMod(slotIndex, (long) slotIndexes.length);
+            if (slotIndexes[i] != slotIndex) {
+                if (slotIndexes[i] > slotIndex) {
+                    return;
+                }
+                slotIndexes[i] = slotIndex;
+                counts[i] = 0;
+                sums[i] = 0.0;
+                sumSquares[i] = 0.0;
+                maxs[i] = Double.NEGATIVE_INFINITY;
+                mins[i] = Double.POSITIVE_INFINITY;
+                histograms[i] = MetricsHistogram.createCompact();
+            }
+            counts[i] += count;
+            sums[i] += slot.getSum();
+            sumSquares[i] += slot.getSumSquares();
+            maxs[i] = Math.max(maxs[i], slot.getMax());
+            mins[i] = Math.min(mins[i], slot.getMin());
+            histograms[i].add(slot.getHistogram());
+            completedSlotIndex = Long.MIN_VALUE;
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        private void writeState(@Nonnull final ByteBuffer out, final long levelSlotIndex) {
+            assert out != null;
+
+            // Visit the time slots in the interval in order of slot index, so the slot index deltas are small.
+            final long firstSlotIndex = (levelSlotIndex - nrPeriodSlots) + 1;
+            int nrSlots = 0;
+            for (long slotIndex = firstSlotIndex; slotIndex <= levelSlotIndex; ++slotIndex) {
+                final int i = (int) Math.floorMod(slotIndex, (long) slotIndexes.length);
+                if ((slotIndexes[i] == slotIndex) && (counts[i] > 0)) {
+                    ++nrSlots;
+                }
+            }
+            MetricsSlotCodec.writeHeader(out, slotMillis, nrSlots);
+            long prevSlotIndex = 0;
+            for (long slotIndex = firstSlotIndex; slotIndex <= levelSlotIndex; ++slotIndex) {
+                final int i = (int) Math.floorMod(slotIndex, (long) slotIndexes.length);
+                if ((slotIndexes[i] == slotIndex) && (counts[i] > 0)) {
+                    assert histograms[i] != null;
+                    MetricsSlotCodec.writeSlot(out, prevSlotIndex, slotIndex, counts[i], sums[i], sumSquares[i],
+                            maxs[i], mins[i], histograms[i]);
+                    prevSlotIndex = slotIndex;
+                }
+            }
+        }
+
+        /**
+         * Return the totals of the rolled up time slots in the interval. These are only recalculated once per recorded
+         * time slot.
+         *
+         * @param recordSlotIndex Index of the current recorded time slot.
+         * @param levelSlotIndex  Index of the current time slot of this interval.
+         * @return Totals, with histogram.
+         */
+        @Nonnull
+        private MetricsTotals getCompletedTotals(final long recordSlotIndex, final long levelSlotIndex) {
+            if (completedSlotIndex != recordSlotIndex) {
+                final MetricsTotals totals = new MetricsTotals(true);
+                for (int i = 0; i < slotIndexes.length; ++i) {
+                    if ((slotIndexes[i] <= levelSlotIndex) && (slotIndexes[i] > (levelSlotIndex - nrPeriodSlots))) {
+                        assert histograms[i] != null;
+                        totals.add(counts[i], sums[i], sumSquares[i], maxs[i], mins[i], histograms[i]);
+                    }
+                }
+                completedSlotIndex = recordSlotIndex;
+                completedTotals = totals;
+            }
+            return completedTotals;
+        }
+    }
+
+    /**
+     * Metrics data of a coarser interval.
+     */
+    private final class IntervalMetricsData implements MetricsData {
+        @Nonnull
+        private final Period interval;
+
+        private IntervalMetricsData(@Nonnull final Period interval) {
+            assert interval != null;
+            this.interval = interval;
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public int getCount() {
+            return (int) getTotals(interval, false).getCount();
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public float getSum() {
+            return (float) getTotals(interval, false).getSum();
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public float getAvg() {
+            return (float) getTotals(interval, false).getAvg();
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public float getStdDev() {
+            return (float) getTotals(interval, false).getStdDev();
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public float getMax() {
+            return (float) getTotals(interval, false).getMax();
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public float getMin() {
+            return (float) getTotals(interval, false).getMin();
+        }
+
+        @SuppressWarnings("NumericCastThatLosesPrecision")
+        @Override
+        public float getPercentile(final double percentile) {
+            return (float) getSnapshot().getPercentile(percentile);
+        }
+
+        @Override
+        @Nonnull
+        public MetricsSnapshot getSnapshot() {
+            return getTotals(interval, true).toSnapshot();
+        }
     }
 }
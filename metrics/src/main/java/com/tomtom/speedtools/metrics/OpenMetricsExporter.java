@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MetricsRegistry.Family;
+import com.tomtom.speedtools.metrics.MetricsRegistry.Series;
+import com.tomtom.speedtools.metrics.MetricsRegistry.Type;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Exports the metrics of a {@link MetricsRegistry} in the OpenMetrics text format, which is also understood by
+ * Prometheus. Counters are exported with the suffix "_total".
+ *
+ * Collectors are exported as gauges rather than summaries: their count and sum only cover the time period of the
+ * collector, so they go down as values leave the period, while the count and sum of a summary must only go up. A
+ * collector "name" is exported as three gauge families: "name" with a number of quantiles (label "quantile"),
+ * "name_count" with the number of values and "name_sum" with the sum of the values. For a {@link
+ * MultiMetricsCollector}, every period is exported with a label "window".
+ *
+ * The text is rendered into a buffer which is reused for every export, and encoded as UTF-8 into a reused byte array.
+ * Names and labels have been rendered by the registry, and numbers are appended without creating strings, so an
+ * export only allocates the snapshots of the collectors. Exports are serialized.
+ *
+ * This class is thread-safe.
+ */
+public final class OpenMetricsExporter {
+
+    /**
+     * Content type of the exported text.
+     */
+    @Nonnull
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final String GAUGE = Type.GAUGE.text;
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {
+            "quantile=\"0.5\"", "quantile=\"0.9\"", "quantile=\"0.99\"", "quantile=\"0.999\""};
+
+    @Nonnull
+    private final MetricsRegistry registry;
+
+    // Reused for every export. Guarded by this.
+    @Nonnull
+    private final StringBuilder text = new StringBuilder(INITIAL_BUFFER_SIZE);
+    @Nonnull
+    private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+    @Nonnull
+    private final List<MetricsSnapshot> snapshots = new ArrayList<>();
+
+    public OpenMetricsExporter(@Nonnull final MetricsRegistry registry) {
+        assert registry != null;
+        this.registry = registry;
+    }
+
+    /**
+     * Export the metrics to a stream, encoded as UTF-8. The stream is not closed.
+     *
+     * @param out Stream to write to.
+     * @throws IOException If writing fails.
+     */
+    public synchronized void writeTo(@Nonnull final OutputStream out) throws IOException {
+        assert out != null;
+        render();
+        final int length = encode();
+        out.write(bytes, 0, length);
+    }
+
+    /**
+     * Export the metrics to a string, mainly for testing and logging.
+     *
+     * @return Exported text.
+     */
+    @Nonnull
+    public synchronized String export() {
+        render();
+        return text.toString();
+    }
+
+    private void render() {
+        text.setLength(0);
+        for (final Family family : registry.getFamilies()) {
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            if (family.type == Type.COLLECTOR) {
+                appendCollector(family);
+                continue;
+            }
+            appendHeader(family.name, "", family.type.text, family.help);
+            for (final Series series : family.series.values()) {
+                switch (family.type) {
+
+                    case COUNTER:
+                        appendSample(family.name, "_total", series.labels, null,
+                                ((MetricsCounter) series.metric).getCount());
+                        break;
+
+                    case GAUGE:
+                        appendSample(family.name, "", series.labels, null,
+                                ((DoubleSupplier) series.metric).getAsDouble());
+                        break;
+
+                    default:
+                        assert false : family.type;
+                }
+            }
+        }
+        text.append("# EOF\n");
+    }
+
+    private void appendHeader(
+            @Nonnull final String name,
+            @Nonnull final String suffix,
+            @Nonnull final String type,
+            @Nonnull final String help) {
+        text.append("# TYPE ").append(name).append(suffix).append(' ').append(type).append('\n');
+        if (!help.isEmpty()) {
+            text.append("# HELP ").append(name).append(suffix).append(' ').append(help).append('\n');
+        }
+    }
+
+    private void appendCollector(@Nonnull final Family family) {
+
+        // Take a snapshot of every window once, so the quantiles, count and sum are consistent.
+        snapshots.clear();
+        for (final Series series : family.series.values()) {
+            assert series.windows != null;
+            for (final MetricsData window : series.windows) {
+                snapshots.add(window.getSnapshot());
+            }
+        }
+
+        appendHeader(family.name, "", GAUGE, family.help);
+        int index = 0;
+        for (final Series series : family.series.values()) {
+            assert series.windowLabels != null;
+            for (final String labels : series.windowLabels) {
+                final MetricsSnapshot snapshot = snapshots.get(index);
+                for (int j = 0; j < QUANTILES.length; ++j) {
+                    appendSample(family.name, "", labels, QUANTILE_LABELS[j],
+                            snapshot.getPercentile(QUANTILES[j] * 100.0));
+                }
+                ++index;
+            }
+        }
+
+        appendHeader(family.name, "_count", GAUGE, "");
+        index = 0;
+        for (final Series series : family.series.values()) {
+            assert series.windowLabels != null;
+            for (final String labels : series.windowLabels) {
+                appendSample(family.name, "_count", labels, null, snapshots.get(index).getCount());
+                ++index;
+            }
+        }
+
+        appendHeader(family.name, "_sum", GAUGE, "");
+        index = 0;
+        for (final Series series : family.series.values()) {
+            assert series.windowLabels != null;
+            for (final String labels : series.windowLabels) {
+                appendSample(family.name, "_sum", labels, null, snapshots.get(index).getSum());
+                ++index;
+            }
+        }
+        snapshots.clear();
+    }
+
+    private void appendSample(
+            @Nonnull final String name,
+            @Nonnull final String suffix,
+            @Nonnull final String labels,
+            @Nullable final String extraLabel,
+            final long value) {
+        appendName(name, suffix, labels, extraLabel);
+        text.append(value).append('\n');
+    }
+
+    private void appendSample(
+            @Nonnull final String name,
+            @Nonnull final String suffix,
+            @Nonnull final String labels,
+            @Nullable final String extraLabel,
+            final double value) {
+        appendName(name, suffix, labels, extraLabel);
+        if (Double.isNaN(value)) {
+            text.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            text.append((value > 0.0) ? "+Inf" : "-Inf");
+        } else {
+            text.append(value);
+        }
+        text.append('\n');
+    }
+
+    private void appendName(
+            @Nonnull final String name,
+            @Nonnull final String suffix,
+            @Nonnull final String labels,
+            @Nullable final String extraLabel) {
+        text.append(name).append(suffix).append(labels);
+        if (extraLabel != null) {
+            text.append(labels.isEmpty() ? '{' : ',').append(extraLabel);
+        }
+        if (!labels.isEmpty() || (extraLabel != null)) {
+            text.append('}');
+        }
+        text.append(' ');
+    }
+
+    /**
+     * Encode the text as UTF-8 into the byte array, which grows if needed.
+     *
+     * @return Number of bytes.
+     */
+    private int encode() {
+        final int length = text.length();
+        if (bytes.length < (length * 3)) {
+            bytes = new byte[length * 3];
+        }
+        int n = 0;
+        for (int i = 0; i < length; ++i) {
+            final char ch = text.charAt(i);
+            if (ch < 0x80) {
+                bytes[n++] = (byte) ch;
+            } else if (ch < 0x800) {
+                bytes[n++] = (byte) (0xc0 | (ch >> 6));
+                bytes[n++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isHighSurrogate(ch) && ((i + 1) < length) &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(ch, text.charAt(i + 1));
+                ++i;
+                bytes[n++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[n++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                bytes[n++] = (byte) (0xe0 | (ch >> 12));
+                bytes[n++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                bytes[n++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+public class JvmMetricsSamplerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(JvmMetricsSamplerTest.class);
+
+    @Test
+    public void testSample() throws InterruptedException {
+        LOG.info("testSample");
+        final MetricsRegistry registry = new MetricsRegistry();
+        try (JvmMetricsSampler sampler = new JvmMetricsSampler(registry)) {
+            sampler.sample();
+            final byte[][] garbage = new byte[100][];
+            for (int i = 0; i < garbage.length; ++i) {
+                garbage[i] = new byte[10000];
+            }
+            Thread.sleep(10);
+            sampler.sample();
+            Assert.assertEquals(100, garbage.length);
+
+            Assert.assertEquals(2, registry.collector("jvm_threads", "").getLastMinute().getCount());
+            Assert.assertTrue(registry.collector("jvm_threads", "").getLastMinute().getMin() >= 1.0f);
+            Assert.assertTrue(registry.collector("jvm_memory_heap_used_bytes", "").getLastMinute().getMin() > 0.0f);
+            final MetricsData allocated = registry.collector("jvm_allocated_bytes_per_second", "").getLastMinute();
+            Assert.assertEquals(2, allocated.getCount());
+            Assert.assertTrue(allocated.getMax() > 0.0f);
+
+            // Garbage collections are reported asynchronously.
+            System.gc();
+            final GarbageCollectorMXBean gcBean = ManagementFactory.getGarbageCollectorMXBeans().get(0);
+            final MultiMetricsCollector durations =
+                    registry.collector("jvm_gc_duration_seconds", "", "gc", gcBean.getName());
+            long count = 0;
+            for (int i = 0; (i < 100) && (count == 0); ++i) {
+                Thread.sleep(10);
+                for (final GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                    count += registry.collector("jvm_gc_duration_seconds", "", "gc", bean.getName()).getLastMinute()
+                            .getCount();
+                }
+            }
+            LOG.info("testSample: {} garbage collections, {}", count, durations.getLastMinute().getSnapshot());
+            Assert.assertTrue(count > 0);
+
+            final String text = new OpenMetricsExporter(registry).export();
+            Assert.assertTrue(text.contains("jvm_threads_count{window=\"last_minute\"} 2\n"));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+/**
+ * Records values in collectors from many threads at once and checks that no value is lost.
+ */
+public class MetricsCollectorContentionTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsCollectorContentionTest.class);
+
+    private static final int[] NR_THREADS = {1, 8, 64};
+    private static final int NR_VALUES = 1 << 20;
+
+    @Test
+    public void testContention() throws InterruptedException {
+        LOG.info("testContention");
+        for (final int nrThreads : NR_THREADS) {
+            final MetricsCollector collector = MetricsCollector.create(Period.LAST_MINUTE);
+            record(nrThreads, collector::addValueNow);
+            Assert.assertEquals(NR_VALUES, collector.getCount());
+            Assert.assertEquals(NR_VALUES, collector.getSum(), 0.0);
+        }
+    }
+
+    @Test
+    public void testMultiMetricsCollectorConcurrent() throws InterruptedException {
+        LOG.info("testMultiMetricsCollectorConcurrent");
+        final MultiMetricsCollector collector = MultiMetricsCollector.all();
+        record(8, collector::addValue);
+        for (final Period period : Period.values()) {
+            Assert.assertEquals(NR_VALUES, collector.getCount(period));
+            Assert.assertEquals(1.0f, collector.getMetricsData(period).getMax(), 0.0f);
+            Assert.assertEquals(1.0f, collector.getMetricsData(period).getMin(), 0.0f);
+        }
+    }
+
+    /**
+     * Record NR_VALUES values of 1 from a number of threads.
+     *
+     * @param nrThreads Number of threads.
+     * @param recorder  Function which records a value.
+     * @throws InterruptedException If interrupted.
+     */
+    private static void record(final int nrThreads, @Nonnull final Consumer<Float> recorder)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>(nrThreads);
+        for (int i = 0; i < nrThreads; ++i) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < (NR_VALUES / nrThreads); ++j) {
+                    recorder.accept(1.0f);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -183,6 +183,138 @@ public class MetricsCollectorTest {
         verifyCollectorCountMinMaxSumAvgStdDev(metricsCollector, 2, 9.0f, 9.0f, 18.0f, 9.0f, 0.0f);
     }
 
+    @Test
+    public void testPercentiles() {
+        LOG.info("testPercentiles");
+
+        final MetricsCollector metricsCollector =
+                new MetricsCollector(Duration.millis(METRIC_DURATION_MSECS), METRIC_NR_ENTRIES);
+        assertThat(metricsCollector.getPercentile(50.0), is(Float.NaN));
+
+        for (int i = 1; i <= 1000; ++i) {
+            metricsCollector.addValueNow(i);
+        }
+        Assert.assertEquals(500.0f, metricsCollector.getPercentile(50.0), 500.0f / 64);
+        Assert.assertEquals(990.0f, metricsCollector.getPercentile(99.0), 990.0f / 64);
+
+        // Percentiles are limited to the minimum and maximum.
+        assertThat(metricsCollector.getPercentile(0.0), is(1.0f));
+        assertThat(metricsCollector.getPercentile(100.0), is(1000.0f));
+    }
+
+    @Test
+    public void testSnapshot() {
+        LOG.info("testSnapshot");
+
+        final MetricsCollector metricsCollector =
+                new MetricsCollector(Duration.millis(METRIC_DURATION_MSECS), METRIC_NR_ENTRIES);
+        final MetricsSnapshot empty = metricsCollector.getSnapshot();
+        assertThat(empty.getCount(), is(0L));
+        assertThat(empty.getAvg(), is(Double.NaN));
+        assertThat(empty.getMax(), is(Double.NaN));
+        assertThat(empty.getPercentile(50.0), is(Double.NaN));
+
+        metricsCollector.addValueNow(2);
+        metricsCollector.addValueNow(4);
+        metricsCollector.addValueNow(6);
+        metricsCollector.addValueNow(7);
+        final MetricsSnapshot snapshot = metricsCollector.getSnapshot();
+        metricsCollector.addValueNow(100);
+
+        // The snapshot does not change anymore.
+        assertThat(snapshot.getCount(), is(4L));
+        assertThat(snapshot.getSum(), is(19.0));
+        assertThat(snapshot.getAvg(), is(4.75));
+        assertThat((float) snapshot.getStdDev(), is(2.217355783f));
+        assertThat(snapshot.getMin(), is(2.0));
+        assertThat(snapshot.getMax(), is(7.0));
+        Assert.assertEquals(4.0, snapshot.getPercentile(50.0), 4.0 / 64);
+        assertThat(metricsCollector.getSnapshot().getCount(), is(5L));
+        Assert.assertTrue(snapshot.toString().contains("\"sum\":19.0"));
+    }
+
+    @Test
+    public void testDefaultSnapshot() {
+        LOG.info("testDefaultSnapshot");
+
+        // An implementation which only provides the individual getters.
+        final MetricsCollector metricsCollector =
+                new MetricsCollector(Duration.millis(METRIC_DURATION_MSECS), METRIC_NR_ENTRIES);
+        metricsCollector.addValueNow(2);
+        metricsCollector.addValueNow(4);
+        metricsCollector.addValueNow(6);
+        metricsCollector.addValueNow(7);
+        final MetricsData data = new MetricsData() {
+            @Override
+            public int getCount() {
+                return metricsCollector.getCount();
+            }
+
+            @Override
+            public float getSum() {
+                return metricsCollector.getSum();
+            }
+
+            @Override
+            public float getAvg() {
+                return metricsCollector.getAvg();
+            }
+
+            @Override
+            public float getStdDev() {
+                return metricsCollector.getStdDev();
+            }
+
+            @Override
+            public float getMax() {
+                return metricsCollector.getMax();
+            }
+
+            @Override
+            public float getMin() {
+                return metricsCollector.getMin();
+            }
+        };
+        final MetricsSnapshot snapshot = data.getSnapshot();
+        assertThat(snapshot.getCount(), is(4L));
+        assertThat(snapshot.getSum(), is(19.0));
+        assertThat(snapshot.getMax(), is(7.0));
+        Assert.assertEquals(2.217355783, snapshot.getStdDev(), 1.0e-5);
+        assertThat(data.getPercentile(50.0), is(Float.NaN));
+        assertThat(snapshot.getPercentile(50.0), is(Double.NaN));
+    }
+
+    @Test
+    public void testDeltaSnapshot() {
+        LOG.info("testDeltaSnapshot");
+
+        final MetricsCollector metricsCollector = new MetricsCollector(Duration.standardMinutes(1), 30);
+        final long now = System.currentTimeMillis();
+        metricsCollector.addValue(1.0f, now - 10000);
+        metricsCollector.addValue(2.0f, now - 10000);
+        metricsCollector.addValue(3.0f, now);
+
+        final MetricsSnapshot first = metricsCollector.getDeltaSnapshot();
+        assertThat(first.getCount(), is(3L));
+        assertThat(first.getSum(), is(6.0));
+
+        final MetricsSnapshot none = metricsCollector.getDeltaSnapshot();
+        assertThat(none.getCount(), is(0L));
+        assertThat(none.getSum(), is(0.0));
+        assertThat(none.getMax(), is(Double.NaN));
+
+        // Values in the same time slot as the last ones are counted only once.
+        metricsCollector.addValue(4.0f, now);
+        metricsCollector.addValue(5.0f, System.currentTimeMillis());
+        final MetricsSnapshot delta = metricsCollector.getDeltaSnapshot();
+        assertThat(delta.getCount(), is(2L));
+        assertThat(delta.getSum(), is(9.0));
+        Assert.assertEquals(5.0, delta.getPercentile(99.0), 5.0 / 64);
+
+        // The windowed totals are not affected.
+        assertThat(metricsCollector.getSnapshot().getCount(), is(5L));
+    }
+
     private static void verifyCollectorCountMinMaxSumAvgStdDev(
             @Nonnull final MetricsCollector metricsCollector,
             final int expectedCount,
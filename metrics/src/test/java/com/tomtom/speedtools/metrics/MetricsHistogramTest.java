@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class MetricsHistogramTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsHistogramTest.class);
+
+    private static final double RELATIVE_ERROR = 1.0 / (2 * MetricsHistogram.SUB_BUCKETS);
+
+    @Test
+    public void testEmpty() {
+        LOG.info("testEmpty");
+        final MetricsHistogram histogram = new MetricsHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertTrue(Double.isNaN(histogram.getValueAtPercentile(50.0)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LOG.info("testPercentiles");
+        final Random random = new Random(1);
+        final int count = 100000;
+        final float[] values = new float[count];
+        final MetricsHistogram histogram = new MetricsHistogram();
+        for (int i = 0; i < count; ++i) {
+
+            // Log-normal, like latencies.
+            values[i] = (float) Math.exp(random.nextGaussian() * 2.0);
+            histogram.addValue(values[i]);
+        }
+        Arrays.sort(values);
+        Assert.assertEquals(count, histogram.getCount());
+        for (final double percentile : new double[]{0.0, 1.0, 50.0, 90.0, 99.0, 99.9, 100.0}) {
+            final int rank = Math.max(1, (int) Math.ceil((percentile / 100.0) * count));
+            final double expected = values[rank - 1];
+            final double actual = histogram.getValueAtPercentile(percentile);
+            Assert.assertEquals("Percentile " + percentile, expected, actual, expected * RELATIVE_ERROR);
+        }
+    }
+
+    @Test
+    public void testNegativeAndZero() {
+        LOG.info("testNegativeAndZero");
+        final MetricsHistogram histogram = new MetricsHistogram();
+        histogram.addValue(-100.0f);
+        histogram.addValue(-1.0f);
+        histogram.addValue(0.0f);
+        histogram.addValue(1.0e-10f);
+        histogram.addValue(1.0f);
+        histogram.addValue(Float.NaN);
+        histogram.addValue(Float.POSITIVE_INFINITY);
+        Assert.assertEquals(6, histogram.getCount());
+        Assert.assertEquals(-100.0, histogram.getValueAtPercentile(0.0), 100.0 * RELATIVE_ERROR);
+        Assert.assertEquals(-1.0, histogram.getValueAtPercentile(30.0), RELATIVE_ERROR);
+        Assert.assertEquals(0.0, histogram.getValueAtPercentile(50.0), 0.0);
+        Assert.assertEquals(0.0, histogram.getValueAtPercentile(60.0), 0.0);
+        Assert.assertEquals(1.0, histogram.getValueAtPercentile(70.0), RELATIVE_ERROR);
+        Assert.assertEquals(Math.scalb(2.0, MetricsHistogram.MAX_EXPONENT), histogram.getValueAtPercentile(100.0),
+                Math.scalb(2.0, MetricsHistogram.MAX_EXPONENT) * RELATIVE_ERROR);
+    }
+
+    @Test
+    public void testMerge() {
+        LOG.info("testMerge");
+        final MetricsHistogram low = new MetricsHistogram();
+        final MetricsHistogram high = new MetricsHistogram();
+        for (int i = 1; i <= 100; ++i) {
+            low.addValue(i);
+            high.addValue(i + 100);
+        }
+        Assert.assertEquals(100.0, MetricsHistogram.getValueAtPercentile(50.0, low, high), 100.0 * RELATIVE_ERROR);
+        Assert.assertEquals(200.0, MetricsHistogram.getValueAtPercentile(100.0, high, low), 200.0 * RELATIVE_ERROR);
+
+        final MetricsHistogram merged = new MetricsHistogram();
+        merged.add(low);
+        merged.add(high);
+        Assert.assertEquals(200, merged.getCount());
+        for (final double percentile : new double[]{0.0, 25.0, 50.0, 75.0, 99.0, 100.0}) {
+            Assert.assertEquals(MetricsHistogram.getValueAtPercentile(percentile, low, high),
+                    merged.getValueAtPercentile(percentile), 0.0);
+        }
+    }
+
+    @Test
+    public void testCompact() {
+        LOG.info("testCompact");
+        final Random random = new Random(1);
+        final MetricsHistogram striped = new MetricsHistogram();
+        final MetricsHistogram other = new MetricsHistogram();
+        final MetricsHistogram compact = MetricsHistogram.createCompact();
+        for (int i = 0; i < 10000; ++i) {
+            final float value = (float) (random.nextGaussian() * 100.0);
+            striped.addValue(value);
+            if ((i % 2) == 0) {
+                compact.addValue(value);
+            } else {
+                other.addValue(value);
+            }
+        }
+        compact.add(other);
+        Assert.assertEquals(striped.getCount(), compact.getCount());
+        for (final double percentile : new double[]{0.0, 1.0, 25.0, 50.0, 75.0, 99.0, 100.0}) {
+            Assert.assertEquals(striped.getValueAtPercentile(percentile), compact.getValueAtPercentile(percentile),
+                    0.0);
+        }
+
+        // Merge compact histograms into compact and striped histograms, and subtract them again.
+        final MetricsHistogram merged = MetricsHistogram.createCompact();
+        merged.add(compact);
+        merged.add(striped);
+        other.add(compact);
+        Assert.assertEquals(2 * striped.getCount(), merged.getCount());
+        Assert.assertEquals(15000, other.getCount());
+        merged.subtract(compact);
+        Assert.assertEquals(striped.getCount(), merged.getCount());
+        Assert.assertEquals(striped.getValueAtPercentile(90.0), merged.getValueAtPercentile(90.0), 0.0);
+    }
+}
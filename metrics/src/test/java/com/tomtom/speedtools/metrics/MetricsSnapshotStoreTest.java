@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class MetricsSnapshotStoreTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsSnapshotStoreTest.class);
+
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveRestore() throws IOException {
+        LOG.info("testSaveRestore");
+        final File file = folder.newFile("metrics.snapshot");
+        final long now = System.currentTimeMillis();
+
+        final MetricsRegistry registry = new MetricsRegistry();
+        final MultiMetricsCollector timer = registry.collector("duration_seconds", "Duration.", "op", "x");
+        for (int i = 1000; i >= 1; --i) {
+            timer.addValue(i, now - (i * 40 * MINUTE));
+        }
+        timer.addValue(0.5f, now);
+        final MetricsCollector collector = new MetricsCollector(Duration.standardMinutes(1), 60);
+        collector.addValue(1.0f, now - (10 * SECOND));
+        collector.addValue(2.0f, now - (10 * SECOND));
+        collector.addValue(3.0f, now);
+        registry.register("latency_seconds", "Latency.", collector);
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(registry, file)) {
+            Assert.assertEquals(0, store.restore());
+            Assert.assertTrue(store.save() > 0);
+        }
+
+        // Restore into new collectors.
+        final MetricsRegistry restored = new MetricsRegistry();
+        final MultiMetricsCollector restoredTimer = restored.collector("duration_seconds", "Duration.", "op", "x");
+        final MetricsCollector restoredCollector = new MetricsCollector(Duration.standardMinutes(1), 60);
+        restored.register("latency_seconds", "Latency.", restoredCollector);
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(restored, file)) {
+            Assert.assertEquals(2, store.restore());
+        }
+        for (final Period period : Period.values()) {
+            assertEquals(timer.get(period).getSnapshot(), restoredTimer.get(period).getSnapshot());
+        }
+        assertEquals(collector.getSnapshot(), restoredCollector.getSnapshot());
+        Assert.assertEquals(1001, restoredTimer.getLastMonth().getCount());
+
+        // Values are recorded as usual after a restore.
+        restoredTimer.addValue(2.0f, now);
+        Assert.assertEquals(1002, restoredTimer.getLastMonth().getCount());
+        Assert.assertEquals(2, restoredTimer.getLastMinute().getCount());
+    }
+
+    @Test
+    public void testMismatch() throws IOException {
+        LOG.info("testMismatch");
+        final File file = folder.newFile("metrics.snapshot");
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.collector("a", "A.").addValue(1.0f);
+        registry.collector("b", "B.").addValue(1.0f);
+        registry.register("c", "C.", MetricsCollector.create(Period.LAST_HOUR));
+        registry.counter("d", "D.").increment();
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(registry, file)) {
+            store.save();
+        }
+
+        // Unknown collectors, other kinds of collectors and other time slot durations are skipped.
+        final MetricsRegistry other = new MetricsRegistry();
+        final MultiMetricsCollector a = other.collector("a", "A.", "label", "x");
+        other.register("b", "B.", MetricsCollector.create(Period.LAST_MINUTE));
+        final MetricsCollector c = MetricsCollector.create(Period.LAST_DAY);
+        other.register("c", "C.", c);
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(other, file)) {
+            Assert.assertEquals(0, store.restore());
+        }
+        Assert.assertEquals(0, a.getLastMinute().getCount());
+        Assert.assertEquals(0, c.getCount());
+
+        // A corrupt snapshot is not restored.
+        corruptSnapshot(file, 0);
+        corruptSnapshot(file, 1);
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(registry, file)) {
+            Assert.assertEquals(0, store.restore());
+        }
+    }
+
+    @Test
+    public void testInterruptedSave() throws IOException {
+        LOG.info("testInterruptedSave");
+        final File file = folder.newFile("metrics.snapshot");
+        final MetricsRegistry registry = new MetricsRegistry();
+        final MultiMetricsCollector a = registry.collector("a", "A.");
+        a.addValue(1.0f);
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(registry, file)) {
+            store.save();
+            a.addValue(2.0f);
+        }
+
+        // If the last snapshot was not written completely, the one before it is restored.
+        corruptSnapshot(file, 1);
+        final MetricsRegistry restored = new MetricsRegistry();
+        final MultiMetricsCollector restoredA = restored.collector("a", "A.");
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(restored, file)) {
+            Assert.assertEquals(1, store.restore());
+            Assert.assertEquals(1, restoredA.getLastMonth().getCount());
+
+            restoredA.addValue(3.0f);
+        }
+
+        // The next snapshot did not overwrite the one which was restored.
+        corruptSnapshot(file, 1);
+        final MetricsRegistry again = new MetricsRegistry();
+        final MultiMetricsCollector againA = again.collector("a", "A.");
+        try (MetricsSnapshotStore store = new MetricsSnapshotStore(again, file)) {
+            Assert.assertEquals(1, store.restore());
+            Assert.assertEquals(1, againA.getLastMonth().getCount());
+        }
+    }
+
+    /**
+     * Flip a bit in the snapshot of one of the two headers of a snapshot file.
+     */
+    private static void corruptSnapshot(final File file, final int header) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek((header * 36) + 16);
+            final int position = raf.readInt();
+            raf.seek(position);
+            final int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 1);
+        }
+    }
+
+    private static void assertEquals(final MetricsSnapshot expected, final MetricsSnapshot actual) {
+        Assert.assertEquals(expected.getCount(), actual.getCount());
+        Assert.assertEquals(expected.getSum(), actual.getSum(), 0.0);
+        Assert.assertEquals(expected.getSumSquares(), actual.getSumSquares(), 0.0);
+        Assert.assertEquals(expected.getMax(), actual.getMax(), 0.0);
+        Assert.assertEquals(expected.getMin(), actual.getMin(), 0.0);
+        Assert.assertEquals(expected.getPercentile(50.0), actual.getPercentile(50.0), 0.0);
+        Assert.assertEquals(expected.getPercentile(99.0), actual.getPercentile(99.0), 0.0);
+    }
+}
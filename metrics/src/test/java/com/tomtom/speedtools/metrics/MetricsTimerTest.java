@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsTimerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsTimerTest.class);
+
+    @Test
+    public void testStartStop() {
+        LOG.info("testStartStop");
+        final MetricsCollector collector = MetricsCollector.create(Period.LAST_MINUTE);
+        final MetricsTimer timer = new MetricsTimer(collector);
+        final long start = timer.start();
+        timer.stop(start);
+        timer.record(TimeUnit.MICROSECONDS.toNanos(250));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(1500));
+        Assert.assertEquals(3, collector.getCount());
+        Assert.assertEquals(1.5f, collector.getMax(), 0.0f);
+        Assert.assertEquals(250.0e-6f, collector.getPercentile(50.0), 250.0e-6f / 64);
+        Assert.assertTrue(collector.getMin() < 250.0e-6f);
+        Assert.assertTrue(collector.getMin() >= 0.0f);
+    }
+
+    @Test
+    public void testScope() throws Exception {
+        LOG.info("testScope");
+        final MultiMetricsCollector collector = MultiMetricsCollector.create(Period.LAST_MINUTE, Period.LAST_HOUR);
+        final MetricsTimer timer = new MetricsTimer(collector);
+        try (MetricsTimer.Scope scope = timer.time()) {
+            Thread.sleep(10);
+
+            // Closing twice records the duration once.
+            scope.close();
+        }
+        Assert.assertEquals(1, collector.getLastMinute().getCount());
+        Assert.assertEquals(1, collector.getLastHour().getCount());
+        Assert.assertTrue(collector.getLastMinute().getMin() >= 0.010f);
+
+        timer.time(() -> LOG.info("testScope: runnable"));
+        Assert.assertEquals(42, timer.time(() -> 42).intValue());
+        try {
+            timer.time(() -> {
+                throw new IllegalStateException();
+            });
+            Assert.fail();
+        } catch (final IllegalStateException ignored) {
+            // Expected.
+        }
+        Assert.assertEquals(4, collector.getLastMinute().getCount());
+    }
+
+    @Test
+    public void testCompletionStage() {
+        LOG.info("testCompletionStage");
+        final MetricsCollector collector = MetricsCollector.create(Period.LAST_MINUTE);
+        final MetricsTimer timer = new MetricsTimer(collector);
+        final CompletableFuture<String> success = new CompletableFuture<>();
+        final CompletableFuture<String> failure = new CompletableFuture<>();
+        Assert.assertSame(success, timer.time(success));
+        timer.time(failure);
+        Assert.assertEquals(0, collector.getCount());
+        success.complete("done");
+        failure.completeExceptionally(new IllegalStateException());
+        Assert.assertEquals(2, collector.getCount());
+    }
+}
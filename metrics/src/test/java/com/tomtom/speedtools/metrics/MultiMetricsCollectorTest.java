@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MultiMetricsCollectorTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MultiMetricsCollectorTest.class);
+
+    private static final long SECOND = 1000L;
+
+    @Test
+    public void testRollUp() {
+        LOG.info("testRollUp");
+        final MultiMetricsCollector collector = MultiMetricsCollector.all();
+
+        // Add values 180..0, every 10 seconds during the last half hour, in chronological order.
+        final long now = System.currentTimeMillis();
+        for (int i = 180; i >= 0; --i) {
+            collector.addValue(i, now - SECOND - (i * 10 * SECOND));
+        }
+
+        // The last minute contains the values 0..5.
+        final MetricsData lastMinute = collector.getLastMinute();
+        Assert.assertEquals(6, lastMinute.getCount());
+        Assert.assertEquals(15.0f, lastMinute.getSum(), 0.0f);
+        Assert.assertEquals(0.0f, lastMinute.getMin(), 0.0f);
+        Assert.assertEquals(5.0f, lastMinute.getMax(), 0.0f);
+        Assert.assertEquals(2.0f, lastMinute.getPercentile(50.0), 2.0f / 64);
+
+        // The other intervals contain all values, most of which are rolled up.
+        for (final Period period : new Period[]{
+                Period.LAST_HOUR, Period.LAST_DAY, Period.LAST_WEEK, Period.LAST_MONTH}) {
+            final MetricsData data = collector.getMetricsData(period);
+            Assert.assertEquals(181, data.getCount());
+            Assert.assertEquals((180.0f * 181.0f) / 2.0f, data.getSum(), 0.0f);
+            Assert.assertEquals(90.0f, data.getAvg(), 0.0f);
+            Assert.assertEquals(0.0f, data.getMin(), 0.0f);
+            Assert.assertEquals(180.0f, data.getMax(), 0.0f);
+            Assert.assertEquals(52.39f, data.getStdDev(), 0.01f);
+            Assert.assertEquals(90.0f, data.getPercentile(50.0), 90.0f / 64);
+            Assert.assertEquals(180.0f, data.getPercentile(100.0), 0.0f);
+        }
+
+        final MetricsSnapshot snapshot = collector.getLastHour().getSnapshot();
+        Assert.assertEquals(181, snapshot.getCount());
+        Assert.assertEquals(180.0, snapshot.getMax(), 0.0);
+        Assert.assertEquals(90.0, snapshot.getPercentile(50.0), 90.0 / 64);
+
+        // Values for time slots which were already rolled up are dropped.
+        collector.addValue(1000.0f, now - (10 * 60 * SECOND));
+        Assert.assertEquals(181, collector.getCount(Period.LAST_HOUR));
+    }
+
+    @Test
+    public void testSubset() {
+        LOG.info("testSubset");
+        final MultiMetricsCollector collector = MultiMetricsCollector.create(Period.LAST_DAY, Period.LAST_HOUR);
+        final long now = System.currentTimeMillis();
+        collector.addValue(1.0f, now - (2 * 60 * 60 * SECOND));
+        collector.addValue(2.0f, now - (10 * 60 * SECOND));
+        collector.addValue(3.0f, now);
+
+        Assert.assertEquals(2, collector.getCount(Period.LAST_HOUR));
+        Assert.assertEquals(5.0f, collector.getSum(Period.LAST_HOUR), 0.0f);
+        Assert.assertEquals(3, collector.getCount(Period.LAST_DAY));
+        Assert.assertEquals(2.0f, collector.getAvg(Period.LAST_DAY), 0.0f);
+        Assert.assertEquals(0, collector.getCount(Period.LAST_MINUTE));
+        Assert.assertNull(collector.getLastMinute());
+    }
+
+    @Test
+    public void testEmpty() {
+        LOG.info("testEmpty");
+        final MultiMetricsCollector collector = MultiMetricsCollector.all();
+        for (final Period period : Period.values()) {
+            final MetricsData data = collector.get(period);
+            Assert.assertEquals(0, data.getCount());
+            Assert.assertEquals(0.0f, data.getSum(), 0.0f);
+            Assert.assertTrue(Float.isNaN(data.getAvg()));
+            Assert.assertTrue(Float.isNaN(data.getStdDev()));
+            Assert.assertTrue(Float.isNaN(data.getMin()));
+            Assert.assertTrue(Float.isNaN(data.getMax()));
+            Assert.assertTrue(Float.isNaN(data.getPercentile(99.0)));
+        }
+    }
+}
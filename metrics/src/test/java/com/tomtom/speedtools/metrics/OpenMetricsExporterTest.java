@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.metrics;
+
+import com.tomtom.speedtools.metrics.MultiMetricsData.Period;
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class OpenMetricsExporterTest {
+    private static final Logger LOG = LoggerFactory.getLogger(OpenMetricsExporterTest.class);
+
+    @Test
+    public void testRegistry() {
+        LOG.info("testRegistry");
+        final MetricsRegistry registry = new MetricsRegistry();
+        final MetricsCounter counter = registry.counter("requests", "Requests.", "method", "GET");
+        counter.increment();
+        Assert.assertSame(counter, registry.counter("requests", "Requests.", "method", "GET"));
+        Assert.assertNotSame(counter, registry.counter("requests", "Requests.", "method", "PUT"));
+        Assert.assertEquals(1, registry.counter("requests", "Requests.", "method", "GET").getCount());
+
+        try {
+            registry.gauge("requests", "Requests.");
+            Assert.fail("Type conflict not detected");
+        } catch (final IllegalArgumentException ignored) {
+            // Expected.
+        }
+
+        Assert.assertTrue(registry.remove("requests", "method", "PUT"));
+        Assert.assertFalse(registry.remove("requests", "method", "PUT"));
+        Assert.assertFalse(registry.remove("unknown"));
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        LOG.info("testExport");
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests", "Requests.", "status", "200", "method", "GET").increment(3);
+        registry.gauge("temperature", "Temperature \"now\".\nIn Celsius.", "room", "a\\b").set(21.5);
+        registry.gauge("constant", "", () -> Double.POSITIVE_INFINITY);
+
+        final MetricsCollector collector = new MetricsCollector(Duration.standardMinutes(1), 60);
+        collector.addValueNow(1.0f);
+        collector.addValueNow(3.0f);
+        registry.register("latency_seconds", "Latency.", collector);
+
+        final MultiMetricsCollector timer = MultiMetricsCollector.create(Period.LAST_MINUTE, Period.LAST_HOUR);
+        timer.addValue(2.0f);
+        registry.register("duration_seconds", "Duration.", timer, "op", "x");
+
+        final String text = new OpenMetricsExporter(registry).export();
+        LOG.info("testExport: {}", text);
+        Assert.assertEquals("" +
+                        "# TYPE constant gauge\n" +
+                        "constant +Inf\n" +
+                        "# TYPE duration_seconds gauge\n" +
+                        "# HELP duration_seconds Duration.\n" +
+                        "duration_seconds{op=\"x\",window=\"last_hour\",quantile=\"0.5\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_hour\",quantile=\"0.9\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_hour\",quantile=\"0.99\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_hour\",quantile=\"0.999\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_minute\",quantile=\"0.5\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_minute\",quantile=\"0.9\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_minute\",quantile=\"0.99\"} 2.0\n" +
+                        "duration_seconds{op=\"x\",window=\"last_minute\",quantile=\"0.999\"} 2.0\n" +
+                        "# TYPE duration_seconds_count gauge\n" +
+                        "duration_seconds_count{op=\"x\",window=\"last_hour\"} 1\n" +
+                        "duration_seconds_count{op=\"x\",window=\"last_minute\"} 1\n" +
+                        "# TYPE duration_seconds_sum gauge\n" +
+                        "duration_seconds_sum{op=\"x\",window=\"last_hour\"} 2.0\n" +
+                        "duration_seconds_sum{op=\"x\",window=\"last_minute\"} 2.0\n" +
+                        "# TYPE latency_seconds gauge\n" +
+                        "# HELP latency_seconds Latency.\n" +
+                        "latency_seconds{quantile=\"0.5\"} 1.015625\n" +
+                        "latency_seconds{quantile=\"0.9\"} 3.0\n" +
+                        "latency_seconds{quantile=\"0.99\"} 3.0\n" +
+                        "latency_seconds{quantile=\"0.999\"} 3.0\n" +
+                        "# TYPE latency_seconds_count gauge\n" +
+                        "latency_seconds_count 2\n" +
+                        "# TYPE latency_seconds_sum gauge\n" +
+                        "latency_seconds_sum 4.0\n" +
+                        "# TYPE requests counter\n" +
+                        "# HELP requests Requests.\n" +
+                        "requests_total{method=\"GET\",status=\"200\"} 3\n" +
+                        "# TYPE temperature gauge\n" +
+                        "# HELP temperature Temperature \\\"now\\\".\\nIn Celsius.\n" +
+                        "temperature{room=\"a\\\\b\"} 21.5\n" +
+                        "# EOF\n",
+                text);
+    }
+
+    @Test
+    public void testWriteTo() throws IOException {
+        LOG.info("testWriteTo");
+        final MetricsRegistry registry = new MetricsRegistry();
+        final OpenMetricsExporter exporter = new OpenMetricsExporter(registry);
+        for (int i = 0; i < 1000; ++i) {
+            registry.gauge("gauge", "Gauge.", "name", "é€😀" + i).set(i);
+        }
+
+        // Export twice, to check the buffers are reused properly.
+        for (int i = 0; i < 2; ++i) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            exporter.writeTo(out);
+            Assert.assertEquals(exporter.export(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tomtom.speedtools.rest;
+
+import com.tomtom.speedtools.metrics.MetricsRegistry;
+import com.tomtom.speedtools.metrics.OpenMetricsExporter;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Resteasy resource which serves the metrics of the {@link MetricsRegistry} in the OpenMetrics text format, for
+ * example to be scraped by Prometheus. The registry and exporter are bound by {@link ServicesModule}; bind this class
+ * in the Guice module of the application to serve the metrics.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    @Nonnull
+    private final OpenMetricsExporter exporter;
+
+    @Inject
+    public MetricsResource(@Nonnull final OpenMetricsExporter exporter) {
+        assert exporter != null;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Return the metrics. The metrics are written directly to the response stream.
+     *
+     * Return HTTP status code 200.
+     *
+     * @return Metrics in the OpenMetrics text format.
+     */
+    @GET
+    @Produces(OpenMetricsExporter.CONTENT_TYPE)
+    @Nonnull
+    public StreamingOutput getMetrics() {
+        return exporter::writeTo;
+    }
+}
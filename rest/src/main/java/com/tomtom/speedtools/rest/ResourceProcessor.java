@@ -19,6 +19,7 @@ package com.tomtom.speedtools.rest;
 import akka.dispatch.Futures;
 import akka.dispatch.OnComplete;
 import com.tomtom.speedtools.apivalidation.exceptions.ApiException;
+import com.tomtom.speedtools.metrics.MetricsTimer;
 import org.jboss.resteasy.spi.AsynchronousResponse;
 import org.slf4j.Logger;
 import scala.concurrent.Future;
@@ -59,15 +60,48 @@ public final class ResourceProcessor {
      * @param handler  Handler that actually calculates the REST response. If the handler returns a non-null value in
      *                 the future success, it will be wrapped in an "200 OK" response.
      */
-    @SuppressWarnings("InstanceofCatchParameter")
     public void process(
             @Nonnull final String name,
             @Nonnull final Logger log,
             @Nonnull final AsyncResponse response,
             @Nonnull final ResourceHandler handler) {
+        doProcess(name, log, response, handler, null);
+    }
+
+    /**
+     * Process an API resource, like {@link #process(String, Logger, AsyncResponse, ResourceHandler)}, and record the
+     * duration in a timer. The duration is measured from this call until the response is resumed (including the time
+     * the handler waits to be executed), or until the handler fails.
+     *
+     * @param name     Name of processor; used for logging purposes.
+     * @param log      Logger of caller, so log message appear to come from the caller, which makes more sense than from
+     *                 this generic class.
+     * @param response Asynchronous rest response object.
+     * @param timer    Timer to record the duration in.
+     * @param handler  Handler that actually calculates the REST response. If the handler returns a non-null value in
+     *                 the future success, it will be wrapped in an "200 OK" response.
+     */
+    public void process(
+            @Nonnull final String name,
+            @Nonnull final Logger log,
+            @Nonnull final AsyncResponse response,
+            @Nonnull final MetricsTimer timer,
+            @Nonnull final ResourceHandler handler) {
+        assert timer != null;
+        doProcess(name, log, response, handler, timer);
+    }
+
+    @SuppressWarnings("InstanceofCatchParameter")
+    private void doProcess(
+            @Nonnull final String name,
+            @Nonnull final Logger log,
+            @Nonnull final AsyncResponse response,
+            @Nonnull final ResourceHandler handler,
+            @Nullable final MetricsTimer timer) {
         assert response != null;
         assert log != null;
         assert handler != null;
+        final long startNanos = (timer == null) ? 0L : timer.start();
 
         /**
          * Send the handler to an actor for in-Akka execution. The result of the Future is omitted.
@@ -126,6 +160,9 @@ public final class ResourceProcessor {
                                      */
                                     assert true;
                                 }
+                                if (timer != null) {
+                                    timer.stop(startNanos);
+                                }
                             }
                         }, reactor.getExecutionContext());
                     } catch (final Throwable e) {
@@ -139,6 +176,9 @@ public final class ResourceProcessor {
                                     name, e.getMessage());
                         }
                         response.resume(GeneralExceptionMapper.toResponse(log, e));
+                        if (timer != null) {
+                            timer.stop(startNanos);
+                        }
                     }
 
                     //noinspection ConstantConditions
@@ -22,6 +22,8 @@ import com.google.inject.Binder;
 import com.google.inject.Module;
 import com.google.inject.Provides;
 import com.tomtom.speedtools.maven.MavenProperties;
+import com.tomtom.speedtools.metrics.MetricsRegistry;
+import com.tomtom.speedtools.metrics.OpenMetricsExporter;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import scala.concurrent.ExecutionContext;
@@ -49,6 +51,9 @@ public class ServicesModule implements Module {
         binder.bind(MavenProperties.class).in(Singleton.class);
         binder.bind(ResourceProcessor.class).in(Singleton.class);
 
+        // Metrics registry, exported by MetricsResource.
+        binder.bind(MetricsRegistry.class).in(Singleton.class);
+
         // Register the injector. An eager singleton is used because no-one actually retrieves the registry
         // through Guice. Thus it must be eager to be started.
         binder.bind(InjectorRegistry.class).asEagerSingleton();
@@ -72,6 +77,15 @@ public class ServicesModule implements Module {
         return actorSystem.scheduler();
     }
 
+    @Provides
+    @Singleton
+    @Nonnull
+    public OpenMetricsExporter provideOpenMetricsExporter(
+            @Nonnull final MetricsRegistry registry) {
+        assert registry != null;
+        return new OpenMetricsExporter(registry);
+    }
+
     @Provides
     @Singleton
     @Nonnull
@@ -19,6 +19,7 @@ package com.tomtom.speedtools.tracer;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 
 /**
  * GenericTraceHandler is an interface to catch type-safe events from event loggers. See {@link TracerFactory} for an
@@ -41,4 +42,20 @@ public interface GenericTraceHandler extends Traceable {
             @Nonnull String tracer,
             @Nonnull String method,
             @Nonnull Object[] args);
+
+    /**
+     * Handle a batch of events, in order. The tracer dispatcher calls this method with all events it drained from the
+     * trace queue at once, so handlers that can write events in bulk should override it. The default implementation
+     * calls {@link #handle} for every event.
+     *
+     * The list is only valid during the call: it is reused by the caller afterwards, so it must not be stored.
+     *
+     * @param traces Ordered list of events.
+     */
+    default void handleTraces(@Nonnull final List<? extends Trace> traces) {
+        assert traces != null;
+        for (final Trace trace : traces) {
+            handle(trace.getTime(), trace.getClazz(), trace.getTracer(), trace.getMethod(), trace.getArgs());
+        }
+    }
 }
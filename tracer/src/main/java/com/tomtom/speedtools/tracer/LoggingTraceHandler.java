@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.List;
 
 /**
  * Event trace handler that writes events to standard logger.
@@ -53,25 +54,31 @@ public class LoggingTraceHandler implements GenericTraceHandler {
         assert method != null;
         assert args != null;
 
-        // If logging is globally enabled and this particular SLF4J log handler is enabled, create readable message.
+        // If logging is globally enabled and this particular SLF4J log handler is enabled, log a readable message.
         if (LOG.isTraceEnabled()) {
-            final StringBuilder message = new StringBuilder();
-            message.append(time.toString(FORMATTER)).append(": ").
-                    append(clazz).append('.').append(method).append('(');
-            for (int i = 0; i < args.length; i++) {
-                if (i > 0) {
-                    message.append(", ");
-                }
+            log(time, clazz, method, new TraceArgs(args, false));
+        }
+    }
 
-                /**
-                 * Convert the argument to a string. Theoretically, this can throw an exception. It shouldn't,
-                 * but if it does, we don't want this thread to die as a result of it. Log it as an error
-                 * and continue.
-                 */
-                message.append((args[i] == null) ? "null" : Trace.toStringJsonSafe(args[i]));
+    @Override
+    public void handleTraces(@Nonnull final List<? extends Trace> traces) {
+        assert traces != null;
+        if (LOG.isTraceEnabled()) {
+            for (final Trace trace : traces) {
+                log(trace.getTime(), trace.getClazz(), trace.getMethod(), trace.renderArgs());
             }
-            message.append(')');
-            LOG.trace("{}", message);
         }
     }
+
+    /**
+     * Log an event. The arguments are passed as a lazy SLF4J parameter, so they are only rendered if the message is
+     * actually logged, and their representation is bounded in size (see {@link TraceArgs}).
+     */
+    private static void log(
+            @Nonnull final DateTime time,
+            @Nonnull final String clazz,
+            @Nonnull final String method,
+            @Nonnull final TraceArgs args) {
+        LOG.trace("{}: {}.{}({})", time.toString(FORMATTER), clazz, method, args);
+    }
 }
@@ -18,19 +18,15 @@ package com.tomtom.speedtools.tracer;
 
 import com.tomtom.speedtools.json.Json;
 import org.joda.time.DateTime;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * Class to store a single logging event. A Trace can contain any (serializable) object, or a class which extends
  * SimpleTraceEvent.
  */
 public class Trace {
-    @Nonnull
-    private static final Logger LOG = LoggerFactory.getLogger(Trace.class);
-
     @Nonnull
     private final DateTime time;
     @Nonnull
@@ -42,6 +38,13 @@ public class Trace {
     @Nonnull
     private final Object[] args;
 
+    // Id of tracer/method/number of arguments, resolved lazily; not serialized.
+    private transient int methodId;
+
+    // Lazy string representation of the arguments, created on first use; not serialized.
+    @Nullable
+    private transient TraceArgs renderedArgs;
+
     /**
      * An event is specific for an 'owning class'. The event is type-safe and its type is defined by the
      * 'eventInterface'.
@@ -58,16 +61,38 @@ public class Trace {
             @Nonnull final String tracer,
             @Nonnull final String method,
             @Nonnull final Object[] args) {
+        this(time, clazz, tracer, method, args, TraceMethodIds.UNKNOWN);
+    }
+
+    /**
+     * Package private constructor for traces of which the method id is known already.
+     *
+     * @param clazz    Class throwing the event.
+     * @param tracer   Type-safe event interface.
+     * @param method   Method throwing the event.
+     * @param time     Event time.
+     * @param args     Additional arguments passed with the method.
+     * @param methodId Method id, see {@link TraceMethodIds}, or {@link TraceMethodIds#UNKNOWN}.
+     */
+    Trace(
+            @Nonnull final DateTime time,
+            @Nonnull final String clazz,
+            @Nonnull final String tracer,
+            @Nonnull final String method,
+            @Nonnull final Object[] args,
+            final int methodId) {
         assert time != null;
         assert clazz != null;
         assert tracer != null;
         assert method != null;
         assert args != null;
+        assert methodId >= 0;
         this.time = time;
         this.clazz = clazz;
         this.tracer = tracer;
         this.method = method;
         this.args = args;
+        this.methodId = methodId;
     }
 
     /**
@@ -109,27 +134,39 @@ public class Trace {
         return args;
     }
 
-    @Override
-    @Nonnull
-    public String toString() {
-        return Json.toStringJson(this);
+    /**
+     * Package private method to get the id of the tracer, method and number of arguments of this trace. The id is
+     * looked up (once) if it is not known yet. This method is deliberately not called "get..." to keep it out of the
+     * serialized form.
+     *
+     * @return Method id, see {@link TraceMethodIds}.
+     */
+    int methodId() {
+        if (methodId == TraceMethodIds.UNKNOWN) {
+            methodId = TraceMethodIds.getId(tracer, method, args.length);
+        }
+        return methodId;
     }
 
     /**
-     * Package private method to convert an object to a string catching runtime and assertion exceptions.
+     * Package private method to get a lazy, bounded string representation of the arguments, to be passed as an SLF4J
+     * parameter. The representation is cached, so the arguments are rendered at most once per trace.
+     *
+     * @return Arguments representation, separated by commas.
      */
-    static String toStringJsonSafe(final Object o) {
-        String result;
-        //noinspection ErrorNotRethrown
-        try {
-            result = Json.toStringJson(o);
-        } catch (final AssertionError e) {
-            LOG.error("handle: Assertion error converting trace argument to string. Exception:", e);
-            result = "(assertion error)";
-        } catch (final RuntimeException e) {
-            LOG.error("handle: Runtime exception converting trace argument to string. Exception:", e);
-            result = "(runtime exception)";
+    @Nonnull
+    TraceArgs renderArgs() {
+        TraceArgs result = renderedArgs;
+        if (result == null) {
+            result = new TraceArgs(args, false);
+            renderedArgs = result;
         }
         return result;
     }
+
+    @Override
+    @Nonnull
+    public String toString() {
+        return Json.toStringJson(this);
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import com.tomtom.speedtools.json.Json;
+import org.joda.time.ReadableDuration;
+import org.joda.time.ReadableInstant;
+import org.joda.time.ReadablePartial;
+import org.joda.time.ReadablePeriod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Lazy, bounded string representation of trace arguments. The arguments are only rendered when {@link #toString()}
+ * is called, so an instance can be passed as an SLF4J parameter and costs nothing if the message is not logged. The
+ * rendering is cached.
+ *
+ * The output is bounded, no matter how large the arguments are: every argument is truncated to {@link
+ * #MAX_ARG_LENGTH} characters, only the first {@link #MAX_ELEMENTS} elements of collections, maps and arrays are
+ * rendered, and nesting is limited to {@link #MAX_DEPTH} levels. Other objects are rendered as JSON, which is aborted
+ * as soon as the argument is too long.
+ *
+ * This class is package private.
+ */
+final class TraceArgs {
+    @Nonnull
+    private static final Logger LOG = LoggerFactory.getLogger(TraceArgs.class);
+
+    static final int MAX_ARG_LENGTH = 1024;
+    static final int MAX_ELEMENTS = 16;
+    static final int MAX_DEPTH = 4;
+
+    @Nonnull
+    private static final String ELLIPSIS = "...";
+
+    @Nonnull
+    private final Object[] args;
+    private final boolean verbose;
+
+    // Cached rendering. Rendering is deterministic, so a race only causes duplicate work.
+    @Nullable
+    private String rendered = null;
+
+    /**
+     * Create a lazy representation of trace arguments.
+     *
+     * @param args    Arguments.
+     * @param verbose If false, arguments are separated by commas. If true, every argument is put on a separate line,
+     *                with its index and type.
+     */
+    TraceArgs(@Nonnull final Object[] args, final boolean verbose) {
+        assert args != null;
+        this.args = args;
+        this.verbose = verbose;
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        String result = rendered;
+        if (result == null) {
+            result = render();
+            rendered = result;
+        }
+        return result;
+    }
+
+    @Nonnull
+    private String render() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < args.length; ++i) {
+            final Object arg = args[i];
+            if (verbose) {
+                sb.append("\n   * arg(").append(i + 1).append(") [");
+                if (arg != null) {
+                    sb.append(arg.getClass().getSimpleName());
+                }
+                sb.append("]: ");
+            } else if (i > 0) {
+                sb.append(", ");
+            }
+            appendArg(sb, arg);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append a single argument, truncated to {@link #MAX_ARG_LENGTH} characters.
+     *
+     * @param sb  Output.
+     * @param arg Argument.
+     */
+    static void appendArg(@Nonnull final StringBuilder sb, @Nullable final Object arg) {
+        assert sb != null;
+        final int limit = sb.length() + MAX_ARG_LENGTH;
+
+        /**
+         * Convert the argument to a string. Theoretically, this can throw an exception. It shouldn't,
+         * but if it does, we don't want this thread to die as a result of it. Log it as an error
+         * and continue.
+         */
+        //noinspection ErrorNotRethrown
+        try {
+            append(sb, arg, 0, limit);
+        } catch (final AssertionError e) {
+            LOG.error("appendArg: Assertion error converting trace argument to string. Exception:", e);
+            sb.append("(assertion error)");
+        } catch (final RuntimeException e) {
+            LOG.error("appendArg: Runtime exception converting trace argument to string. Exception:", e);
+            sb.append("(runtime exception)");
+        }
+        if (sb.length() > limit) {
+            sb.setLength(limit);
+            sb.append(ELLIPSIS);
+        }
+    }
+
+    private static void append(
+            @Nonnull final StringBuilder sb,
+            @Nullable final Object value,
+            final int depth,
+            final int limit) {
+        if (sb.length() >= limit) {
+            return;
+        }
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof CharSequence) {
+            final CharSequence chars = (CharSequence) value;
+            sb.append('"').append(chars, 0, Math.min(chars.length(), (limit - sb.length()) + 1)).append('"');
+        } else if ((value instanceof Number) || (value instanceof Boolean) || (value instanceof Character) ||
+                (value instanceof Enum) || (value instanceof UUID) || (value instanceof ReadableInstant) ||
+                (value instanceof ReadablePartial) || (value instanceof ReadableDuration) ||
+                (value instanceof ReadablePeriod)) {
+            sb.append(value);
+        } else if (value instanceof Collection) {
+            final Collection<?> collection = (Collection<?>) value;
+            appendElements(sb, collection.iterator(), collection.size(), '[', ']', depth, limit);
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            appendElements(sb, map.entrySet().iterator(), map.size(), '{', '}', depth, limit);
+        } else if (value instanceof Map.Entry) {
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+            append(sb, entry.getKey(), depth, limit);
+            sb.append(": ");
+            append(sb, entry.getValue(), depth, limit);
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            sb.append('[');
+            if (depth >= MAX_DEPTH) {
+                sb.append(ELLIPSIS);
+            } else {
+                final int nrElements = Math.min(length, MAX_ELEMENTS);
+                for (int i = 0; (i < nrElements) && (sb.length() < limit); ++i) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    append(sb, Array.get(value, i), depth + 1, limit);
+                }
+                appendMore(sb, length - nrElements);
+            }
+            sb.append(']');
+        } else {
+            appendJson(sb, value, limit);
+        }
+    }
+
+    private static void appendElements(
+            @Nonnull final StringBuilder sb,
+            @Nonnull final Iterator<?> iterator,
+            final int size,
+            final char open,
+            final char close,
+            final int depth,
+            final int limit) {
+        sb.append(open);
+        if (depth >= MAX_DEPTH) {
+            sb.append(ELLIPSIS);
+        } else {
+            int i = 0;
+            while ((i < MAX_ELEMENTS) && iterator.hasNext() && (sb.length() < limit)) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                append(sb, iterator.next(), depth + 1, limit);
+                ++i;
+            }
+            appendMore(sb, size - i);
+        }
+        sb.append(close);
+    }
+
+    private static void appendMore(@Nonnull final StringBuilder sb, final int nrMore) {
+        if (nrMore > 0) {
+            sb.append(", ...(").append(nrMore).append(" more)");
+        }
+    }
+
+    /**
+     * Append the JSON representation of an object. Serialization is aborted when the output reaches the limit, so
+     * large objects are never serialized completely.
+     */
+    private static void appendJson(@Nonnull final StringBuilder sb, @Nonnull final Object value, final int limit) {
+        final BoundedWriter writer = new BoundedWriter(sb, limit);
+        try {
+            Json.getCurrentStringObjectMapper().writeValue(writer, value);
+        } catch (final IOException e) {
+            if (!writer.full) {
+                LOG.debug("appendJson: Cannot map {} --> JSON, {}", value.getClass().getCanonicalName(), e.toString());
+                sb.append("error");
+            }
+        }
+    }
+
+    /**
+     * Writer that appends to a string builder and fails when the string builder reaches a limit.
+     */
+    private static final class BoundedWriter extends Writer {
+        @Nonnull
+        private final StringBuilder sb;
+        private final int limit;
+        private boolean full = false;
+
+        private BoundedWriter(@Nonnull final StringBuilder sb, final int limit) {
+            this.sb = sb;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(@Nonnull final char[] cbuf, final int off, final int len) throws IOException {
+            if (full) {
+                throw new IOException("Limit reached");
+            }
+            final int nrChars = Math.min(len, (limit - sb.length()) + 1);
+            sb.append(cbuf, off, nrChars);
+            if (nrChars < len) {
+                full = true;
+                throw new IOException("Limit reached");
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Nothing to flush.
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close.
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable filter setting for trace events, see {@link TracerFactory#setFilter(Class, TraceFilter)}. A filter can
+ * disable events altogether, let through a random fraction of them, and limit the number of events per second.
+ *
+ * Filters are evaluated before the arguments of an event are even boxed, so events that are filtered out cost
+ * hardly anything.
+ */
+public final class TraceFilter {
+
+    /**
+     * Filter that lets all events pass. This is the default.
+     */
+    @Nonnull
+    public static final TraceFilter ALL = new TraceFilter(true, 1.0, 0);
+
+    /**
+     * Filter that blocks all events.
+     */
+    @Nonnull
+    public static final TraceFilter NONE = new TraceFilter(false, 1.0, 0);
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final int maxPerSecond;
+
+    private TraceFilter(final boolean enabled, final double sampleRate, final int maxPerSecond) {
+        assert (0.0 <= sampleRate) && (sampleRate <= 1.0);
+        assert maxPerSecond >= 0;
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Create a filter that lets a random fraction of all events pass.
+     *
+     * @param sampleRate Fraction of events to pass, in range [0, 1].
+     * @return Filter.
+     */
+    @Nonnull
+    public static TraceFilter sample(final double sampleRate) {
+        assert (0.0 <= sampleRate) && (sampleRate <= 1.0);
+        return new TraceFilter(true, sampleRate, 0);
+    }
+
+    /**
+     * Create a filter that lets at most a number of events per second pass.
+     *
+     * @param maxPerSecond Maximum number of events per second, &gt; 0.
+     * @return Filter.
+     */
+    @Nonnull
+    public static TraceFilter maxPerSecond(final int maxPerSecond) {
+        assert maxPerSecond > 0;
+        return new TraceFilter(true, 1.0, maxPerSecond);
+    }
+
+    /**
+     * Return a copy of this filter which, in addition, lets at most a number of events per second pass. Random
+     * sampling is applied first.
+     *
+     * @param maxPerSecond Maximum number of events per second, &gt; 0.
+     * @return Filter.
+     */
+    @Nonnull
+    public TraceFilter withMaxPerSecond(final int maxPerSecond) {
+        assert maxPerSecond > 0;
+        return new TraceFilter(enabled, sampleRate, maxPerSecond);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Return the maximum number of events per second.
+     *
+     * @return Maximum number of events per second, or 0 if unlimited.
+     */
+    public int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return "TraceFilter{enabled=" + enabled + ", sampleRate=" + sampleRate + ", maxPerSecond=" + maxPerSecond + '}';
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of trace filters and statistics. Filters can be set per tracer interface and per tracer method; a method
+ * filter takes precedence over an interface filter, which takes precedence over the default filter.
+ *
+ * The effective filter and statistics of every trace method are kept in a table indexed by method id (see {@link
+ * TraceMethodIds}), which is copied on write. Changing a filter clears the table, so it is resolved again on next
+ * use. Looking up an existing entry does not allocate or lock.
+ */
+final class TraceFilters {
+
+    @Nonnull
+    private static final MethodState[] EMPTY_STATES = {};
+
+    // Samplers per tracer interface name, or per tracer interface name and method name. Guarded by class lock.
+    @Nonnull
+    private static final Map<String, Sampler> samplers = new HashMap<>();
+    @SuppressWarnings("StaticNonFinalField")
+    @Nonnull
+    private static Sampler defaultSampler = new Sampler(TraceFilter.ALL);
+
+    @Nonnull
+    private static final Map<String, TraceStatistics> statistics = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("StaticNonFinalField")
+    @Nonnull
+    private static volatile MethodState[] states = EMPTY_STATES;
+
+    private TraceFilters() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Return whether an event passes the filter of its method. If not, it is counted as sampled out.
+     *
+     * @param methodId Method id, &gt; 0.
+     * @return True if the event should be traced.
+     */
+    static boolean accept(final int methodId) {
+        return getState(methodId).accept();
+    }
+
+    /**
+     * Return the statistics of the tracer interface of a method.
+     *
+     * @param methodId Method id, &gt; 0.
+     * @return Statistics.
+     */
+    @Nonnull
+    static TraceStatistics getStatistics(final int methodId) {
+        return getState(methodId).statistics;
+    }
+
+    /**
+     * Return the statistics of a tracer interface.
+     *
+     * @param tracer Tracer interface name.
+     * @return Statistics.
+     */
+    @Nonnull
+    static TraceStatistics getStatistics(@Nonnull final String tracer) {
+        assert tracer != null;
+        return statistics.computeIfAbsent(tracer, TraceStatistics::new);
+    }
+
+    /**
+     * Return the statistics of all tracer interfaces that were used so far.
+     *
+     * @return Statistics per tracer interface name.
+     */
+    @Nonnull
+    static Map<String, TraceStatistics> getStatistics() {
+        return Collections.unmodifiableMap(new HashMap<>(statistics));
+    }
+
+    /**
+     * Set the filter of a tracer interface or method.
+     *
+     * @param tracer Tracer interface name.
+     * @param method Method name, or null for all methods of the interface.
+     * @param filter Filter.
+     */
+    static synchronized void setFilter(
+            @Nonnull final String tracer,
+            @Nullable final String method,
+            @Nonnull final TraceFilter filter) {
+        assert tracer != null;
+        assert filter != null;
+        samplers.put(getKey(tracer, method), new Sampler(filter));
+        states = EMPTY_STATES;
+    }
+
+    /**
+     * Remove the filter of a tracer interface or method.
+     *
+     * @param tracer Tracer interface name.
+     * @param method Method name, or null for the interface.
+     */
+    static synchronized void removeFilter(@Nonnull final String tracer, @Nullable final String method) {
+        assert tracer != null;
+        samplers.remove(getKey(tracer, method));
+        states = EMPTY_STATES;
+    }
+
+    /**
+     * Set the filter for methods without a method or interface filter.
+     *
+     * @param filter Filter.
+     */
+    static synchronized void setDefaultFilter(@Nonnull final TraceFilter filter) {
+        assert filter != null;
+        defaultSampler = new Sampler(filter);
+        states = EMPTY_STATES;
+    }
+
+    /**
+     * Remove all filters and reset the default filter to {@link TraceFilter#ALL}.
+     */
+    static synchronized void removeAllFilters() {
+        samplers.clear();
+        defaultSampler = new Sampler(TraceFilter.ALL);
+        states = EMPTY_STATES;
+    }
+
+    @Nonnull
+    private static MethodState getState(final int methodId) {
+        assert methodId > 0;
+        final MethodState[] current = states;
+        if (methodId < current.length) {
+            final MethodState state = current[methodId];
+            if (state != null) {
+                return state;
+            }
+        }
+        return resolveState(methodId);
+    }
+
+    @Nonnull
+    private static synchronized MethodState resolveState(final int methodId) {
+        final MethodState[] current = states;
+        if ((methodId < current.length) && (current[methodId] != null)) {
+            return current[methodId];
+        }
+
+        // Resolve all methods known so far at once, to avoid copying the table for every new method.
+        final int maxId = TraceMethodIds.getMaxId();
+        assert methodId <= maxId;
+        final MethodState[] table = Arrays.copyOf(current, Math.max(current.length, maxId + 1));
+        for (int id = 1; id <= maxId; ++id) {
+            if (table[id] == null) {
+                final String tracer = TraceMethodIds.getTracer(id);
+                Sampler sampler = samplers.get(getKey(tracer, TraceMethodIds.getMethod(id)));
+                if (sampler == null) {
+                    sampler = samplers.get(tracer);
+                }
+                if (sampler == null) {
+                    sampler = defaultSampler;
+                }
+                table[id] = new MethodState(sampler, getStatistics(tracer));
+            }
+        }
+        states = table;
+        return table[methodId];
+    }
+
+    @Nonnull
+    private static String getKey(@Nonnull final String tracer, @Nullable final String method) {
+        return (method == null) ? tracer : (tracer + '#' + method);
+    }
+
+    /**
+     * Effective filter and statistics of a single trace method.
+     */
+    private static final class MethodState {
+        @Nonnull
+        private final Sampler sampler;
+        @Nonnull
+        private final TraceStatistics statistics;
+
+        private MethodState(@Nonnull final Sampler sampler, @Nonnull final TraceStatistics statistics) {
+            assert sampler != null;
+            assert statistics != null;
+            this.sampler = sampler;
+            this.statistics = statistics;
+        }
+
+        private boolean accept() {
+            if (sampler.accept()) {
+                return true;
+            }
+            statistics.sampledOut();
+            return false;
+        }
+    }
+
+    /**
+     * Applies a filter. Methods that share a filter share its rate limit.
+     */
+    private static final class Sampler {
+        private final boolean enabled;
+        private final double sampleRate;
+        private final int maxPerSecond;
+
+        // Current second and number of events passed in it, for rate limiting.
+        @Nonnull
+        private final AtomicLong second = new AtomicLong(0);
+        @Nonnull
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        private Sampler(@Nonnull final TraceFilter filter) {
+            assert filter != null;
+            this.enabled = filter.isEnabled();
+            this.sampleRate = filter.getSampleRate();
+            this.maxPerSecond = filter.getMaxPerSecond();
+        }
+
+        private boolean accept() {
+            if (!enabled) {
+                return false;
+            }
+            if ((sampleRate < 1.0) && (ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+                return false;
+            }
+            if (maxPerSecond > 0) {
+
+                // Start counting again when a new second starts. Only one thread succeeds in resetting the count.
+                final long now = System.currentTimeMillis() / 1000;
+                final long last = second.get();
+                if ((now != last) && second.compareAndSet(last, now)) {
+                    count.set(0);
+                }
+
+                // Check before incrementing, so the count does not grow while events are rejected.
+                return (count.get() < maxPerSecond) && (count.incrementAndGet() <= maxPerSecond);
+            }
+            return true;
+        }
+    }
+}
@@ -16,34 +16,49 @@
 
 package com.tomtom.speedtools.tracer;
 
-import com.tomtom.speedtools.objects.Triple;
-import com.tomtom.speedtools.objects.Tuple;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Collections;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implements adding and calling of event trace handlers.
+ *
+ * Handlers that implement tracer interfaces are called through a dispatch table per handler, indexed by the method id
+ * of a trace (see {@link TraceMethodIds}). The table holds method handles bound to the handler, so dispatching a trace
+ * requires no reflection and no allocation. The table is filled for the tracer interfaces of the handler when the
+ * handler is added; other methods are looked up once, on first use, and are remembered as well if the handler does not
+ * implement them.
  */
 public class TraceHandlerCollection {
     @Nonnull
     private static final Logger LOG = LoggerFactory.getLogger(TraceHandlerCollection.class);
 
+    // Type of the method handles in dispatch tables.
+    @Nonnull
+    private static final MethodType DISPATCH_TYPE = MethodType.methodType(void.class, Object[].class);
+
+    // Dispatch table entry for methods that are not implemented by the handler.
     @Nonnull
-    private final List<Traceable> handlers = new CopyOnWriteArrayList<>();
+    private static final Target NO_TARGET = new Target(null, null);
 
     @Nonnull
-    private final Map<Triple<Class<? extends Traceable>, String, Tuple<String, Integer>>, List<Method>> methods =
-            new ConcurrentHashMap<>();  // Handler class, tracer and (method, number of arguments).
+    private final List<Entry> handlers = new CopyOnWriteArrayList<>();
+
+    // Sequence number of the next handler which is added, to divide the handlers over partitions round-robin.
+    @Nonnull
+    private final AtomicInteger nextSequence = new AtomicInteger();
 
     // Public constructor.
     public TraceHandlerCollection() {
@@ -57,124 +72,143 @@ public class TraceHandlerCollection {
      */
     public void handleTrace(@Nonnull final Trace trace) {
         assert trace != null;
-        for (final Traceable handler : handlers) {
+        for (final Entry entry : handlers) {
+            handleTrace(entry, trace);
+        }
+    }
 
-            /**
-             * Check what type of trace handler we're dealing with. There are two types of handlers:
-             * Generic handlers (heavy- and lightweight) and {@link Tracer} implementations.
-             */
-            if (handler instanceof GenericTraceHandler) {
+    /**
+     * Handles multiple traces at once. Errors in individual traces are logged and otherwise ignored.
+     *
+     * @param traces Ordered list of events.
+     * @return Time of the last trace.
+     */
+    @Nullable
+    public DateTime handleTraces(@Nonnull final List<? extends Trace> traces) {
+        assert traces != null;
+        return handleTraces(traces, 0, 1);
+    }
 
-                // This is a generic heavy-weight trace handler.
-                final GenericTraceHandler genericTraceHandler = ((GenericTraceHandler) handler);
-                genericTraceHandler.handle(
-                        trace.getTime(), trace.getClazz(), trace.getTracer(), trace.getMethod(), trace.getArgs());
+    /**
+     * Handles multiple traces at once, for a partition of the trace handlers only. Every handler belongs to exactly one
+     * partition, which is fixed for the lifetime of the handler. Handlers are divided over the partitions round-robin,
+     * in the order in which they were added (see {@link #getPartition(Traceable, int)}). This allows multiple
+     * dispatcher threads to handle the same batch of traces concurrently, while every individual handler still receives
+     * all traces in order.
+     *
+     * Generic handlers receive the batch in a single call to {@link GenericTraceHandler#handleTraces(List)}.
+     *
+     * @param traces       Ordered list of events.
+     * @param partition    Partition to handle, 0..nrPartitions-1.
+     * @param nrPartitions Total number of partitions.
+     * @return Time of the last trace.
+     */
+    @Nullable
+    DateTime handleTraces(@Nonnull final List<? extends Trace> traces, final int partition, final int nrPartitions) {
+        assert traces != null;
+        assert (0 <= partition) && (partition < nrPartitions);
+        if (traces.isEmpty()) {
+            return null;
+        }
+        for (final Entry entry : handlers) {
+            if ((entry.sequence % nrPartitions) != partition) {
+                continue;
+            }
+            if (entry.generic != null) {
+                try {
+                    entry.generic.handleTraces(traces);
+                } catch (final Throwable t) {
+                    LOG.error("Unexpected exception in trace handler: " + t.getMessage(), t);
+                }
             } else {
-
-                /**
-                 *  This is an implemented version of the {@link Tracer} interface. Find the right
-                 *  method and invoke.
-                 */
-                final Method method =
-                        findMethod(handler.getClass(), trace.getTracer(), trace.getMethod(), trace.getArgs().length);
-                if (method != null) {
+                for (final Trace trace : traces) {
                     try {
-                        method.invoke(handler, trace.getArgs());
-                    } catch (final Exception e) {
-
-                        // List all arguments as well (for debugging purposes of the serializer/deserializer).
-                        final StringBuilder sb = new StringBuilder();
-                        int i = 1;
-                        for (final Object arg : trace.getArgs()) {
-                            sb.append("\n   * arg(");
-                            sb.append(i);
-                            sb.append(") [");
-                            if (arg != null) {
-                                sb.append(arg.getClass().getSimpleName());
-                            }
-                            sb.append("]: ");
-
-                            /**
-                             * Convert the argument to a string. Theoretically, this can throw an exception. It shouldn't,
-                             * but if it does, we don't want this thread to die as a result of it. Log it as an error
-                             * and continue.
-                             */
-                            sb.append((arg == null) ? "null" : Trace.toStringJsonSafe(arg));
-                            ++i;
-                        }
-                        final String args = sb.toString();
-                        LOG.error("handleTrace: Cannot invoke event trace handler:" +
-                                "\n-- method: " + method +
-                                "\n-- arguments:" + args +
-                                "\n-- trace: " + Trace.toStringJsonSafe(trace) +
-                                "\n-- exception: " + e.getMessage(), e);
+                        handleTrace(entry, trace);
+                    } catch (final Throwable t) {
+                        LOG.error("Unexpected exception in trace handler: " + t.getMessage(), t);
                     }
                 }
             }
         }
+        return traces.get(traces.size() - 1).getTime();
     }
 
     /**
-     * Handles multiple traces at once. Errors in individual traces are logged and otherwise ignored.
+     * Return the partition of a trace handler. Handlers are assigned to partitions round-robin when they are added, so
+     * consecutively added handlers are in different partitions.
      *
-     * @param traces Ordered list of events.
-     * @return Time of the last trace.
+     * @param handler      Trace handler.
+     * @param nrPartitions Total number of partitions.
+     * @return Partition, 0..nrPartitions-1, or -1 if the handler was not added.
      */
-    @Nullable
-    public DateTime handleTraces(@Nonnull final List<? extends Trace> traces) {
-        assert traces != null;
-        DateTime last = null;
-        for (final Trace trace : traces) {
-            try {
-                handleTrace(trace);
-                last = trace.getTime();
-            } catch (final Throwable t) {
-                LOG.error("Unexpected exception in trace handler: " + t.getMessage(), t);
+    int getPartition(@Nonnull final Traceable handler, final int nrPartitions) {
+        assert handler != null;
+        assert nrPartitions > 0;
+        for (final Entry entry : handlers) {
+            if (entry.handler.equals(handler)) {
+                return entry.sequence % nrPartitions;
+            }
+        }
+        return -1;
+    }
+
+    private static void handleTrace(@Nonnull final Entry entry, @Nonnull final Trace trace) {
+        assert entry != null;
+        assert trace != null;
+
+        /**
+         * Check what type of trace handler we're dealing with. There are two types of handlers:
+         * Generic handlers (heavy- and lightweight) and {@link Tracer} implementations.
+         */
+        if (entry.generic != null) {
+
+            // This is a generic heavy-weight trace handler.
+            entry.generic.handle(
+                    trace.getTime(), trace.getClazz(), trace.getTracer(), trace.getMethod(), trace.getArgs());
+        } else {
+
+            /**
+             *  This is an implemented version of the {@link Tracer} interface. Find the right
+             *  method handle and invoke.
+             */
+            final Target target = entry.getTarget(trace.methodId(), trace);
+            if (target.handle != null) {
+                try {
+                    target.handle.invokeExact(trace.getArgs());
+                } catch (final Throwable e) {
+
+                    // List all arguments as well (for debugging purposes of the serializer/deserializer).
+                    LOG.error("handleTrace: Cannot invoke event trace handler:" +
+                                    "\n-- method: {}" +
+                                    "\n-- arguments:{}" +
+                                    "\n-- trace: {} {}.{}.{}" +
+                                    "\n-- exception: {}",
+                            target.method, new TraceArgs(trace.getArgs(), true), trace.getTime(), trace.getClazz(),
+                            trace.getTracer(), trace.getMethod(), e.getMessage(), e);
+                }
             }
         }
-        return last;
     }
 
     public void addTraceHandler(@Nonnull final Traceable handler) {
         assert handler != null;
-        handlers.add(handler);
+        handlers.add(new Entry(handler, nextSequence.getAndIncrement() & Integer.MAX_VALUE));
     }
 
     public void removeTraceHandler(@Nonnull final Traceable handler) {
         assert handler != null;
-        handlers.remove(handler);
+        for (final Entry entry : handlers) {
+            if (entry.handler.equals(handler)) {
+                handlers.remove(entry);
+                break;
+            }
+        }
     }
 
     public void removeAllTraceHandlers() {
         handlers.clear();
     }
 
-    @Nullable
-    private Method findMethod(@Nonnull final Class<? extends Traceable> handlerClass,
-                              @Nonnull final String tracer, @Nonnull final String method, final int nrArgs) {
-
-        assert handlerClass != null;
-        assert tracer != null;
-        assert method != null;
-
-        final Triple<Class<? extends Traceable>, String, Tuple<String, Integer>> key =
-                new Triple<>(handlerClass, tracer,
-                        new Tuple<>(method, nrArgs));
-        List<Method> result = methods.get(key);
-
-        // This might happen multiple times concurrently, but this is fine since the result will always be the same.
-        if (result == null) {
-            final Method theMethod = findMethodInClass(handlerClass, tracer, method, nrArgs);
-            if (theMethod != null) {
-                result = Collections.singletonList(theMethod);
-                methods.put(key, result);
-            } else {
-                result = Collections.emptyList();
-            }
-        }
-        return result.isEmpty() ? null : result.get(0);
-    }
-
     @Nullable
     private static Method findMethodInClass(@Nonnull final Class<?> c, @Nonnull final String tracer,
                                             @Nonnull final String method, final int nrArgs) {
@@ -197,4 +231,132 @@ public class TraceHandlerCollection {
         }
         return null;
     }
+
+    /**
+     * Trace handler with its dispatch table.
+     */
+    private static final class Entry {
+        @Nonnull
+        private final Traceable handler;
+        @Nullable
+        private final GenericTraceHandler generic;
+
+        // Sequence number of the handler, which determines its partition.
+        private final int sequence;
+
+        // Dispatch table, indexed by method id. Null entries have not been looked up yet.
+        @Nonnull
+        private volatile Target[] targets;
+
+        private Entry(@Nonnull final Traceable handler, final int sequence) {
+            assert handler != null;
+            assert sequence >= 0;
+            this.handler = handler;
+            this.sequence = sequence;
+            if (handler instanceof GenericTraceHandler) {
+                generic = (GenericTraceHandler) handler;
+                targets = new Target[0];
+            } else {
+                generic = null;
+
+                // Fill the dispatch table for all tracer methods of the handler up front.
+                Target[] table = new Target[TraceMethodIds.getMaxId() + 1];
+                for (Class<?> c = handler.getClass(); c != null; c = c.getSuperclass()) {
+                    for (final Class<?> tracer : c.getInterfaces()) {
+                        if (!Traceable.class.isAssignableFrom(tracer)) {
+                            continue;
+                        }
+                        for (final Method method : tracer.getMethods()) {
+                            if (Modifier.isStatic(method.getModifiers())) {
+                                continue;
+                            }
+                            final int methodId = TraceMethodIds.getId(method.getDeclaringClass().getName(),
+                                    method.getName(), method.getParameterCount());
+                            if (methodId >= table.length) {
+                                table = Arrays.copyOf(table, methodId + 1);
+                            }
+                            if (table[methodId] == null) {
+                                table[methodId] = createTarget(method);
+                            }
+                        }
+                    }
+                }
+                targets = table;
+            }
+        }
+
+        /**
+         * Return the dispatch table entry for a trace.
+         *
+         * @param methodId Method id of the trace.
+         * @param trace    Trace.
+         * @return Dispatch table entry; never null, but may be {@link #NO_TARGET}.
+         */
+        @Nonnull
+        private Target getTarget(final int methodId, @Nonnull final Trace trace) {
+            final Target[] current = targets;
+            if (methodId < current.length) {
+                final Target target = current[methodId];
+                if (target != null) {
+                    return target;
+                }
+            }
+            return lookupTarget(methodId, trace);
+        }
+
+        @Nonnull
+        private synchronized Target lookupTarget(final int methodId, @Nonnull final Trace trace) {
+            final Target[] current = targets;
+            if ((methodId < current.length) && (current[methodId] != null)) {
+                return current[methodId];
+            }
+
+            // Not in the table yet: find the method once and remember the result, even if there is no such method.
+            final Method method = findMethodInClass(handler.getClass(), trace.getTracer(), trace.getMethod(),
+                    trace.getArgs().length);
+            final Target target = (method == null) ? NO_TARGET : createTarget(method);
+
+            // Copy on write, so readers never see a partially updated table.
+            final Target[] table = Arrays.copyOf(current,
+                    Math.max(current.length, Math.max(methodId, TraceMethodIds.getMaxId()) + 1));
+            table[methodId] = target;
+            targets = table;
+            return target;
+        }
+
+        @Nonnull
+        private Target createTarget(@Nonnull final Method method) {
+            assert method != null;
+            try {
+                if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                    method.setAccessible(true);
+                }
+                final MethodHandle handle = MethodHandles.lookup().unreflect(method).
+                        bindTo(handler).
+                        asSpreader(Object[].class, method.getParameterCount()).
+                        asType(DISPATCH_TYPE);
+                return new Target(method, handle);
+            } catch (final IllegalAccessException | RuntimeException e) {
+                LOG.error("createTarget: Cannot access event trace handler method:" +
+                        "\n-- method: " + method +
+                        "\n-- exception: " + e.getMessage(), e);
+                return NO_TARGET;
+            }
+        }
+    }
+
+    /**
+     * Dispatch table entry: a handler method and the method handle to call it with an array of arguments.
+     */
+    private static final class Target {
+        @Nullable
+        private final Method method;
+        @Nullable
+        private final MethodHandle handle;
+
+        private Target(@Nullable final Method method, @Nullable final MethodHandle handle) {
+            this.method = method;
+            this.handle = handle;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of small integer ids for trace methods, identified by tracer interface name, method name and number of
+ * arguments. Ids are assigned on first use, start at 1 and are never reused, so they can be used as indexes in dispatch
+ * tables. Id 0 means "unknown".
+ *
+ * Looking up an existing id does not allocate or lock.
+ */
+final class TraceMethodIds {
+    static final int UNKNOWN = 0;
+
+    // Ids per tracer name and method name, indexed by number of arguments.
+    @Nonnull
+    private static final Map<String, Map<String, int[]>> ids = new ConcurrentHashMap<>();
+
+    // Tracer interface name and method name per id; copied when it grows.
+    @SuppressWarnings("StaticNonFinalField")
+    @Nonnull
+    private static volatile String[][] names = new String[1][];
+
+    @SuppressWarnings("StaticNonFinalField")
+    private static volatile int nrIds = 0;
+
+    private TraceMethodIds() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Return the id of a trace method, assigning a new id if needed.
+     *
+     * @param tracer Tracer interface name.
+     * @param method Method name.
+     * @param nrArgs Number of arguments.
+     * @return Id, &gt; 0.
+     */
+    static int getId(@Nonnull final String tracer, @Nonnull final String method, final int nrArgs) {
+        assert tracer != null;
+        assert method != null;
+        assert nrArgs >= 0;
+        final Map<String, int[]> methods = ids.get(tracer);
+        if (methods != null) {
+            final int[] byNrArgs = methods.get(method);
+            if ((byNrArgs != null) && (nrArgs < byNrArgs.length) && (byNrArgs[nrArgs] != UNKNOWN)) {
+                return byNrArgs[nrArgs];
+            }
+        }
+        return register(tracer, method, nrArgs);
+    }
+
+    /**
+     * Return the highest id assigned so far.
+     *
+     * @return Highest id, or 0 if no ids were assigned.
+     */
+    static int getMaxId() {
+        return nrIds;
+    }
+
+    /**
+     * Return the tracer interface name of a method id.
+     *
+     * @param id Id, &gt; 0 and &lt;= {@link #getMaxId()}.
+     * @return Tracer interface name.
+     */
+    @Nonnull
+    static String getTracer(final int id) {
+        assert (0 < id) && (id <= nrIds);
+        return names[id][0];
+    }
+
+    /**
+     * Return the method name of a method id.
+     *
+     * @param id Id, &gt; 0 and &lt;= {@link #getMaxId()}.
+     * @return Method name.
+     */
+    @Nonnull
+    static String getMethod(final int id) {
+        assert (0 < id) && (id <= nrIds);
+        return names[id][1];
+    }
+
+    private static synchronized int register(@Nonnull final String tracer, @Nonnull final String method,
+                                             final int nrArgs) {
+        final Map<String, int[]> methods = ids.computeIfAbsent(tracer, t -> new ConcurrentHashMap<>());
+        final int[] byNrArgs = methods.get(method);
+        if ((byNrArgs != null) && (nrArgs < byNrArgs.length) && (byNrArgs[nrArgs] != UNKNOWN)) {
+            return byNrArgs[nrArgs];
+        }
+
+        // Arrays are copied rather than updated, so readers never see a partially updated array.
+        final int[] newByNrArgs = (byNrArgs == null) ? new int[nrArgs + 1] :
+                Arrays.copyOf(byNrArgs, Math.max(byNrArgs.length, nrArgs + 1));
+        final int id = nrIds + 1;
+        newByNrArgs[nrArgs] = id;
+        final String[][] newNames = (id < names.length) ? names : Arrays.copyOf(names, names.length * 2);
+        newNames[id] = new String[]{tracer, method};
+        names = newNames;
+        methods.put(method, newByNrArgs);
+        nrIds = id;
+        return id;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Immutable snapshot of the progress of a trace replay, see {@link TraceReplayer}.
+ *
+ * The lag is only meaningful if traces are replayed at a finite speed. At {@link TraceReplayer#MAX_SPEED}, traces are
+ * not due at any particular time, so the average and maximum lag are always 0.
+ */
+public final class TraceReplayStatistics {
+    private final long nrTraces;
+    private final double elapsedMsecs;
+    private final long traceMsecs;
+    private final double averageLagMsecs;
+    private final double maxLagMsecs;
+
+    TraceReplayStatistics(
+            final long nrTraces,
+            final double elapsedMsecs,
+            final long traceMsecs,
+            final double averageLagMsecs,
+            final double maxLagMsecs) {
+        assert nrTraces >= 0;
+        assert elapsedMsecs >= 0.0;
+        assert traceMsecs >= 0;
+        this.nrTraces = nrTraces;
+        this.elapsedMsecs = elapsedMsecs;
+        this.traceMsecs = traceMsecs;
+        this.averageLagMsecs = averageLagMsecs;
+        this.maxLagMsecs = maxLagMsecs;
+    }
+
+    /**
+     * Return the number of traces replayed.
+     *
+     * @return Number of traces.
+     */
+    public long getNrTraces() {
+        return nrTraces;
+    }
+
+    /**
+     * Return the wall clock time since the first trace was replayed.
+     *
+     * @return Elapsed time in msecs.
+     */
+    public double getElapsedMsecs() {
+        return elapsedMsecs;
+    }
+
+    /**
+     * Return the time between the first and the last replayed trace, according to their time stamps.
+     *
+     * @return Trace time in msecs.
+     */
+    public long getTraceMsecs() {
+        return traceMsecs;
+    }
+
+    /**
+     * Return the number of traces replayed per second of wall clock time.
+     *
+     * @return Traces per second, or 0 if no time elapsed.
+     */
+    public double getThroughput() {
+        return (elapsedMsecs == 0.0) ? 0.0 : ((nrTraces * 1000.0) / elapsedMsecs);
+    }
+
+    /**
+     * Return the achieved speed factor: trace time divided by wall clock time.
+     *
+     * @return Speed factor, or 0 if no time elapsed.
+     */
+    public double getSpeed() {
+        return (elapsedMsecs == 0.0) ? 0.0 : (traceMsecs / elapsedMsecs);
+    }
+
+    /**
+     * Return the average delay between the time a trace should have been replayed and the time it was handed to the
+     * trace handlers.
+     *
+     * @return Average lag in msecs, or 0 at {@link TraceReplayer#MAX_SPEED}.
+     */
+    public double getAverageLagMsecs() {
+        return averageLagMsecs;
+    }
+
+    /**
+     * Return the maximum delay between the time a trace should have been replayed and the time it was handed to the
+     * trace handlers.
+     *
+     * @return Maximum lag in msecs, or 0 at {@link TraceReplayer#MAX_SPEED}.
+     */
+    public double getMaxLagMsecs() {
+        return maxLagMsecs;
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return String.format("%d traces in %.1f msecs (%.1f traces/sec), trace time %d msecs (speed %.2fx), " +
+                        "lag avg %.1f msecs, max %.1f msecs", nrTraces, elapsedMsecs, getThroughput(), traceMsecs,
+                getSpeed(), averageLagMsecs, maxLagMsecs);
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays recorded traces from a {@link TraceStream} into trace handlers, to reproduce recorded load against a test
+ * instance. Traces are handed to the handlers at their original pace, scaled by a speed factor: at speed 10, one
+ * minute of recorded traces is replayed in 6 seconds. At {@link #MAX_SPEED}, traces are replayed as fast as possible.
+ *
+ * Example of usage:
+ *
+ * <pre>
+ *     final TraceReplayer replayer = new TraceReplayer(stream, 10.0, 4);
+ *     replayer.addTraceHandler(handler);
+ *     final TraceReplayStatistics statistics = replayer.replay(from, until);
+ * </pre>
+ *
+ * If the parallelism is more than 1, traces are divided over that many worker threads by their owner class, so the
+ * traces of a single owner class are handled in order, but the trace handlers are called concurrently and must be
+ * thread-safe.
+ *
+ * The replayer reports its progress periodically and returns the achieved throughput and lag when done (see {@link
+ * TraceReplayStatistics}). Lag is the delay between the time a trace should have been replayed and the time it was
+ * handed to the trace handlers. At {@link #MAX_SPEED}, traces have no time at which they should be replayed, so no lag
+ * is recorded.
+ */
+public class TraceReplayer extends TraceHandlerCollection {
+    @Nonnull
+    private static final Logger LOG = LoggerFactory.getLogger(TraceReplayer.class);
+
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+    public static final int DEFAULT_IDLE_TIMEOUT_MSECS = 1000;
+
+    // Maximum number of traces waiting for a worker thread, per worker thread.
+    private static final int WORKER_QUEUE_CAPACITY = 10000;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long IDLE_SLEEP_MSECS = 10;
+
+    // Signals the end of a replay to worker threads.
+    @Nonnull
+    private static final Trace END = new Trace(new DateTime(0), "", "", "", new Object[0]);
+
+    @Nonnull
+    private final TraceStream stream;
+    private final double speed;
+    private final int parallelism;
+    private final int idleTimeoutMsecs;
+
+    // Receives the traces from the stream.
+    @Nonnull
+    private final GenericTraceHandler scheduler = new Scheduler();
+
+    // State of the current replay.
+    @Nonnull
+    private final AtomicLong nrTraces = new AtomicLong(0);
+    @Nonnull
+    private final AtomicLong totalLagNanos = new AtomicLong(0);
+    @Nonnull
+    private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+    @Nonnull
+    private final LongAccumulator lastDispatchNanos = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    @Nonnull
+    private final List<BlockingQueue<Trace>> workerQueues = new ArrayList<>();
+    private volatile long startNanos = 0;
+    private volatile boolean done = false;
+    private volatile long firstTraceMsecs = -1;
+    private volatile long lastTraceMsecs = -1;
+    private volatile boolean stopped = false;
+    private boolean interrupted = false;
+    private long nrScheduled = 0;
+    private long lastReportNanos = 0;
+
+    /**
+     * Create a trace replayer.
+     *
+     * @param stream           Stream to replay traces from.
+     * @param speed            Speed factor, &gt; 0, or {@link #MAX_SPEED}.
+     * @param parallelism      Number of threads that call the trace handlers, &gt; 0. If 1, the handlers are called
+     *                         from the thread that calls {@link #replay(DateTime, DateTime)}.
+     * @param idleTimeoutMsecs Time to wait for new traces from the stream before the replay is considered done, in
+     *                         msecs, &gt;= 0.
+     */
+    public TraceReplayer(
+            @Nonnull final TraceStream stream,
+            final double speed,
+            final int parallelism,
+            final int idleTimeoutMsecs) {
+        super();
+        assert stream != null;
+        assert speed > 0.0;
+        assert parallelism > 0;
+        assert idleTimeoutMsecs >= 0;
+        this.stream = stream;
+        this.speed = speed;
+        this.parallelism = parallelism;
+        this.idleTimeoutMsecs = idleTimeoutMsecs;
+    }
+
+    /**
+     * Create a trace replayer, which considers the replay done when the stream has no new traces for {@link
+     * #DEFAULT_IDLE_TIMEOUT_MSECS}.
+     *
+     * @param stream      Stream to replay traces from.
+     * @param speed       Speed factor, &gt; 0, or {@link #MAX_SPEED}.
+     * @param parallelism Number of threads that call the trace handlers, &gt; 0.
+     */
+    public TraceReplayer(@Nonnull final TraceStream stream, final double speed, final int parallelism) {
+        this(stream, speed, parallelism, DEFAULT_IDLE_TIMEOUT_MSECS);
+    }
+
+    /**
+     * Replay the traces of the stream in a time range. As the stream may still be receiving traces, this method
+     * returns when the stream has had no new traces before the end time for the idle timeout, or when {@link #stop()}
+     * is called.
+     *
+     * @param from  Start time, inclusive.
+     * @param until End time, exclusive.
+     * @return Throughput and lag of the replay.
+     * @throws InterruptedException If the calling thread is interrupted; the replay is stopped.
+     */
+    @Nonnull
+    public synchronized TraceReplayStatistics replay(
+            @Nonnull final DateTime from,
+            @Nonnull final DateTime until) throws InterruptedException {
+        assert from != null;
+        assert until != null;
+        LOG.info("replay: replaying traces from {} until {}, speed={}, parallelism={}", from, until, speed,
+                parallelism);
+        reset();
+        final List<Thread> workers = new ArrayList<>();
+        if (parallelism > 1) {
+            for (int i = 0; i < parallelism; ++i) {
+                final BlockingQueue<Trace> workerQueue = new ArrayBlockingQueue<>(WORKER_QUEUE_CAPACITY);
+                workerQueues.add(workerQueue);
+                final Thread worker = new Thread(new Worker(workerQueue));
+                worker.setName("TraceReplayer " + worker.getName());   // Use original name as well to keep it unique.
+                workers.add(worker);
+                worker.start();
+            }
+        }
+        stream.addTraceHandler(scheduler);
+        try {
+            stream.moveTo(from);
+            long lastActiveNanos = System.nanoTime();
+            while (!stopped) {
+                final long nrScheduledBefore = nrScheduled;
+                stream.playbackTo(until);
+                final long now = System.nanoTime();
+                if (nrScheduled != nrScheduledBefore) {
+                    lastActiveNanos = now;
+                } else if ((now - lastActiveNanos) >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMsecs)) {
+                    break;
+                } else {
+                    Thread.sleep(IDLE_SLEEP_MSECS);
+                }
+            }
+        } finally {
+            stream.removeTraceHandler(scheduler);
+            for (final BlockingQueue<Trace> workerQueue : workerQueues) {
+                workerQueue.put(END);
+            }
+            for (final Thread worker : workers) {
+                worker.join();
+            }
+            workerQueues.clear();
+            done = true;
+        }
+        if (interrupted) {
+            throw new InterruptedException("Replay interrupted");
+        }
+        final TraceReplayStatistics statistics = getStatistics();
+        LOG.info("replay: done, {}", statistics);
+        return statistics;
+    }
+
+    /**
+     * Stop the current replay. Can be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Return the progress of the current or last replay. Can be called from any thread.
+     *
+     * @return Throughput and lag.
+     */
+    @Nonnull
+    public TraceReplayStatistics getStatistics() {
+        final long n = nrTraces.get();
+        final long first = firstTraceMsecs;
+
+        // Once the replay is done, the elapsed time runs until the last trace was handed to the trace handlers.
+        final long endNanos = (done && (n > 0)) ? lastDispatchNanos.get() : System.nanoTime();
+        return new TraceReplayStatistics(n,
+                (first < 0) ? 0.0 : ((endNanos - startNanos) / 1.0e6),
+                (first < 0) ? 0 : (lastTraceMsecs - first),
+                (n == 0) ? 0.0 : ((totalLagNanos.get() / 1.0e6) / n),
+                maxLagNanos.get() / 1.0e6);
+    }
+
+    private void reset() {
+        nrTraces.set(0);
+        totalLagNanos.set(0);
+        maxLagNanos.reset();
+        lastDispatchNanos.reset();
+        done = false;
+        firstTraceMsecs = -1;
+        lastTraceMsecs = -1;
+        stopped = false;
+        interrupted = false;
+        nrScheduled = 0;
+    }
+
+    /**
+     * Return the time at which a trace should be replayed. At {@link #MAX_SPEED}, all traces are due at the start.
+     *
+     * @param trace Trace.
+     * @return Time in nanos, see {@link System#nanoTime()}.
+     */
+    private long getDueNanos(@Nonnull final Trace trace) {
+        if (speed == MAX_SPEED) {
+            return startNanos;
+        }
+        return startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(trace.getTime().getMillis() - firstTraceMsecs) /
+                speed);
+    }
+
+    /**
+     * Hand a batch of traces to the trace handlers and register their lag, unless replaying at {@link #MAX_SPEED}.
+     *
+     * @param traces Traces.
+     */
+    private void dispatch(@Nonnull final List<Trace> traces) {
+        if (speed != MAX_SPEED) {
+            final long now = System.nanoTime();
+            for (final Trace trace : traces) {
+                final long lag = Math.max(0, now - getDueNanos(trace));
+                totalLagNanos.addAndGet(lag);
+                maxLagNanos.accumulate(lag);
+            }
+        }
+        handleTraces(traces);
+        nrTraces.addAndGet(traces.size());
+        lastDispatchNanos.accumulate(System.nanoTime());
+    }
+
+    /**
+     * Handler for the traces from the stream, which waits until traces are due and hands them to the trace handlers
+     * or worker threads. It is called from the thread that calls {@link #replay(DateTime, DateTime)}.
+     */
+    private class Scheduler implements GenericTraceHandler {
+        @Nonnull
+        private final List<Trace> pending = new ArrayList<>();
+
+        @Override
+        public void handle(
+                @Nonnull final DateTime time,
+                @Nonnull final String clazz,
+                @Nonnull final String tracer,
+                @Nonnull final String method,
+                @Nonnull final Object[] args) {
+            handleTraces(Collections.singletonList(new Trace(time, clazz, tracer, method, args)));
+        }
+
+        @Override
+        public void handleTraces(@Nonnull final List<? extends Trace> traces) {
+            assert traces != null;
+            for (final Trace trace : traces) {
+                if (stopped) {
+                    break;
+                }
+                if (firstTraceMsecs < 0) {
+                    startNanos = System.nanoTime();
+                    lastReportNanos = startNanos;
+                    firstTraceMsecs = trace.getTime().getMillis();
+                }
+                lastTraceMsecs = Math.max(lastTraceMsecs, trace.getTime().getMillis());
+                ++nrScheduled;
+
+                // Hand over the traces that are due before waiting for the next one.
+                final long due = getDueNanos(trace);
+                if ((due - System.nanoTime()) > 0) {
+                    flush();
+                    if (!waitUntil(due)) {
+                        break;
+                    }
+                }
+                pending.add(trace);
+                if (pending.size() >= MAX_BATCH_SIZE) {
+                    flush();
+                }
+            }
+            flush();
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (workerQueues.isEmpty()) {
+                dispatch(pending);
+            } else {
+                try {
+                    for (final Trace trace : pending) {
+                        final int partition = (trace.getClazz().hashCode() & Integer.MAX_VALUE) % workerQueues.size();
+                        workerQueues.get(partition).put(trace);
+                    }
+                } catch (final InterruptedException ignored) {
+                    interrupted = true;
+                    stopped = true;
+                }
+            }
+            pending.clear();
+
+            final long now = System.nanoTime();
+            if ((now - lastReportNanos) >= REPORT_INTERVAL_NANOS) {
+                lastReportNanos = now;
+                LOG.info("replay: {}", getStatistics());
+            }
+        }
+
+        private boolean waitUntil(final long due) {
+            long delay = due - System.nanoTime();
+            while ((delay > 0) && !stopped) {
+                LockSupport.parkNanos(delay);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                    stopped = true;
+                }
+                delay = due - System.nanoTime();
+            }
+            return !stopped;
+        }
+    }
+
+    /**
+     * Worker thread to call the trace handlers for a partition of the traces.
+     */
+    private class Worker implements Runnable {
+        @Nonnull
+        private final BlockingQueue<Trace> workerQueue;
+
+        private Worker(@Nonnull final BlockingQueue<Trace> workerQueue) {
+            assert workerQueue != null;
+            this.workerQueue = workerQueue;
+        }
+
+        @Override
+        public void run() {
+            final List<Trace> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            boolean end = false;
+            while (!end) {
+                try {
+                    batch.add(workerQueue.take());
+                    workerQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                } catch (final InterruptedException ignored) {
+                    break;
+                }
+                //noinspection ObjectEquality
+                if (batch.get(batch.size() - 1) == END) {
+                    batch.remove(batch.size() - 1);
+                    end = true;
+                }
+                if (!batch.isEmpty()) {
+                    dispatch(batch);
+                }
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free, multi-producer single-consumer ring buffer for trace events. The buffer is preallocated with
+ * mutable slots: a producer claims a slot with a single compare-and-set on the tail sequence, writes the event fields
+ * in place and publishes the slot with an ordered write of its sequence number. No {@link Trace} is allocated on the
+ * producer side; the consumer creates the Trace objects when it drains the buffer.
+ *
+ * Offering never blocks: if the buffer is full, the event is rejected. The consumer side (draining and clearing) is
+ * serialized, so {@link #clear()} can be called from any thread. A consumer waiting for events spins briefly and then
+ * parks until a producer publishes an event and unparks it, so an idle consumer does not wake up periodically.
+ */
+final class TraceRingBuffer {
+    private static final int SPIN_TRIES = 100;
+
+    private final int capacity;
+    private final int mask;
+
+    @Nonnull
+    private final Slot[] slots;
+
+    // Sequence number + 1 of the event in a slot, once it is published. Sequence numbers are never reused.
+    @Nonnull
+    private final AtomicLongArray published;
+
+    // Next sequence number to claim by producers.
+    @Nonnull
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // Next sequence number to consume; only written by the consumer.
+    @Nonnull
+    private final AtomicLong head = new AtomicLong(0);
+
+    // Consumer parked in take(), or null. Producers unpark it after publishing an event.
+    @Nullable
+    private volatile Thread waiter = null;
+
+    /**
+     * Create a ring buffer.
+     *
+     * @param minCapacity Minimum number of events in the buffer; the capacity is rounded up to a power of 2.
+     */
+    TraceRingBuffer(final int minCapacity) {
+        assert (0 < minCapacity) && (minCapacity <= (1 << 30));
+        capacity = (minCapacity == 1) ? 1 : Integer.highestOneBit(minCapacity - 1) << 1;
+        mask = capacity - 1;
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            slots[i] = new Slot();
+        }
+        published = new AtomicLongArray(capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Return the number of events in the buffer, including events that are claimed but not published yet.
+     *
+     * @return Number of events.
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * Store an event in the buffer. Never blocks. Can be called from any thread.
+     *
+     * @param timeMillis Event time, in millis since the epoch.
+     * @param clazz      Class throwing the event.
+     * @param tracer     Tracer interface name.
+     * @param method     Method throwing the event.
+     * @param methodId   Method id, see {@link TraceMethodIds}, or {@link TraceMethodIds#UNKNOWN}.
+     * @param args       Arguments of the event.
+     * @return False if the buffer was full and the event was not stored.
+     */
+    boolean offer(
+            final long timeMillis,
+            @Nonnull final String clazz,
+            @Nonnull final String tracer,
+            @Nonnull final String method,
+            final int methodId,
+            @Nonnull final Object[] args) {
+        assert clazz != null;
+        assert tracer != null;
+        assert method != null;
+        assert args != null;
+        long seq;
+        do {
+            seq = tail.get();
+            if ((seq - head.get()) >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+
+        final int index = (int) seq & mask;
+        final Slot slot = slots[index];
+        slot.timeMillis = timeMillis;
+        slot.clazz = clazz;
+        slot.tracer = tracer;
+        slot.method = method;
+        slot.methodId = methodId;
+        slot.args = args;
+
+        // Publish with a volatile write, so it cannot be reordered with reading the waiter; otherwise a consumer that
+        // is about to park could miss the event.
+        published.set(index, seq + 1);
+        final Thread consumer = waiter;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Move published events to a list, blocking until at least 1 event is available. Events are moved in the order in
+     * which their slots were claimed; the first unpublished slot ends the batch.
+     *
+     * @param to        List to add events to.
+     * @param maxEvents Maximum number of events to move, must be &gt; 0.
+     * @return Number of events moved, always &gt; 0.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    int take(@Nonnull final List<? super Trace> to, final int maxEvents) throws InterruptedException {
+        assert to != null;
+        assert maxEvents > 0;
+        int tries = 0;
+        while (true) {
+            final int n = drainTo(to, maxEvents);
+            if (n > 0) {
+                return n;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            // Spin briefly, then park until a producer publishes an event. Check for events again after announcing
+            // that the consumer is waiting, so an event published just before is not missed.
+            if (tries < SPIN_TRIES) {
+                ++tries;
+                Thread.yield();
+            } else {
+                waiter = Thread.currentThread();
+                try {
+                    final int m = drainTo(to, maxEvents);
+                    if (m > 0) {
+                        return m;
+                    }
+                    LockSupport.park(this);
+                } finally {
+                    waiter = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move published events to a list, without blocking.
+     *
+     * @param to        List to add events to.
+     * @param maxEvents Maximum number of events to move.
+     * @return Number of events moved.
+     */
+    synchronized int drainTo(@Nonnull final List<? super Trace> to, final int maxEvents) {
+        assert to != null;
+        long seq = head.get();
+        int n = 0;
+        while (n < maxEvents) {
+            final int index = (int) seq & mask;
+            if (published.get(index) != (seq + 1)) {
+                break;
+            }
+            final Slot slot = slots[index];
+            to.add(new Trace(new DateTime(slot.timeMillis, DateTimeZone.UTC),
+                    slot.clazz, slot.tracer, slot.method, slot.args, slot.methodId));
+            slot.clear();
+            ++seq;
+            ++n;
+        }
+        if (n > 0) {
+            head.set(seq);
+        }
+        return n;
+    }
+
+    /**
+     * Discard all published events.
+     */
+    synchronized void clear() {
+        long seq = head.get();
+        while (true) {
+            final int index = (int) seq & mask;
+            if (published.get(index) != (seq + 1)) {
+                break;
+            }
+            slots[index].clear();
+            ++seq;
+        }
+        head.set(seq);
+    }
+
+    /**
+     * Mutable event slot. Fields are written by the producer that claimed the slot before it is published, and read
+     * by the consumer after it is published.
+     */
+    private static final class Slot {
+        private long timeMillis;
+        private String clazz;
+        private String tracer;
+        private String method;
+        private int methodId;
+        private Object[] args;
+
+        private void clear() {
+            clazz = null;
+            tracer = null;
+            method = null;
+            args = null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Event counters of a single tracer interface, see {@link TracerFactory#getStatistics(Class)}. The counters are
+ * updated concurrently by all threads that trace events, so they are cheap to update but reading them is not atomic.
+ */
+public final class TraceStatistics {
+    @Nonnull
+    private final String tracer;
+    @Nonnull
+    private final LongAdder nrSampledOut = new LongAdder();
+    @Nonnull
+    private final LongAdder nrEnqueued = new LongAdder();
+    @Nonnull
+    private final LongAdder nrDropped = new LongAdder();
+
+    TraceStatistics(@Nonnull final String tracer) {
+        assert tracer != null;
+        this.tracer = tracer;
+    }
+
+    /**
+     * Return the tracer interface name.
+     *
+     * @return Tracer interface name.
+     */
+    @Nonnull
+    public String getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Return the number of events that were filtered out, see {@link TraceFilter}.
+     *
+     * @return Number of filtered events.
+     */
+    public long getNrSampledOut() {
+        return nrSampledOut.sum();
+    }
+
+    /**
+     * Return the number of events that were put in the event queue.
+     *
+     * @return Number of queued events.
+     */
+    public long getNrEnqueued() {
+        return nrEnqueued.sum();
+    }
+
+    /**
+     * Return the number of events that were lost because the event queue was full.
+     *
+     * @return Number of lost events.
+     */
+    public long getNrDropped() {
+        return nrDropped.sum();
+    }
+
+    void sampledOut() {
+        nrSampledOut.increment();
+    }
+
+    void enqueued() {
+        nrEnqueued.increment();
+    }
+
+    void dropped() {
+        nrDropped.increment();
+    }
+
+    @Nonnull
+    @Override
+    public String toString() {
+        return "TraceStatistics{tracer=" + tracer + ", sampledOut=" + getNrSampledOut() + ", enqueued=" +
+                getNrEnqueued() + ", dropped=" + getNrDropped() + '}';
+    }
+}
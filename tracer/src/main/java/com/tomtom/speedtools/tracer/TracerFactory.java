@@ -28,9 +28,14 @@ import javax.annotation.Nullable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -58,28 +63,64 @@ import java.util.concurrent.atomic.AtomicLong;
  *       }
  *    }
  * </pre>
+ *
+ * Events are put in a bounded, lock-free ring buffer (see {@link TraceRingBuffer}), which is drained in batches by a
+ * queue processor thread. If more than 1 dispatcher thread is configured (see {@link #setDispatcherThreads(int)}), the
+ * trace handlers are divided over the dispatcher threads round-robin and every batch is offered to all of them. Each
+ * handler is always called from the same dispatcher thread, so every handler receives its events in order. A dispatcher
+ * thread that falls behind by more than the capacity of the event queue loses the events that do not fit (see {@link
+ * #getDispatcherEventsLost()}), so a slow handler never holds up the handlers of other dispatcher threads. When event
+ * logging is disabled, the dispatcher threads handle the batches they already received before they stop.
+ *
+ * Events can be filtered per tracer interface or method, by disabling them, sampling them or limiting their rate (see
+ * {@link #setFilter(Class, TraceFilter)}). Filters are applied before an event is queued and can be changed at any
+ * time. The number of filtered, queued and lost events is counted per tracer interface (see {@link
+ * #getStatistics(Class)}).
  */
 public class TracerFactory implements InvocationHandler {
     @Nonnull
     private static final Logger LOG = LoggerFactory.getLogger(TracerFactory.class);
 
-    private static final int QUEUE_CAPACITY = 15000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 15000;
+    public static final int DEFAULT_DISPATCHER_THREADS = 1;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    // Maximum time to wait for the queue processor thread to stop, when event logging is disabled.
+    private static final long QUEUE_PROCESSOR_STOP_TIMEOUT_MSECS = 1000;
+
     @Nonnull
     private static final Object[] EMPTY_OBJECT_ARRAY = {};
 
+    @SuppressWarnings("StaticNonFinalField")
     @Nonnull
-    private static final BlockingQueue<Trace> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
-    @Nonnull
-    private static final AtomicBoolean enabled = new AtomicBoolean(false);
+    private static volatile TraceRingBuffer queue = new TraceRingBuffer(DEFAULT_QUEUE_CAPACITY);
+    @SuppressWarnings("StaticNonFinalField")
+    private static int dispatcherThreads = DEFAULT_DISPATCHER_THREADS;
+    @SuppressWarnings("StaticNonFinalField")
+    private static int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    @SuppressWarnings("StaticNonFinalField")
+    private static volatile boolean enabled = false;
     @Nonnull
     private static final TraceHandlerCollection handlers = new TraceHandlerCollection();
 
+    // Generated tracer classes, per tracer interface and owner class name. The classes are attached to the tracer
+    // interface and refer to owners by name only, so they do not keep any class loader from being unloaded.
     @Nonnull
-    private final Class<?> ownerClass;
+    private static final ClassValue<Map<String, Class<?>>> tracerClasses = new ClassValue<Map<String, Class<?>>>() {
+        @Override
+        @Nonnull
+        protected Map<String, Class<?>> computeValue(@Nonnull final Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
 
-    @SuppressWarnings("StaticNonFinalField")
-    @Nullable
-    private static Thread thread = null;
+    @Nonnull
+    private final String ownerClassName;
+
+    @Nonnull
+    private static final List<Thread> threads = new ArrayList<>();
+    @Nonnull
+    private static final List<Dispatcher> dispatchers = new ArrayList<>();
 
     private static final long LOST_EVENTS_THRESHOLD = 100000;
     @Nonnull
@@ -87,9 +128,9 @@ public class TracerFactory implements InvocationHandler {
     @Nonnull
     private static final DateTime SERVER_START_TIME = UTCTime.now();
 
-    @SuppressWarnings("StaticNonFinalField")
     @Nonnull
-    private static DateTime lastEventLostTime = UTCTime.now().minus(LOST_EVENTS_LOG_INTERVAL);
+    private static final AtomicLong lastEventLostMillis =
+            new AtomicLong(System.currentTimeMillis() - LOST_EVENTS_LOG_INTERVAL.getMillis());
 
     private static final AtomicLong eventsLostSinceLastLog = new AtomicLong(0);
     private static final AtomicLong eventsLostTotal = new AtomicLong(0);
@@ -111,6 +152,36 @@ public class TracerFactory implements InvocationHandler {
         assert clazz != null;
         assert tracer != null;
 
+        // Use a generated tracer class if possible, which is a lot cheaper to call than a reflective proxy.
+        if (TracerProxyGenerator.canGenerate(tracer)) {
+            try {
+                final Class<?> tracerClass = tracerClasses.get(tracer).
+                        computeIfAbsent(clazz.getName(), c -> TracerProxyGenerator.generate(c, tracer));
+                return tracer.cast(tracerClass.getConstructor().newInstance());
+            } catch (final ReflectiveOperationException | RuntimeException e) {
+                LOG.warn("getTracer: Cannot generate tracer class for " + tracer.getName() +
+                        ", using reflective proxy instead. Exception: " + e.getMessage());
+            }
+        }
+        return getReflectiveTracer(clazz, tracer);
+    }
+
+    /**
+     * Get an event logger for a specific class, implemented as a reflective proxy. This is used if no tracer class
+     * can be generated for the interface, for example because the interface is not public.
+     *
+     * @param clazz  Class to get an event logger for.
+     * @param tracer Interface class containing type-safe events.
+     * @param <T>    Interface type.
+     * @return Event logger.
+     */
+    @Nonnull
+    static <T extends Traceable> T getReflectiveTracer(
+            @Nonnull final Class<?> clazz,
+            @Nonnull final Class<T> tracer) {
+        assert clazz != null;
+        assert tracer != null;
+
         //noinspection unchecked
         return (T) Proxy.newProxyInstance(
                 clazz.getClassLoader(),
@@ -118,6 +189,151 @@ public class TracerFactory implements InvocationHandler {
                 new TracerFactory(clazz));
     }
 
+    /**
+     * Store an event to be handled asynchronously by the trace handlers. This method is called by event loggers and
+     * should not be called directly. It never blocks; if the event queue is full, the event is lost.
+     *
+     * @param clazz  Class throwing the event.
+     * @param tracer Tracer interface name.
+     * @param method Method throwing the event.
+     * @param args   Arguments of the event.
+     */
+    public static void trace(
+            @Nonnull final String clazz,
+            @Nonnull final String tracer,
+            @Nonnull final String method,
+            @Nonnull final Object[] args) {
+        trace(clazz, tracer, method, TraceMethodIds.UNKNOWN, args);
+    }
+
+    /**
+     * Store an event to be handled asynchronously by the trace handlers. This method is called by generated event
+     * loggers, which know the method id of their methods up front. It should not be called directly.
+     *
+     * @param clazz    Class throwing the event.
+     * @param tracer   Tracer interface name.
+     * @param method   Method throwing the event.
+     * @param methodId Method id, or 0 if unknown.
+     * @param args     Arguments of the event.
+     */
+    public static void trace(
+            @Nonnull final String clazz,
+            @Nonnull final String tracer,
+            @Nonnull final String method,
+            final int methodId,
+            @Nonnull final Object[] args) {
+        assert clazz != null;
+        assert tracer != null;
+        assert method != null;
+        assert args != null;
+
+        // Store the event in the ring buffer and process it asynchronously in a separate thread. Never block!
+        final int id = (methodId == TraceMethodIds.UNKNOWN) ? TraceMethodIds.getId(tracer, method, args.length) :
+                methodId;
+        final TraceStatistics statistics = TraceFilters.getStatistics(id);
+        final long now = System.currentTimeMillis();
+        if (queue.offer(now, clazz, tracer, method, id, args)) {
+            statistics.enqueued();
+        } else {
+            statistics.dropped();
+            eventsLostSinceLastLog.incrementAndGet();
+            eventsLostTotal.incrementAndGet();
+            logEventsLost(now);
+        }
+    }
+
+    /**
+     * Set the filter for all methods of a tracer interface. This can be called at any time and replaces an existing
+     * filter for the interface. Method filters take precedence over interface filters.
+     *
+     * @param tracer Tracer interface.
+     * @param filter Filter.
+     */
+    public static void setFilter(@Nonnull final Class<? extends Traceable> tracer, @Nonnull final TraceFilter filter) {
+        assert tracer != null;
+        assert filter != null;
+        TraceFilters.setFilter(tracer.getName(), null, filter);
+    }
+
+    /**
+     * Set the filter for a method of a tracer interface (for all overloads of the method). This can be called at any
+     * time and replaces an existing filter for the method.
+     *
+     * @param tracer Tracer interface.
+     * @param method Method name.
+     * @param filter Filter.
+     */
+    public static void setFilter(
+            @Nonnull final Class<? extends Traceable> tracer,
+            @Nonnull final String method,
+            @Nonnull final TraceFilter filter) {
+        assert tracer != null;
+        assert method != null;
+        assert filter != null;
+        TraceFilters.setFilter(tracer.getName(), method, filter);
+    }
+
+    /**
+     * Remove the filter for all methods of a tracer interface. Method filters are not removed.
+     *
+     * @param tracer Tracer interface.
+     */
+    public static void removeFilter(@Nonnull final Class<? extends Traceable> tracer) {
+        assert tracer != null;
+        TraceFilters.removeFilter(tracer.getName(), null);
+    }
+
+    /**
+     * Remove the filter for a method of a tracer interface.
+     *
+     * @param tracer Tracer interface.
+     * @param method Method name.
+     */
+    public static void removeFilter(@Nonnull final Class<? extends Traceable> tracer, @Nonnull final String method) {
+        assert tracer != null;
+        assert method != null;
+        TraceFilters.removeFilter(tracer.getName(), method);
+    }
+
+    /**
+     * Set the filter for methods without a method or interface filter. Initially, this is {@link TraceFilter#ALL}.
+     *
+     * @param filter Filter.
+     */
+    public static void setDefaultFilter(@Nonnull final TraceFilter filter) {
+        assert filter != null;
+        TraceFilters.setDefaultFilter(filter);
+    }
+
+    /**
+     * Remove all method and interface filters and reset the default filter to {@link TraceFilter#ALL}.
+     */
+    public static void removeAllFilters() {
+        TraceFilters.removeAllFilters();
+    }
+
+    /**
+     * Return the event counters of a tracer interface.
+     *
+     * @param tracer Tracer interface.
+     * @return Event counters.
+     */
+    @Nonnull
+    public static TraceStatistics getStatistics(@Nonnull final Class<? extends Traceable> tracer) {
+        assert tracer != null;
+        return TraceFilters.getStatistics(tracer.getName());
+    }
+
+    /**
+     * Return the event counters of all tracer interfaces that traced events so far.
+     *
+     * @return Event counters per tracer interface name.
+     */
+    @Nonnull
+    public static Map<String, TraceStatistics> getStatistics() {
+        return TraceFilters.getStatistics();
+    }
+
     /**
      * Add an event trace handler.
      *
@@ -146,13 +362,135 @@ public class TracerFactory implements InvocationHandler {
         queue.clear();
     }
 
+    /**
+     * Return the capacity of the event queue.
+     *
+     * @return Maximum number of events waiting to be handled.
+     */
+    public static int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * Set the capacity of the event queue. Events that do not fit in the queue are lost (and counted as such). Can only
+     * be called while event logging is disabled. Any events still in the queue are discarded.
+     *
+     * @param queueCapacity Maximum number of events waiting to be handled, must be &gt; 0. This is rounded up to a
+     *                      power of 2.
+     */
+    public static synchronized void setQueueCapacity(final int queueCapacity) {
+        assert queueCapacity > 0;
+        if (isEnabled()) {
+            throw new IllegalStateException("Cannot change queue capacity while tracing is enabled");
+        }
+        queue = new TraceRingBuffer(queueCapacity);
+    }
+
+    /**
+     * Return the number of threads that call the trace handlers.
+     *
+     * @return Number of dispatcher threads.
+     */
+    public static synchronized int getDispatcherThreads() {
+        return dispatcherThreads;
+    }
+
+    /**
+     * Set the number of threads that call the trace handlers. Every trace handler is called from a single dispatcher
+     * thread, so using more threads than trace handlers does not help. Can only be called while event logging is
+     * disabled.
+     *
+     * @param dispatcherThreads Number of dispatcher threads, must be &gt; 0.
+     */
+    public static synchronized void setDispatcherThreads(final int dispatcherThreads) {
+        assert dispatcherThreads > 0;
+        if (isEnabled()) {
+            throw new IllegalStateException("Cannot change number of dispatcher threads while tracing is enabled");
+        }
+        TracerFactory.dispatcherThreads = dispatcherThreads;
+    }
+
+    /**
+     * Return the maximum number of events handed to trace handlers at once.
+     *
+     * @return Maximum batch size.
+     */
+    public static synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set the maximum number of events handed to trace handlers at once. Can only be called while event logging is
+     * disabled.
+     *
+     * @param maxBatchSize Maximum batch size, must be &gt; 0.
+     */
+    public static synchronized void setMaxBatchSize(final int maxBatchSize) {
+        assert maxBatchSize > 0;
+        if (isEnabled()) {
+            throw new IllegalStateException("Cannot change maximum batch size while tracing is enabled");
+        }
+        TracerFactory.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Return the total number of events lost because the event queue was full.
+     *
+     * @return Number of lost events.
+     */
+    public static long getEventsLostTotal() {
+        return eventsLostTotal.get();
+    }
+
+    /**
+     * Return the dispatcher thread which calls a trace handler. Handlers are divided over the dispatcher threads
+     * round-robin, in the order in which they were added.
+     *
+     * @param handler Event trace handler.
+     * @return Index of the dispatcher thread, as in {@link #getDispatcherEventsLost()}, or -1 if the handler was not
+     * added.
+     */
+    static synchronized int getDispatcherThread(@Nonnull final Traceable handler) {
+        assert handler != null;
+        return handlers.getPartition(handler, dispatcherThreads);
+    }
+
+    /**
+     * Return the number of events lost per dispatcher thread, since event logging was last enabled, because the
+     * dispatcher thread fell too far behind. Events lost by a dispatcher thread are not handled by the trace handlers
+     * of that thread only, so they are not included in {@link #getEventsLostTotal()}.
+     *
+     * @return Number of lost events, per dispatcher thread. Empty if there is a single dispatcher thread.
+     */
+    @Nonnull
+    public static synchronized long[] getDispatcherEventsLost() {
+        final long[] result = new long[dispatchers.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = dispatchers.get(i).getEventsLost();
+        }
+        return result;
+    }
+
     /**
      * Return whether event logging is enabled or not.
      *
      * @return True if enable, false if not.
      */
     public static boolean isEnabled() {
-        return enabled.get();
+        return enabled;
+    }
+
+    /**
+     * Return whether an event of a specific tracer method should be traced, which is the case if event logging is
+     * enabled and the event passes the filter of the method (see {@link #setFilter(Class, TraceFilter)}). Events that
+     * do not pass the filter are counted as sampled out. This method is called by generated event loggers, before
+     * they box the event arguments. It should not be called directly.
+     *
+     * @param methodId Method id, &gt; 0.
+     * @return True if the event should be traced.
+     */
+    public static boolean isEnabled(final int methodId) {
+        return enabled && TraceFilters.accept(methodId);
     }
 
     /**
@@ -161,23 +499,45 @@ public class TracerFactory implements InvocationHandler {
      *
      * @param enabled Set or unset logging.
      */
-    public static void setEnabled(final boolean enabled) {
-        final boolean wasEnabled = TracerFactory.enabled.getAndSet(enabled);
+    public static synchronized void setEnabled(final boolean enabled) {
+        final boolean wasEnabled = TracerFactory.enabled;
+        TracerFactory.enabled = enabled;
         if (!wasEnabled && enabled) {
 
-            // Start a new thread got the event logger handling.
-            assert thread == null;
-            thread = new Thread(new QueueProcessor());      // Create a new thread.
-            thread.setName("Tracer " + thread.getName());   // Use original name as well to keep it unique.
-            thread.start();
+            // Start new threads for the event logger handling. The queue processor thread is the last one.
+            assert threads.isEmpty();
+            dispatchers.clear();
+            if (dispatcherThreads > 1) {
+                for (int i = 0; i < dispatcherThreads; ++i) {
+                    final Dispatcher dispatcher = new Dispatcher(i, dispatcherThreads, queue.capacity());
+                    dispatchers.add(dispatcher);
+                    threads.add(new Thread(dispatcher));
+                }
+            }
+            threads.add(new Thread(new QueueProcessor(queue, maxBatchSize, new ArrayList<>(dispatchers))));
+            for (final Thread thread : threads) {
+                thread.setName("Tracer " + thread.getName());   // Use original name as well to keep it unique.
+                thread.start();
+            }
         } else if (wasEnabled && !enabled) {
 
-            // Stop the event logging thread.
-            assert thread != null;
-            thread.interrupt();
-            thread = null;
+            // Stop the queue processor thread first, so the dispatcher threads can handle all batches it passed on.
+            assert !threads.isEmpty();
+            final Thread queueProcessor = threads.remove(threads.size() - 1);
+            queueProcessor.interrupt();
+            if (!threads.isEmpty()) {
+                try {
+                    queueProcessor.join(QUEUE_PROCESSOR_STOP_TIMEOUT_MSECS);
+                } catch (final InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (final Thread thread : threads) {
+                thread.interrupt();
+            }
+            threads.clear();
         } else {
-            assert (!wasEnabled && (thread == null)) || (wasEnabled && (thread != null));
+            assert (!wasEnabled && threads.isEmpty()) || (wasEnabled && !threads.isEmpty());
         }
     }
 
@@ -187,7 +547,8 @@ public class TracerFactory implements InvocationHandler {
      * @param ownerClass Class that wishes to create event loggers.
      */
     public TracerFactory(@Nonnull final Class<?> ownerClass) {
-        this.ownerClass = ownerClass;
+        assert ownerClass != null;
+        this.ownerClassName = ownerClass.getName();
     }
 
     /**
@@ -209,44 +570,168 @@ public class TracerFactory implements InvocationHandler {
             return null;
         }
 
-        // Store the event in a queue and process it asynchronously in a separate thread. Never block!
-        final Trace e = new Trace(UTCTime.now(), ownerClass.getName(), method.getDeclaringClass().getName(),
-                method.getName(), (args == null) ? EMPTY_OBJECT_ARRAY : args);
+        // Skip event when it is filtered out.
+        final String tracer = method.getDeclaringClass().getName();
+        final Object[] traceArgs = (args == null) ? EMPTY_OBJECT_ARRAY : args;
+        final int methodId = TraceMethodIds.getId(tracer, method.getName(), traceArgs.length);
+        if (!TraceFilters.accept(methodId)) {
+            return null;
+        }
+        trace(ownerClassName, tracer, method.getName(), methodId, traceArgs);
+        return null;
+    }
+
+    /**
+     * Log the number of lost events, at most once per log interval (unless a lot of events are lost). Only the thread
+     * that succeeds in updating the last log time logs the message.
+     *
+     * @param now Current time, in millis since the epoch.
+     */
+    private static void logEventsLost(final long now) {
+        final long last = lastEventLostMillis.get();
+        if ((((last + LOST_EVENTS_LOG_INTERVAL.getMillis()) < now) ||
+                (eventsLostSinceLastLog.get() >= LOST_EVENTS_THRESHOLD)) &&
+                lastEventLostMillis.compareAndSet(last, now)) {
+            final long lost = eventsLostSinceLastLog.getAndSet(0);
+            LOG.warn("invoke: Events queue is full! Lost " + lost +
+                    " events in last " + ((now - last) / 1000) +
+                    " secs (for a total of " + eventsLostTotal + " events since " + SERVER_START_TIME + ')');
+        }
+    }
 
-        if (!queue.offer(e)) {
-            eventsLostSinceLastLog.incrementAndGet();
-            eventsLostTotal.incrementAndGet();
+    /**
+     * Queue processor thread to handle incoming events. This thread drains batches of events from the queue and either
+     * processes them itself or, if there are multiple dispatchers, passes every batch on to all dispatchers.
+     */
+    static class QueueProcessor implements Runnable {
+        @Nonnull
+        private final TraceRingBuffer queue;
+        private final int maxBatchSize;
+        @Nonnull
+        private final List<Dispatcher> dispatchers;
+
+        QueueProcessor(
+                @Nonnull final TraceRingBuffer queue,
+                final int maxBatchSize,
+                @Nonnull final List<Dispatcher> dispatchers) {
+            assert queue != null;
+            assert maxBatchSize > 0;
+            assert dispatchers != null;
+            this.queue = queue;
+            this.maxBatchSize = maxBatchSize;
+            this.dispatchers = dispatchers;
         }
 
-        if (eventsLostSinceLastLog.longValue() > 0) {
-            final DateTime now = UTCTime.now();
-            if ((lastEventLostTime.plus(LOST_EVENTS_LOG_INTERVAL).isBefore(now) ||
-                    (eventsLostSinceLastLog.longValue() >= LOST_EVENTS_THRESHOLD))) {
-                LOG.warn("invoke: Events queue is full! Lost " + eventsLostSinceLastLog +
-                        " events in last " + ((now.getMillis() - lastEventLostTime.getMillis()) / 1000) +
-                        " secs (for a total of " + eventsLostTotal + " events since " + SERVER_START_TIME + ')');
-                eventsLostSinceLastLog.set(0);
-                lastEventLostTime = now;
+        @Override
+        public void run() {
+            final List<Trace> batch = new ArrayList<>(maxBatchSize);
+            while (true) {
+                try {
+
+                    // Block until events are available, then take whatever is available.
+                    queue.take(batch, maxBatchSize);
+                    if (dispatchers.isEmpty()) {
+                        handlers.handleTraces(batch);
+                    } else {
+
+                        // The batch is shared by the dispatchers, so it cannot be reused here. Never block on a
+                        // dispatcher, or a slow dispatcher would hold up all others.
+                        final List<Trace> shared = Collections.unmodifiableList(new ArrayList<>(batch));
+                        for (final Dispatcher dispatcher : dispatchers) {
+                            dispatcher.offer(shared);
+                        }
+                    }
+                    batch.clear();
+                } catch (final InterruptedException ignored) {
+                    break;
+                }
             }
         }
-        return null;
     }
 
     /**
-     * Queue processor thread to handle incoming events. This thread simply takes elements from the queue and processes
-     * them one by one.
+     * Dispatcher thread to call a partition of the trace handlers for batches of events. The number of events waiting
+     * for a dispatcher is bounded; batches that do not fit are lost and counted.
      */
-    static class QueueProcessor implements Runnable {
+    static class Dispatcher implements Runnable {
+        @Nonnull
+        private final BlockingQueue<List<Trace>> batches = new LinkedBlockingQueue<>();
+        @Nonnull
+        private final AtomicInteger pendingEvents = new AtomicInteger(0);
+        @Nonnull
+        private final AtomicLong eventsLost = new AtomicLong(0);
+        private final int partition;
+        private final int nrPartitions;
+        private final int maxPendingEvents;
+
+        // Only used by the queue processor thread.
+        private long lastEventLostMillis = 0;
+        private long eventsLostSinceLastLog = 0;
+
+        Dispatcher(
+                final int partition,
+                final int nrPartitions,
+                final int maxPendingEvents) {
+            assert (0 <= partition) && (partition < nrPartitions);
+            assert maxPendingEvents > 0;
+            this.partition = partition;
+            this.nrPartitions = nrPartitions;
+            this.maxPendingEvents = maxPendingEvents;
+        }
+
+        /**
+         * Offer a batch to the dispatcher. Never blocks.
+         *
+         * @param batch Batch of events.
+         * @return False if the batch was lost, because too many events are waiting for the dispatcher already.
+         */
+        boolean offer(@Nonnull final List<Trace> batch) {
+            assert batch != null;
+            if (pendingEvents.addAndGet(batch.size()) > maxPendingEvents) {
+                pendingEvents.addAndGet(-batch.size());
+                eventsLost.addAndGet(batch.size());
+                eventsLostSinceLastLog = eventsLostSinceLastLog + batch.size();
+                final long now = System.currentTimeMillis();
+                if ((lastEventLostMillis + LOST_EVENTS_LOG_INTERVAL.getMillis()) < now) {
+                    LOG.warn("offer: Dispatcher " + partition + " is too slow! Lost " + eventsLostSinceLastLog +
+                            " events (for a total of " + eventsLost + " events)");
+                    lastEventLostMillis = now;
+                    eventsLostSinceLastLog = 0;
+                }
+                return false;
+            }
+            batches.add(batch);
+            return true;
+        }
+
+        long getEventsLost() {
+            return eventsLost.get();
+        }
 
         @Override
         public void run() {
             while (true) {
                 try {
-                    handlers.handleTrace(queue.take());
+                    handle(batches.take());
                 } catch (final InterruptedException ignored) {
                     break;
                 }
             }
+
+            // Handle the batches that were passed on before event logging was disabled.
+            final List<List<Trace>> remaining = new ArrayList<>();
+            batches.drainTo(remaining);
+            for (final List<Trace> batch : remaining) {
+                handle(batch);
+            }
+        }
+
+        private void handle(@Nonnull final List<Trace> batch) {
+            try {
+                handlers.handleTraces(batch, partition, nrPartitions);
+            } finally {
+                pendingEvents.addAndGet(-batch.size());
+            }
         }
     }
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.ClassFileVersion;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.ParameterDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.dynamic.scaffold.InstrumentedType;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.implementation.bytecode.ByteCodeAppender;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+import net.bytebuddy.matcher.ElementMatchers;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates tracer classes for {@link Traceable} interfaces, as a faster alternative to reflective proxies. For every
+ * abstract interface method, the generated class contains code equivalent to:
+ *
+ * <pre>
+ *     public void method(int a, String b) {
+ *         if (TracerFactory.isEnabled(17)) {
+ *             TracerFactory.trace("OwnerClass", "TracerInterface", "method", 17, new Object[]{Integer.valueOf(a), b});
+ *         }
+ *     }
+ * </pre>
+ *
+ * The class, tracer and method names are string constants in the generated class, so they are interned and no
+ * reflection is needed to obtain them. The method id (see {@link TraceMethodIds}) is a constant as well. When tracing
+ * is disabled, the call consists of a single volatile read and arguments are not boxed. Arguments are not boxed either
+ * if the event is filtered out (see {@link TraceFilter}). Methods with a return type return null, 0 or false.
+ *
+ * The generated class is loaded in a new class loader, so the tracer interface must be public.
+ */
+final class TracerProxyGenerator {
+
+    // Stack needed for 3 strings, the method id, the array, its copy, an index and a long or double value.
+    private static final int MAX_STACK = 9;
+
+    @Nonnull
+    private static final String FACTORY_INTERNAL_NAME = Type.getInternalName(TracerFactory.class);
+    @Nonnull
+    private static final String TRACE_DESCRIPTOR = "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;I" +
+            "[Ljava/lang/Object;)V";
+
+    @Nonnull
+    private static final AtomicInteger counter = new AtomicInteger(0);
+
+    private TracerProxyGenerator() {
+        // Prevent instantiation.
+    }
+
+    /**
+     * Return whether a tracer class can be generated for an interface.
+     *
+     * @param tracer Tracer interface.
+     * @return True if {@link #generate(String, Class)} can be used.
+     */
+    static boolean canGenerate(@Nonnull final Class<?> tracer) {
+        assert tracer != null;
+        return tracer.isInterface() && Modifier.isPublic(tracer.getModifiers());
+    }
+
+    /**
+     * Generate and load a tracer class.
+     *
+     * @param clazz  Name of the class to generate the tracer for.
+     * @param tracer Tracer interface, must be public.
+     * @param <T>    Interface type.
+     * @return Generated class, with a public no-args constructor.
+     */
+    @Nonnull
+    static <T extends Traceable> Class<? extends T> generate(
+            @Nonnull final String clazz,
+            @Nonnull final Class<T> tracer) {
+        assert clazz != null;
+        assert tracer != null;
+        assert canGenerate(tracer);
+
+        // Tracer names are the names of the interfaces that declare the methods, as with reflective proxies.
+        final Map<String, String> tracerNames = new HashMap<>();
+        for (final Method method : tracer.getMethods()) {
+            if (Modifier.isAbstract(method.getModifiers())) {
+                tracerNames.put(method.getName() + Type.getMethodDescriptor(method),
+                        method.getDeclaringClass().getName());
+            }
+        }
+
+        final ClassLoader classLoader = (tracer.getClassLoader() == null) ?
+                TracerProxyGenerator.class.getClassLoader() : tracer.getClassLoader();
+        //noinspection unchecked
+        return (Class<? extends T>) new ByteBuddy(ClassFileVersion.JAVA_V8)
+                .subclass(Object.class)
+                .implement(tracer)
+                .name(tracer.getName() + "$$Tracer$" + counter.incrementAndGet())
+                .method(ElementMatchers.isAbstract())
+                .intercept(new TraceImplementation(clazz, tracerNames))
+                .make()
+                .load(classLoader, ClassLoadingStrategy.Default.WRAPPER)
+                .getLoaded();
+    }
+
+    /**
+     * Implementation of the tracer methods.
+     */
+    private static final class TraceImplementation implements Implementation, ByteCodeAppender {
+        @Nonnull
+        private final String clazz;
+        @Nonnull
+        private final Map<String, String> tracerNames;
+
+        private TraceImplementation(@Nonnull final String clazz, @Nonnull final Map<String, String> tracerNames) {
+            assert clazz != null;
+            assert tracerNames != null;
+            this.clazz = clazz;
+            this.tracerNames = tracerNames;
+        }
+
+        @Nonnull
+        @Override
+        public InstrumentedType prepare(@Nonnull final InstrumentedType instrumentedType) {
+            return instrumentedType;
+        }
+
+        @Nonnull
+        @Override
+        public ByteCodeAppender appender(@Nonnull final Target implementationTarget) {
+            return this;
+        }
+
+        @Nonnull
+        @Override
+        public Size apply(
+                @Nonnull final MethodVisitor methodVisitor,
+                @Nonnull final Context implementationContext,
+                @Nonnull final MethodDescription instrumentedMethod) {
+            final String tracer = tracerNames.get(instrumentedMethod.getInternalName() +
+                    instrumentedMethod.getDescriptor());
+            assert tracer != null : instrumentedMethod;
+
+            // Skip event when tracing is disabled or the event is filtered out.
+            final int methodId = TraceMethodIds.getId(tracer, instrumentedMethod.getInternalName(),
+                    instrumentedMethod.getParameters().size());
+            final Label enabled = new Label();
+            methodVisitor.visitLdcInsn(methodId);
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, FACTORY_INTERNAL_NAME, "isEnabled", "(I)Z", false);
+            methodVisitor.visitJumpInsn(Opcodes.IFNE, enabled);
+            returnDefault(methodVisitor, instrumentedMethod.getReturnType().asErasure());
+            methodVisitor.visitLabel(enabled);
+            methodVisitor.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+
+            // Call TracerFactory.trace with constant names and the boxed arguments.
+            methodVisitor.visitLdcInsn(clazz);
+            methodVisitor.visitLdcInsn(tracer);
+            methodVisitor.visitLdcInsn(instrumentedMethod.getInternalName());
+            methodVisitor.visitLdcInsn(methodId);
+            pushInt(methodVisitor, instrumentedMethod.getParameters().size());
+            methodVisitor.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+            for (final ParameterDescription parameter : instrumentedMethod.getParameters()) {
+                methodVisitor.visitInsn(Opcodes.DUP);
+                pushInt(methodVisitor, parameter.getIndex());
+                loadBoxed(methodVisitor, parameter.getType().asErasure(), parameter.getOffset());
+                methodVisitor.visitInsn(Opcodes.AASTORE);
+            }
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, FACTORY_INTERNAL_NAME, "trace", TRACE_DESCRIPTOR,
+                    false);
+            returnDefault(methodVisitor, instrumentedMethod.getReturnType().asErasure());
+            return new Size(MAX_STACK, instrumentedMethod.getStackSize());
+        }
+
+        private static void pushInt(@Nonnull final MethodVisitor methodVisitor, final int value) {
+            if (value <= 5) {
+                methodVisitor.visitInsn(Opcodes.ICONST_0 + value);
+            } else if (value <= Byte.MAX_VALUE) {
+                methodVisitor.visitIntInsn(Opcodes.BIPUSH, value);
+            } else {
+                methodVisitor.visitIntInsn(Opcodes.SIPUSH, value);
+            }
+        }
+
+        private static void loadBoxed(
+                @Nonnull final MethodVisitor methodVisitor,
+                @Nonnull final TypeDescription type,
+                final int offset) {
+            if (!type.isPrimitive()) {
+                methodVisitor.visitVarInsn(Opcodes.ALOAD, offset);
+                return;
+            }
+            final Type asmType = Type.getType(type.getDescriptor());
+            methodVisitor.visitVarInsn(asmType.getOpcode(Opcodes.ILOAD), offset);
+            final String boxed = Type.getInternalName(box(type));
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, boxed, "valueOf",
+                    '(' + type.getDescriptor() + ")L" + boxed + ';', false);
+        }
+
+        @Nonnull
+        private static Class<?> box(@Nonnull final TypeDescription type) {
+            if (type.represents(boolean.class)) {
+                return Boolean.class;
+            } else if (type.represents(byte.class)) {
+                return Byte.class;
+            } else if (type.represents(char.class)) {
+                return Character.class;
+            } else if (type.represents(short.class)) {
+                return Short.class;
+            } else if (type.represents(int.class)) {
+                return Integer.class;
+            } else if (type.represents(long.class)) {
+                return Long.class;
+            } else if (type.represents(float.class)) {
+                return Float.class;
+            } else {
+                assert type.represents(double.class);
+                return Double.class;
+            }
+        }
+
+        private static void returnDefault(
+                @Nonnull final MethodVisitor methodVisitor,
+                @Nonnull final TypeDescription type) {
+            if (type.represents(void.class)) {
+                methodVisitor.visitInsn(Opcodes.RETURN);
+            } else if (!type.isPrimitive()) {
+                methodVisitor.visitInsn(Opcodes.ACONST_NULL);
+                methodVisitor.visitInsn(Opcodes.ARETURN);
+            } else if (type.represents(long.class)) {
+                methodVisitor.visitInsn(Opcodes.LCONST_0);
+                methodVisitor.visitInsn(Opcodes.LRETURN);
+            } else if (type.represents(float.class)) {
+                methodVisitor.visitInsn(Opcodes.FCONST_0);
+                methodVisitor.visitInsn(Opcodes.FRETURN);
+            } else if (type.represents(double.class)) {
+                methodVisitor.visitInsn(Opcodes.DCONST_0);
+                methodVisitor.visitInsn(Opcodes.DRETURN);
+            } else {
+                methodVisitor.visitInsn(Opcodes.ICONST_0);
+                methodVisitor.visitInsn(Opcodes.IRETURN);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.file;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.tomtom.speedtools.mongodb.SimpleMongoDBSerializer;
+import org.bson.BasicBSONEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Binary format of trace log files, shared by {@link FileTraceHandler} and {@link FileTraceStream}.
+ *
+ * A trace log is a directory of segment files, numbered in order of creation. Every segment file has a fixed size and
+ * is memory-mapped; it starts with a header (magic number, version) and is followed by records:
+ *
+ * <pre>
+ *     NAME:  type (1), id (varint), length (varint), UTF-8 bytes
+ *     TRACE: type (2), time delta (signed varint), class id (varint), tracer id (varint), method id (varint),
+ *            args length (varint), args (BSON document {"a": [args]}, absent if length is 0)
+ *     END:   type (3), no further records in this segment
+ * </pre>
+ *
+ * Names (class, tracer and method names) are interned per segment: every name is defined once in a segment, before
+ * its first use, so every segment can be read on its own. A type byte of 0 means no record was written (yet). The type
+ * byte of a record is written last, so readers never see partial records.
+ *
+ * The time of a trace is stored as the difference in millis with the previous trace in the segment (or with 0 for
+ * the first trace), so it usually takes 1 or 2 bytes instead of 8. Traces from different threads may be slightly out
+ * of order, so the difference is zigzag encoded to keep small negative values small too.
+ *
+ * Next to every segment there is a small index file with all name definitions and a time index entry (time, offset)
+ * for every {@link #INDEX_INTERVAL}-th trace, used to move to a point in time without reading the whole log. Index
+ * times are absolute, so a reader that starts at an indexed trace can derive the time of the previous trace from it.
+ * If an index file is missing, it is rebuilt from the segment when it is read.
+ *
+ * This class is package private.
+ */
+final class FileTraceFormat {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTraceFormat.class);
+
+    static final int SEGMENT_MAGIC = 0x5452_4c47;   // "TRLG".
+    static final int INDEX_MAGIC = 0x5452_4c49;     // "TRLI".
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    static final byte TYPE_NONE = 0;
+    static final byte TYPE_NAME = 1;
+    static final byte TYPE_TRACE = 2;
+    static final byte TYPE_END = 3;
+
+    static final byte INDEX_NAME = 1;
+    static final byte INDEX_TIME = 2;
+
+    static final int INDEX_INTERVAL = 256;
+
+    private static final String ARGS_FIELD = "a";
+    @Nonnull
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("traces-(\\d{16})\\.seg");
+
+    private FileTraceFormat() {
+        // Prevent instantiation.
+    }
+
+    @Nonnull
+    static File getSegmentFile(@Nonnull final File directory, final long segment) {
+        return new File(directory, String.format("traces-%016d.seg", segment));
+    }
+
+    @Nonnull
+    static File getIndexFile(@Nonnull final File directory, final long segment) {
+        return new File(directory, String.format("traces-%016d.idx", segment));
+    }
+
+    /**
+     * Return the numbers of all segments in a directory, in ascending order.
+     *
+     * @param directory Trace log directory.
+     * @return Segment numbers.
+     */
+    @Nonnull
+    static long[] listSegments(@Nonnull final File directory) {
+        assert directory != null;
+        final String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] segments = new long[names.length];
+        int n = 0;
+        for (final String name : names) {
+            final Matcher matcher = SEGMENT_PATTERN.matcher(name);
+            if (matcher.matches()) {
+                segments[n] = Long.parseLong(matcher.group(1));
+                ++n;
+            }
+        }
+        segments = Arrays.copyOf(segments, n);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Map a segment file read-only.
+     *
+     * @param file Segment file.
+     * @return Mapped segment, positioned after the header, or null if the file is not a valid segment.
+     * @throws IOException If the file cannot be read.
+     */
+    @Nullable
+    static MappedByteBuffer mapSegment(@Nonnull final File file) throws IOException {
+        assert file != null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ((buffer.limit() < HEADER_SIZE) || (buffer.getInt() != SEGMENT_MAGIC) ||
+                    (buffer.getInt() != VERSION)) {
+                LOG.warn("mapSegment: Not a trace log segment, skipped: {}", file);
+                return null;
+            }
+            return buffer;
+        }
+    }
+
+    static void putVarInt(@Nonnull final ByteBuffer buffer, final int value) {
+        assert value >= 0;
+        int v = value;
+        while ((v & ~0x7f) != 0) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    static int getVarInt(@Nonnull final ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            final byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IllegalStateException("Invalid varint in trace log");
+            }
+        }
+    }
+
+    static void putSignedVarLong(@Nonnull final ByteBuffer buffer, final long value) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7fL) != 0) {
+            buffer.put((byte) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    static long getSignedVarLong(@Nonnull final ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1);
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IllegalStateException("Invalid varint in trace log");
+            }
+        }
+    }
+
+    static int getVarIntSize(final int value) {
+        assert value >= 0;
+        int size = 1;
+        int v = value >>> 7;
+        while (v != 0) {
+            ++size;
+            v >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Serialize trace arguments as a BSON document.
+     *
+     * @param args Arguments.
+     * @return BSON bytes, or an empty array if there are no arguments.
+     */
+    @Nonnull
+    static byte[] encodeArgs(@Nonnull final Object[] args) {
+        assert args != null;
+        if (args.length == 0) {
+            return new byte[0];
+        }
+        final Object serialized = SimpleMongoDBSerializer.getInstance().serialize(args);
+        return new BasicBSONEncoder().encode(new BasicDBObject(ARGS_FIELD, serialized));
+    }
+
+    /**
+     * Deserialize trace arguments.
+     *
+     * @param bytes BSON bytes, as created by {@link #encodeArgs(Object[])}.
+     * @return Arguments.
+     */
+    @Nonnull
+    static Object[] decodeArgs(@Nonnull final byte[] bytes) {
+        assert bytes != null;
+        if (bytes.length == 0) {
+            return new Object[0];
+        }
+        final DBObject document = new DefaultDBDecoder().decode(bytes, (DBCollection) null);
+        final Object args = SimpleMongoDBSerializer.getInstance().deserialize(document.get(ARGS_FIELD));
+        if (args instanceof Collection) {
+            return ((Collection<?>) args).toArray();
+        }
+        return new Object[]{args};
+    }
+
+    /**
+     * Names and sparse time index of a segment.
+     */
+    static final class SegmentIndex {
+        @Nonnull
+        final Map<Integer, String> names = new HashMap<>();
+        @Nonnull
+        final List<long[]> times = new ArrayList<>();     // Pairs of (time, offset), in order of offset.
+
+        /**
+         * Return the index entry to start reading at to find the first trace at or after a given time.
+         *
+         * @param time Time in millis.
+         * @return Pair of (time, offset) of a trace before the given time, or null to start at the first record.
+         */
+        @Nullable
+        long[] getEntry(final long time) {
+            int low = 0;
+            int high = times.size() - 1;
+            long[] result = null;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final long[] entry = times.get(mid);
+                if (entry[0] < time) {
+                    result = entry;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Return the time of the first trace of the segment.
+         *
+         * @return Time in millis, or null if the segment has no traces.
+         */
+        @Nullable
+        Long getFirstTime() {
+            return times.isEmpty() ? null : times.get(0)[0];
+        }
+    }
+
+    /**
+     * Read the index of a segment, or rebuild it from the segment if the index file does not exist or is invalid.
+     *
+     * @param directory Trace log directory.
+     * @param segment   Segment number.
+     * @return Index.
+     * @throws IOException If the segment cannot be read.
+     */
+    @Nonnull
+    static SegmentIndex readIndex(@Nonnull final File directory, final long segment) throws IOException {
+        assert directory != null;
+        final File indexFile = getIndexFile(directory, segment);
+        if (indexFile.exists()) {
+            final SegmentIndex index = new SegmentIndex();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                if ((in.readInt() == INDEX_MAGIC) && (in.readInt() == VERSION)) {
+                    while (true) {
+                        final int kind = in.read();
+                        if (kind == INDEX_NAME) {
+                            final int id = in.readInt();
+                            index.names.put(id, in.readUTF());
+                        } else if (kind == INDEX_TIME) {
+                            final long time = in.readLong();
+                            index.times.add(new long[]{time, in.readInt()});
+                        } else {
+                            return index;
+                        }
+                    }
+                }
+            } catch (final EOFException ignored) {
+
+                // Truncated entry (index is being written): use what was read.
+                return index;
+            }
+        }
+        return rebuildIndex(directory, segment);
+    }
+
+    @Nonnull
+    private static SegmentIndex rebuildIndex(@Nonnull final File directory, final long segment) throws IOException {
+        LOG.debug("rebuildIndex: Rebuilding index of trace log segment {}", segment);
+        final SegmentIndex index = new SegmentIndex();
+        final ByteBuffer buffer = mapSegment(getSegmentFile(directory, segment));
+        if (buffer == null) {
+            return index;
+        }
+        int nrTraces = 0;
+        long time = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                final int offset = buffer.position();
+                final byte type = buffer.get();
+                if (type == TYPE_NAME) {
+                    final int id = getVarInt(buffer);
+                    index.names.put(id, readName(buffer));
+                } else if (type == TYPE_TRACE) {
+                    time += getSignedVarLong(buffer);
+                    if ((nrTraces % INDEX_INTERVAL) == 0) {
+                        index.times.add(new long[]{time, offset});
+                    }
+                    ++nrTraces;
+                    getVarInt(buffer);
+                    getVarInt(buffer);
+                    getVarInt(buffer);
+                    final int length = getVarInt(buffer);
+                    buffer.position(buffer.position() + length);
+                } else {
+                    break;
+                }
+            }
+        } catch (final BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            LOG.warn("rebuildIndex: Trace log segment {} is corrupt, using partial index: {}", segment,
+                    e.getMessage());
+        }
+        return index;
+    }
+
+    /**
+     * Read the name definitions of a segment, up to a given offset.
+     *
+     * @param segment Mapped segment; its position is not changed.
+     * @param end     Offset to stop reading at.
+     * @param names   Names to add the definitions to, by id.
+     */
+    static void readNames(@Nonnull final ByteBuffer segment, final int end, @Nonnull final Map<Integer, String> names) {
+        assert segment != null;
+        assert names != null;
+        final ByteBuffer buffer = segment.duplicate();
+        buffer.position(HEADER_SIZE);
+        try {
+            while (buffer.position() < end) {
+                final byte type = buffer.get();
+                if (type == TYPE_NAME) {
+                    final int id = getVarInt(buffer);
+                    names.put(id, readName(buffer));
+                } else if (type == TYPE_TRACE) {
+                    getSignedVarLong(buffer);
+                    getVarInt(buffer);
+                    getVarInt(buffer);
+                    getVarInt(buffer);
+                    final int length = getVarInt(buffer);
+                    buffer.position(buffer.position() + length);
+                } else {
+                    break;
+                }
+            }
+        } catch (final BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            LOG.warn("readNames: Trace log segment is corrupt, using partial names: {}", e.getMessage());
+        }
+    }
+
+    @Nonnull
+    static String readName(@Nonnull final ByteBuffer buffer) {
+        final int length = getVarInt(buffer);
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
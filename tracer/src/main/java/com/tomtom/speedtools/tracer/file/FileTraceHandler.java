@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.file;
+
+import com.tomtom.speedtools.tracer.GenericTraceHandler;
+import com.tomtom.speedtools.tracer.Trace;
+import com.tomtom.speedtools.tracer.TracerFactory;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace handler that appends traces to a local, append-only binary trace log, as a light-weight alternative to {@link
+ * com.tomtom.speedtools.tracer.mongo.MongoDBTraceHandler}. The log consists of memory-mapped segment files of a fixed
+ * size; when a segment is full, a new one is started and the oldest segments are deleted, so the log never grows
+ * beyond the maximum number of segments. See {@link FileTraceFormat} for the file format and {@link FileTraceStream}
+ * to read the log.
+ *
+ * Every instance starts a new segment, so multiple handlers should not write to the same directory at the same time.
+ */
+@SuppressWarnings("ThisEscapedInObjectConstruction")
+public class FileTraceHandler implements GenericTraceHandler, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTraceHandler.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    // Maximum size of a trace record, excluding its arguments.
+    private static final int MAX_TRACE_HEADER_SIZE = 1 + 10 + (4 * 5);
+
+    @Nonnull
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    @Nonnull
+    private final AtomicLong nrWritten = new AtomicLong(0);
+    @Nonnull
+    private final AtomicLong nrDropped = new AtomicLong(0);
+
+    // Current segment, or null if the handler failed or is closed.
+    private long segment;
+    @Nullable
+    private MappedByteBuffer buffer;
+    @Nullable
+    private DataOutputStream index;
+    @Nonnull
+    private final Map<String, Integer> names = new HashMap<>();
+    private int nrTraces;
+    private long lastTime;
+    private boolean indexDirty;
+
+    /**
+     * Create a trace log handler with default segment size and number of segments.
+     *
+     * @param directory Directory to write the trace log to. Created if it does not exist.
+     */
+    public FileTraceHandler(@Nonnull final File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Create a trace log handler. If the log cannot be created, an error is logged and the handler is not added to
+     * the {@link TracerFactory}.
+     *
+     * @param directory   Directory to write the trace log to. Created if it does not exist.
+     * @param segmentSize Size of a segment file in bytes, must be &gt;= 4096.
+     * @param maxSegments Maximum number of segment files, must be &gt; 0. Older segments are deleted.
+     */
+    public FileTraceHandler(@Nonnull final File directory, final int segmentSize, final int maxSegments) {
+        assert directory != null;
+        assert segmentSize >= 4096;
+        assert maxSegments > 0;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        final long[] segments = FileTraceFormat.listSegments(directory);
+        segment = (segments.length == 0) ? 0 : segments[segments.length - 1];
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create directory " + directory);
+            }
+            openNextSegment();
+            TracerFactory.addTraceHandler(this);
+        } catch (final IOException e) {
+            LOG.error("FileTraceHandler: Cannot create trace log, disabled traces: directory={}, {}", directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void handle(
+            @Nonnull final DateTime time,
+            @Nonnull final String clazz,
+            @Nonnull final String tracer,
+            @Nonnull final String method,
+            @Nonnull final Object[] args) {
+        assert time != null;
+        assert clazz != null;
+        assert tracer != null;
+        assert method != null;
+        assert args != null;
+        append(time.getMillis(), clazz, tracer, method, args);
+        flushIndex();
+    }
+
+    @Override
+    public synchronized void handleTraces(@Nonnull final List<? extends Trace> traces) {
+        assert traces != null;
+        for (final Trace trace : traces) {
+            append(trace.getTime().getMillis(), trace.getClazz(), trace.getTracer(), trace.getMethod(),
+                    trace.getArgs());
+        }
+        flushIndex();
+    }
+
+    /**
+     * Return the number of traces written to the log.
+     *
+     * @return Number of traces.
+     */
+    public long getNrWritten() {
+        return nrWritten.get();
+    }
+
+    /**
+     * Return the number of traces that could not be written to the log, because they were too large for a segment,
+     * could not be serialized or the log could not be written.
+     *
+     * @return Number of traces.
+     */
+    public long getNrDropped() {
+        return nrDropped.get();
+    }
+
+    /**
+     * Stop handling traces and close the current segment.
+     */
+    @Override
+    public synchronized void close() {
+        TracerFactory.removeTraceHandler(this);
+        if (buffer != null) {
+            closeSegment();
+            buffer = null;
+        }
+    }
+
+    private void append(
+            final long time,
+            @Nonnull final String clazz,
+            @Nonnull final String tracer,
+            @Nonnull final String method,
+            @Nonnull final Object[] args) {
+        if (buffer == null) {
+            nrDropped.incrementAndGet();
+            return;
+        }
+        final byte[] encodedArgs;
+        try {
+            encodedArgs = FileTraceFormat.encodeArgs(args);
+        } catch (final RuntimeException e) {
+            LOG.error("append: Cannot serialize trace arguments, {}.{}.{}", clazz, tracer, method, e);
+            nrDropped.incrementAndGet();
+            return;
+        }
+
+        // Upper bound of the record size, including records for names that are not defined in this segment yet.
+        final int size = MAX_TRACE_HEADER_SIZE + encodedArgs.length +
+                getNameSize(clazz) + getNameSize(tracer) + getNameSize(method);
+        if ((FileTraceFormat.HEADER_SIZE + size + 1) > segmentSize) {
+            LOG.warn("append: Trace too large for trace log segment, {} bytes, {}.{}.{}", size, clazz, tracer, method);
+            nrDropped.incrementAndGet();
+            return;
+        }
+        if ((buffer.position() + size + 1) > segmentSize) {
+            try {
+                closeSegment();
+                openNextSegment();
+            } catch (final IOException e) {
+                LOG.error("append: Cannot create trace log segment, disabled traces: directory={}, {}", directory, e);
+                buffer = null;
+                nrDropped.incrementAndGet();
+                return;
+            }
+        }
+        assert buffer != null;
+        final int clazzId = getNameId(clazz);
+        final int tracerId = getNameId(tracer);
+        final int methodId = getNameId(method);
+
+        final int offset = buffer.position();
+        buffer.position(offset + 1);
+        FileTraceFormat.putSignedVarLong(buffer, time - lastTime);
+        FileTraceFormat.putVarInt(buffer, clazzId);
+        FileTraceFormat.putVarInt(buffer, tracerId);
+        FileTraceFormat.putVarInt(buffer, methodId);
+        FileTraceFormat.putVarInt(buffer, encodedArgs.length);
+        buffer.put(encodedArgs);
+        buffer.put(offset, FileTraceFormat.TYPE_TRACE);
+
+        if ((nrTraces % FileTraceFormat.INDEX_INTERVAL) == 0) {
+            writeIndex(FileTraceFormat.INDEX_TIME, time, offset, null);
+        }
+        ++nrTraces;
+        lastTime = time;
+        nrWritten.incrementAndGet();
+    }
+
+    private int getNameSize(@Nonnull final String name) {
+        if (names.containsKey(name)) {
+            return 0;
+        }
+        final int length = name.length() * 3;
+        return 1 + 5 + FileTraceFormat.getVarIntSize(length) + length;
+    }
+
+    private int getNameId(@Nonnull final String name) {
+        assert buffer != null;
+        final Integer id = names.get(name);
+        if (id != null) {
+            return id;
+        }
+        final int newId = names.size() + 1;
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        final int offset = buffer.position();
+        buffer.position(offset + 1);
+        FileTraceFormat.putVarInt(buffer, newId);
+        FileTraceFormat.putVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+        buffer.put(offset, FileTraceFormat.TYPE_NAME);
+        names.put(name, newId);
+        writeIndex(FileTraceFormat.INDEX_NAME, 0, newId, name);
+        return newId;
+    }
+
+    private void writeIndex(final byte kind, final long time, final int value, @Nullable final String name) {
+        if (index == null) {
+            return;
+        }
+        try {
+            index.write(kind);
+            if (kind == FileTraceFormat.INDEX_NAME) {
+                assert name != null;
+                index.writeInt(value);
+                index.writeUTF(name);
+            } else {
+                index.writeLong(time);
+                index.writeInt(value);
+            }
+            indexDirty = true;
+        } catch (final IOException e) {
+
+            // Readers rebuild a missing or truncated index, so this is not fatal.
+            LOG.error("writeIndex: Cannot write trace log index, directory={}, {}", directory, e);
+            closeIndex();
+        }
+    }
+
+    private void flushIndex() {
+        if ((index != null) && indexDirty) {
+            try {
+                index.flush();
+            } catch (final IOException e) {
+                LOG.error("flushIndex: Cannot write trace log index, directory={}, {}", directory, e);
+                closeIndex();
+            }
+            indexDirty = false;
+        }
+    }
+
+    private void closeIndex() {
+        if (index != null) {
+            try {
+                index.close();
+            } catch (final IOException e) {
+                LOG.warn("closeIndex: Cannot close trace log index, directory={}, {}", directory, e);
+            }
+            index = null;
+        }
+    }
+
+    private void closeSegment() {
+        assert buffer != null;
+        buffer.put(buffer.position(), FileTraceFormat.TYPE_END);
+        buffer.force();
+        flushIndex();
+        closeIndex();
+    }
+
+    private void openNextSegment() throws IOException {
+        ++segment;
+        final File file = FileTraceFormat.getSegmentFile(directory, segment);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        buffer.putInt(FileTraceFormat.SEGMENT_MAGIC);
+        buffer.putInt(FileTraceFormat.VERSION);
+        names.clear();
+        nrTraces = 0;
+        lastTime = 0;
+
+        index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(FileTraceFormat.getIndexFile(directory, segment))));
+        index.writeInt(FileTraceFormat.INDEX_MAGIC);
+        index.writeInt(FileTraceFormat.VERSION);
+        indexDirty = true;
+        flushIndex();
+        LOG.debug("openNextSegment: Opened trace log segment {}", file);
+
+        // Delete the oldest segments.
+        final long[] segments = FileTraceFormat.listSegments(directory);
+        for (int i = 0; i < (segments.length - maxSegments); ++i) {
+            final File oldFile = FileTraceFormat.getSegmentFile(directory, segments[i]);
+            final File oldIndex = FileTraceFormat.getIndexFile(directory, segments[i]);
+            if (!oldFile.delete() || (oldIndex.exists() && !oldIndex.delete())) {
+                LOG.warn("openNextSegment: Cannot delete old trace log segment {}", oldFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.file;
+
+import com.tomtom.speedtools.time.UTCTime;
+import com.tomtom.speedtools.tracer.Trace;
+import com.tomtom.speedtools.tracer.TraceHandlerCollection;
+import com.tomtom.speedtools.tracer.TraceStream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trace stream that reads a trace log written by {@link FileTraceHandler}. The log may be written while it is read;
+ * playback simply stops at the last trace written so far, and continues from there on the next call.
+ *
+ * Moving to a point in time uses the sparse time index of the segments, so only a small part of the log is read.
+ *
+ * While playback waits for traces to be written, the directory is listed at most once per {@link
+ * #LIST_INTERVAL_MSECS} to find new segments, except when the end of the current segment is reached for the first
+ * time.
+ */
+public class FileTraceStream extends TraceHandlerCollection implements TraceStream {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTraceStream.class);
+
+    // Maximum number of traces passed to the handlers at once.
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    // Minimum time between listings of the directory while waiting for traces to be written.
+    static final long LIST_INTERVAL_MSECS = 250;
+    private static final long LIST_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(LIST_INTERVAL_MSECS);
+
+    // Returned by read() for skipped traces.
+    @Nonnull
+    private static final Trace SKIPPED = new Trace(UTCTime.now(), "", "", "", new Object[0]);
+
+    @Nonnull
+    private final File directory;
+
+    // Current read position, or no segment if the segment is -1.
+    private long segment = -1;
+    @Nullable
+    private ByteBuffer buffer = null;
+    @Nonnull
+    private final Map<Integer, String> names = new HashMap<>();
+
+    // Time of the last trace read, traces store their time relative to it.
+    private long lastTime = 0;
+
+    // True if the names of the current segment were read from the segment itself, rather than from its index.
+    private boolean namesRead = false;
+
+    // Number of traces skipped because their names are not defined in the segment.
+    private long nrSkipped = 0;
+
+    // Traces before this time are skipped (the time index points to traces just before a time).
+    private long minTime = Long.MIN_VALUE;
+
+    // Segments found by the last listing of the directory, and the time of that listing.
+    @Nonnull
+    private long[] knownSegments = new long[0];
+    private long listedNanos = 0;
+
+    // True if the end of the current segment was reached before.
+    private boolean endSeen = false;
+
+    /**
+     * Create a trace stream, positioned at the start of the trace log.
+     *
+     * @param directory Trace log directory.
+     */
+    public FileTraceStream(@Nonnull final File directory) {
+        super();
+        assert directory != null;
+        this.directory = directory;
+        moveToStart();
+    }
+
+    @Override
+    @Nullable
+    public synchronized DateTime moveTo(@Nonnull final DateTime time) {
+        assert time != null;
+        final long millis = time.getMillis();
+        final long[] segments = listSegments(true);
+
+        // Find the last segment that starts before the given time.
+        int found = -1;
+        FileTraceFormat.SegmentIndex foundIndex = null;
+        for (int i = 0; i < segments.length; ++i) {
+            final FileTraceFormat.SegmentIndex index = readIndex(segments[i]);
+            final Long firstTime = (index == null) ? null : index.getFirstTime();
+            if ((firstTime != null) && (firstTime >= millis) && (found >= 0)) {
+                break;
+            }
+            if ((index != null) && ((firstTime != null) || (found < 0))) {
+                found = i;
+                foundIndex = index;
+            }
+        }
+        if (found < 0) {
+            close(-1);
+            minTime = millis;
+            return time;
+        }
+        assert foundIndex != null;
+        if (open(segments[found])) {
+            assert buffer != null;
+            names.putAll(foundIndex.names);
+            seek(foundIndex.getEntry(millis));
+        }
+        minTime = millis;
+        return time;
+    }
+
+    @Override
+    @Nullable
+    public synchronized DateTime moveToStart() {
+        final long[] segments = listSegments(true);
+        close(-1);
+        minTime = Long.MIN_VALUE;
+        for (final long candidate : segments) {
+            if (open(candidate)) {
+                final FileTraceFormat.SegmentIndex index = readIndex(candidate);
+                final Long firstTime = (index == null) ? null : index.getFirstTime();
+                return (firstTime == null) ? null : new DateTime(firstTime, DateTimeZone.UTC);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    @Nullable
+    public synchronized DateTime moveToEnd() {
+        final long[] segments = listSegments(true);
+        if (segments.length == 0) {
+            close(-1);
+        } else {
+            final long last = segments[segments.length - 1];
+            final FileTraceFormat.SegmentIndex index = readIndex(last);
+            if ((index != null) && open(last)) {
+                assert buffer != null;
+                names.putAll(index.names);
+                seek(index.getEntry(Long.MAX_VALUE));
+                //noinspection StatementWithEmptyBody
+                while (read(null, true) != null) {
+                    // Skip all traces.
+                }
+            }
+        }
+        minTime = Long.MIN_VALUE;
+        return UTCTime.now();
+    }
+
+    @Override
+    public synchronized void playbackTo(@Nonnull final DateTime until) {
+        assert until != null;
+        playback(until.getMillis());
+    }
+
+    @Override
+    public synchronized void playbackToEnd() {
+        playback(Long.MAX_VALUE);
+    }
+
+    private void playback(final long until) {
+        final List<Trace> traces = new ArrayList<>();
+        while (true) {
+            final Trace trace = read(until, false);
+            if (trace == null) {
+                break;
+            }
+            traces.add(trace);
+            if (traces.size() >= MAX_BATCH_SIZE) {
+                handleTraces(traces);
+                traces.clear();
+            }
+        }
+        handleTraces(traces);
+    }
+
+    /**
+     * Return the number of traces that were skipped because their class, tracer or method name is not defined in the
+     * trace log, which means the log is corrupt.
+     *
+     * @return Number of traces.
+     */
+    public synchronized long getNrSkipped() {
+        return nrSkipped;
+    }
+
+    /**
+     * Read the next trace, moving to the next segment if needed.
+     *
+     * @param until Only read traces before this time; null for no limit.
+     * @param skip  True to skip the arguments, for skipping traces.
+     * @return Trace, or null if there are no more traces (before the given time) in the log yet.
+     */
+    @Nullable
+    private Trace read(@Nullable final Long until, final boolean skip) {
+        while (true) {
+            if ((buffer == null) || !buffer.hasRemaining()) {
+                if (!openNext(false)) {
+                    return null;
+                }
+                continue;
+            }
+            final int offset = buffer.position();
+            final byte type = buffer.get(offset);
+            try {
+                if (type == FileTraceFormat.TYPE_NAME) {
+                    buffer.position(offset + 1);
+                    final int id = FileTraceFormat.getVarInt(buffer);
+                    names.put(id, FileTraceFormat.readName(buffer));
+                } else if (type == FileTraceFormat.TYPE_TRACE) {
+                    buffer.position(offset + 1);
+                    final long time = lastTime + FileTraceFormat.getSignedVarLong(buffer);
+                    if ((until != null) && (time >= until)) {
+                        buffer.position(offset);
+                        return null;
+                    }
+                    lastTime = time;
+                    final int clazzId = FileTraceFormat.getVarInt(buffer);
+                    final int tracerId = FileTraceFormat.getVarInt(buffer);
+                    final int methodId = FileTraceFormat.getVarInt(buffer);
+                    final int length = FileTraceFormat.getVarInt(buffer);
+                    if (skip || (time < minTime)) {
+                        buffer.position(buffer.position() + length);
+                        if (skip) {
+                            return SKIPPED;
+                        }
+                        continue;
+                    }
+                    String clazz = names.get(clazzId);
+                    String tracer = names.get(tracerId);
+                    String method = names.get(methodId);
+                    if (((clazz == null) || (tracer == null) || (method == null)) && !namesRead) {
+
+                        // Names were defined before the position we moved to, but are missing from the index (for
+                        // example, because it was not completely written). Read them from the segment instead.
+                        FileTraceFormat.readNames(buffer, offset, names);
+                        namesRead = true;
+                        clazz = names.get(clazzId);
+                        tracer = names.get(tracerId);
+                        method = names.get(methodId);
+                    }
+                    if ((clazz == null) || (tracer == null) || (method == null)) {
+                        ++nrSkipped;
+                        LOG.warn("read: Trace log segment {} has a trace with an undefined name at offset {}, " +
+                                "skipped {} traces in total", segment, offset, nrSkipped);
+                        buffer.position(buffer.position() + length);
+                        continue;
+                    }
+                    final byte[] args = new byte[length];
+                    buffer.get(args);
+                    return new Trace(new DateTime(time, DateTimeZone.UTC), clazz, tracer, method,
+                            FileTraceFormat.decodeArgs(args));
+                } else if (type == FileTraceFormat.TYPE_END) {
+
+                    // End of segment: the next segment is probably there already, so look for it at once.
+                    final boolean force = !endSeen;
+                    endSeen = true;
+                    if (!openNext(force)) {
+                        return null;
+                    }
+                } else if (hasNextSegment()) {
+
+                    // The segment was never closed (the writer stopped): move on.
+                    if (!openNext(false)) {
+                        return null;
+                    }
+                } else {
+
+                    // No more traces written yet.
+                    return null;
+                }
+            } catch (final BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+                LOG.warn("read: Trace log segment {} is corrupt at offset {}, skipping rest of segment: {}",
+                        segment, offset, e.getMessage());
+                if (!openNext(true)) {
+                    buffer = null;
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move to an entry of the time index of the current segment.
+     *
+     * @param entry Pair of (time, offset) of a trace, or null for the start of the segment.
+     */
+    private void seek(@Nullable final long[] entry) {
+        assert buffer != null;
+        if (entry == null) {
+            return;
+        }
+
+        // The time of the trace is known, so the time of the trace before it follows from its time delta.
+        final int offset = (int) entry[1];
+        final ByteBuffer peek = buffer.duplicate();
+        try {
+            peek.position(offset + 1);
+            lastTime = entry[0] - FileTraceFormat.getSignedVarLong(peek);
+            buffer.position(offset);
+        } catch (final BufferUnderflowException | IllegalArgumentException | IllegalStateException e) {
+            LOG.warn("seek: Trace log index of segment {} is invalid at offset {}, reading from start: {}",
+                    segment, offset, e.getMessage());
+        }
+    }
+
+    private boolean hasNextSegment() {
+        final long[] current = listSegments(false);
+        return (current.length > 0) && (current[current.length - 1] > segment);
+    }
+
+    /**
+     * Open the first segment after the current segment.
+     *
+     * @param force True to list the directory, false to use the last listing if it is recent.
+     * @return False if there is no next segment.
+     */
+    private boolean openNext(final boolean force) {
+        for (final long candidate : listSegments(force)) {
+            if ((candidate > segment) && open(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean open(final long newSegment) {
+        close(newSegment);
+        try {
+            buffer = FileTraceFormat.mapSegment(FileTraceFormat.getSegmentFile(directory, newSegment));
+        } catch (final IOException e) {
+            LOG.warn("open: Cannot read trace log segment {}, {}", newSegment, e.getMessage());
+        }
+        return buffer != null;
+    }
+
+    private void close(final long newSegment) {
+        segment = newSegment;
+        buffer = null;
+        names.clear();
+        lastTime = 0;
+        namesRead = false;
+        endSeen = false;
+    }
+
+    /**
+     * Return the segments in the directory, in ascending order.
+     *
+     * @param force True to list the directory, false to use the last listing if it is less than {@link
+     *              #LIST_INTERVAL_MSECS} old.
+     * @return Segment numbers.
+     */
+    @Nonnull
+    private long[] listSegments(final boolean force) {
+        final long now = System.nanoTime();
+        if (force || ((now - listedNanos) >= LIST_INTERVAL_NANOS)) {
+            knownSegments = FileTraceFormat.listSegments(directory);
+            listedNanos = now;
+        }
+        return knownSegments;
+    }
+
+    @Nullable
+    private FileTraceFormat.SegmentIndex readIndex(final long indexSegment) {
+        try {
+            return FileTraceFormat.readIndex(directory, indexSegment);
+        } catch (final IOException e) {
+            LOG.warn("readIndex: Cannot read trace log segment {}, {}", indexSegment, e.getMessage());
+            return null;
+        }
+    }
+}
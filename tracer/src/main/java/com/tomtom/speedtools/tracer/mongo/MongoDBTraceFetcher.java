@@ -29,11 +29,17 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class implement a fetcher for events from a MongoDB database.
+ *
+ * The fetcher thread tails the trace collection with an await-data cursor, so it blocks in the database
+ * until new events arrive rather than sleeping. Events are read from the database in cursor batches and
+ * handed over through a bounded blocking queue; the fetcher blocks while the queue is full.
  * <p>
  * This class is package private.
  */
@@ -44,9 +50,13 @@ class MongoDBTraceFetcher implements Runnable {
     private static final String TAILABLE_QUERY_DUMMY_EVENT = "@skip";
 
     private final int fetcherThreadSleepMsecs;
+    private final int fetcherWaitMsecs;
     private final int fetcherThreadSleepAfterExceptionMsecs;
     private final int fetchQueueMaxSize;
 
+    // Object to wait on if no fetch was started yet.
+    @Nonnull
+    private final Object fetchStarted = new Object();
     @Nonnull
     private final Thread thread = new Thread(this);
     @Nullable
@@ -58,38 +68,63 @@ class MongoDBTraceFetcher implements Runnable {
     private DateTime lastEventTime = UTCTime.now();
 
     MongoDBTraceFetcher(@Nonnull final MongoDBTraceProperties properties) throws UnknownHostException {
+        this(properties, getCollection(properties));
+    }
+
+    /**
+     * Create a fetcher for a given trace collection.
+     *
+     * @param properties Fetcher properties; the database properties are not used.
+     * @param collection Trace collection, or null if reading traces is disabled.
+     */
+    MongoDBTraceFetcher(
+            @Nonnull final MongoDBTraceProperties properties,
+            @Nullable final DBCollection collection) {
         assert properties != null;
 
         this.fetcherThreadSleepMsecs = properties.getFetcherThreadSleepMsecs();
+        this.fetcherWaitMsecs = Math.max(1, fetcherThreadSleepMsecs);
         this.fetcherThreadSleepAfterExceptionMsecs = properties.getFetcherThreadSleepAfterExceptionMsecs();
         this.fetchQueueMaxSize = properties.getFetcherQueueMaxSize();
-
-        DBCollection collectionToUse;
-        if (properties.getReadEnabled()) {
-            LOG.debug("MongoDBTraceFetcher: reading traces enabled, getting traces collection and starting fetcher");
+        this.collection = collection;
+        if (collection != null) {
             LOG.debug("MongoDBTraceFetcher: fetcher configured with sleep={}, queue size={}, sleep after exception={}",
                     fetcherThreadSleepMsecs, fetchQueueMaxSize, fetcherThreadSleepAfterExceptionMsecs);
 
-            try {
-                collectionToUse = MongoDBTraceHandler.getDBCollection(
-                        properties.getServers(), properties.getDatabase(),
-                        properties.getUserName(), properties.getPassword(),
-                        properties.getMaxDatabaseSizeMB(), properties.getConnectionTimeoutMsecs());
-            } catch (final IOException | MongoException ignored) {
-                LOG.warn("MongoDBTraceFetcher: cannot resolve host, traces disabled, fetcher not started");
-                collectionToUse = null;
-            }
-        } else {
-            LOG.info("MongoDBTraceFetcher: reading traces disabled, fetcher not started");
-            collectionToUse = null;
-        }
-        collection = collectionToUse;
-        if (collection != null) {
             //noinspection CallToThreadStartDuringObjectConstruction
             thread.start();
         }
     }
 
+    @Nullable
+    private static DBCollection getCollection(@Nonnull final MongoDBTraceProperties properties) {
+        assert properties != null;
+        if (!properties.getReadEnabled()) {
+            LOG.info("MongoDBTraceFetcher: reading traces disabled, fetcher not started");
+            return null;
+        }
+        LOG.debug("MongoDBTraceFetcher: reading traces enabled, getting traces collection and starting fetcher");
+        try {
+            return MongoDBTraceHandler.getDBCollection(
+                    properties.getServers(), properties.getDatabase(),
+                    properties.getUserName(), properties.getPassword(),
+                    properties.getMaxDatabaseSizeMB(), properties.getConnectionTimeoutMsecs());
+        } catch (final IOException | MongoException ignored) {
+            LOG.warn("MongoDBTraceFetcher: cannot resolve host, traces disabled, fetcher not started");
+            return null;
+        }
+    }
+
+    /**
+     * Stop the fetcher thread and wait until it has stopped.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void stop() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
     /**
      * Get events from the stream until (not including) this time.
      *
@@ -107,28 +142,45 @@ class MongoDBTraceFetcher implements Runnable {
 
         final CurrentFetch fetch = currentFetch.get();
         if (fetch != null) {
-            while (true) {
-                final MongoDBTrace trace = fetch.getQueue().peek();
+            if (until == null) {
 
-                // No more events? We're done. The queue is filled in the run() method.
-                if (trace == null) {
-                    break;
-                }
+                // No 'until' constraint: take everything that is available in one go.
+                fetch.getQueue().drainTo(traces);
+            } else {
+                while (true) {
+                    final MongoDBTrace trace = fetch.getQueue().peek();
 
-                // Event does not match 'until' constraint? We're done.
-                if ((until != null) && !trace.getTime().isBefore(until)) {
-                    break;
-                }
+                    // No more events? We're done. The queue is filled in the run() method.
+                    if (trace == null) {
+                        break;
+                    }
 
-                final MongoDBTrace polledTrace = fetch.getQueue().poll();
-                //noinspection ObjectEquality
-                assert trace == polledTrace;
-                traces.add(trace);
+                    // Event does not match 'until' constraint? We're done.
+                    if (!trace.getTime().isBefore(until)) {
+                        break;
+                    }
+
+                    final MongoDBTrace polledTrace = fetch.getQueue().poll();
+                    //noinspection ObjectEquality
+                    assert trace == polledTrace;
+                    traces.add(trace);
+                }
             }
         }
         return traces;
     }
 
+    /**
+     * Return the number of events fetched from the database that were not retrieved yet by
+     * {@link #getTraces(DateTime)}. This is a constant time operation.
+     *
+     * @return Number of buffered events.
+     */
+    public int getQueueSize() {
+        final CurrentFetch fetch = currentFetch.get();
+        return (fetch == null) ? 0 : fetch.getQueue().size();
+    }
+
     /**
      * Move to a specific time location, or to the end of the event stream.
      *
@@ -144,23 +196,8 @@ class MongoDBTraceFetcher implements Runnable {
             return (time == null) ? UTCTime.now() : time;
         }
 
-        final DateTime fromTime;
-        if (time == null) {
-            final DateTime now = UTCTime.now();
-            while (now.equals(UTCTime.now())) {
-
-                // Move past 'now'.
-                try {
-                    //noinspection BusyWait
-                    Thread.sleep(1);
-                } catch (final InterruptedException ignored) {
-                    // Ignored.
-                }
-            }
-            fromTime = UTCTime.now();
-        } else {
-            fromTime = time;
-        }
+        // Move past 'now' if no time was specified: events with the current time stamp are in the past.
+        final DateTime fromTime = (time == null) ? UTCTime.now().plusMillis(1) : time;
 
         /**
          * Select all events after 'fromTime'.
@@ -201,10 +238,14 @@ class MongoDBTraceFetcher implements Runnable {
         // Execute actual tailing query.
         final DBCursor cursor = collection.find(query).
                 addOption(Bytes.QUERYOPTION_TAILABLE).
-                addOption(Bytes.QUERYOPTION_AWAITDATA);
+                addOption(Bytes.QUERYOPTION_AWAITDATA).
+                batchSize(fetchQueueMaxSize);
 
-        // Start a new fetch
-        currentFetch.set(new CurrentFetch(cursor, new ConcurrentLinkedQueue<>()));
+        // Start a new fetch and wake up the fetcher thread, if it was waiting for one.
+        currentFetch.set(new CurrentFetch(cursor, new LinkedBlockingQueue<>(fetchQueueMaxSize)));
+        synchronized (fetchStarted) {
+            fetchStarted.notifyAll();
+        }
         return fromTime;
     }
 
@@ -216,38 +257,68 @@ class MongoDBTraceFetcher implements Runnable {
     public void run() {
         assert collection != null;
 
-        boolean handled = false;
-
         // Thread loop.
         while (!thread.isInterrupted()) {
             final CurrentFetch fetch = currentFetch.get();
-            if (fetch != null) {
+            if (fetch == null) {
 
-                // Add events to the queue if the queue is not filled up yet.
+                // No current fetch, wait until moveTo() starts one.
                 try {
-                    if ((fetch.queue.size() < fetchQueueMaxSize) && fetch.cursor.hasNext()) {
-
-                        // Fetch next event.
-                        final DBObject fetched = fetch.cursor.next();
-                        final Object deserialized = SimpleMongoDBSerializer.getInstance().deserialize(fetched);
-                        if (deserialized instanceof MongoDBTrace) {
-                            final MongoDBTrace trace = (MongoDBTrace) deserialized;
-                            lastEventTime = trace.getTime();
-
-                            /**
-                             * Skip any events that had to be queued to make sure the
-                             * tailable query does not fail.
-                             */
-                            if (!trace.getClazz().equals(TAILABLE_QUERY_DUMMY_EVENT)) {
-
-                                // Add it to the queue.
-                                fetch.queue.add(trace);
-                            }
+                    synchronized (fetchStarted) {
+                        if (currentFetch.get() == null) {
+                            fetchStarted.wait(fetcherWaitMsecs);
+                        }
+                    }
+                } catch (final InterruptedException ignored) {
+                    break;
+                }
+                continue;
+            }
+
+            try {
 
+                /**
+                 * Fetch the next event. The cursor reads events from the database in batches and uses
+                 * await-data, so if its batch is exhausted, tryNext() blocks in the database until new
+                 * events arrive or the server times out.
+                 */
+                final DBObject fetched = fetch.cursor.tryNext();
+                if (fetched == null) {
+                    if (fetch.cursor.getCursorId() == 0) {
+
+                        // The cursor is dead, so it does not wait for data. Wait until moveTo() is called.
+                        synchronized (fetchStarted) {
+                            if (isCurrent(fetch)) {
+                                fetchStarted.wait(fetcherWaitMsecs);
+                            }
+                        }
+                    }
+                } else {
+                    final Object deserialized = SimpleMongoDBSerializer.getInstance().deserialize(fetched);
+                    if (deserialized instanceof MongoDBTrace) {
+                        final MongoDBTrace trace = (MongoDBTrace) deserialized;
+                        lastEventTime = trace.getTime();
+
+                        /**
+                         * Skip any events that had to be queued to make sure the
+                         * tailable query does not fail.
+                         */
+                        if (!trace.getClazz().equals(TAILABLE_QUERY_DUMMY_EVENT)) {
+
+                            // Add it to the queue, waiting while it is full, unless the fetch was replaced.
+                            while (isCurrent(fetch) &&
+                                    !fetch.queue.offer(trace, fetcherWaitMsecs, TimeUnit.MILLISECONDS)) {
+                                LOG.trace("run: fetch queue is full, waiting");
+                            }
                         }
-                        handled = true;
                     }
-                } catch (final Throwable e) {
+                }
+            } catch (final InterruptedException ignored) {
+                break;
+            } catch (final Throwable e) {
+
+                // Errors from a cursor that was replaced by moveTo() in the meantime are ignored.
+                if (isCurrent(fetch)) {
                     final DateTime now = UTCTime.now();
                     LOG.error("run: MongoDB exception. Are you using a capped collection for traces? " +
                             "Last event time: " + lastEventTime + '(' + lastEventTime.toDate().getTime() + ')' +
@@ -259,26 +330,25 @@ class MongoDBTraceFetcher implements Runnable {
                         //noinspection BusyWait
                         Thread.sleep(fetcherThreadSleepAfterExceptionMsecs);
                     } catch (final InterruptedException ignored) {
-                        // Ignore.
+                        break;
                     }
                     moveTo(now);
                 }
             }
 
-            // Watch out for busy waiting.
-            if (!handled) {
-
-                // No current fetch, wait some time.
-                try {
-                    //noinspection BusyWait
-                    Thread.sleep(fetcherThreadSleepMsecs);
-                } catch (final InterruptedException ignored) {
-                    // Ignore.
-                }
+            // Close cursors of fetches that have been replaced by moveTo().
+            if (!isCurrent(fetch)) {
+                fetch.cursor.close();
             }
         }
     }
 
+    private boolean isCurrent(@Nonnull final CurrentFetch fetch) {
+        assert fetch != null;
+        //noinspection ObjectEquality
+        return currentFetch.get() == fetch;
+    }
+
     /**
      * Utility class to store pointer into event collection.
      */
@@ -286,11 +356,11 @@ class MongoDBTraceFetcher implements Runnable {
         @Nonnull
         private final DBCursor cursor;
         @Nonnull
-        private final ConcurrentLinkedQueue<MongoDBTrace> queue;
+        private final BlockingQueue<MongoDBTrace> queue;
 
         private CurrentFetch(
                 @Nonnull final DBCursor cursor,
-                @Nonnull final ConcurrentLinkedQueue<MongoDBTrace> queue) {
+                @Nonnull final BlockingQueue<MongoDBTrace> queue) {
             assert cursor != null;
             assert queue != null;
             this.cursor = cursor;
@@ -303,7 +373,7 @@ class MongoDBTraceFetcher implements Runnable {
         }
 
         @Nonnull
-        public ConcurrentLinkedQueue<MongoDBTrace> getQueue() {
+        public BlockingQueue<MongoDBTrace> getQueue() {
             return queue;
         }
     }
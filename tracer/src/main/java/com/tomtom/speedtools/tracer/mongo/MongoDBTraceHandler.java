@@ -20,6 +20,7 @@ import com.mongodb.*;
 import com.tomtom.speedtools.mongodb.MongoConnectionCache;
 import com.tomtom.speedtools.mongodb.SimpleMongoDBSerializer;
 import com.tomtom.speedtools.tracer.GenericTraceHandler;
+import com.tomtom.speedtools.tracer.Trace;
 import com.tomtom.speedtools.tracer.TracerFactory;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
@@ -28,22 +29,44 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.io.Closeable;
 import java.net.UnknownHostException;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Trace handler that stores traces in a capped MongoDB collection. Traces are serialized on the tracer thread and
+ * written asynchronously, in unordered bulk inserts, by a {@link MongoDBTraceWriter}.
+ */
 @SuppressWarnings("ThisEscapedInObjectConstruction")
-public class MongoDBTraceHandler implements GenericTraceHandler {
+public class MongoDBTraceHandler implements GenericTraceHandler, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(MongoDBTraceHandler.class);
 
     private static final int MEGABYTE = 1024 * 1024;
     @Nonnull
     private static final AtomicLong serialNrCounter = new AtomicLong(0);
     @Nullable
-    private final DBCollection collection;
+    private final MongoDBTraceWriter writer;
 
     @Inject
     public MongoDBTraceHandler(@Nonnull final MongoDBTraceProperties properties) {
+        this(properties, MongoDBTraceWriter.DEFAULT_MAX_BATCH_SIZE, MongoDBTraceWriter.DEFAULT_MAX_BATCH_DELAY_MSECS,
+                MongoDBTraceWriter.DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * Create a MongoDB trace handler with specific batching parameters. See {@link MongoDBTraceWriter}.
+     *
+     * @param properties         MongoDB trace properties.
+     * @param maxBatchSize       Maximum number of traces per bulk insert, must be &gt; 0.
+     * @param maxBatchDelayMsecs Maximum time (in msecs) a trace waits for a bulk insert to fill up, must be &gt;= 0.
+     * @param maxQueueSize       Maximum number of traces waiting to be written, must be &gt;= maxBatchSize.
+     */
+    public MongoDBTraceHandler(
+            @Nonnull final MongoDBTraceProperties properties,
+            final int maxBatchSize,
+            final long maxBatchDelayMsecs,
+            final int maxQueueSize) {
         assert properties != null;
 
         DBCollection traceCollection = null;
@@ -62,14 +85,18 @@ public class MongoDBTraceHandler implements GenericTraceHandler {
             }
 
             // Only register with factory if the collection exists.
-            //noinspection VariableNotUsedInsideIf
             if (traceCollection != null) {
+                final DBCollection bulkCollection = traceCollection;
+                writer = new MongoDBTraceWriter(documents -> insert(bulkCollection, documents),
+                        maxBatchSize, maxBatchDelayMsecs, maxQueueSize);
                 TracerFactory.addTraceHandler(this);
+            } else {
+                writer = null;
             }
         } else {
             LOG.debug("MongoDBTraceHandler: writing traces disabled, no trace handler added");
+            writer = null;
         }
-        this.collection = traceCollection;
     }
 
     @Override
@@ -86,25 +113,25 @@ public class MongoDBTraceHandler implements GenericTraceHandler {
         assert args != null;
 
         // Bail out if the trace collection does not exist. Don't output the args - too chatty.
-        if (collection == null) {
+        if (writer == null) {
             LOG.warn("handle: Cannot write trace - trace collection does not exist, " +
                     "{}.{}.{}", clazz, tracer, method);
             return;
         }
-        assert collection != null;
+        assert writer != null;
 
         final long serialNr = serialNrCounter.getAndIncrement();
         @Nonnull final MongoDBTrace trace =
                 new MongoDBTrace(time, clazz, tracer, method, args, serialNr);
 
-        // Catch exceptions from MongoDB here.
+        // Catch serialization exceptions here; the writer catches exceptions from MongoDB.
         try {
             final Object dbTrace = SimpleMongoDBSerializer.getInstance().serialize(trace);
             if (dbTrace instanceof DBObject) {
-                collection.insert((DBObject) dbTrace);
+                writer.add((DBObject) dbTrace);
             }
         } catch (final Exception e) {
-            LOG.error("handle: Cannot insert trace, trace=" + trace, e);
+            LOG.error("handle: Cannot serialize trace, trace=" + trace, e);
 
             /**
              *  Continue execution, because errors during tracing should NOT disturb execution.
@@ -113,6 +140,49 @@ public class MongoDBTraceHandler implements GenericTraceHandler {
         }
     }
 
+    @Override
+    public void handleTraces(@Nonnull final List<? extends Trace> traces) {
+        assert traces != null;
+
+        // Bail out once per batch if the trace collection does not exist.
+        if (writer == null) {
+            LOG.warn("handleTraces: Cannot write {} traces - trace collection does not exist", traces.size());
+            return;
+        }
+        GenericTraceHandler.super.handleTraces(traces);
+    }
+
+    /**
+     * Return the writer of this trace handler, for example to inspect the number of written or dropped traces.
+     *
+     * @return Writer, or null if traces are not written.
+     */
+    @Nullable
+    public MongoDBTraceWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Stop handling traces and write all pending traces to the database.
+     */
+    @Override
+    public void close() {
+        TracerFactory.removeTraceHandler(this);
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private static void insert(@Nonnull final DBCollection collection, @Nonnull final List<DBObject> documents) {
+        assert collection != null;
+        assert documents != null;
+        final BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (final DBObject document : documents) {
+            bulk.insert(document);
+        }
+        bulk.execute();
+    }
+
     @Nonnull
     static DBCollection getDBCollection(
             @Nonnull final String servers,
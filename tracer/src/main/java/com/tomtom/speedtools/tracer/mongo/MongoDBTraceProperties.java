@@ -58,7 +58,8 @@ public class MongoDBTraceProperties implements HasProperties {
      * @param connectionTimeoutMsecs                Connection timeout in msecs. Must be &gt;= 0.
      * @param readEnabled                           Specifies whether the MongoDB trace is read enabled or not.
      * @param writeEnabled                          Specifies whether the MongoDB trace is write enabled or not.
-     * @param fetcherThreadSleepMsecs               Time (in msecs) the trace fetcher should pause between getting 2 sets of events.
+     * @param fetcherThreadSleepMsecs               Max. time (in msecs) the trace fetcher waits for a full queue or a new fetch
+     *                                              before checking whether it was moved. New events are awaited in the database.
      * @param fetcherThreadSleepAfterExceptionMsecs Time (in msecs) the trace fetcher should pause after getting a database exception.
      * @param fetcherQueueMaxSize                   Max number trace events the fetcher can hold at one time.
      */
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.mongo;
+
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous, batching writer for trace documents. Documents are collected in a bounded queue and written by a
+ * single writer thread in batches of at most a maximum number of documents, at most a maximum delay after the first
+ * document of the batch was added. This replaces a database round trip per trace by one per batch.
+ *
+ * The writer never blocks its callers: if the queue is full, documents are dropped and counted. Closing the writer
+ * stops accepting documents and writes the documents still in the queue before the writer thread ends.
+ */
+public final class MongoDBTraceWriter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDBTraceWriter.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500;
+    public static final long DEFAULT_MAX_BATCH_DELAY_MSECS = 100;
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 20000;
+
+    private static final long CLOSE_TIMEOUT_MSECS = 10000;
+    private static final long IDLE_POLL_MSECS = 100;
+    private static final long DROPPED_LOG_INTERVAL_MSECS = 1000;
+
+    @Nonnull
+    private final Consumer<List<DBObject>> sink;
+    private final int maxBatchSize;
+    private final long maxBatchDelayMsecs;
+    @Nonnull
+    private final BlockingQueue<DBObject> queue;
+    @Nonnull
+    private final Thread thread;
+
+    @Nonnull
+    private final AtomicLong nrWritten = new AtomicLong(0);
+    @Nonnull
+    private final AtomicLong nrDropped = new AtomicLong(0);
+    @Nonnull
+    private final AtomicLong nrFailed = new AtomicLong(0);
+    @Nonnull
+    private final AtomicLong lastDroppedLogMillis = new AtomicLong(0);
+
+    private volatile boolean closed = false;
+
+    /**
+     * Create a writer and start its writer thread.
+     *
+     * @param sink               Writes a batch of documents, typically as a single bulk insert. Exceptions are logged
+     *                           and the documents in the batch are counted as failed.
+     * @param maxBatchSize       Maximum number of documents per batch, must be &gt; 0.
+     * @param maxBatchDelayMsecs Maximum time (in msecs) a document waits for a batch to fill up, must be &gt;= 0.
+     * @param maxQueueSize       Maximum number of documents waiting to be written, must be &gt;= maxBatchSize.
+     */
+    public MongoDBTraceWriter(
+            @Nonnull final Consumer<List<DBObject>> sink,
+            final int maxBatchSize,
+            final long maxBatchDelayMsecs,
+            final int maxQueueSize) {
+        assert sink != null;
+        assert maxBatchSize > 0;
+        assert maxBatchDelayMsecs >= 0;
+        assert maxQueueSize >= maxBatchSize;
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayMsecs = maxBatchDelayMsecs;
+        this.queue = new ArrayBlockingQueue<>(maxQueueSize);
+        this.thread = new Thread(this::run);
+        thread.setName("MongoDBTraceWriter " + thread.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Add a document to be written. Never blocks.
+     *
+     * @param document Document.
+     * @return False if the document was dropped, because the queue is full or the writer is closed.
+     */
+    public boolean add(@Nonnull final DBObject document) {
+        assert document != null;
+        if (closed || !queue.offer(document)) {
+            dropped();
+            return false;
+        }
+
+        // The writer may have been closed and drained the queue after the check above. Take the document back if it
+        // is still there, so it is counted as dropped instead of being left in the queue unnoticed.
+        if (closed && queue.remove(document)) {
+            dropped();
+            return false;
+        }
+        return true;
+    }
+
+    private void dropped() {
+        final long dropped = nrDropped.incrementAndGet();
+        final long now = System.currentTimeMillis();
+        final long last = lastDroppedLogMillis.get();
+        if (((last + DROPPED_LOG_INTERVAL_MSECS) < now) && lastDroppedLogMillis.compareAndSet(last, now)) {
+            LOG.warn("add: Trace writer queue is full or closed, dropped {} traces in total", dropped);
+        }
+    }
+
+    /**
+     * Return the number of documents handed to the sink successfully.
+     *
+     * @return Number of documents.
+     */
+    public long getNrWritten() {
+        return nrWritten.get();
+    }
+
+    /**
+     * Return the number of documents that were dropped because the queue was full or the writer was closed.
+     *
+     * @return Number of documents.
+     */
+    public long getNrDropped() {
+        return nrDropped.get();
+    }
+
+    /**
+     * Return the number of documents in batches for which the sink threw an exception.
+     *
+     * @return Number of documents.
+     */
+    public long getNrFailed() {
+        return nrFailed.get();
+    }
+
+    /**
+     * Return the number of documents waiting to be written.
+     *
+     * @return Number of documents.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting documents and wait (for a limited time) until all queued documents are written.
+     */
+    @Override
+    public void close() {
+        // The writer thread is not interrupted, so a bulk insert in progress is not aborted.
+        closed = true;
+        try {
+            thread.join(CLOSE_TIMEOUT_MSECS);
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOG.warn("close: Trace writer did not finish in {} msecs, {} traces not written", CLOSE_TIMEOUT_MSECS,
+                    queue.size());
+        }
+    }
+
+    private void run() {
+        final List<DBObject> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+
+                // Wait for the first document, then for the batch to fill up until the deadline.
+                final DBObject first = queue.poll(IDLE_POLL_MSECS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMsecs);
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                while (batch.size() < maxBatchSize) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    final DBObject document = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (document == null) {
+                        break;
+                    }
+                    batch.add(document);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+            } catch (final InterruptedException ignored) {
+                break;
+            }
+            write(batch);
+        }
+
+        // Flush the current batch and whatever is left in the queue.
+        write(batch);
+        while (queue.drainTo(batch, maxBatchSize) > 0) {
+            write(batch);
+        }
+        LOG.debug("run: Trace writer stopped, written={}, dropped={}, failed={}", nrWritten, nrDropped, nrFailed);
+    }
+
+    private void write(@Nonnull final List<DBObject> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sink.accept(batch);
+            nrWritten.addAndGet(batch.size());
+        } catch (final Exception e) {
+            nrFailed.addAndGet(batch.size());
+            LOG.error("write: Cannot insert " + batch.size() + " traces", e);
+
+            /**
+             *  Continue execution, because errors during tracing should NOT disturb execution.
+             *  Do log this as en error, because we're not expecting this to happen.
+             */
+        }
+        batch.clear();
+    }
+}
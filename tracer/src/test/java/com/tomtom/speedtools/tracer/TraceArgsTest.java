@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TraceArgsTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceArgsTest.class);
+
+    @Test
+    public void testSimpleArgs() {
+        LOG.info("testSimpleArgs");
+        final DateTime time = new DateTime(0, DateTimeZone.UTC);
+        assertEquals("1, \"two\", null, " + time + ", [1, 2], {\"a\": [true]}",
+                new TraceArgs(new Object[]{1, "two", null, time, new int[]{1, 2},
+                        Collections.singletonMap("a", Collections.singletonList(true))}, false).toString());
+        assertEquals("\n   * arg(1) [Integer]: 1\n   * arg(2) []: null",
+                new TraceArgs(new Object[]{1, null}, true).toString());
+    }
+
+    @Test
+    public void testBounded() {
+        LOG.info("testBounded");
+        final List<Integer> large = new ArrayList<>();
+        for (int i = 0; i < 1000000; ++i) {
+            large.add(i);
+        }
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, ...(999984 more)]",
+                new TraceArgs(new Object[]{large}, false).toString());
+
+        // Strings and JSON representations are truncated.
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            sb.append('x');
+        }
+        final String string = new TraceArgs(new Object[]{sb.toString()}, false).toString();
+        assertEquals(TraceArgs.MAX_ARG_LENGTH + 3, string.length());
+        assertTrue(string.endsWith("xxx..."));
+        final String json = new TraceArgs(new Object[]{new Bean(large)}, false).toString();
+        assertEquals(TraceArgs.MAX_ARG_LENGTH + 3, json.length());
+        assertTrue(json.startsWith("{\"values\":[0,1,2,"));
+
+        // Nesting is limited.
+        Object nested = 1;
+        for (int i = 0; i < 10; ++i) {
+            nested = Collections.singletonList(nested);
+        }
+        assertEquals("[[[[[...]]]]]", new TraceArgs(new Object[]{nested}, false).toString());
+    }
+
+    @Test
+    public void testCached() {
+        LOG.info("testCached");
+        final Trace trace = new Trace(new DateTime(), "clazz", "tracer", "method", new Object[]{1});
+        assertSame(trace.renderArgs(), trace.renderArgs());
+        assertSame(trace.renderArgs().toString(), trace.renderArgs().toString());
+    }
+
+    public static class Bean {
+        @Nonnull
+        private final List<Integer> values;
+
+        public Bean(@Nonnull final List<Integer> values) {
+            this.values = values;
+        }
+
+        @Nonnull
+        public List<Integer> getValues() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceFilterTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceFilterTest.class);
+
+    private static final int NR_EVENTS = 10000;
+
+    @Before
+    public void before() {
+        TracerFactory.setQueueCapacity(4 * NR_EVENTS);
+        TracerFactory.setEnabled(true);
+    }
+
+    @After
+    public void after() {
+        TracerFactory.setEnabled(false);
+        TracerFactory.removeAllFilters();
+        TracerFactory.flushTraces();
+        TracerFactory.setQueueCapacity(TracerFactory.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    @Test
+    public void testInterfaceAndMethodFilters() {
+        LOG.info("testInterfaceAndMethodFilters");
+        final GeneratedTracer tracer = TracerFactory.getTracer(TraceFilterTest.class, GeneratedTracer.class);
+        final TraceStatistics statistics = TracerFactory.getStatistics(GeneratedTracer.class);
+
+        tracer.first(1);
+        tracer.second(2);
+        assertCounts(statistics, 0, 2, 0);
+
+        // Disable the interface, except for one method.
+        TracerFactory.setFilter(GeneratedTracer.class, TraceFilter.NONE);
+        TracerFactory.setFilter(GeneratedTracer.class, "second", TraceFilter.ALL);
+        tracer.first(1);
+        tracer.second(2);
+        assertCounts(statistics, 1, 3, 0);
+
+        // Remove the interface filter again.
+        TracerFactory.removeFilter(GeneratedTracer.class);
+        tracer.first(1);
+        assertCounts(statistics, 1, 4, 0);
+
+        // The default filter applies to interfaces without a filter.
+        TracerFactory.setDefaultFilter(TraceFilter.NONE);
+        tracer.first(1);
+        tracer.second(2);
+        assertCounts(statistics, 2, 5, 0);
+    }
+
+    @Test
+    public void testSampling() {
+        LOG.info("testSampling");
+        final SampledTracer tracer = TracerFactory.getTracer(TraceFilterTest.class, SampledTracer.class);
+        final TraceStatistics statistics = TracerFactory.getStatistics(SampledTracer.class);
+        final long sampledOutBefore = statistics.getNrSampledOut();
+        final long enqueuedBefore = statistics.getNrEnqueued();
+
+        TracerFactory.setFilter(SampledTracer.class, TraceFilter.sample(0.1));
+        for (int i = 0; i < NR_EVENTS; ++i) {
+            tracer.first(i);
+        }
+        final long enqueued = statistics.getNrEnqueued() - enqueuedBefore;
+        LOG.info("testSampling: enqueued {} of {} events", enqueued, NR_EVENTS);
+        assertEquals(NR_EVENTS, enqueued + (statistics.getNrSampledOut() - sampledOutBefore));
+        assertTrue((NR_EVENTS / 20) < enqueued);
+        assertTrue(enqueued < (NR_EVENTS / 5));
+    }
+
+    @Test
+    public void testMaxPerSecond() {
+        LOG.info("testMaxPerSecond");
+        final ReflectiveTracer tracer = TracerFactory.getReflectiveTracer(TraceFilterTest.class, ReflectiveTracer.class);
+        final TraceStatistics statistics = TracerFactory.getStatistics(ReflectiveTracer.class);
+        final long enqueuedBefore = statistics.getNrEnqueued();
+
+        TracerFactory.setFilter(ReflectiveTracer.class, "first", TraceFilter.maxPerSecond(10));
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < NR_EVENTS; ++i) {
+            tracer.first(i);
+        }
+        final long seconds = ((System.currentTimeMillis() - start) / 1000) + 1;
+        final long enqueued = statistics.getNrEnqueued() - enqueuedBefore;
+        assertTrue(enqueued > 0);
+        assertTrue(enqueued <= (10 * (seconds + 1)));
+    }
+
+    @Test
+    public void testDropped() {
+        LOG.info("testDropped");
+        TracerFactory.setEnabled(false);
+        TracerFactory.setQueueCapacity(16);
+        TracerFactory.setEnabled(true);
+        final DroppedTracer tracer = TracerFactory.getTracer(TraceFilterTest.class, DroppedTracer.class);
+        final TraceStatistics statistics = TracerFactory.getStatistics(DroppedTracer.class);
+        final long enqueuedBefore = statistics.getNrEnqueued();
+        final long droppedBefore = statistics.getNrDropped();
+
+        // Events that do not fit in the small queue are lost.
+        for (int i = 0; i < NR_EVENTS; ++i) {
+            tracer.first(i);
+        }
+        assertEquals(NR_EVENTS,
+                (statistics.getNrEnqueued() - enqueuedBefore) + (statistics.getNrDropped() - droppedBefore));
+    }
+
+    private static void assertCounts(
+            final TraceStatistics statistics,
+            final long sampledOut,
+            final long enqueued,
+            final long dropped) {
+        assertEquals(sampledOut, statistics.getNrSampledOut());
+        assertEquals(enqueued, statistics.getNrEnqueued());
+        assertEquals(dropped, statistics.getNrDropped());
+    }
+
+    public interface GeneratedTracer extends Traceable {
+        void first(int i);
+
+        void second(int i);
+    }
+
+    public interface SampledTracer extends Traceable {
+        void first(int i);
+    }
+
+    public interface DroppedTracer extends Traceable {
+        void first(int i);
+    }
+
+    public interface ReflectiveTracer extends Traceable {
+        void first(int i);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import com.tomtom.speedtools.time.UTCTime;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TraceHandlerCollectionTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceHandlerCollectionTest.class);
+
+    @Test
+    public void testDispatch() {
+        LOG.info("testDispatch");
+        final TraceHandlerCollection collection = new TraceHandlerCollection();
+        final Handler handler = new Handler();
+        collection.addTraceHandler(handler);
+
+        final List<Trace> traces = new ArrayList<>();
+        traces.add(trace("event", 1, "a"));
+        traces.add(trace("event", 2));                      // Wrong number of arguments.
+        traces.add(trace("unknown", 3, "b"));               // Unknown method.
+        traces.add(trace("event", 4, "c"));
+        traces.add(trace("fail"));                          // Handler throws exception.
+        traces.add(trace("event", "5", "d"));               // Wrong argument type.
+        traces.add(trace("primitive", 6L));
+        collection.handleTraces(traces);
+        collection.handleTraces(traces);
+        assertEquals("1a4c6L1a4c6L", handler.sb.toString());
+
+        collection.removeTraceHandler(handler);
+        collection.handleTraces(traces);
+        assertEquals(12, handler.sb.length());
+    }
+
+    @Test
+    public void testPartitions() {
+        LOG.info("testPartitions");
+        final TraceHandlerCollection collection = new TraceHandlerCollection();
+        final Handler[] handlers = new Handler[5];
+        for (int i = 0; i < handlers.length; ++i) {
+            handlers[i] = new Handler();
+            collection.addTraceHandler(handlers[i]);
+            assertEquals(i % 2, collection.getPartition(handlers[i], 2));
+            assertEquals(i % 3, collection.getPartition(handlers[i], 3));
+        }
+        assertEquals(-1, collection.getPartition(new Handler(), 2));
+
+        // Every handler is called for its own partition only, with all traces in order.
+        final List<Trace> traces = new ArrayList<>();
+        traces.add(trace("event", 1, "a"));
+        traces.add(trace("event", 2, "b"));
+        collection.handleTraces(traces, 1, 2);
+        for (int i = 0; i < handlers.length; ++i) {
+            assertEquals(((i % 2) == 1) ? "1a2b" : "", handlers[i].sb.toString());
+        }
+        collection.handleTraces(traces, 0, 2);
+        for (final Handler handler : handlers) {
+            assertEquals("1a2b", handler.sb.toString());
+        }
+    }
+
+    @Test
+    public void testMethodIds() {
+        LOG.info("testMethodIds");
+        final int id = TraceMethodIds.getId("tracer", "method", 2);
+        assertEquals(id, TraceMethodIds.getId("tracer", "method", 2));
+        assertEquals(id, new Trace(UTCTime.now(), "c", "tracer", "method", new Object[2]).methodId());
+        assertEquals(id + 1, TraceMethodIds.getId("tracer", "method", 0));
+        assertEquals(id + 1, TraceMethodIds.getMaxId());
+    }
+
+    private static Trace trace(final String method, final Object... args) {
+        return new Trace(UTCTime.now(), TraceHandlerCollectionTest.class.getName(), Tracer.class.getName(), method,
+                args);
+    }
+
+    // Non-public interface, to check handlers can still be called.
+    interface Tracer extends Traceable {
+        void event(int i, String s);
+
+        void primitive(long l);
+
+        void fail();
+    }
+
+    private static class Handler implements Tracer {
+        private final StringBuilder sb = new StringBuilder();
+
+        @Override
+        public void event(final int i, final String s) {
+            sb.append(i).append(s);
+        }
+
+        @Override
+        public void primitive(final long l) {
+            sb.append(l).append('L');
+        }
+
+        @Override
+        public void fail() {
+            throw new IllegalStateException("fail");
+        }
+    }
+}
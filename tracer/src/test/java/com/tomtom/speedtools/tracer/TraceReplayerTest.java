@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceReplayerTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceReplayerTest.class);
+
+    private static final long START = 1000000000000L;
+    private static final int NR_TRACES = 1000;
+    private static final int NR_OWNERS = 8;
+
+    @Test
+    public void testMaxSpeed() throws InterruptedException {
+        LOG.info("testMaxSpeed");
+        final ListTraceStream stream = new ListTraceStream(createTraces(60));
+        final TraceReplayer replayer = new TraceReplayer(stream, TraceReplayer.MAX_SPEED, 1, 0);
+        final Collector collector = new Collector();
+        replayer.addTraceHandler(collector);
+        final TraceReplayStatistics statistics = replayer.replay(time(0), time(Integer.MAX_VALUE));
+        LOG.info("testMaxSpeed: {}", statistics);
+        assertEquals(NR_TRACES, statistics.getNrTraces());
+        assertEquals((NR_TRACES - 1) * 60, statistics.getTraceMsecs());
+        assertEquals(0.0, statistics.getAverageLagMsecs(), 0.0);
+        assertEquals(0.0, statistics.getMaxLagMsecs(), 0.0);
+        collector.checkInOrder(NR_TRACES);
+
+        // Replay part of the stream.
+        final TraceReplayStatistics part = replayer.replay(time(600), time(1200));
+        assertEquals(10, part.getNrTraces());
+    }
+
+    @Test
+    public void testSpeed() throws InterruptedException {
+        LOG.info("testSpeed");
+
+        // Replay 1 second of traces at 10x speed.
+        final ListTraceStream stream = new ListTraceStream(createTraces(1));
+        final TraceReplayer replayer = new TraceReplayer(stream, 10.0, 1, 0);
+        final Collector collector = new Collector();
+        replayer.addTraceHandler(collector);
+        final TraceReplayStatistics statistics = replayer.replay(time(0), time(Integer.MAX_VALUE));
+        LOG.info("testSpeed: {}", statistics);
+        assertEquals(NR_TRACES, statistics.getNrTraces());
+        assertTrue(statistics.getElapsedMsecs() >= 90);
+        assertTrue(statistics.getElapsedMsecs() < 1000);
+        collector.checkInOrder(NR_TRACES);
+    }
+
+    @Test
+    public void testParallel() throws InterruptedException {
+        LOG.info("testParallel");
+        final ListTraceStream stream = new ListTraceStream(createTraces(1));
+        final TraceReplayer replayer = new TraceReplayer(stream, TraceReplayer.MAX_SPEED, 4, 0);
+        final Collector collector = new Collector();
+        replayer.addTraceHandler(collector);
+        final TraceReplayStatistics statistics = replayer.replay(time(0), time(Integer.MAX_VALUE));
+        LOG.info("testParallel: {}", statistics);
+        assertEquals(NR_TRACES, statistics.getNrTraces());
+
+        // Traces of every owner class arrive in order.
+        final Map<String, Integer> last = new HashMap<>();
+        assertEquals(NR_TRACES, collector.traces.size());
+        for (final Trace trace : collector.traces) {
+            final int i = (Integer) trace.getArgs()[0];
+            final Integer previous = last.put(trace.getClazz(), i);
+            assertTrue((previous == null) || (previous < i));
+        }
+        assertEquals(NR_OWNERS, last.size());
+    }
+
+    @Nonnull
+    private static DateTime time(final long msecs) {
+        return new DateTime(START + msecs, DateTimeZone.UTC);
+    }
+
+    @Nonnull
+    private static List<Trace> createTraces(final int intervalMsecs) {
+        final List<Trace> traces = new ArrayList<>();
+        for (int i = 0; i < NR_TRACES; ++i) {
+            traces.add(new Trace(time((long) i * intervalMsecs), "Owner" + (i % NR_OWNERS), "Tracer", "method",
+                    new Object[]{i}));
+        }
+        return traces;
+    }
+
+    /**
+     * Trace stream of a fixed list of traces.
+     */
+    private static class ListTraceStream extends TraceHandlerCollection implements TraceStream {
+        @Nonnull
+        private final List<Trace> traces;
+        private int position = 0;
+
+        private ListTraceStream(@Nonnull final List<Trace> traces) {
+            this.traces = traces;
+        }
+
+        @Override
+        public void playbackToEnd() {
+            handleTraces(traces.subList(position, traces.size()));
+            position = traces.size();
+        }
+
+        @Override
+        public void playbackTo(@Nonnull final DateTime until) {
+            int end = position;
+            while ((end < traces.size()) && traces.get(end).getTime().isBefore(until)) {
+                ++end;
+            }
+            handleTraces(traces.subList(position, end));
+            position = end;
+        }
+
+        @Nullable
+        @Override
+        public DateTime moveTo(@Nonnull final DateTime time) {
+            position = 0;
+            while ((position < traces.size()) && traces.get(position).getTime().isBefore(time)) {
+                ++position;
+            }
+            return time;
+        }
+
+        @Nullable
+        @Override
+        public DateTime moveToStart() {
+            position = 0;
+            return traces.isEmpty() ? null : traces.get(0).getTime();
+        }
+
+        @Nullable
+        @Override
+        public DateTime moveToEnd() {
+            position = traces.size();
+            return null;
+        }
+    }
+
+    private static class Collector implements GenericTraceHandler {
+        private final List<Trace> traces = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handle(
+                @Nonnull final DateTime time,
+                @Nonnull final String clazz,
+                @Nonnull final String tracer,
+                @Nonnull final String method,
+                @Nonnull final Object[] args) {
+            traces.add(new Trace(time, clazz, tracer, method, args));
+        }
+
+        private void checkInOrder(final int nrTraces) {
+            assertEquals(nrTraces, traces.size());
+            for (int i = 0; i < nrTraces; ++i) {
+                assertEquals(i, traces.get(i).getArgs()[0]);
+            }
+            traces.clear();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRingBufferTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TraceRingBufferTest.class);
+
+    private static final Object[] NO_ARGS = {};
+
+    @Test
+    public void testCapacity() throws Exception {
+        LOG.info("testCapacity");
+        final TraceRingBuffer buffer = new TraceRingBuffer(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(buffer.offer(i, "c", "t", "m", 0, new Object[]{i}));
+        }
+        assertFalse(buffer.offer(4, "c", "t", "m", 0, NO_ARGS));
+        assertEquals(4, buffer.size());
+
+        final List<Trace> traces = new ArrayList<>();
+        assertEquals(3, buffer.take(traces, 3));
+        assertEquals(0, traces.get(0).getArgs()[0]);
+        assertEquals(2L, traces.get(2).getTime().getMillis());
+        assertTrue(buffer.offer(5, "c", "t", "m", 0, NO_ARGS));
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.drainTo(traces, 10));
+    }
+
+    @Test
+    public void testProducers() throws Exception {
+        LOG.info("testProducers");
+        final int nrProducers = 4;
+        final int nrEvents = 100000;
+        final TraceRingBuffer buffer = new TraceRingBuffer(1024);
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < nrProducers; ++p) {
+            final String name = String.valueOf(p);
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < nrEvents; ++i) {
+                    final Object[] args = {i};
+                    while (!buffer.offer(i, name, "t", "m", 0, args)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        for (final Thread producer : producers) {
+            producer.start();
+        }
+
+        // Events of a single producer must arrive in order.
+        final int[] next = new int[nrProducers];
+        final List<Trace> traces = new ArrayList<>();
+        int total = 0;
+        while (total < (nrProducers * nrEvents)) {
+            traces.clear();
+            total += buffer.take(traces, 100);
+            for (final Trace trace : traces) {
+                final int producer = Integer.parseInt(trace.getClazz());
+                assertEquals(next[producer], trace.getArgs()[0]);
+                ++next[producer];
+            }
+        }
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testWakeup() throws Exception {
+        LOG.info("testWakeup");
+        final TraceRingBuffer buffer = new TraceRingBuffer(4);
+        final List<Trace> traces = new ArrayList<>();
+        final Thread consumer = new Thread(() -> {
+            try {
+                buffer.take(traces, 1);
+            } catch (final InterruptedException ignored) {
+                // Test fails on the assert below.
+            }
+        });
+        consumer.start();
+
+        // An idle consumer parks without a timeout, so it does not wake up until a producer unparks it.
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((consumer.getState() != Thread.State.WAITING) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, consumer.getState());
+        assertTrue(buffer.offer(1, "c", "t", "m", 0, NO_ARGS));
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(1, traces.size());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TracerFactoryTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TracerFactoryTest.class);
+    private static final Tracer TRACER = TracerFactory.getTracer(TracerFactoryTest.class, Tracer.class);
+
+    private static final int NR_EVENTS = 20000;
+    private static final long TIMEOUT_MSECS = 10000;
+
+    @After
+    public void after() {
+        TracerFactory.setEnabled(false);
+        TracerFactory.removeAllTraceHandlers();
+        TracerFactory.setQueueCapacity(TracerFactory.DEFAULT_QUEUE_CAPACITY);
+        TracerFactory.setDispatcherThreads(TracerFactory.DEFAULT_DISPATCHER_THREADS);
+        TracerFactory.setMaxBatchSize(TracerFactory.DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    @Test
+    public void testSingleDispatcher() throws Exception {
+        LOG.info("testSingleDispatcher");
+        checkDispatch(1);
+    }
+
+    @Test
+    public void testMultipleDispatchers() throws Exception {
+        LOG.info("testMultipleDispatchers");
+        checkDispatch(3);
+    }
+
+    @Test
+    public void testSlowDispatcher() throws Exception {
+        LOG.info("testSlowDispatcher");
+        TracerFactory.setQueueCapacity(64);
+        TracerFactory.setDispatcherThreads(2);
+        TracerFactory.setMaxBatchSize(16);
+
+        // Handlers which are added one after the other are called from different dispatcher threads.
+        final CountDownLatch release = new CountDownLatch(1);
+        final SlowHandler slow = new SlowHandler(release);
+        final TypedHandler fast = new TypedHandler();
+        TracerFactory.addTraceHandler(slow);
+        TracerFactory.addTraceHandler(fast);
+        assertNotEquals(TracerFactory.getDispatcherThread(slow), TracerFactory.getDispatcherThread(fast));
+        TracerFactory.setEnabled(true);
+
+        // The slow handler does not hold up the fast one, but loses events.
+        final int nrEvents = 1000;
+        for (int i = 0; i < nrEvents; ++i) {
+            TRACER.traceInteger(i);
+            if ((i % 32) == 31) {
+                waitForValues(fast, i + 1);
+            }
+        }
+        waitForValues(fast, nrEvents);
+        assertEquals(nrEvents, fast.getValues().size());
+        final long lost = TracerFactory.getDispatcherEventsLost()[TracerFactory.getDispatcherThread(slow)];
+        assertTrue(lost > 0);
+        assertEquals(0, TracerFactory.getDispatcherEventsLost()[TracerFactory.getDispatcherThread(fast)]);
+
+        // Batches which were passed on to a dispatcher are still handled when tracing is disabled.
+        release.countDown();
+        TracerFactory.setEnabled(false);
+        final long until = System.currentTimeMillis() + TIMEOUT_MSECS;
+        while ((slow.count.get() < (nrEvents - lost)) && (System.currentTimeMillis() < until)) {
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+        assertEquals(nrEvents - lost, slow.count.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReconfigureWhileEnabled() {
+        LOG.info("testReconfigureWhileEnabled");
+        TracerFactory.setEnabled(true);
+        TracerFactory.setDispatcherThreads(2);
+    }
+
+    private static void checkDispatch(final int dispatcherThreads) throws InterruptedException {
+        TracerFactory.setQueueCapacity(NR_EVENTS);
+        TracerFactory.setDispatcherThreads(dispatcherThreads);
+        TracerFactory.setMaxBatchSize(100);
+        final List<Traceable> handlers = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            final Traceable handler = ((i % 2) == 0) ? new BatchHandler() : new TypedHandler();
+            handlers.add(handler);
+            TracerFactory.addTraceHandler(handler);
+        }
+        final long lostBefore = TracerFactory.getEventsLostTotal();
+        TracerFactory.setEnabled(true);
+        for (int i = 0; i < NR_EVENTS; ++i) {
+            TRACER.traceInteger(i);
+        }
+        final long until = System.currentTimeMillis() + TIMEOUT_MSECS;
+        for (final Traceable handler : handlers) {
+            final List<Integer> values = ((Values) handler).getValues();
+            while ((values.size() < NR_EVENTS) && (System.currentTimeMillis() < until)) {
+                //noinspection BusyWait
+                Thread.sleep(10);
+            }
+            assertEquals(NR_EVENTS, values.size());
+            for (int i = 0; i < NR_EVENTS; ++i) {
+                assertEquals(i, values.get(i).intValue());
+            }
+        }
+        assertEquals(lostBefore, TracerFactory.getEventsLostTotal());
+    }
+
+    private static void waitForValues(@Nonnull final Values handler, final int nrValues) throws InterruptedException {
+        final long until = System.currentTimeMillis() + TIMEOUT_MSECS;
+        while ((handler.getValues().size() < nrValues) && (System.currentTimeMillis() < until)) {
+            //noinspection BusyWait
+            Thread.sleep(1);
+        }
+    }
+
+    public interface Tracer extends Traceable {
+        void traceInteger(int i);
+    }
+
+    private interface Values {
+        @Nonnull
+        List<Integer> getValues();
+    }
+
+    private static class TypedHandler implements Tracer, Values {
+        private final List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void traceInteger(final int i) {
+            values.add(i);
+        }
+
+        @Nonnull
+        @Override
+        public List<Integer> getValues() {
+            return values;
+        }
+    }
+
+    private static class SlowHandler implements GenericTraceHandler {
+        @Nonnull
+        private final CountDownLatch release;
+        @Nonnull
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        SlowHandler(@Nonnull final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void handle(
+                @Nonnull final DateTime time,
+                @Nonnull final String clazz,
+                @Nonnull final String tracer,
+                @Nonnull final String method,
+                @Nonnull final Object[] args) {
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    private static class BatchHandler implements GenericTraceHandler, Values {
+        private final List<Integer> values = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handle(
+                @Nonnull final DateTime time,
+                @Nonnull final String clazz,
+                @Nonnull final String tracer,
+                @Nonnull final String method,
+                @Nonnull final Object[] args) {
+            values.add((Integer) args[0]);
+        }
+
+        @Override
+        public void handleTraces(@Nonnull final List<? extends Trace> traces) {
+            assertTrue(traces.size() <= 100);
+            GenericTraceHandler.super.handleTraces(traces);
+        }
+
+        @Nonnull
+        @Override
+        public List<Integer> getValues() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TracerProxyGeneratorTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TracerProxyGeneratorTest.class);
+
+    private static final long TIMEOUT_MSECS = 10000;
+
+    @After
+    public void after() {
+        TracerFactory.setEnabled(false);
+        TracerFactory.removeAllTraceHandlers();
+    }
+
+    @Test
+    public void testGenerated() throws Exception {
+        LOG.info("testGenerated");
+        final Tracer tracer = TracerFactory.getTracer(TracerProxyGeneratorTest.class, Tracer.class);
+        assertFalse(Proxy.isProxyClass(tracer.getClass()));
+        assertTrue(tracer.toString().contains("$$Tracer$"));
+
+        final Handler handler = new Handler();
+        TracerFactory.addTraceHandler(handler);
+
+        // Disabled tracers do nothing.
+        tracer.primitives(true, (byte) 1, 'c', (short) 2, 3, 4L, 5.0f, 6.0);
+        TracerFactory.setEnabled(true);
+        tracer.primitives(true, (byte) 1, 'c', (short) 2, 3, 4L, 5.0f, 6.0);
+        assertNull(tracer.object(null, "x"));
+        assertEquals(0L, tracer.number());
+        tracer.inherited();
+
+        final List<Object[]> traces = handler.waitFor(4);
+        assertEquals(TracerProxyGeneratorTest.class.getName() + ' ' + Tracer.class.getName() + " primitives",
+                traces.get(0)[0]);
+        assertArrayEquals(new Object[]{true, (byte) 1, 'c', (short) 2, 3, 4L, 5.0f, 6.0}, (Object[]) traces.get(0)[1]);
+        assertArrayEquals(new Object[]{null, "x"}, (Object[]) traces.get(1)[1]);
+        assertEquals(0, ((Object[]) traces.get(2)[1]).length);
+        assertEquals(TracerProxyGeneratorTest.class.getName() + ' ' + BaseTracer.class.getName() + " inherited",
+                traces.get(3)[0]);
+    }
+
+    @Test
+    public void testNonPublic() throws Exception {
+        LOG.info("testNonPublic");
+        final PrivateTracer tracer = TracerFactory.getTracer(TracerProxyGeneratorTest.class, PrivateTracer.class);
+        assertTrue(Proxy.isProxyClass(tracer.getClass()));
+
+        final Handler handler = new Handler();
+        TracerFactory.addTraceHandler(handler);
+        TracerFactory.setEnabled(true);
+        tracer.event(1);
+        assertArrayEquals(new Object[]{1}, (Object[]) handler.waitFor(1).get(0)[1]);
+    }
+
+    public interface BaseTracer extends Traceable {
+        void inherited();
+    }
+
+    public interface Tracer extends BaseTracer {
+        void primitives(boolean z, byte b, char c, short s, int i, long l, float f, double d);
+
+        Object object(Object o, String s);
+
+        long number();
+    }
+
+    private interface PrivateTracer extends Traceable {
+        void event(int i);
+    }
+
+    private static class Handler implements GenericTraceHandler {
+        private final List<Object[]> traces = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handle(
+                @Nonnull final DateTime time,
+                @Nonnull final String clazz,
+                @Nonnull final String tracer,
+                @Nonnull final String method,
+                @Nonnull final Object[] args) {
+            traces.add(new Object[]{clazz + ' ' + tracer + ' ' + method, args});
+        }
+
+        @Nonnull
+        private List<Object[]> waitFor(final int nrTraces) throws InterruptedException {
+            final long until = System.currentTimeMillis() + TIMEOUT_MSECS;
+            while ((traces.size() < nrTraces) && (System.currentTimeMillis() < until)) {
+                //noinspection BusyWait
+                Thread.sleep(10);
+            }
+            assertEquals(nrTraces, traces.size());
+            return traces;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.file;
+
+import com.tomtom.speedtools.tracer.GenericTraceHandler;
+import com.tomtom.speedtools.tracer.Trace;
+import com.tomtom.speedtools.tracer.Traceable;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileTraceStreamTest {
+    private static final Logger LOG = LoggerFactory.getLogger(FileTraceStreamTest.class);
+
+    private static final long START = 1000000000000L;
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File directory;
+
+    @Before
+    public void before() throws IOException {
+        directory = Files.createTempDirectory("traces").toFile();
+    }
+
+    @After
+    public void after() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void testPlayback() {
+        LOG.info("testPlayback");
+        final FileTraceHandler handler = new FileTraceHandler(directory, SEGMENT_SIZE, 1000);
+        write(handler, 0, 2000);
+        assertTrue(FileTraceFormat.listSegments(directory).length > 10);
+
+        final FileTraceStream stream = new FileTraceStream(directory);
+        final Collector collector = new Collector();
+        stream.addTraceHandler(collector);
+        stream.playbackToEnd();
+        collector.check(0, 2000);
+
+        // Move to a time and play back part of the log.
+        stream.moveTo(time(1234));
+        stream.playbackTo(time(1300));
+        collector.check(1234, 1300);
+
+        // Follow the log while it is written.
+        stream.moveToEnd();
+        stream.playbackToEnd();
+        collector.check(0, 0);
+        write(handler, 2000, 2500);
+        stream.playbackToEnd();
+        collector.check(2000, 2500);
+        handler.close();
+        assertEquals(2500, handler.getNrWritten());
+        assertEquals(0, handler.getNrDropped());
+
+        // Without index files, moving still works.
+        for (final long segment : FileTraceFormat.listSegments(directory)) {
+            assertTrue(FileTraceFormat.getIndexFile(directory, segment).delete());
+        }
+        assertEquals(time(0), new FileTraceStream(directory).moveToStart());
+        stream.moveTo(time(700));
+        stream.playbackTo(time(702));
+        collector.check(700, 702);
+    }
+
+    @Test
+    public void testRotation() {
+        LOG.info("testRotation");
+        final FileTraceHandler handler = new FileTraceHandler(directory, SEGMENT_SIZE, 3);
+        write(handler, 0, 2000);
+        handler.close();
+        assertEquals(3, FileTraceFormat.listSegments(directory).length);
+
+        // A new handler continues in a new segment.
+        final FileTraceHandler next = new FileTraceHandler(directory, SEGMENT_SIZE, 3);
+        write(next, 2000, 2010);
+        next.close();
+
+        final FileTraceStream stream = new FileTraceStream(directory);
+        final Collector collector = new Collector();
+        stream.addTraceHandler(collector);
+        final DateTime first = stream.moveToStart();
+        assertTrue(first.isAfter(time(0)));
+        stream.playbackToEnd();
+        collector.check((int) (first.getMillis() - START), 2010);
+    }
+
+    @Test
+    public void testFollowUnclosedSegment() throws InterruptedException {
+        LOG.info("testFollowUnclosedSegment");
+        final FileTraceHandler handler = new FileTraceHandler(directory, SEGMENT_SIZE, 1000);
+        write(handler, 0, 10);
+
+        final FileTraceStream stream = new FileTraceStream(directory);
+        final Collector collector = new Collector();
+        stream.addTraceHandler(collector);
+        stream.playbackToEnd();
+        collector.check(0, 10);
+
+        // A new handler starts while the old one never closed its segment; the new segment is found on a later poll.
+        final FileTraceHandler next = new FileTraceHandler(directory, SEGMENT_SIZE, 1000);
+        write(next, 10, 20);
+        Thread.sleep(FileTraceStream.LIST_INTERVAL_MSECS);
+        stream.playbackToEnd();
+        collector.check(10, 20);
+        next.close();
+        handler.close();
+    }
+
+    @Test
+    public void testTimes() {
+        LOG.info("testTimes");
+
+        // Times are stored relative to the previous trace, which may be later or much earlier.
+        final int[] times = {0, 5, 3, 3, 86400000, 1, 0, 123456789};
+        final FileTraceHandler handler = new FileTraceHandler(directory, SEGMENT_SIZE, 1000);
+        for (final int time : times) {
+            handler.handle(time(time), "c", "t", "m", new Object[0]);
+        }
+        handler.close();
+
+        final FileTraceStream stream = new FileTraceStream(directory);
+        final Collector collector = new Collector();
+        stream.addTraceHandler(collector);
+        stream.playbackToEnd();
+        assertEquals(times.length, collector.traces.size());
+        for (int i = 0; i < times.length; ++i) {
+            assertEquals(time(times[i]), collector.traces.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void testIndexWithoutNames() throws IOException {
+        LOG.info("testIndexWithoutNames");
+        final FileTraceHandler handler = new FileTraceHandler(directory, SEGMENT_SIZE, 1000);
+        write(handler, 0, 2000);
+        handler.close();
+
+        // Keep only the time entries of the index files, so the names must be read from the segments.
+        for (final long segment : FileTraceFormat.listSegments(directory)) {
+            final FileTraceFormat.SegmentIndex index = FileTraceFormat.readIndex(directory, segment);
+            try (DataOutputStream out = new DataOutputStream(
+                    new FileOutputStream(FileTraceFormat.getIndexFile(directory, segment)))) {
+                out.writeInt(FileTraceFormat.INDEX_MAGIC);
+                out.writeInt(FileTraceFormat.VERSION);
+                for (final long[] entry : index.times) {
+                    out.write(FileTraceFormat.INDEX_TIME);
+                    out.writeLong(entry[0]);
+                    out.writeInt((int) entry[1]);
+                }
+            }
+        }
+        final FileTraceStream stream = new FileTraceStream(directory);
+        final Collector collector = new Collector();
+        stream.addTraceHandler(collector);
+        stream.moveTo(time(1234));
+        stream.playbackTo(time(1300));
+        collector.check(1234, 1300);
+        assertEquals(0, stream.getNrSkipped());
+    }
+
+    private static DateTime time(final int i) {
+        return new DateTime(START + i, DateTimeZone.UTC);
+    }
+
+    private static void write(@Nonnull final FileTraceHandler handler, final int from, final int to) {
+        final List<Trace> traces = new ArrayList<>();
+        for (int i = from; i < to; ++i) {
+            traces.add(new Trace(time(i), FileTraceStreamTest.class.getName(), Tracer.class.getName(),
+                    ((i % 2) == 0) ? "even" : "odd", new Object[]{i, "trace " + i, time(i)}));
+        }
+        handler.handleTraces(traces);
+    }
+
+    public interface Tracer extends Traceable {
+        void even(int i, String s, DateTime time);
+
+        void odd(int i, String s, DateTime time);
+    }
+
+    private static class Collector implements GenericTraceHandler {
+        private final List<Trace> traces = new ArrayList<>();
+
+        @Override
+        public void handle(
+                @Nonnull final DateTime time,
+                @Nonnull final String clazz,
+                @Nonnull final String tracer,
+                @Nonnull final String method,
+                @Nonnull final Object[] args) {
+            traces.add(new Trace(time, clazz, tracer, method, args));
+        }
+
+        private void check(final int from, final int to) {
+            assertEquals(to - from, traces.size());
+            for (int i = from; i < to; ++i) {
+                final Trace trace = traces.get(i - from);
+                assertEquals(time(i), trace.getTime());
+                assertEquals(((i % 2) == 0) ? "even" : "odd", trace.getMethod());
+                assertEquals(Tracer.class.getName(), trace.getTracer());
+                assertEquals(i, trace.getArgs()[0]);
+                assertEquals("trace " + i, trace.getArgs()[1]);
+                assertEquals(time(i), trace.getArgs()[2]);
+            }
+            traces.clear();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.tomtom.speedtools.mongodb.SimpleMongoDBSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MongoDBTraceFetcherTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDBTraceFetcherTest.class);
+
+    private static final long START = 1000000000000L;
+    private static final long TIMEOUT_MSECS = 5000;
+
+    @Nullable
+    private MongoDBTraceFetcher fetcher = null;
+
+    @After
+    public void after() throws InterruptedException {
+        if (fetcher != null) {
+            fetcher.stop();
+        }
+    }
+
+    @Test
+    public void testMoveToWakesFetcher() throws Exception {
+        LOG.info("testMoveToWakesFetcher");
+
+        // The fetcher waits much longer than the test takes, unless moveTo() wakes it up.
+        final DBCursor first = createCursor(trace(0));
+        final DBCursor second = createCursor(trace(1));
+        final DBCollection collection = createCollection(first, second);
+        fetcher = new MongoDBTraceFetcher(createProperties(60000, 0, 10), collection);
+
+        // Wake up the fetcher while it waits for the first fetch.
+        fetcher.moveTo(time(0));
+        assertTraces(fetcher, 0, 1);
+
+        // Wake up the fetcher while it waits on the dead cursor of the first fetch.
+        verify(first, timeout(TIMEOUT_MSECS).times(2)).tryNext();
+        fetcher.moveTo(time(1));
+        assertTraces(fetcher, 1, 2);
+        verify(first, timeout(TIMEOUT_MSECS)).close();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        LOG.info("testBackpressure");
+        final DBCursor cursor = createCursor(trace(0), trace(1), trace(2), trace(3), trace(4));
+        final DBCollection collection = createCollection(cursor);
+        fetcher = new MongoDBTraceFetcher(createProperties(10, 0, 2), collection);
+        fetcher.moveTo(time(0));
+
+        // The fetcher fills the queue, then holds on to the next trace instead of reading further.
+        verify(cursor, timeout(TIMEOUT_MSECS).times(3)).tryNext();
+        Thread.sleep(100);
+        verify(cursor, times(3)).tryNext();
+        assertEquals(2, fetcher.getQueueSize());
+
+        // Taking traces from the queue lets the fetcher continue.
+        assertTraces(fetcher, 0, 5);
+    }
+
+    @Test
+    public void testCursorError() throws Exception {
+        LOG.info("testCursorError");
+        final DBCursor failing = createCursor();
+        when(failing.tryNext()).thenThrow(new MongoException("cursor killed"));
+        final DBCursor recovered = createCursor(trace(0));
+        final DBCollection collection = createCollection(failing, recovered);
+        fetcher = new MongoDBTraceFetcher(createProperties(10, 10, 10), collection);
+
+        // After an error, the fetcher moves to the current time with a new cursor.
+        fetcher.moveTo(time(0));
+        assertTraces(fetcher, 0, 1);
+        verify(failing, timeout(TIMEOUT_MSECS)).close();
+    }
+
+    private static void assertTraces(
+            @Nonnull final MongoDBTraceFetcher fetcher,
+            final int from,
+            final int to) throws InterruptedException {
+        final List<MongoDBTrace> traces = new ArrayList<>();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MSECS;
+        while ((traces.size() < (to - from)) && (System.currentTimeMillis() < deadline)) {
+            traces.addAll(fetcher.getTraces(null));
+            Thread.sleep(1);
+        }
+        assertEquals(to - from, traces.size());
+        for (int i = from; i < to; ++i) {
+            assertEquals(time(i), traces.get(i - from).getTime());
+        }
+    }
+
+    @Nonnull
+    private static MongoDBTraceProperties createProperties(
+            final int fetcherThreadSleepMsecs,
+            final int fetcherThreadSleepAfterExceptionMsecs,
+            final int fetcherQueueMaxSize) {
+        return new MongoDBTraceProperties("127.0.0.1:27017", "trace", "", "", 10, 1000, true, false,
+                fetcherThreadSleepMsecs, fetcherThreadSleepAfterExceptionMsecs, fetcherQueueMaxSize);
+    }
+
+    @Nonnull
+    private static DBCollection createCollection(@Nonnull final DBCursor... cursors) {
+        final DBCollection collection = Mockito.mock(DBCollection.class);
+        when(collection.findOne(any(DBObject.class))).thenReturn(new BasicDBObject());
+        when(collection.find(any(DBObject.class))).thenReturn(cursors[0],
+                Arrays.copyOfRange(cursors, 1, cursors.length));
+        return collection;
+    }
+
+    /**
+     * Create a cursor that returns some traces, and then reports it is dead (its cursor id is 0).
+     *
+     * @param traces Traces.
+     * @return Cursor.
+     */
+    @Nonnull
+    private static DBCursor createCursor(@Nonnull final DBObject... traces) {
+        final DBCursor cursor = Mockito.mock(DBCursor.class);
+        when(cursor.addOption(anyInt())).thenReturn(cursor);
+        when(cursor.batchSize(anyInt())).thenReturn(cursor);
+        final DBObject[] results = new DBObject[traces.length + 1];
+        System.arraycopy(traces, 0, results, 0, traces.length);
+        when(cursor.tryNext()).thenReturn(results[0], Arrays.copyOfRange(results, 1, results.length));
+        return cursor;
+    }
+
+    @Nonnull
+    private static DBObject trace(final int i) {
+        return (DBObject) SimpleMongoDBSerializer.getInstance().serialize(
+                new MongoDBTrace(time(i), "clazz", "tracer", "method", new Object[]{i}, i));
+    }
+
+    @Nonnull
+    private static DateTime time(final int i) {
+        return new DateTime(START + i, DateTimeZone.UTC);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012-2021, TomTom (http://tomtom.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tomtom.speedtools.tracer.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MongoDBTraceWriterTest {
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDBTraceWriterTest.class);
+
+    @Test
+    public void testBatches() throws Exception {
+        LOG.info("testBatches");
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        final List<DBObject> written = Collections.synchronizedList(new ArrayList<>());
+        final MongoDBTraceWriter writer = new MongoDBTraceWriter(batch -> {
+            sizes.add(batch.size());
+            written.addAll(batch);
+        }, 10, 50, 1000);
+        for (int i = 0; i < 95; ++i) {
+            assertTrue(writer.add(new BasicDBObject("i", i)));
+        }
+        writer.close();
+        assertFalse(writer.add(new BasicDBObject("i", 95)));
+
+        assertEquals(95, written.size());
+        for (int i = 0; i < 95; ++i) {
+            assertEquals(i, written.get(i).get("i"));
+        }
+        for (final int size : sizes) {
+            assertTrue(size <= 10);
+        }
+        assertEquals(95, writer.getNrWritten());
+        assertEquals(1, writer.getNrDropped());
+        assertEquals(0, writer.getNrFailed());
+    }
+
+    @Test
+    public void testDropAndFail() throws Exception {
+        LOG.info("testDropAndFail");
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MongoDBTraceWriter writer = new MongoDBTraceWriter(batch -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException ignored) {
+                // Ignore.
+            }
+            throw new IllegalStateException("fail");
+        }, 2, 0, 4);
+
+        // Block the writer in the sink with the first batch, then fill the queue.
+        assertTrue(writer.add(new BasicDBObject()));
+        blocked.await();
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(writer.add(new BasicDBObject()));
+        }
+        assertFalse(writer.add(new BasicDBObject()));
+        assertEquals(4, writer.getQueueSize());
+        release.countDown();
+        writer.close();
+
+        assertEquals(0, writer.getNrWritten());
+        assertEquals(1, writer.getNrDropped());
+        assertEquals(5, writer.getNrFailed());
+    }
+
+    @Test
+    public void testAddWhileClosing() throws Exception {
+        LOG.info("testAddWhileClosing");
+
+        // The race between add and close is narrow, so try it a number of times.
+        for (int i = 0; i < 50; ++i) {
+            addWhileClosing();
+        }
+    }
+
+    private static void addWhileClosing() throws InterruptedException {
+        final int nrProducers = 4;
+        final AtomicInteger next = new AtomicInteger(0);
+        final MongoDBTraceWriter writer = new MongoDBTraceWriter(batch -> {
+            // Discard.
+        }, 10, 0, 1000);
+        final List<Thread> producers = new ArrayList<>();
+        final CountDownLatch started = new CountDownLatch(nrProducers);
+        for (int p = 0; p < nrProducers; ++p) {
+            producers.add(new Thread(() -> {
+                started.countDown();
+                boolean added = true;
+                while (added) {
+                    added = writer.add(new BasicDBObject("i", next.getAndIncrement()));
+                }
+            }));
+        }
+        for (final Thread producer : producers) {
+            producer.start();
+        }
+        started.await();
+        writer.close();
+        for (final Thread producer : producers) {
+            producer.join();
+        }
+
+        // Every document is either written or dropped, none is left behind in the queue.
+        assertEquals(0, writer.getQueueSize());
+        assertEquals(next.get(), writer.getNrWritten() + writer.getNrDropped());
+    }
+}